@@ -16,8 +16,20 @@ package com.datafascia.api.client;
 import ca.uhn.fhir.model.api.IResource;
 import ca.uhn.fhir.model.dstu2.resource.Bundle;
 import ca.uhn.fhir.rest.client.IGenericClient;
+import ca.uhn.fhir.rest.gclient.DateClientParam;
+import ca.uhn.fhir.rest.gclient.ICriterion;
+import ca.uhn.fhir.rest.server.Constants;
+import com.google.common.collect.AbstractIterator;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
 
 /**
  * Common functionality for single-resource API clients.
@@ -52,4 +64,57 @@ public abstract class BaseClient<T extends IResource> {
     }
     return resources;
   }
+
+  /**
+   * Streams the resources of a search result, fetching following pages from the server only as
+   * the stream reaches them.
+   *
+   * @param firstPage
+   *     first page of the search result
+   * @param resourceClass
+   *     type of resource to extract
+   * @return resources
+   */
+  protected Stream<T> stream(Bundle firstPage, Class resourceClass) {
+    Iterator<Bundle> pages = new AbstractIterator<Bundle>() {
+      private Bundle page;
+
+      @Override
+      protected Bundle computeNext() {
+        if (page == null) {
+          page = firstPage;
+        } else if (hasNextPage(page)) {
+          page = client.loadPage()
+              .next(page)
+              .execute();
+        } else {
+          return endOfData();
+        }
+        return page;
+      }
+    };
+
+    return StreamSupport.stream(
+        Spliterators.spliteratorUnknownSize(pages, Spliterator.ORDERED), false)
+        .flatMap(page -> extractBundle(page, resourceClass).stream());
+  }
+
+  private static boolean hasNextPage(Bundle page) {
+    return page.getLink()
+        .stream()
+        .anyMatch(link -> IBaseBundle.LINK_NEXT.equals(link.getRelation()));
+  }
+
+  /**
+   * Creates search criterion matching resources saved at or after a time.
+   *
+   * @param lastUpdatedLower
+   *     inclusive lower bound of save time
+   * @return criterion
+   */
+  protected static ICriterion<?> lastUpdatedSince(Instant lastUpdatedLower) {
+    return new DateClientParam(Constants.PARAM_LASTUPDATED)
+        .afterOrEquals()
+        .millis(Date.from(lastUpdatedLower));
+  }
 }
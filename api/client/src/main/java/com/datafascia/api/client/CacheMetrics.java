@@ -0,0 +1,98 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.api.client;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheStats;
+import java.util.function.Supplier;
+
+/**
+ * Publishes statistics of a cache built with {@code recordStats()} as gauges.
+ */
+public class CacheMetrics {
+
+  private static void register(MetricRegistry metrics, String name, Gauge<?> gauge) {
+    metrics.remove(name);
+    metrics.register(name, gauge);
+  }
+
+  /**
+   * Registers gauges reporting the size, hit rate, load time and eviction
+   * count of the cache.
+   *
+   * @param metrics
+   *     metric registry
+   * @param owner
+   *     class owning the cache, which prefixes the metric names
+   * @param cacheName
+   *     cache name
+   * @param cache
+   *     cache to report
+   */
+  public static void register(
+      MetricRegistry metrics, Class<?> owner, String cacheName, Cache<?, ?> cache) {
+
+    register(metrics, owner, cacheName, cache::size, cache::stats);
+  }
+
+  /**
+   * Registers gauges reporting the size, hit rate, load time and eviction
+   * count of a cache which records its own statistics.
+   *
+   * @param metrics
+   *     metric registry
+   * @param owner
+   *     class owning the cache, which prefixes the metric names
+   * @param cacheName
+   *     cache name
+   * @param size
+   *     supplies number of cache entries
+   * @param stats
+   *     supplies cache statistics
+   */
+  public static void register(
+      MetricRegistry metrics,
+      Class<?> owner,
+      String cacheName,
+      Supplier<Long> size,
+      Supplier<CacheStats> stats) {
+
+    register(
+        metrics,
+        MetricRegistry.name(owner, cacheName, "size"),
+        (Gauge<Long>) () -> size.get());
+    register(
+        metrics,
+        MetricRegistry.name(owner, cacheName, "hitRate"),
+        (Gauge<Double>) () -> stats.get().hitRate());
+    register(
+        metrics,
+        MetricRegistry.name(owner, cacheName, "missCount"),
+        (Gauge<Long>) () -> stats.get().missCount());
+    register(
+        metrics,
+        MetricRegistry.name(owner, cacheName, "averageLoadPenaltyNanos"),
+        (Gauge<Double>) () -> stats.get().averageLoadPenalty());
+    register(
+        metrics,
+        MetricRegistry.name(owner, cacheName, "evictionCount"),
+        (Gauge<Long>) () -> stats.get().evictionCount());
+  }
+
+  // Private constructor disallows creating instances of this class
+  private CacheMetrics() {
+  }
+}
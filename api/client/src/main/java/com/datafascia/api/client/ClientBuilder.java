@@ -14,18 +14,25 @@
 package com.datafascia.api.client;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.dstu2.resource.Observation;
 import ca.uhn.fhir.rest.client.IGenericClient;
 import ca.uhn.fhir.rest.client.interceptor.BasicAuthInterceptor;
+import com.codahale.metrics.MetricRegistry;
 import com.datafascia.common.configuration.ConfigurationNode;
 import com.datafascia.common.configuration.Configure;
 import com.google.common.base.Strings;
+import java.util.List;
 import javax.inject.Inject;
 
 /**
- * A builder for resource clients.
+ * A builder for resource clients. Clients read and write resources through the
+ * API server. Subclasses may override the client factory methods to read from
+ * another source.
  */
 public class ClientBuilder {
   private final IGenericClient client;
+  private final ClientConfiguration config;
+  private final MetricRegistry metrics;
   private EncounterClient encounterClient;
   private MedicationClient medicationClient;
   private MedicationAdministrationClient medicationAdministrationClient;
@@ -42,21 +49,112 @@ public class ClientBuilder {
    *     FHIR context
    * @param config
    *     API client configuration
+   * @param metrics
+   *     registry for cache statistics
    */
   @Inject
-  public ClientBuilder(FhirContext fhirContext, ClientConfiguration config) {
+  public ClientBuilder(
+      FhirContext fhirContext, ClientConfiguration config, MetricRegistry metrics) {
+
+    this.config = config;
+    this.metrics = metrics;
+
     client = fhirContext.newRestfulGenericClient(config.endpoint);
     if (!Strings.isNullOrEmpty(config.username) && !Strings.isNullOrEmpty(config.password)) {
       client.registerInterceptor(new BasicAuthInterceptor(config.username, config.password));
     }
   }
 
+  /**
+   * Creates flag client.
+   *
+   * @param client
+   *     FHIR client
+   * @return flag client
+   */
+  protected FlagClient newFlagClient(IGenericClient client) {
+    return new FlagClient(client);
+  }
+
+  /**
+   * Creates medication administration client.
+   *
+   * @param client
+   *     FHIR client
+   * @param maximumWeight
+   *     maximum number of medication administrations to cache
+   * @return medication administration client
+   */
+  protected MedicationAdministrationClient newMedicationAdministrationClient(
+      IGenericClient client, long maximumWeight) {
+
+    return new MedicationAdministrationClient(client, maximumWeight);
+  }
+
+  /**
+   * Creates medication order client.
+   *
+   * @param client
+   *     FHIR client
+   * @return medication order client
+   */
+  protected MedicationOrderClient newMedicationOrderClient(IGenericClient client) {
+    return new MedicationOrderClient(client);
+  }
+
+  /**
+   * Creates observation client.
+   *
+   * @param client
+   *     FHIR client
+   * @param maximumWeight
+   *     maximum number of observations to cache
+   * @return observation client
+   */
+  protected ObservationClient newObservationClient(IGenericClient client, long maximumWeight) {
+    return new ObservationClient(client, maximumWeight);
+  }
+
+  /**
+   * Creates practitioner client.
+   *
+   * @param client
+   *     FHIR client
+   * @return practitioner client
+   */
+  protected PractitionerClient newPractitionerClient(IGenericClient client) {
+    return new PractitionerClient(client);
+  }
+
+  /**
+   * Creates procedure client.
+   *
+   * @param client
+   *     FHIR client
+   * @return procedure client
+   */
+  protected ProcedureClient newProcedureClient(IGenericClient client) {
+    return new ProcedureClient(client);
+  }
+
+  /**
+   * Creates procedure request client.
+   *
+   * @param client
+   *     FHIR client
+   * @return procedure request client
+   */
+  protected ProcedureRequestClient newProcedureRequestClient(IGenericClient client) {
+    return new ProcedureRequestClient(client);
+  }
+
   /**
    * @return encounter client
    */
   public synchronized EncounterClient getEncounterClient() {
     if (encounterClient == null) {
-      encounterClient = new EncounterClient(client);
+      encounterClient = new EncounterClient(client, config.encounterCacheMaximumSize);
+      encounterClient.registerMetrics(metrics);
     }
     return encounterClient;
   }
@@ -66,7 +164,7 @@ public class ClientBuilder {
   }
 
   public FlagClient getFlagClient() {
-    return new FlagClient(client);
+    return newFlagClient(client);
   }
 
   /**
@@ -74,7 +172,8 @@ public class ClientBuilder {
    */
   public synchronized ObservationClient getObservationClient() {
     if (observationClient == null) {
-      observationClient = new ObservationClient(client);
+      observationClient = newObservationClient(client, config.observationCacheMaximumWeight);
+      observationClient.registerMetrics(metrics);
     }
     return observationClient;
   }
@@ -94,7 +193,9 @@ public class ClientBuilder {
    */
   public synchronized MedicationAdministrationClient getMedicationAdministrationClient() {
     if (medicationAdministrationClient == null) {
-      medicationAdministrationClient = new MedicationAdministrationClient(client);
+      medicationAdministrationClient = newMedicationAdministrationClient(
+          client, config.medicationAdministrationCacheMaximumWeight);
+      medicationAdministrationClient.registerMetrics(metrics);
     }
     return medicationAdministrationClient;
   }
@@ -104,7 +205,7 @@ public class ClientBuilder {
    */
   public synchronized MedicationOrderClient getMedicationOrderClient() {
     if (medicationOrderClient == null) {
-      medicationOrderClient = new MedicationOrderClient(client);
+      medicationOrderClient = newMedicationOrderClient(client);
     }
     return medicationOrderClient;
   }
@@ -114,7 +215,7 @@ public class ClientBuilder {
    */
   public synchronized PractitionerClient getPractitionerClient() {
     if (practitionerClient == null) {
-      practitionerClient = new PractitionerClient(client);
+      practitionerClient = newPractitionerClient(client);
     }
     return practitionerClient;
   }
@@ -124,7 +225,7 @@ public class ClientBuilder {
    */
   public synchronized ProcedureClient getProcedureClient() {
     if (procedureClient == null) {
-      procedureClient = new ProcedureClient(client);
+      procedureClient = newProcedureClient(client);
     }
     return procedureClient;
   }
@@ -134,7 +235,7 @@ public class ClientBuilder {
    */
   public synchronized ProcedureRequestClient getProcedureRequestClient() {
     if (procedureRequestClient == null) {
-      procedureRequestClient = new ProcedureRequestClient(client);
+      procedureRequestClient = newProcedureRequestClient(client);
     }
     return procedureRequestClient;
   }
@@ -160,8 +261,8 @@ public class ClientBuilder {
   public void invalidateEncounter(String encounterId) {
     getEncounterClient().invalidate(encounterId);
     invalidateMedicationOrders(encounterId);
-    invalidateMedicationAdministrations(encounterId);
-    invalidateObservations(encounterId);
+    getMedicationAdministrationClient().invalidate(encounterId);
+    getObservationClient().invalidate(encounterId);
     invalidateProcedureRequests(encounterId);
   }
 
@@ -186,23 +287,37 @@ public class ClientBuilder {
   }
 
   /**
-   * Invalidates medication administration cache entry for encounter-based lookups.
+   * Marks medication administration cache entry for encounter-based lookups as
+   * stale, so the next lookup fetches only the changed administrations.
    *
    * @param encounterId
    *     encounter ID
    */
   public void invalidateMedicationAdministrations(String encounterId) {
-    getMedicationAdministrationClient().invalidate(encounterId);
+    getMedicationAdministrationClient().refresh(encounterId);
   }
 
   /**
-   * Invalidates observation cache entry for encounter-based lookups.
+   * Marks observation cache entry for encounter-based lookups as stale, so the
+   * next lookup fetches only the changed observations.
    *
    * @param encounterId
    *     encounter ID
    */
   public void invalidateObservations(String encounterId) {
-    getObservationClient().invalidate(encounterId);
+    getObservationClient().refresh(encounterId);
+  }
+
+  /**
+   * Adds newly saved observations to the cached observations of an encounter.
+   *
+   * @param encounterId
+   *     encounter ID
+   * @param observations
+   *     saved observations
+   */
+  public void addObservations(String encounterId, List<Observation> observations) {
+    getObservationClient().add(encounterId, observations);
   }
 
   /**
@@ -246,5 +361,11 @@ public class ClientBuilder {
     private String username;
     @Configure
     private String password;
+    @Configure
+    private long encounterCacheMaximumSize;
+    @Configure
+    private long observationCacheMaximumWeight;
+    @Configure
+    private long medicationAdministrationCacheMaximumWeight;
   }
 }
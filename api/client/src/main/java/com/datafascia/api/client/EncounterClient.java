@@ -15,6 +15,7 @@ package com.datafascia.api.client;
 
 import ca.uhn.fhir.model.dstu2.resource.Encounter;
 import ca.uhn.fhir.rest.client.IGenericClient;
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Throwables;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
@@ -27,24 +28,38 @@ import java.util.concurrent.TimeUnit;
  */
 public class EncounterClient extends BaseClient<Encounter> {
 
-  private final LoadingCache<String, Encounter> idToEncounterMap =
-      CacheBuilder.newBuilder()
-      .expireAfterWrite(10, TimeUnit.MINUTES)
-      .build(
-          new CacheLoader<String, Encounter>() {
-            @Override
-            public Encounter load(String encounterId) {
-              return read(encounterId);
-            }
-          });
+  private final LoadingCache<String, Encounter> idToEncounterMap;
 
   /**
    * Builds a EncounterClient
    *
    * @param client The FHIR client to use.
+   * @param maximumSize Maximum number of encounters to cache.
    */
-  public EncounterClient(IGenericClient client) {
+  public EncounterClient(IGenericClient client, long maximumSize) {
     super(client);
+
+    idToEncounterMap = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(10, TimeUnit.MINUTES)
+        .recordStats()
+        .build(
+            new CacheLoader<String, Encounter>() {
+              @Override
+              public Encounter load(String encounterId) {
+                return read(encounterId);
+              }
+            });
+  }
+
+  /**
+   * Registers gauges reporting cache statistics.
+   *
+   * @param metrics
+   *     metric registry
+   */
+  public void registerMetrics(MetricRegistry metrics) {
+    CacheMetrics.register(metrics, EncounterClient.class, "idToEncounterMap", idToEncounterMap);
   }
 
   private Encounter read(String encounterId) {
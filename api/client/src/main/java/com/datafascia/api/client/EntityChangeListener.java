@@ -0,0 +1,122 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.api.client;
+
+import com.datafascia.common.kafka.KafkaMessage;
+import com.datafascia.domain.event.EntityChange;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.time.Duration;
+import java.time.Instant;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Refreshes cached resources when another process publishes an entity change.
+ * Resources cached per encounter are refreshed only for the changed
+ * encounter, and incrementally where the cache supports it.
+ * <p>
+ * Changes published by this process are skipped, because the process updates
+ * its own caches when it saves. A change is also skipped if it was saved
+ * before the listener last refreshed the same cache entry, because any view
+ * cached since that refresh was fetched after the change was saved.
+ */
+@Slf4j
+public class EntityChangeListener {
+
+  // Allows for clock skew between processes and for writes not yet flushed.
+  private static final Duration OVERLAP = Duration.ofSeconds(10);
+  private static final int MAXIMUM_REFRESHED_KEYS = 100000;
+
+  private final ClientBuilder clientBuilder;
+  private final Cache<String, Instant> keyToRefreshTimeMap = CacheBuilder.newBuilder()
+      .maximumSize(MAXIMUM_REFRESHED_KEYS)
+      .build();
+
+  /**
+   * Constructor
+   *
+   * @param clientBuilder
+   *     owns the caches to refresh
+   */
+  public EntityChangeListener(ClientBuilder clientBuilder) {
+    this.clientBuilder = clientBuilder;
+  }
+
+  /**
+   * Handles message from the entity change topic.
+   *
+   * @param message
+   *     Kafka message holding entity change
+   */
+  public void onMessage(KafkaMessage message) {
+    onChange(EntityChange.fromJson(message.message));
+  }
+
+  /**
+   * Refreshes cache entries holding the changed entity.
+   *
+   * @param change
+   *     entity change
+   */
+  public void onChange(EntityChange change) {
+    if (EntityChange.LOCAL_PROCESS_ID.equals(change.getProcessId())) {
+      return;
+    }
+
+    // Key of the cache entry holding the changed entity
+    String key = change.getEntityType() + '/' +
+        ((change.getEncounterId() != null) ? change.getEncounterId() : change.getEntityId());
+    Instant refreshTime = keyToRefreshTimeMap.getIfPresent(key);
+    if (change.getVersion() > 0 && refreshTime != null &&
+        Instant.ofEpochMilli(change.getVersion()).isBefore(refreshTime.minus(OVERLAP))) {
+      log.debug("Ignored change {} saved before cache entry was refreshed", change);
+      return;
+    }
+
+    keyToRefreshTimeMap.put(key, Instant.now());
+    refresh(change);
+  }
+
+  private void refresh(EntityChange change) {
+    String encounterId = change.getEncounterId();
+    switch (change.getEntityType()) {
+      case "Encounter":
+        clientBuilder.getEncounterClient().invalidate(change.getEntityId());
+        break;
+      case "Medication":
+        clientBuilder.invalidateMedication(change.getEntityId());
+        break;
+      case "MedicationAdministration":
+        clientBuilder.invalidateMedicationAdministrations(encounterId);
+        break;
+      case "MedicationOrder":
+        clientBuilder.invalidateMedicationOrders(encounterId);
+        break;
+      case "Observation":
+        clientBuilder.invalidateObservations(encounterId);
+        break;
+      case "Practitioner":
+        clientBuilder.invalidatePractitioner(change.getEntityId());
+        break;
+      case "Procedure":
+        clientBuilder.invalidateProcedures(encounterId);
+        break;
+      case "ProcedureRequest":
+        clientBuilder.invalidateProcedureRequests(encounterId);
+        break;
+      default:
+        log.debug("Ignored change to uncached entity type {}", change.getEntityType());
+    }
+  }
+}
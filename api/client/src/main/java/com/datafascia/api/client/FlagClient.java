@@ -62,6 +62,25 @@ public class FlagClient extends BaseClient<Flag> {
     client.update().resource(flag).execute();
   }
 
+  /**
+   * Fetches flags for a patient. Subclasses may override this to read from
+   * another source.
+   *
+   * @param patientId
+   *     patient ID
+   * @return flags
+   */
+  protected List<Flag> list(String patientId) {
+    Bundle results = client.search().forResource(Flag.class)
+        .where(new StringClientParam(Flag.SP_PATIENT)
+            .matches()
+            .value(patientId))
+        .returnBundle(Bundle.class)
+        .execute();
+
+    return extractBundle(results, Flag.class);
+  }
+
   /**
    * Searches Flags
    *
@@ -76,21 +95,14 @@ public class FlagClient extends BaseClient<Flag> {
    */
   public List<Flag> searchFlag(String patientId, String code,
       String status) {
-    Bundle results = null;
+    List<Flag> flags;
     try {
-      results = client.search().forResource(Flag.class)
-          .where(new StringClientParam(Flag.SP_PATIENT)
-              .matches()
-              .value(patientId))
-          .returnBundle(Bundle.class)
-          .execute();
+      flags = list(patientId);
     } catch (RuntimeException e) {
       log.error("FlagClient search by patient failed. patientId:[{}]", patientId);
       return new ArrayList<>();
     }
 
-    List<Flag> flags = extractBundle(results, Flag.class);
-
     if (!Strings.isNullOrEmpty(code)) {
       List<Flag> filteredResults = new ArrayList<>();
       for (Flag flag : flags) {
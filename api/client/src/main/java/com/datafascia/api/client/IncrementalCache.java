@@ -0,0 +1,268 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.api.client;
+
+import ca.uhn.fhir.model.api.IResource;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.cache.AbstractCache;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Caches a view of the resources belonging to a key, such as the
+ * observations of an encounter, and refreshes it incrementally. After the
+ * first fetch, a refresh fetches only the resources updated since the
+ * previous fetch and merges them into the view. A full fetch is done
+ * periodically, so resources deleted at the server eventually leave the view.
+ * The cache is bounded by the total weight of the views, where the weight of
+ * a view is typically its resource count.
+ * <p>
+ * The cache records its own statistics around the fetches. A read which
+ * needs a full fetch is a miss, and any other read is a hit. The load time
+ * covers both full and incremental fetches, including building or merging
+ * the view.
+ *
+ * @param <T> resource type
+ * @param <V> view type
+ */
+public class IncrementalCache<T extends IResource, V> {
+
+  private static final Duration REFRESH_INTERVAL = Duration.ofSeconds(30);
+  private static final Duration FULL_REFRESH_INTERVAL = Duration.ofMinutes(10);
+
+  // Overlap the previous fetch so resources saved while it ran are not missed.
+  private static final Duration OVERLAP = Duration.ofSeconds(10);
+
+  /**
+   * Cached view and fetch times for a key
+   */
+  private static class Entry<V> {
+    private V view;
+    private Instant fetchTime;
+    private Instant fullFetchTime;
+    private boolean stale;
+    private int weight;
+  }
+
+  private final BiFunction<String, Optional<Instant>, List<T>> fetcher;
+  private final Function<List<T>, V> viewFactory;
+  private final BiFunction<V, List<T>, V> viewMerger;
+  private final ToIntFunction<V> viewWeigher;
+  private final Cache<String, Entry<V>> keyToEntryMap;
+  private final AbstractCache.StatsCounter statsCounter = new AbstractCache.SimpleStatsCounter();
+  private volatile Timer fullFetchTimer;
+  private volatile Timer deltaFetchTimer;
+
+  /**
+   * Constructor
+   *
+   * @param fetcher
+   *     fetches resources for a key, updated at or after the time if present
+   * @param viewFactory
+   *     creates view from all resources
+   * @param viewMerger
+   *     merges updated resources into view, replacing resources having the same ID
+   * @param viewWeigher
+   *     computes weight of view
+   * @param maximumWeight
+   *     maximum total weight of cached views
+   */
+  public IncrementalCache(
+      BiFunction<String, Optional<Instant>, List<T>> fetcher,
+      Function<List<T>, V> viewFactory,
+      BiFunction<V, List<T>, V> viewMerger,
+      ToIntFunction<V> viewWeigher,
+      long maximumWeight) {
+
+    this.fetcher = fetcher;
+    this.viewFactory = viewFactory;
+    this.viewMerger = viewMerger;
+    this.viewWeigher = viewWeigher;
+    keyToEntryMap = CacheBuilder.newBuilder()
+        .expireAfterAccess(FULL_REFRESH_INTERVAL.toMillis(), TimeUnit.MILLISECONDS)
+        .maximumWeight(maximumWeight)
+        .weigher((String key, Entry<V> entry) -> entry.weight)
+        .removalListener(notification -> {
+          if (notification.wasEvicted()) {
+            statsCounter.recordEviction();
+          }
+        })
+        .build();
+  }
+
+  /**
+   * Registers gauges reporting the cache statistics, and timers measuring
+   * full and incremental fetches.
+   *
+   * @param metrics
+   *     metric registry
+   * @param owner
+   *     class owning the cache, which prefixes the metric names
+   * @param cacheName
+   *     cache name
+   */
+  public void registerMetrics(MetricRegistry metrics, Class<?> owner, String cacheName) {
+    CacheMetrics.register(
+        metrics, owner, cacheName, keyToEntryMap::size, statsCounter::snapshot);
+    fullFetchTimer = metrics.timer(MetricRegistry.name(owner, cacheName, "fullFetch"));
+    deltaFetchTimer = metrics.timer(MetricRegistry.name(owner, cacheName, "deltaFetch"));
+  }
+
+  // The loader only creates an empty entry, so the cache statistics would not
+  // reflect the fetches. The statistics are recorded around the fetches instead.
+  private Entry<V> getEntry(String key) {
+    try {
+      return keyToEntryMap.get(key, Entry::new);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Cannot create cache entry for " + key, e);
+    }
+  }
+
+  private List<T> fetch(String key, Optional<Instant> lastUpdatedLower, Timer timer) {
+    Timer.Context timerContext = (timer != null) ? timer.time() : null;
+    try {
+      return fetcher.apply(key, lastUpdatedLower);
+    } finally {
+      if (timerContext != null) {
+        timerContext.stop();
+      }
+    }
+  }
+
+  private void fullFetch(String key, Entry<V> entry, Instant now) {
+    entry.view = viewFactory.apply(fetch(key, Optional.empty(), fullFetchTimer));
+    entry.fullFetchTime = now;
+    entry.fetchTime = now;
+    entry.stale = false;
+    updateWeight(key, entry);
+  }
+
+  private void deltaFetch(String key, Entry<V> entry, Instant now) {
+    List<T> updatedResources =
+        fetch(key, Optional.of(entry.fetchTime.minus(OVERLAP)), deltaFetchTimer);
+    if (!updatedResources.isEmpty()) {
+      entry.view = viewMerger.apply(entry.view, updatedResources);
+      updateWeight(key, entry);
+    }
+    entry.fetchTime = now;
+    entry.stale = false;
+  }
+
+  // Weigh the entry again because its view changed. Replace only if the
+  // entry was not invalidated meanwhile.
+  private void updateWeight(String key, Entry<V> entry) {
+    entry.weight = viewWeigher.applyAsInt(entry.view);
+    keyToEntryMap.asMap().replace(key, entry, entry);
+  }
+
+  /**
+   * Gets view, fetching resources if the view is missing or due for refresh.
+   *
+   * @param key
+   *     key
+   * @return view
+   */
+  public V get(String key) {
+    Entry<V> entry = getEntry(key);
+    synchronized (entry) {
+      Instant now = Instant.now();
+      boolean full =
+          entry.view == null || !now.isBefore(entry.fullFetchTime.plus(FULL_REFRESH_INTERVAL));
+      boolean delta =
+          !full && (entry.stale || !now.isBefore(entry.fetchTime.plus(REFRESH_INTERVAL)));
+      if (full) {
+        statsCounter.recordMisses(1);
+      } else {
+        statsCounter.recordHits(1);
+      }
+
+      if (full || delta) {
+        long startNanos = System.nanoTime();
+        try {
+          if (full) {
+            fullFetch(key, entry, now);
+          } else {
+            deltaFetch(key, entry, now);
+          }
+        } catch (RuntimeException e) {
+          statsCounter.recordLoadException(System.nanoTime() - startNanos);
+          throw e;
+        }
+        statsCounter.recordLoadSuccess(System.nanoTime() - startNanos);
+      }
+
+      return entry.view;
+    }
+  }
+
+  /**
+   * Merges resources into the view if it is cached.
+   *
+   * @param key
+   *     key
+   * @param resources
+   *     resources to merge
+   */
+  public void merge(String key, List<T> resources) {
+    Entry<V> entry = keyToEntryMap.getIfPresent(key);
+    if (entry == null) {
+      return;
+    }
+
+    synchronized (entry) {
+      if (entry.view != null) {
+        entry.view = viewMerger.apply(entry.view, resources);
+        updateWeight(key, entry);
+      }
+    }
+  }
+
+  /**
+   * Marks the view as stale, so the next read fetches the resources updated
+   * since the previous fetch.
+   *
+   * @param key
+   *     key
+   */
+  public void refresh(String key) {
+    Entry<V> entry = keyToEntryMap.getIfPresent(key);
+    if (entry == null) {
+      return;
+    }
+
+    synchronized (entry) {
+      entry.stale = true;
+    }
+  }
+
+  /**
+   * Discards the view, so the next read fetches all resources.
+   *
+   * @param key
+   *     key
+   */
+  public void invalidate(String key) {
+    keyToEntryMap.invalidate(key);
+  }
+}
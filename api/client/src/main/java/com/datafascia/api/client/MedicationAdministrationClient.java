@@ -17,13 +17,16 @@ import ca.uhn.fhir.model.dstu2.resource.Bundle;
 import ca.uhn.fhir.model.dstu2.resource.MedicationAdministration;
 import ca.uhn.fhir.rest.api.MethodOutcome;
 import ca.uhn.fhir.rest.client.IGenericClient;
+import ca.uhn.fhir.rest.gclient.IQuery;
 import ca.uhn.fhir.rest.gclient.StringClientParam;
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Strings;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 /**
@@ -31,36 +34,79 @@ import java.util.stream.Collectors;
  */
 public class MedicationAdministrationClient extends BaseClient<MedicationAdministration> {
 
-  private final LoadingCache<String, List<MedicationAdministration>>
-      encounterIdToMedicationAdministrationsMap = CacheBuilder.newBuilder()
-      .expireAfterWrite(30, TimeUnit.SECONDS)
-      .build(
-          new CacheLoader<String, List<MedicationAdministration>>() {
-            @Override
-            public List<MedicationAdministration> load(String encounterId) {
-              return list(encounterId);
-            }
-          });
+  private final IncrementalCache<MedicationAdministration, List<MedicationAdministration>>
+      encounterIdToMedicationAdministrationsMap;
 
   /**
    * Builds a MedicationAdministrationClient
    *
    * @param client The FHIR client to use.
+   * @param maximumWeight Maximum number of medication administrations to cache.
    */
-  public MedicationAdministrationClient(IGenericClient client) {
+  public MedicationAdministrationClient(IGenericClient client, long maximumWeight) {
     super(client);
+
+    encounterIdToMedicationAdministrationsMap = new IncrementalCache<>(
+        this::list,
+        administrations -> administrations,
+        MedicationAdministrationClient::merge,
+        List::size,
+        maximumWeight);
   }
 
-  private List<MedicationAdministration> list(String encounterId) {
-    Bundle results = client.search()
+  /**
+   * Registers gauges reporting cache statistics.
+   *
+   * @param metrics
+   *     metric registry
+   */
+  public void registerMetrics(MetricRegistry metrics) {
+    encounterIdToMedicationAdministrationsMap.registerMetrics(
+        metrics, MedicationAdministrationClient.class, "encounterIdToMedicationAdministrationsMap");
+  }
+
+  /**
+   * Fetches medication administrations for an encounter. Subclasses may override this to read
+   * from another source.
+   *
+   * @param encounterId
+   *     encounter ID
+   * @param lastUpdatedLower
+   *     if present, fetch only medication administrations saved at or after this time
+   * @return medication administrations
+   */
+  protected List<MedicationAdministration> list(
+      String encounterId, Optional<Instant> lastUpdatedLower) {
+
+    IQuery<Bundle> query = client.search()
         .forResource(MedicationAdministration.class)
         .where(new StringClientParam(MedicationAdministration.SP_ENCOUNTER)
             .matches()
             .value(encounterId))
-        .returnBundle(Bundle.class)
-        .execute();
+        .returnBundle(Bundle.class);
+    if (lastUpdatedLower.isPresent()) {
+      query = query.where(lastUpdatedSince(lastUpdatedLower.get()));
+    }
+
+    return stream(query.execute(), MedicationAdministration.class)
+        .collect(Collectors.toList());
+  }
+
+  // Copies the list, so lists already returned to callers do not change.
+  private static List<MedicationAdministration> merge(
+      List<MedicationAdministration> administrations,
+      List<MedicationAdministration> updatedAdministrations) {
+
+    Map<String, MedicationAdministration> idToAdministrationMap = new LinkedHashMap<>();
+    administrations.forEach(
+        administration -> idToAdministrationMap.put(getId(administration), administration));
+    updatedAdministrations.forEach(
+        administration -> idToAdministrationMap.put(getId(administration), administration));
+    return new ArrayList<>(idToAdministrationMap.values());
+  }
 
-    return extractBundle(results, MedicationAdministration.class);
+  private static String getId(MedicationAdministration administration) {
+    return administration.getId().getIdPart();
   }
 
   /**
@@ -87,7 +133,7 @@ public class MedicationAdministrationClient extends BaseClient<MedicationAdminis
    */
   public List<MedicationAdministration> search(String encounterId, String status) {
     List<MedicationAdministration> medicationAdministrations
-        = encounterIdToMedicationAdministrationsMap.getUnchecked(encounterId);
+        = encounterIdToMedicationAdministrationsMap.get(encounterId);
     if (Strings.isNullOrEmpty(status)) {
       return medicationAdministrations;
     }
@@ -186,6 +232,18 @@ public class MedicationAdministrationClient extends BaseClient<MedicationAdminis
     client.update().resource(admin).execute();
   }
 
+  /**
+   * Marks cache entry for encounter-based search results as stale, so the next
+   * read fetches only the medication administrations saved since the previous
+   * fetch.
+   *
+   * @param encounterId
+   *     encounter ID
+   */
+  public void refresh(String encounterId) {
+    encounterIdToMedicationAdministrationsMap.refresh(encounterId);
+  }
+
   /**
    * Invalidates cache entry for encounter-based search results.
    *
@@ -98,7 +98,15 @@ public class MedicationOrderClient extends BaseClient<MedicationOrder> {
     client.update().resource(order).execute();
   }
 
-  private List<MedicationOrder> list(String encounterId) {
+  /**
+   * Fetches medication orders for an encounter. Subclasses may override this to read
+   * from another source.
+   *
+   * @param encounterId
+   *     encounter ID
+   * @return medication orders
+   */
+  protected List<MedicationOrder> list(String encounterId) {
     Bundle results = client.search()
         .forResource(MedicationOrder.class)
         .where(new StringClientParam(MedicationOrder.SP_ENCOUNTER)
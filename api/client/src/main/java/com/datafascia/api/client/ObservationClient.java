@@ -16,13 +16,13 @@ package com.datafascia.api.client;
 import ca.uhn.fhir.model.dstu2.resource.Bundle;
 import ca.uhn.fhir.model.dstu2.resource.Observation;
 import ca.uhn.fhir.rest.client.IGenericClient;
+import ca.uhn.fhir.rest.gclient.IQuery;
 import ca.uhn.fhir.rest.gclient.StringClientParam;
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Strings;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import java.time.Instant;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 /**
@@ -30,47 +30,62 @@ import java.util.stream.Collectors;
  */
 public class ObservationClient extends BaseClient<Observation> {
 
-  private LoadingCache<String, List<Observation>> encounterIdToObservationListMap =
-      CacheBuilder.newBuilder()
-      .expireAfterWrite(30, TimeUnit.SECONDS)
-      .build(
-          new CacheLoader<String, List<Observation>>() {
-            @Override
-            public List<Observation> load(String encounterId) {
-              return search(encounterId);
-            }
-          });
-
-  private final LoadingCache<String, Observations> encounterIdToObservationsMap =
-      CacheBuilder.newBuilder()
-      .expireAfterWrite(30, TimeUnit.SECONDS)
-      .build(
-          new CacheLoader<String, Observations>() {
-            @Override
-            public Observations load(String encounterId) {
-              return new Observations(encounterIdToObservationListMap.getUnchecked(encounterId));
-            }
-          });
+  private final IncrementalCache<Observation, Observations> encounterIdToObservationsMap;
 
   /**
    * Builds a ObservationClient
    *
    * @param client The FHIR client to use.
+   * @param maximumWeight Maximum number of observations to cache.
    */
-  public ObservationClient(IGenericClient client) {
+  public ObservationClient(IGenericClient client, long maximumWeight) {
     super(client);
+
+    encounterIdToObservationsMap = new IncrementalCache<>(
+        this::search,
+        Observations::new,
+        (observations, updatedObservations) -> {
+          observations.addAll(updatedObservations);
+          return observations;
+        },
+        Observations::size,
+        maximumWeight);
+  }
+
+  /**
+   * Registers gauges reporting cache statistics.
+   *
+   * @param metrics
+   *     metric registry
+   */
+  public void registerMetrics(MetricRegistry metrics) {
+    encounterIdToObservationsMap.registerMetrics(
+        metrics, ObservationClient.class, "encounterIdToObservationsMap");
   }
 
-  private List<Observation> search(String encounterId) {
-    Bundle results = client.search()
+  /**
+   * Fetches observations for an encounter. Subclasses may override this to read
+   * from another source.
+   *
+   * @param encounterId
+   *     encounter ID
+   * @param lastUpdatedLower
+   *     if present, fetch only observations saved at or after this time
+   * @return observations
+   */
+  protected List<Observation> search(String encounterId, Optional<Instant> lastUpdatedLower) {
+    IQuery<Bundle> query = client.search()
         .forResource(Observation.class)
         .where(new StringClientParam(Observation.SP_ENCOUNTER)
             .matches()
             .value(encounterId))
-        .returnBundle(Bundle.class)
-        .execute();
+        .returnBundle(Bundle.class);
+    if (lastUpdatedLower.isPresent()) {
+      query = query.where(lastUpdatedSince(lastUpdatedLower.get()));
+    }
 
-    return extractBundle(results, Observation.class);
+    return stream(query.execute(), Observation.class)
+        .collect(Collectors.toList());
   }
 
   /**
@@ -81,7 +96,7 @@ public class ObservationClient extends BaseClient<Observation> {
    * @return observations
    */
   public Observations list(String encounterId) {
-    return encounterIdToObservationsMap.getUnchecked(encounterId);
+    return encounterIdToObservationsMap.get(encounterId);
   }
 
   /**
@@ -96,12 +111,7 @@ public class ObservationClient extends BaseClient<Observation> {
    * @return observations
    */
   public List<Observation> searchObservation(String encounterId, String code, String status) {
-    List<Observation> observations = encounterIdToObservationListMap.getUnchecked(encounterId);
-    if (Strings.isNullOrEmpty(code) && Strings.isNullOrEmpty(status)) {
-      return observations;
-    }
-
-    return observations.stream()
+    return list(encounterId).stream()
         .filter(observation ->
             Strings.isNullOrEmpty(code) ||
             code.equals(observation.getCode().getCodingFirstRep().getCode()))
@@ -111,6 +121,31 @@ public class ObservationClient extends BaseClient<Observation> {
         .collect(Collectors.toList());
   }
 
+  /**
+   * Adds newly saved observations to the cached observations of an encounter,
+   * so the cached {@link Observations} keeps its timeline instead of being
+   * rebuilt.
+   *
+   * @param encounterId
+   *     encounter ID
+   * @param observations
+   *     saved observations
+   */
+  public void add(String encounterId, List<Observation> observations) {
+    encounterIdToObservationsMap.merge(encounterId, observations);
+  }
+
+  /**
+   * Marks cache entry for encounter as stale, so the next read fetches only
+   * the observations saved since the previous fetch.
+   *
+   * @param encounterId
+   *     encounter ID
+   */
+  public void refresh(String encounterId) {
+    encounterIdToObservationsMap.refresh(encounterId);
+  }
+
   /**
    * Invalidates cache entry for encounter.
    *
@@ -118,7 +153,6 @@ public class ObservationClient extends BaseClient<Observation> {
    *     encounter ID
    */
   public void invalidate(String encounterId) {
-    encounterIdToObservationListMap.invalidate(encounterId);
     encounterIdToObservationsMap.invalidate(encounterId);
   }
 }
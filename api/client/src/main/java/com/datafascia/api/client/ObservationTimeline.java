@@ -0,0 +1,248 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.api.client;
+
+import ca.uhn.fhir.model.dstu2.resource.Observation;
+import com.datafascia.domain.fhir.Dates;
+import com.google.common.base.Strings;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Observations of an encounter indexed by code and effective time. For each
+ * code, the observations are kept in an array sorted by effective time, so
+ * finding the freshest observation in a time window, finding the window and
+ * counting the observations in the window are binary searches. Observations
+ * are added as they arrive, so a timeline can be kept across events for an
+ * encounter instead of being rebuilt for each event.
+ * <p>
+ * Observations without an effective time sort before all others. Observations
+ * with equal effective times keep the order in which they were added.
+ */
+public class ObservationTimeline {
+
+  private static class Entry {
+    private final long effectiveMillis;
+    private final Observation observation;
+
+    Entry(Observation observation) {
+      Instant effective = Dates.toInstant(observation.getEffective());
+      this.effectiveMillis = (effective != null) ? effective.toEpochMilli() : Long.MIN_VALUE;
+      this.observation = observation;
+    }
+  }
+
+  private final Map<String, List<Entry>> codeToEntriesMap = new HashMap<>();
+  private final Map<String, Entry> idToEntryMap = new HashMap<>();
+
+  private static String getCode(Observation observation) {
+    return observation.getCode().getCodingFirstRep().getCode();
+  }
+
+  private static String getId(Observation observation) {
+    return observation.getId().getIdPart();
+  }
+
+  /**
+   * Finds the index of the first entry whose effective time is not before the
+   * given time.
+   */
+  private static int lowerBound(List<Entry> entries, long effectiveMillis) {
+    int low = 0;
+    int high = entries.size();
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (entries.get(middle).effectiveMillis < effectiveMillis) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Finds the index of the first entry whose effective time is after the given
+   * time.
+   */
+  private static int upperBound(List<Entry> entries, long effectiveMillis) {
+    int low = 0;
+    int high = entries.size();
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (entries.get(middle).effectiveMillis <= effectiveMillis) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  private void remove(Entry entry) {
+    List<Entry> entries = codeToEntriesMap.get(getCode(entry.observation));
+    int end = upperBound(entries, entry.effectiveMillis);
+    for (int i = lowerBound(entries, entry.effectiveMillis); i < end; i++) {
+      if (entries.get(i) == entry) {
+        entries.remove(i);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Adds an observation. An observation having the same resource ID as one
+   * already added replaces it.
+   *
+   * @param observation
+   *     observation to add
+   * @return replaced observation, or empty if the observation is new
+   */
+  public synchronized Optional<Observation> add(Observation observation) {
+    Entry entry = new Entry(observation);
+
+    Entry replacedEntry = null;
+    String id = getId(observation);
+    if (!Strings.isNullOrEmpty(id)) {
+      replacedEntry = idToEntryMap.put(id, entry);
+      if (replacedEntry != null) {
+        remove(replacedEntry);
+      }
+    }
+
+    // Observations usually arrive in effective time order, so this usually
+    // appends to the end of the array.
+    List<Entry> entries = codeToEntriesMap.computeIfAbsent(
+        getCode(observation), code -> new ArrayList<>());
+    entries.add(upperBound(entries, entry.effectiveMillis), entry);
+
+    return Optional.ofNullable((replacedEntry != null) ? replacedEntry.observation : null);
+  }
+
+  private List<Entry> window(String code, Instant effectiveLower, Instant effectiveUpper) {
+    List<Entry> entries = codeToEntriesMap.get(code);
+    if (entries == null) {
+      return Collections.emptyList();
+    }
+
+    int start = (effectiveLower != null)
+        ? lowerBound(entries, effectiveLower.toEpochMilli())
+        : 0;
+    int end = (effectiveUpper != null)
+        ? lowerBound(entries, effectiveUpper.toEpochMilli())
+        : entries.size();
+    return (start < end) ? entries.subList(start, end) : Collections.emptyList();
+  }
+
+  /**
+   * Lists observations in effective time order.
+   *
+   * @param code
+   *     observation code to match
+   * @param effectiveLower
+   *     effective date time lower bound (inclusive), null for no lower bound
+   * @param effectiveUpper
+   *     effective date time upper bound (exclusive), null for no upper bound
+   * @return observations
+   */
+  public synchronized List<Observation> list(
+      String code, Instant effectiveLower, Instant effectiveUpper) {
+
+    List<Entry> window = window(code, effectiveLower, effectiveUpper);
+    List<Observation> observations = new ArrayList<>(window.size());
+    for (Entry entry : window) {
+      observations.add(entry.observation);
+    }
+    return observations;
+  }
+
+  /**
+   * Counts observations.
+   *
+   * @param code
+   *     observation code to match
+   * @param effectiveLower
+   *     effective date time lower bound (inclusive), null for no lower bound
+   * @param effectiveUpper
+   *     effective date time upper bound (exclusive), null for no upper bound
+   * @return number of matching observations
+   */
+  public synchronized int count(String code, Instant effectiveLower, Instant effectiveUpper) {
+    return window(code, effectiveLower, effectiveUpper).size();
+  }
+
+  /**
+   * Finds freshest observation. If several observations have the freshest
+   * effective time, returns the one added first.
+   *
+   * @param code
+   *     observation code to match
+   * @param effectiveLower
+   *     effective date time lower bound (inclusive), null for no lower bound
+   * @param effectiveUpper
+   *     effective date time upper bound (exclusive), null for no upper bound
+   * @return freshest observation, or empty if no match is found
+   */
+  public synchronized Optional<Observation> findFreshest(
+      String code, Instant effectiveLower, Instant effectiveUpper) {
+
+    List<Entry> window = window(code, effectiveLower, effectiveUpper);
+    if (window.isEmpty()) {
+      return Optional.empty();
+    }
+
+    long freshestMillis = window.get(window.size() - 1).effectiveMillis;
+    return Optional.of(window.get(lowerBound(window, freshestMillis)).observation);
+  }
+
+  /**
+   * Finds freshest observation having a value. Scans backwards from the end of
+   * the window until an observation with the value is found.
+   *
+   * @param code
+   *     observation code to match
+   * @param value
+   *     observation value to match
+   * @param effectiveLower
+   *     effective date time lower bound (inclusive), null for no lower bound
+   * @param effectiveUpper
+   *     effective date time upper bound (exclusive), null for no upper bound
+   * @return freshest observation, or empty if no match is found
+   */
+  public synchronized Optional<Observation> findFreshest(
+      String code, String value, Instant effectiveLower, Instant effectiveUpper) {
+
+    Entry freshest = null;
+    List<Entry> window = window(code, effectiveLower, effectiveUpper);
+    for (int i = window.size() - 1; i >= 0; i--) {
+      Entry entry = window.get(i);
+      if (freshest != null && entry.effectiveMillis < freshest.effectiveMillis) {
+        break;
+      }
+
+      if (value.equals(entry.observation.getValue().toString())) {
+        // Keep scanning observations with the same effective time to return
+        // the one added first.
+        freshest = entry;
+      }
+    }
+
+    return Optional.ofNullable((freshest != null) ? freshest.observation : null);
+  }
+}
@@ -15,20 +15,22 @@ package com.datafascia.api.client;
 
 import ca.uhn.fhir.model.dstu2.resource.Observation;
 import com.datafascia.domain.fhir.Dates;
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.Multimap;
+import com.google.common.base.Strings;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
- * Convenience methods on collection of observations.
+ * Convenience methods on collection of observations. Queries by code and
+ * effective time are answered from an {@link ObservationTimeline}.
  */
 public class Observations {
 
@@ -37,8 +39,10 @@ public class Observations {
           observation -> Dates.toDate(observation.getEffective()),
           Dates.getDateComparator()));
 
-  private List<Observation> observations;
-  private Multimap<String, Observation> codeToObservationsMap;
+  // Observations without a resource ID are keyed by a unique object, so they
+  // never replace each other.
+  private final Map<Object, Observation> keyToObservationMap = new LinkedHashMap<>();
+  private final ObservationTimeline timeline = new ObservationTimeline();
 
   /**
    * Constructor
@@ -47,15 +51,33 @@ public class Observations {
    *     observations
    */
   public Observations(List<Observation> observations) {
-    this.observations = observations;
+    addAll(observations);
+  }
+
+  /**
+   * Adds observations. An observation having the same resource ID as one
+   * already added replaces it in place.
+   *
+   * @param newObservations
+   *     observations to add
+   */
+  public synchronized void addAll(List<Observation> newObservations) {
+    for (Observation observation : newObservations) {
+      timeline.add(observation);
 
-    int estimatedSize = observations.size() / 2 + 1;
-    codeToObservationsMap = ArrayListMultimap.create(estimatedSize, estimatedSize);
-    for (Observation observation : observations) {
-      codeToObservationsMap.put(getCode(observation), observation);
+      String id = observation.getId().getIdPart();
+      Object key = Strings.isNullOrEmpty(id) ? new Object() : id;
+      keyToObservationMap.put(key, observation);
     }
   }
 
+  /**
+   * @return number of observations
+   */
+  public synchronized int size() {
+    return keyToObservationMap.size();
+  }
+
   /**
    * Compares effective date of observations. Orders empty optionals first.
    *
@@ -87,26 +109,12 @@ public class Observations {
    *
    * @return stream
    */
-  public Stream<Observation> stream() {
-    return observations.stream();
-  }
-
-  private static String getCode(Observation observation) {
-    return observation.getCode().getCodingFirstRep().getCode();
-  }
-
-  private Stream<Observation> filter(Set<String> codes) {
-    if (codes.size() == 1) {
-      return codeToObservationsMap.get(codes.iterator().next())
-          .stream();
-    }
-
-    return stream()
-        .filter(observation -> codes.contains(getCode(observation)));
+  public synchronized Stream<Observation> stream() {
+    return new ArrayList<>(keyToObservationMap.values()).stream();
   }
 
   /**
-   * Filters observations.
+   * Filters observations. Returns observations in effective time order.
    *
    * @param codes
    *     observation codes to match
@@ -119,21 +127,13 @@ public class Observations {
   public Stream<Observation> filter(
       Set<String> codes, Instant effectiveLower, Instant effectiveUpper) {
 
-    Stream<Observation> stream = filter(codes);
-
-    if (effectiveLower != null) {
-      Date effectiveLowerDate = Date.from(effectiveLower);
-      stream = stream.filter(
-          observation -> !Dates.toDate(observation.getEffective()).before(effectiveLowerDate));
-    }
-
-    if (effectiveUpper != null) {
-      Date effectiveUpperDate = Date.from(effectiveUpper);
-      stream = stream.filter(
-          observation -> Dates.toDate(observation.getEffective()).before(effectiveUpperDate));
+    if (codes.size() == 1) {
+      return timeline.list(codes.iterator().next(), effectiveLower, effectiveUpper).stream();
     }
 
-    return stream;
+    return codes.stream()
+        .flatMap(code -> timeline.list(code, effectiveLower, effectiveUpper).stream())
+        .sorted(EFFECTIVE_COMPARATOR);
   }
 
   /**
@@ -200,7 +200,10 @@ public class Observations {
   public Optional<Observation> findFreshest(
       Set<String> codes, Instant effectiveLower, Instant effectiveUpper) {
 
-    return filter(codes, effectiveLower, effectiveUpper)
+    return codes.stream()
+        .map(code -> timeline.findFreshest(code, effectiveLower, effectiveUpper))
+        .filter(Optional::isPresent)
+        .map(Optional::get)
         .max(EFFECTIVE_COMPARATOR);
   }
 
@@ -242,9 +245,7 @@ public class Observations {
    * @return found observation, or empty if no match is found
    */
   public Optional<Observation> findFreshest(String code, String value) {
-    return filter(Collections.singleton(code), null, null)
-        .filter(observation -> value.equals(observation.getValue().toString()))
-        .max(EFFECTIVE_COMPARATOR);
+    return timeline.findFreshest(code, value, null, null);
   }
 
   /**
@@ -262,9 +263,7 @@ public class Observations {
    */
   public Optional<Observation> findFreshest(String code, String value, Instant effectiveLower,
       Instant effectiveUpper) {
-    return filter(Collections.singleton(code), effectiveLower, effectiveUpper)
-        .filter(observation -> value.equals(observation.getValue().toString()))
-        .max(EFFECTIVE_COMPARATOR);
+    return timeline.findFreshest(code, value, effectiveLower, effectiveUpper);
   }
 
   /**
@@ -281,7 +280,21 @@ public class Observations {
   public Optional<Observation> findAny(
       String code, Instant effectiveLower, Instant effectiveUpper) {
 
-    return filter(Collections.singleton(code), effectiveLower, effectiveUpper)
-        .findAny();
+    return timeline.findFreshest(code, effectiveLower, effectiveUpper);
+  }
+
+  /**
+   * Counts observations for given observation code.
+   *
+   * @param code
+   *     observation code to match
+   * @param effectiveLower
+   *     effective date time lower bound (inclusive), null for no lower bound
+   * @param effectiveUpper
+   *     effective date time upper bound (exclusive), null for no upper bound
+   * @return number of matching observations
+   */
+  public int count(String code, Instant effectiveLower, Instant effectiveUpper) {
+    return timeline.count(code, effectiveLower, effectiveUpper);
   }
 }
@@ -43,7 +43,15 @@ public class PractitionerClient extends BaseClient<Practitioner> {
     super(client);
   }
 
-  private Practitioner read(String practitionerId) {
+  /**
+   * Fetches a practitioner. Subclasses may override this to read from another
+   * source.
+   *
+   * @param practitionerId
+   *     practitioner ID
+   * @return practitioner
+   */
+  protected Practitioner read(String practitionerId) {
     return client.read()
         .resource(Practitioner.class)
         .withId(practitionerId)
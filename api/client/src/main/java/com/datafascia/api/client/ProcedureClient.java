@@ -51,7 +51,15 @@ public class ProcedureClient extends BaseClient<Procedure> {
     super(client);
   }
 
-  private List<Procedure> list(String encounterId) {
+  /**
+   * Fetches procedures for an encounter. Subclasses may override this to read
+   * from another source.
+   *
+   * @param encounterId
+   *     encounter ID
+   * @return procedures
+   */
+  protected List<Procedure> list(String encounterId) {
     Bundle results = client.search()
         .forResource(Procedure.class)
         .where(new StringClientParam(Procedure.SP_ENCOUNTER)
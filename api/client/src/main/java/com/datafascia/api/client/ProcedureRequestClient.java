@@ -51,7 +51,15 @@ public class ProcedureRequestClient extends BaseClient<ProcedureRequest> {
     super(client);
   }
 
-  private List<ProcedureRequest> list(String encounterId) {
+  /**
+   * Fetches procedure requests for an encounter. Subclasses may override this to read
+   * from another source.
+   *
+   * @param encounterId
+   *     encounter ID
+   * @return procedure requests
+   */
+  protected List<ProcedureRequest> list(String encounterId) {
     Bundle results = client.search()
         .forResource(ProcedureRequest.class)
         .where(new StringClientParam(ProcedureRequest.SP_ENCOUNTER)
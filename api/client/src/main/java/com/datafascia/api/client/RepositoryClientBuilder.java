@@ -0,0 +1,244 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.api.client;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.dstu2.resource.Flag;
+import ca.uhn.fhir.model.dstu2.resource.MedicationAdministration;
+import ca.uhn.fhir.model.dstu2.resource.MedicationOrder;
+import ca.uhn.fhir.model.dstu2.resource.Observation;
+import ca.uhn.fhir.model.dstu2.resource.Practitioner;
+import ca.uhn.fhir.model.dstu2.resource.Procedure;
+import ca.uhn.fhir.model.dstu2.resource.ProcedureRequest;
+import ca.uhn.fhir.rest.client.IGenericClient;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import com.codahale.metrics.MetricRegistry;
+import com.datafascia.common.persist.Id;
+import com.datafascia.domain.persist.FlagRepository;
+import com.datafascia.domain.persist.MedicationAdministrationRepository;
+import com.datafascia.domain.persist.MedicationOrderRepository;
+import com.datafascia.domain.persist.ObservationRepository;
+import com.datafascia.domain.persist.PractitionerRepository;
+import com.datafascia.domain.persist.ProcedureRepository;
+import com.datafascia.domain.persist.ProcedureRequestRepository;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import javax.inject.Inject;
+
+/**
+ * Builds resource clients which read directly from the domain repositories in
+ * this process instead of sending HTTP requests to the API server. Writes
+ * still go through the API server. Bind {@link ClientBuilder} to this class in
+ * processes which have access to Accumulo.
+ */
+public class RepositoryClientBuilder extends ClientBuilder {
+
+  private static class RepositoryFlagClient extends FlagClient {
+    private final FlagRepository repository;
+
+    RepositoryFlagClient(IGenericClient client, FlagRepository repository) {
+      super(client);
+      this.repository = repository;
+    }
+
+    @Override
+    protected List<Flag> list(String patientId) {
+      return repository.list(Id.of(patientId));
+    }
+  }
+
+  private static class RepositoryMedicationAdministrationClient
+      extends MedicationAdministrationClient {
+
+    private final MedicationAdministrationRepository repository;
+
+    RepositoryMedicationAdministrationClient(
+        IGenericClient client,
+        long maximumWeight,
+        MedicationAdministrationRepository repository) {
+
+      super(client, maximumWeight);
+      this.repository = repository;
+    }
+
+    @Override
+    protected List<MedicationAdministration> list(
+        String encounterId, Optional<Instant> lastUpdatedLower) {
+
+      return lastUpdatedLower
+          .map(lower -> repository.listUpdatedSince(Id.of(encounterId), lower))
+          .orElseGet(() -> repository.list(Id.of(encounterId)));
+    }
+  }
+
+  private static class RepositoryMedicationOrderClient extends MedicationOrderClient {
+    private final MedicationOrderRepository repository;
+
+    RepositoryMedicationOrderClient(IGenericClient client, MedicationOrderRepository repository) {
+      super(client);
+      this.repository = repository;
+    }
+
+    @Override
+    public MedicationOrder read(String orderId, String encounterId) {
+      return repository.read(Id.of(encounterId), Id.of(orderId)).orElse(null);
+    }
+
+    @Override
+    protected List<MedicationOrder> list(String encounterId) {
+      return repository.list(Id.of(encounterId));
+    }
+  }
+
+  private static class RepositoryObservationClient extends ObservationClient {
+    private final ObservationRepository repository;
+
+    RepositoryObservationClient(
+        IGenericClient client, long maximumWeight, ObservationRepository repository) {
+
+      super(client, maximumWeight);
+      this.repository = repository;
+    }
+
+    @Override
+    protected List<Observation> search(String encounterId, Optional<Instant> lastUpdatedLower) {
+      return lastUpdatedLower
+          .map(lower -> repository.listUpdatedSince(Id.of(encounterId), lower))
+          .orElseGet(() -> repository.list(Id.of(encounterId)));
+    }
+  }
+
+  private static class RepositoryPractitionerClient extends PractitionerClient {
+    private final PractitionerRepository repository;
+
+    RepositoryPractitionerClient(IGenericClient client, PractitionerRepository repository) {
+      super(client);
+      this.repository = repository;
+    }
+
+    @Override
+    protected Practitioner read(String practitionerId) {
+      return repository.read(Id.of(practitionerId))
+          .orElseThrow(() -> new ResourceNotFoundException(
+              "Practitioner " + practitionerId + " not found"));
+    }
+  }
+
+  private static class RepositoryProcedureClient extends ProcedureClient {
+    private final ProcedureRepository repository;
+
+    RepositoryProcedureClient(IGenericClient client, ProcedureRepository repository) {
+      super(client);
+      this.repository = repository;
+    }
+
+    @Override
+    protected List<Procedure> list(String encounterId) {
+      return repository.list(Id.of(encounterId));
+    }
+  }
+
+  private static class RepositoryProcedureRequestClient extends ProcedureRequestClient {
+    private final ProcedureRequestRepository repository;
+
+    RepositoryProcedureRequestClient(
+        IGenericClient client, ProcedureRequestRepository repository) {
+
+      super(client);
+      this.repository = repository;
+    }
+
+    @Override
+    protected List<ProcedureRequest> list(String encounterId) {
+      return repository.list(Id.of(encounterId));
+    }
+  }
+
+  @Inject
+  private FlagRepository flagRepository;
+
+  @Inject
+  private MedicationAdministrationRepository medicationAdministrationRepository;
+
+  @Inject
+  private MedicationOrderRepository medicationOrderRepository;
+
+  @Inject
+  private ObservationRepository observationRepository;
+
+  @Inject
+  private PractitionerRepository practitionerRepository;
+
+  @Inject
+  private ProcedureRepository procedureRepository;
+
+  @Inject
+  private ProcedureRequestRepository procedureRequestRepository;
+
+  /**
+   * Constructor
+   *
+   * @param fhirContext
+   *     FHIR context
+   * @param config
+   *     API client configuration
+   * @param metrics
+   *     registry for cache statistics
+   */
+  @Inject
+  public RepositoryClientBuilder(
+      FhirContext fhirContext, ClientConfiguration config, MetricRegistry metrics) {
+
+    super(fhirContext, config, metrics);
+  }
+
+  @Override
+  protected FlagClient newFlagClient(IGenericClient client) {
+    return new RepositoryFlagClient(client, flagRepository);
+  }
+
+  @Override
+  protected MedicationAdministrationClient newMedicationAdministrationClient(
+      IGenericClient client, long maximumWeight) {
+
+    return new RepositoryMedicationAdministrationClient(
+        client, maximumWeight, medicationAdministrationRepository);
+  }
+
+  @Override
+  protected MedicationOrderClient newMedicationOrderClient(IGenericClient client) {
+    return new RepositoryMedicationOrderClient(client, medicationOrderRepository);
+  }
+
+  @Override
+  protected ObservationClient newObservationClient(IGenericClient client, long maximumWeight) {
+    return new RepositoryObservationClient(client, maximumWeight, observationRepository);
+  }
+
+  @Override
+  protected PractitionerClient newPractitionerClient(IGenericClient client) {
+    return new RepositoryPractitionerClient(client, practitionerRepository);
+  }
+
+  @Override
+  protected ProcedureClient newProcedureClient(IGenericClient client) {
+    return new RepositoryProcedureClient(client, procedureRepository);
+  }
+
+  @Override
+  protected ProcedureRequestClient newProcedureRequestClient(IGenericClient client) {
+    return new RepositoryProcedureRequestClient(client, procedureRequestRepository);
+  }
+}
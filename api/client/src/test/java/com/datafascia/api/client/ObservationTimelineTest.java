@@ -0,0 +1,102 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.api.client;
+
+import ca.uhn.fhir.model.dstu2.composite.CodeableConceptDt;
+import ca.uhn.fhir.model.dstu2.resource.Observation;
+import ca.uhn.fhir.model.primitive.DateTimeDt;
+import ca.uhn.fhir.model.primitive.IdDt;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Optional;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+
+/**
+ * {@link ObservationTimeline} test
+ */
+public class ObservationTimelineTest {
+
+  private static final String CODE = "304894102";
+  private static final Instant TIME1 = Instant.parse("2015-10-01T10:00:00Z");
+  private static final Instant TIME2 = TIME1.plusSeconds(60);
+  private static final Instant TIME3 = TIME2.plusSeconds(60);
+
+  private static Observation createObservation(String id, Instant effective) {
+    Observation observation = new Observation()
+        .setCode(new CodeableConceptDt("system", CODE));
+    if (effective != null) {
+      observation.setEffective(new DateTimeDt(Date.from(effective)));
+    }
+    observation.setId(new IdDt(Observation.class.getSimpleName(), id));
+    return observation;
+  }
+
+  @Test
+  public void should_include_lower_bound_and_exclude_upper_bound() {
+    Observation observation1 = createObservation("1", TIME1);
+    Observation observation2 = createObservation("2", TIME2);
+    Observation observation3 = createObservation("3", TIME3);
+
+    ObservationTimeline timeline = new ObservationTimeline();
+    timeline.add(observation3);
+    timeline.add(observation1);
+    timeline.add(observation2);
+
+    assertEquals(timeline.list(CODE, TIME1, TIME3), Arrays.asList(observation1, observation2));
+    assertEquals(timeline.list(CODE, TIME2, null), Arrays.asList(observation2, observation3));
+    assertEquals(timeline.list(CODE, null, TIME2), Collections.singletonList(observation1));
+    assertEquals(timeline.count(CODE, TIME2, TIME2), 0);
+    assertEquals(timeline.findFreshest(CODE, null, TIME3).get(), observation2);
+    assertFalse(timeline.findFreshest("unknown", null, null).isPresent());
+  }
+
+  @Test
+  public void should_replace_observation_having_same_id() {
+    Observation original = createObservation("1", TIME1);
+    Observation replacement = createObservation("1", TIME3);
+
+    ObservationTimeline timeline = new ObservationTimeline();
+    assertFalse(timeline.add(original).isPresent());
+    Optional<Observation> replaced = timeline.add(replacement);
+
+    assertSame(replaced.get(), original);
+    assertEquals(timeline.list(CODE, null, null), Collections.singletonList(replacement));
+    assertEquals(timeline.count(CODE, TIME1, TIME2), 0);
+  }
+
+  @Test
+  public void should_keep_added_order_of_equal_effective_times() {
+    Observation observation1 = createObservation("1", TIME2);
+    Observation observation2 = createObservation("2", TIME2);
+    Observation observation3 = createObservation("3", TIME1);
+    Observation withoutEffective = createObservation("4", null);
+
+    ObservationTimeline timeline = new ObservationTimeline();
+    timeline.add(observation1);
+    timeline.add(observation2);
+    timeline.add(observation3);
+    timeline.add(withoutEffective);
+
+    assertEquals(
+        timeline.list(CODE, null, null),
+        Arrays.asList(withoutEffective, observation3, observation1, observation2));
+    assertSame(timeline.findFreshest(CODE, null, null).get(), observation1);
+  }
+}
@@ -0,0 +1,62 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.api.client;
+
+import ca.uhn.fhir.model.dstu2.composite.CodeableConceptDt;
+import ca.uhn.fhir.model.dstu2.resource.Observation;
+import ca.uhn.fhir.model.primitive.DateTimeDt;
+import ca.uhn.fhir.model.primitive.IdDt;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.stream.Collectors;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * {@link Observations} test
+ */
+public class ObservationsTest {
+
+  private static final String CODE = "304894102";
+
+  private static Observation createObservation(String id, Instant effective) {
+    Observation observation = new Observation()
+        .setCode(new CodeableConceptDt("system", CODE))
+        .setEffective(new DateTimeDt(Date.from(effective)));
+    observation.setId(new IdDt(Observation.class.getSimpleName(), id));
+    return observation;
+  }
+
+  @Test
+  public void should_replace_observation_having_same_id_in_place() {
+    Instant time = Instant.parse("2015-10-01T10:00:00Z");
+    Observation observation1 = createObservation("1", time);
+    Observation observation2 = createObservation("2", time.plusSeconds(60));
+    Observation replacement1 = createObservation("1", time.plusSeconds(120));
+
+    Observations observations = new Observations(Arrays.asList(observation1, observation2));
+    observations.addAll(Collections.singletonList(replacement1));
+
+    assertEquals(observations.size(), 2);
+    assertEquals(
+        observations.stream().collect(Collectors.toList()),
+        Arrays.asList(replacement1, observation2));
+    assertEquals(
+        observations.list(CODE, null, null),
+        Arrays.asList(observation2, replacement1));
+  }
+}
@@ -31,4 +31,10 @@ public class APIConfiguration extends Configuration {
 
   @NotNull
   private KafkaConfig kafkaConfig;
+
+  /** Kafka brokers to publish entity changes to, ex: 0.0.0.0:9092 */
+  private String kafkaBrokers;
+
+  /** Topic to publish entity changes to. If empty, entity changes are not published. */
+  private String entityChangeTopic;
 }
@@ -24,14 +24,18 @@ import com.datafascia.common.accumulo.SubjectAuthorizationsSupplier;
 import com.datafascia.common.avro.schemaregistry.AvroSchemaRegistry;
 import com.datafascia.common.avro.schemaregistry.MemorySchemaRegistry;
 import com.datafascia.common.kafka.KafkaConfig;
+import com.datafascia.common.kafka.SingleTopicProducer;
 import com.datafascia.common.persist.entity.AccumuloFhirEntityStore;
 import com.datafascia.common.persist.entity.AccumuloReflectEntityStore;
 import com.datafascia.common.persist.entity.FhirEntityStore;
 import com.datafascia.common.persist.entity.ReflectEntityStore;
 import com.datafascia.common.shiro.FakeRealm;
 import com.datafascia.common.shiro.RoleExposingRealm;
+import com.datafascia.domain.event.EntityChangePublisher;
+import com.datafascia.domain.event.KafkaEntityChangePublisher;
 import com.datafascia.domain.persist.Tables;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
 import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
 import com.google.inject.name.Names;
@@ -87,6 +91,17 @@ public class ApplicationModule extends AbstractModule {
     return new ConnectorFactory(accumuloConfiguration);
   }
 
+  @Provides
+  @Singleton
+  public EntityChangePublisher entityChangePublisher(APIConfiguration configuration) {
+    if (Strings.isNullOrEmpty(configuration.getEntityChangeTopic())) {
+      return change -> { };
+    }
+
+    return new KafkaEntityChangePublisher(new SingleTopicProducer(
+        configuration.getKafkaBrokers(), configuration.getEntityChangeTopic(), true));
+  }
+
   @Provides
   public KafkaConfig kafkaConfig(APIConfiguration configuration) {
     return configuration.getKafkaConfig();
@@ -13,28 +13,26 @@
 // limitations under the License.
 package com.datafascia.api.resources;
 
-import ca.uhn.fhir.model.dstu2.resource.Encounter;
-import ca.uhn.fhir.model.dstu2.resource.Location;
-import ca.uhn.fhir.model.dstu2.valueset.EncounterStateEnum;
 import com.codahale.metrics.annotation.Timed;
-import com.datafascia.common.persist.Id;
-import com.datafascia.domain.persist.EncounterRepository;
-import com.datafascia.domain.persist.LocationRepository;
 import com.datafascia.emerge.ucsf.EmergeDataFeed;
 import com.datafascia.emerge.ucsf.HarmEvidence;
 import com.datafascia.emerge.ucsf.HarmEvidenceBundle;
-import com.datafascia.emerge.ucsf.persist.HarmEvidenceRepository;
+import com.datafascia.emerge.ucsf.persist.HarmEvidenceFeedRepository;
+import com.google.common.base.Strings;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 import javax.inject.Inject;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -46,68 +44,47 @@ import lombok.extern.slf4j.Slf4j;
 public class HarmEvidenceResource {
 
   @Inject
-  private EncounterRepository encounterRepository;
+  private HarmEvidenceFeedRepository harmEvidenceFeedRepository;
 
-  @Inject
-  private LocationRepository locationRepository;
-
-  @Inject
-  private HarmEvidenceRepository harmEvidenceRepository;
-
-  // If desired point of care is not null, then include only encounters located
-  // at that point of care.
-  private boolean select(Encounter encounter, String desiredPointOfCare) {
-    if (desiredPointOfCare == null) {
-      return true;
+  private static Optional<Instant> parseDateTime(String input) {
+    if (Strings.isNullOrEmpty(input)) {
+      return Optional.empty();
     }
 
-    String locationId = encounter.getLocationFirstRep().getLocation().getReference().getIdPart();
-    Optional<Location> location = locationRepository.read(Id.of(locationId));
-    if (!location.isPresent()) {
-      return false;
+    try {
+      Instant instant = Instant.from(DateTimeFormatter.ISO_DATE_TIME.parse(input));
+      return Optional.of(instant);
+    } catch (DateTimeException e) {
+      // Also thrown for a date time without an offset, which is not an instant.
+      throw new WebApplicationException(
+          String.format("Invalid date time [%s]", input), Response.Status.BAD_REQUEST);
     }
-
-    String[] locationParts = location.get().getIdentifierFirstRep().getValue().split("\\^");
-    String pointOfCare = (locationParts.length > 0) ? locationParts[0] : null;
-    return desiredPointOfCare.equals(pointOfCare);
-  }
-
-  private List<Encounter> getEncounters(String pointOfCare) {
-    return encounterRepository.list(Optional.of(EncounterStateEnum.IN_PROGRESS))
-        .stream()
-        .filter(encounter -> select(encounter, pointOfCare))
-        .collect(Collectors.toList());
-  }
-
-  private List<HarmEvidence> getRecords(List<Encounter> encounters) {
-    return encounters.stream()
-        .flatMap(encounter -> {
-          String encounterId = encounter.getId().getIdPart();
-          Optional<HarmEvidence> record = harmEvidenceRepository.read(Id.of(encounterId));
-          if (!record.isPresent()) {
-            log.warn("Harm evidence record not found for encounter ID [{}]", encounterId);
-            return Stream.empty();
-          }
-          return Stream.of(record.get());
-        })
-        .collect(Collectors.toList());
   }
 
   /**
-   * Lists harm evidence records.
+   * Lists harm evidence records of patients currently admitted. A poller can request only the
+   * records changed since its previous poll, but then is not told about discharged patients, so
+   * it should still request all records from time to time.
    *
    * @param pointOfCare
    *     filter results to point of care
+   * @param updatedSince
+   *     if present, filter results to records saved at or after this ISO 8601 date time with
+   *     offset, less an overlap covering records still being written at that time
    * @return harm evidence bundle
    */
   @GET
   @Timed
-  public HarmEvidenceBundle list(@QueryParam("pointOfCare") String pointOfCare) {
-    List<Encounter> encounters = getEncounters(pointOfCare);
-    List<HarmEvidence> records = getRecords(encounters);
+  public HarmEvidenceBundle list(
+      @QueryParam("pointOfCare") String pointOfCare,
+      @QueryParam("updatedSince") String updatedSince) {
+
+    Date timeOfDataFeed = new Date();
+    List<HarmEvidence> records = harmEvidenceFeedRepository.list(
+        Optional.ofNullable(pointOfCare), parseDateTime(updatedSince));
 
     EmergeDataFeed emergeDataFeed = new EmergeDataFeed()
-        .withTimeOfDataFeed(new Date())
+        .withTimeOfDataFeed(timeOfDataFeed)
         .withEmergePatients(records);
 
     HarmEvidenceBundle bundle = new HarmEvidenceBundle()
@@ -13,21 +13,30 @@
 // limitations under the License.
 package com.datafascia.api.resources;
 
+import com.datafascia.common.persist.Id;
+import com.datafascia.common.time.InstantFormatter;
+import com.datafascia.domain.model.EncounterMessage;
 import com.datafascia.domain.model.IngestMessage;
+import com.datafascia.domain.persist.EncounterMessageRepository;
 import com.datafascia.domain.persist.IngestMessageRepository;
 import com.google.common.base.Strings;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.time.temporal.ChronoUnit;
 import java.util.Date;
-import java.util.List;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Stream;
 import java.util.zip.GZIPOutputStream;
 import javax.inject.Inject;
 import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
@@ -49,6 +58,11 @@ import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 @Slf4j
 public class IngestMessageResource {
 
+  private static final String CURSOR_FILE_NAME = "cursor";
+
+  @Inject
+  private EncounterMessageRepository encounterMessageRepository;
+
   @Inject
   private IngestMessageRepository ingestMessageRepository;
 
@@ -73,21 +87,47 @@ public class IngestMessageResource {
     return Instant.now().minus(1, ChronoUnit.HOURS);
   }
 
-  private void generateArchive(Instant timeLower, OutputStream output) throws IOException {
+  private static void writeEntry(
+      TarArchiveOutputStream tarOutput, String fileName, Instant modTime, byte[] content)
+      throws IOException {
+
+    TarArchiveEntry file = new TarArchiveEntry(fileName);
+    file.setModTime(Date.from(modTime));
+    file.setSize(content.length);
+    tarOutput.putArchiveEntry(file);
+    tarOutput.write(content);
+    tarOutput.closeArchiveEntry();
+  }
+
+  private static <M> void generateArchive(
+      Stream<M> messages,
+      Function<M, Instant> getTimestamp,
+      Function<M, byte[]> getPayload,
+      int limit,
+      OutputStream output) throws IOException {
+
     GZIPOutputStream gzipOutput = new GZIPOutputStream(output);
     TarArchiveOutputStream tarOutput = new TarArchiveOutputStream(gzipOutput);
 
     int count = 0;
-    List<IngestMessage> messages = ingestMessageRepository.list(timeLower, 100_000);
-    for (IngestMessage message : messages) {
-      String fileName = String.format("%05d", count++);
-      TarArchiveEntry file = new TarArchiveEntry(fileName);
-      file.setModTime(Date.from(message.getTimestamp()));
-      byte[] payload = message.getPayload().array();
-      file.setSize(payload.length);
-      tarOutput.putArchiveEntry(file);
-      tarOutput.write(payload);
-      tarOutput.closeArchiveEntry();
+    Instant lastTimestamp = null;
+    PeekingIterator<M> iterator = Iterators.peekingIterator(messages.iterator());
+    while (iterator.hasNext()) {
+      Instant timestamp = getTimestamp.apply(iterator.peek());
+
+      // Messages received at the same time go in the same archive, so the
+      // time of the last message is enough to continue from.
+      if (count >= limit && !timestamp.equals(lastTimestamp)) {
+        byte[] cursor = InstantFormatter.ISO_INSTANT_MILLI.format(lastTimestamp)
+            .getBytes(StandardCharsets.UTF_8);
+        writeEntry(tarOutput, CURSOR_FILE_NAME, lastTimestamp, cursor);
+        break;
+      }
+
+      M message = iterator.next();
+      writeEntry(
+          tarOutput, String.format("%05d", count++), timestamp, getPayload.apply(message));
+      lastTimestamp = timestamp;
     }
 
     tarOutput.finish();
@@ -96,22 +136,100 @@ public class IngestMessageResource {
     gzipOutput.flush();
   }
 
+  private void generateArchive(
+      Optional<String> encounterId,
+      Instant timeLower,
+      boolean lowerInclusive,
+      Optional<Instant> timeUpper,
+      int limit,
+      OutputStream output) throws IOException {
+
+    if (encounterId.isPresent()) {
+      try (Stream<EncounterMessage> messages = encounterMessageRepository.stream(
+          Id.of(encounterId.get()), timeLower, lowerInclusive, timeUpper)) {
+        generateArchive(
+            messages,
+            EncounterMessage::getTimestamp,
+            message -> message.getPayload().array(),
+            limit,
+            output);
+      }
+    } else {
+      try (Stream<IngestMessage> messages =
+          ingestMessageRepository.stream(timeLower, lowerInclusive, timeUpper)) {
+        generateArchive(
+            messages,
+            IngestMessage::getTimestamp,
+            message -> message.getPayload().array(),
+            limit,
+            output);
+      }
+    }
+  }
+
   /**
-   * Lists ingest messages.
+   * Exports ingest messages in time order as a tar.gz archive. Messages are read from the
+   * database as the archive is written, so the export size is not bounded by memory. If more
+   * messages match than the limit, the archive ends with a file named {@code cursor}, and the
+   * next messages are exported by repeating the request with that file's content as the cursor
+   * parameter.
    *
    * @param timeMin
-   *     ingest time lower bound (inclusive)
-   * @return harm evidence bundle
+   *     ingest time lower bound (inclusive), defaults to one hour ago
+   * @param timeMax
+   *     if present, ingest time upper bound (exclusive)
+   * @param encounterId
+   *     if present, export only messages for this encounter, timed by when they were saved for
+   *     the encounter
+   * @param cursor
+   *     if present, continue an export after the messages of an earlier archive
+   * @param limit
+   *     number of messages after which to end the archive, defaults to 100,000
+   * @return archive
    */
   @GET
-  public StreamingOutput list(@QueryParam("timeMin") String timeMin) {
-    Instant timeLower = parseDateTime(timeMin).orElse(getDefaultTimeLower());
+  public StreamingOutput list(
+      @QueryParam("timeMin") String timeMin,
+      @QueryParam("timeMax") String timeMax,
+      @QueryParam("encounterId") String encounterId,
+      @QueryParam("cursor") String cursor,
+      @QueryParam("limit") @DefaultValue("100000") int limit) {
+
+    if (limit < 1) {
+      throw new WebApplicationException(
+          String.format("Invalid limit [%d]", limit), Response.Status.BAD_REQUEST);
+    }
+
+    Optional<Instant> timeUpper = parseDateTime(timeMax);
+    Optional<Instant> cursorTime = parseDateTime(cursor);
+
+    Instant timeLower;
+    boolean lowerInclusive;
+    if (cursorTime.isPresent()) {
+      timeLower = cursorTime.get();
+      lowerInclusive = false;
+    } else {
+      timeLower = parseDateTime(timeMin).orElse(getDefaultTimeLower());
+      lowerInclusive = true;
+    }
+
+    if (timeUpper.isPresent() && !timeUpper.get().isAfter(timeLower)) {
+      throw new WebApplicationException(
+          String.format("Time range [%s, %s) is empty", timeLower, timeUpper.get()),
+          Response.Status.BAD_REQUEST);
+    }
 
     response.setHeader("Content-Disposition", "attachment; filename=message.tar.gz");
     return new StreamingOutput() {
       @Override
       public void write(OutputStream output) throws IOException, WebApplicationException {
-        generateArchive(timeLower, output);
+        generateArchive(
+            Optional.ofNullable(Strings.emptyToNull(encounterId)),
+            timeLower,
+            lowerInclusive,
+            timeUpper,
+            limit,
+            output);
       }
     };
   }
@@ -27,6 +27,7 @@ import ca.uhn.fhir.rest.annotation.Search;
 import ca.uhn.fhir.rest.annotation.Update;
 import ca.uhn.fhir.rest.api.MethodOutcome;
 import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.server.IBundleProvider;
 import ca.uhn.fhir.rest.server.IResourceProvider;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
@@ -36,6 +37,7 @@ import com.datafascia.domain.persist.EncounterRepository;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Predicate;
 import javax.inject.Inject;
 
 /**
@@ -156,18 +158,24 @@ public class EncounterResourceProvider implements IResourceProvider {
    * Searches encounters based on status, or just returns all encounters.
    *
    * @param status Status of encounter as an optional filtering parameter.
-   * @return Search results.
+   * @return Search results, read from the repository one page at a time in ID order. When a
+   *         status is given, encounters not having the status are skipped.
    */
   @Search()
-  public List<Encounter> listById(@OptionalParam(name = Encounter.SP_STATUS) StringParam status) {
-    Optional<EncounterStateEnum> optStatus;
+  public IBundleProvider listById(
+      @OptionalParam(name = Encounter.SP_STATUS) StringParam status) {
+
+    Predicate<Encounter> filter;
     if (status == null) {
-      optStatus = Optional.empty();
+      filter = encounter -> true;
     } else {
-      optStatus = Optional.of(EncounterStateEnum.valueOf(status.getValue()));
+      EncounterStateEnum state = EncounterStateEnum.valueOf(status.getValue());
+      filter = encounter -> encounter.getStatusElement().getValueAsEnum() == state;
     }
 
-    List<Encounter> encounters = encounterRepository.list(optStatus);
-    return encounters;
+    return new PagedBundleProvider<>(
+        encounterRepository.count(),
+        (afterId, limit) -> encounterRepository.list(afterId.map(Id::of), limit),
+        filter);
   }
 }
@@ -15,6 +15,7 @@ package com.datafascia.api.resources.fhir;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.rest.server.EncodingEnum;
+import ca.uhn.fhir.rest.server.FifoMemoryPagingProvider;
 import ca.uhn.fhir.rest.server.IResourceProvider;
 import ca.uhn.fhir.rest.server.RestfulServer;
 import ca.uhn.fhir.rest.server.interceptor.ResponseHighlighterInterceptor;
@@ -33,6 +34,14 @@ import org.reflections.Reflections;
 @Slf4j
 public class FhirServlet extends RestfulServer {
 
+  // Number of searches whose results are kept for reading following pages
+  private static final int PAGED_SEARCH_CAPACITY = 1000;
+
+  // Searches which return a list of resources return them in one page unless
+  // the list is larger than this. Searches which read pages from the
+  // repository use their own, smaller page size.
+  private static final int MAXIMUM_PAGE_SIZE = 10_000;
+
   @Inject
   private FhirContext fhirContext;
 
@@ -68,6 +77,11 @@ public class FhirServlet extends RestfulServer {
     // Configure resource providers.
     setResourceProviders(findResourceProviders());
 
+    FifoMemoryPagingProvider pagingProvider = new FifoMemoryPagingProvider(PAGED_SEARCH_CAPACITY);
+    pagingProvider.setDefaultPageSize(MAXIMUM_PAGE_SIZE);
+    pagingProvider.setMaximumPageSize(MAXIMUM_PAGE_SIZE);
+    setPagingProvider(pagingProvider);
+
     /*
      * Tells HAPI to use content types which are not technically FHIR compliant when a browser is
      * detected as the requesting client. This prevents browsers from trying to download resource
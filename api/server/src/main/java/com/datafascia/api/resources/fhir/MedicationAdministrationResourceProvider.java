@@ -23,7 +23,10 @@ import ca.uhn.fhir.rest.annotation.ResourceParam;
 import ca.uhn.fhir.rest.annotation.Search;
 import ca.uhn.fhir.rest.annotation.Update;
 import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.param.DateRangeParam;
 import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.server.Constants;
+import ca.uhn.fhir.rest.server.IBundleProvider;
 import ca.uhn.fhir.rest.server.IResourceProvider;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
@@ -77,16 +80,39 @@ public class MedicationAdministrationResourceProvider implements IResourceProvid
    *
    * @param encounterId Internal resource ID for the Encounter for which we want corresponding
    *                    medicationAdministrations.
-   * @return Search results.
+   * @return Search results, read from the repository one page at a time.
    */
   @Search()
-  public List<MedicationAdministration> searchByEncounterId(
+  public IBundleProvider searchByEncounterId(
       @RequiredParam(name = MedicationAdministration.SP_ENCOUNTER) StringParam encounterId) {
     Id<Encounter> encounterInternalId = Id.of(encounterId.getValue());
-    List<MedicationAdministration> medicationAdministrations = medicationAdministrationRepository.
-        list(encounterInternalId);
+    return new PagedBundleProvider<>(
+        medicationAdministrationRepository.count(encounterInternalId),
+        (afterId, limit) -> medicationAdministrationRepository.list(
+            encounterInternalId, afterId.map(Id::of), limit));
+  }
 
-    return medicationAdministrations;
+  /**
+   * Searches medication administrations for an encounter which were saved at
+   * or after the lower bound of the last updated range. Administrations saved
+   * before the save time was recorded count as saved at the epoch.
+   *
+   * @param encounterId Resource ID of the encounter.
+   * @param lastUpdated Range of time the administrations were saved.
+   * @return medication administrations
+   */
+  @Search()
+  public List<MedicationAdministration> searchByEncounterIdUpdatedSince(
+      @RequiredParam(name = MedicationAdministration.SP_ENCOUNTER) StringParam encounterId,
+      @RequiredParam(name = Constants.PARAM_LASTUPDATED) DateRangeParam lastUpdated) {
+
+    if (lastUpdated.getLowerBoundAsInstant() == null) {
+      throw new InvalidRequestException(
+          Constants.PARAM_LASTUPDATED + " must have a lower bound");
+    }
+
+    return medicationAdministrationRepository.listUpdatedSince(
+        Id.of(encounterId.getValue()), lastUpdated.getLowerBoundAsInstant().toInstant());
   }
 
   /**
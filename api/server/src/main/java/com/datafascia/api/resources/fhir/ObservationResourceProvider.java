@@ -21,14 +21,21 @@ import ca.uhn.fhir.rest.annotation.ResourceParam;
 import ca.uhn.fhir.rest.annotation.Search;
 import ca.uhn.fhir.rest.annotation.Update;
 import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.param.DateRangeParam;
 import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.server.Constants;
+import ca.uhn.fhir.rest.server.IBundleProvider;
 import ca.uhn.fhir.rest.server.IResourceProvider;
+import ca.uhn.fhir.rest.server.SimpleBundleProvider;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
 import com.datafascia.common.persist.Id;
 import com.datafascia.domain.persist.ObservationRepository;
-import java.util.List;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 import javax.inject.Inject;
 
 /**
@@ -80,24 +87,52 @@ public class ObservationResourceProvider implements IResourceProvider {
    *                    observations.
    * @param code        Type of Observation, the code member of the first entry in the Observation
    *                    CodeableConcept field Code.
-   * @return Search results.
+   * @param lastUpdated If present, only return observations saved at or after the lower bound.
+   *                    Observations saved before the save time was recorded count as saved
+   *                    at the epoch.
+   * @return Search results. Unless last updated is given, the results are read from the
+   *         repository one page at a time in ID order, and observations not having the code are
+   *         skipped.
    */
   @Search()
-  public List<Observation> search(
+  public IBundleProvider search(
       @RequiredParam(name = Observation.SP_ENCOUNTER) StringParam encounterId,
-      @OptionalParam(name = Observation.SP_CODE) StringParam code) {
+      @OptionalParam(name = Observation.SP_CODE) StringParam code,
+      @OptionalParam(name = Constants.PARAM_LASTUPDATED) DateRangeParam lastUpdated) {
 
     Id<Encounter> encounterInternalId = Id.of(encounterId.getValue());
 
-    Stream<Observation> observations = observationRepository.list(encounterInternalId)
-        .stream()
-        .filter(observation -> !"85200".equals(getCode(observation)));
+    Optional<String> optionalCode = Optional.ofNullable(code).map(StringParam::getValue);
 
-    if (code != null) {
-      observations = observations
-          .filter(observation -> code.getValue().equals(getCode(observation)));
+    Predicate<Observation> filter = observation -> isVisible(observation) &&
+        (!optionalCode.isPresent() || Objects.equals(optionalCode.get(), getCode(observation)));
+
+    if (lastUpdated != null) {
+      // Only the observations saved since the previous fetch, so few.
+      return new SimpleBundleProvider(observationRepository
+          .listUpdatedSince(encounterInternalId, toLowerBound(lastUpdated))
+          .stream()
+          .filter(filter)
+          .collect(Collectors.toList()));
+    }
+
+    return new PagedBundleProvider<>(
+        observationRepository.count(encounterInternalId),
+        (afterId, limit) -> observationRepository.list(
+            encounterInternalId, afterId.map(Id::of), limit),
+        filter);
+  }
+
+  private static boolean isVisible(Observation observation) {
+    return !"85200".equals(getCode(observation));
+  }
+
+  private static Instant toLowerBound(DateRangeParam lastUpdated) {
+    if (lastUpdated.getLowerBoundAsInstant() == null) {
+      throw new InvalidRequestException(
+          Constants.PARAM_LASTUPDATED + " must have a lower bound");
     }
 
-    return observations.collect(Collectors.toList());
+    return lastUpdated.getLowerBoundAsInstant().toInstant();
   }
 }
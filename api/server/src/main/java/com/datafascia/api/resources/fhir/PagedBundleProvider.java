@@ -0,0 +1,141 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.api.resources.fhir;
+
+import ca.uhn.fhir.model.api.IResource;
+import ca.uhn.fhir.model.primitive.InstantDt;
+import ca.uhn.fhir.rest.server.IBundleProvider;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+/**
+ * Search result which reads each page from the repository when the page is
+ * requested, instead of holding every matching resource in memory. Pages are
+ * read in resource ID order. After reading a page, the provider remembers the
+ * ID of the last resource, so the scan for the next page starts after that
+ * resource instead of skipping over the previous pages.
+ *
+ * @param <E> resource type
+ */
+public class PagedBundleProvider<E extends IResource> implements IBundleProvider {
+
+  /** Number of resources in a page unless the client requests another size */
+  public static final int PAGE_SIZE = 500;
+
+  private final InstantDt published = InstantDt.withCurrentTime();
+  private final int size;
+  private final BiFunction<Optional<String>, Integer, List<E>> pageReader;
+  private final Predicate<E> filter;
+
+  // Offset to ID of the resource before that offset
+  private final NavigableMap<Integer, Optional<String>> offsetToCursorMap = new TreeMap<>();
+
+  /**
+   * Constructor
+   *
+   * @param size
+   *     number of matching resources
+   * @param pageReader
+   *     reads at most the given number of resources after the resource
+   *     having the given ID, or from the first resource if the ID is empty
+   */
+  public PagedBundleProvider(
+      int size, BiFunction<Optional<String>, Integer, List<E>> pageReader) {
+
+    this(size, pageReader, resource -> true);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param size
+   *     number of resources the page reader reads, including resources the
+   *     filter rejects
+   * @param pageReader
+   *     reads at most the given number of resources after the resource
+   *     having the given ID, or from the first resource if the ID is empty
+   * @param filter
+   *     resources to return. A page may have fewer resources than requested
+   *     when the filter rejects some of them.
+   */
+  public PagedBundleProvider(
+      int size, BiFunction<Optional<String>, Integer, List<E>> pageReader, Predicate<E> filter) {
+
+    this.size = size;
+    this.pageReader = pageReader;
+    this.filter = filter;
+    offsetToCursorMap.put(0, Optional.empty());
+  }
+
+  @Override
+  public InstantDt getPublished() {
+    return published;
+  }
+
+  @Override
+  public synchronized List<IBaseResource> getResources(int fromIndex, int toIndex) {
+    // Continue from the nearest known position. When pages are requested in
+    // order, that is the end of the previous page.
+    Map.Entry<Integer, Optional<String>> cursor = offsetToCursorMap.floorEntry(fromIndex);
+    int offset = cursor.getKey();
+    Optional<String> afterId = cursor.getValue();
+
+    List<IBaseResource> page = new ArrayList<>();
+    while (offset < toIndex) {
+      int limit = (offset < fromIndex) ? fromIndex - offset : toIndex - offset;
+      List<E> resources = pageReader.apply(afterId, limit);
+      if (resources.isEmpty()) {
+        break;
+      }
+
+      for (E resource : resources) {
+        if (offset >= fromIndex && filter.test(resource)) {
+          page.add(resource);
+        }
+        offset++;
+      }
+
+      afterId = Optional.of(resources.get(resources.size() - 1).getId().getIdPart());
+      offsetToCursorMap.put(offset, afterId);
+
+      if (resources.size() < limit) {
+        break;
+      }
+    }
+
+    return page;
+  }
+
+  @Override
+  public String getUuid() {
+    return null;
+  }
+
+  @Override
+  public Integer preferredPageSize() {
+    return PAGE_SIZE;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+}
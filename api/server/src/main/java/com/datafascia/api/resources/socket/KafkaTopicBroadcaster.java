@@ -0,0 +1,308 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.api.resources.socket;
+
+import com.datafascia.common.kafka.KafkaConfig;
+import com.datafascia.common.kafka.KafkaMessage;
+import com.datafascia.common.kafka.SingleTopicConsumer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+import org.atmosphere.cpr.AtmosphereResource;
+
+import static com.datafascia.common.kafka.KafkaConfig.AUTOOFFSETRESET;
+import static com.datafascia.common.kafka.KafkaConfig.GROUP;
+import static com.datafascia.common.kafka.KafkaConfig.TIMEOUT;
+import static javax.servlet.http.HttpServletResponse.SC_REQUEST_TIMEOUT;
+
+/**
+ * Relays messages from Kafka topics to WebSocket clients. Each topic is read by one consumer,
+ * which is shared by all clients subscribed to the topic, so broker load and threads do not grow
+ * with the number of clients.
+ * <p>
+ * Each client has a bounded buffer of messages waiting to be written. A client which falls so far
+ * behind that its buffer fills is disconnected, so it cannot hold up the other clients or make
+ * the server buffer messages without limit. Disconnects run on the write threads, so they do not
+ * hold up the consumer thread.
+ * <p>
+ * Clients receive only messages published after they subscribe. The consumers start from the
+ * latest offset and do not commit offsets, whatever offset reset the deployment configures.
+ */
+@Singleton @Slf4j
+public class KafkaTopicBroadcaster {
+
+  // Maximum number of messages waiting to be written to a client
+  static final int BUFFER_CAPACITY = 1000;
+
+  // Maximum number of messages written to a client in one task
+  private static final int MAXIMUM_BATCH_SIZE = 100;
+
+  private static final int WRITE_THREADS = 4;
+  private static final long TIMEOUT_CHECK_INTERVAL_MILLIS = 1000;
+  private static final String AUTO_COMMIT_ENABLE = "auto.commit.enable";
+
+  private final ConsumerFactory consumerFactory;
+  private final ScheduledExecutorService executor;
+  private final Map<String, Topic> topicNameToTopicMap = new HashMap<>();
+
+  /**
+   * Creates consumer of a topic
+   */
+  interface ConsumerFactory {
+    /**
+     * Creates consumer of a topic.
+     *
+     * @param topicName
+     *     topic name
+     * @param handler
+     *     receives messages
+     * @return consumer, not started
+     */
+    SingleTopicConsumer create(String topicName, Consumer<KafkaMessage> handler);
+  }
+
+  /**
+   * Client subscribed to a topic
+   */
+  private class Subscriber {
+    private final AtmosphereResource resource;
+    private final long timeoutMillis;
+    private final BlockingQueue<String> buffer = new ArrayBlockingQueue<>(BUFFER_CAPACITY);
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+    private final AtomicBoolean disconnecting = new AtomicBoolean();
+    private volatile long lastMessageMillis = System.currentTimeMillis();
+
+    Subscriber(AtmosphereResource resource, long timeoutMillis) {
+      this.resource = resource;
+      this.timeoutMillis = timeoutMillis;
+    }
+
+    boolean offer(String message) {
+      if (!buffer.offer(message)) {
+        return false;
+      }
+
+      lastMessageMillis = System.currentTimeMillis();
+      scheduleWrite();
+      return true;
+    }
+
+    private void scheduleWrite() {
+      if (writeScheduled.compareAndSet(false, true)) {
+        executor.execute(this::write);
+      }
+    }
+
+    // Writes a batch of messages, then lets other clients have the thread
+    // before writing the next batch.
+    private void write() {
+      List<String> batch = new ArrayList<>(MAXIMUM_BATCH_SIZE);
+      buffer.drainTo(batch, MAXIMUM_BATCH_SIZE);
+      try {
+        if (!resource.isCancelled()) {
+          for (String message : batch) {
+            resource.getResponse().write(message);
+          }
+        }
+      } catch (RuntimeException e) {
+        log.error("Cannot write to resource {}", resource.uuid(), e);
+      } finally {
+        writeScheduled.set(false);
+      }
+
+      if (!buffer.isEmpty()) {
+        scheduleWrite();
+      }
+    }
+
+    boolean isTimedOut(long nowMillis) {
+      return timeoutMillis > 0 && nowMillis - lastMessageMillis > timeoutMillis;
+    }
+  }
+
+  /**
+   * Topic with at least one subscribed client
+   */
+  private class Topic {
+    private final String name;
+    private final Map<String, Subscriber> uuidToSubscriberMap = new ConcurrentHashMap<>();
+    private final SingleTopicConsumer consumer;
+
+    Topic(String name) {
+      this.name = name;
+      consumer = consumerFactory.create(name, this::onMessage);
+    }
+
+    // Runs on the consumer thread, which must not wait for the broadcaster
+    // lock or for the consumer to close.
+    private void onMessage(KafkaMessage message) {
+      for (Subscriber subscriber : uuidToSubscriberMap.values()) {
+        if (subscriber.disconnecting.get() || subscriber.offer(message.message)) {
+          continue;
+        }
+
+        if (subscriber.disconnecting.compareAndSet(false, true)) {
+          log.warn(
+              "Disconnecting resource {} which fell {} messages behind on topic {}",
+              subscriber.resource.uuid(),
+              BUFFER_CAPACITY,
+              name);
+          executor.execute(() -> {
+            unsubscribe(name, subscriber.resource);
+            close(subscriber.resource);
+          });
+        }
+      }
+    }
+  }
+
+  /**
+   * Constructor
+   *
+   * @param config
+   *     Kafka consumer configuration
+   */
+  @Inject
+  public KafkaTopicBroadcaster(KafkaConfig config) {
+    this((topicName, handler) ->
+        new SingleTopicConsumer(buildConsumerConfig(config), topicName, handler));
+  }
+
+  /**
+   * Constructor
+   *
+   * @param consumerFactory
+   *     creates consumer of a topic
+   */
+  KafkaTopicBroadcaster(ConsumerFactory consumerFactory) {
+    this.consumerFactory = consumerFactory;
+
+    executor = Executors.newScheduledThreadPool(
+        WRITE_THREADS,
+        new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat(getClass().getSimpleName() + "-%d")
+            .build());
+    executor.scheduleWithFixedDelay(
+        this::disconnectTimedOutSubscribers,
+        TIMEOUT_CHECK_INTERVAL_MILLIS,
+        TIMEOUT_CHECK_INTERVAL_MILLIS,
+        TimeUnit.MILLISECONDS);
+  }
+
+  // Every server receives all messages, so each server has its own consumer group. Starting from
+  // the latest offset without committing offsets keeps a server from replaying old messages to
+  // clients, which the configured offset reset would do for a new group.
+  private static Properties buildConsumerConfig(KafkaConfig config) {
+    Properties consumerConfig = config.buildConsumerConfig();
+    consumerConfig.setProperty(GROUP, config.getGroupId() + '-' + getHostName());
+    consumerConfig.setProperty(AUTOOFFSETRESET, "largest");
+    consumerConfig.setProperty(AUTO_COMMIT_ENABLE, "false");
+    consumerConfig.setProperty(TIMEOUT, "-1");
+    return consumerConfig;
+  }
+
+  private static String getHostName() {
+    try {
+      return InetAddress.getLocalHost().getHostName();
+    } catch (UnknownHostException e) {
+      throw new IllegalStateException("Cannot get host name", e);
+    }
+  }
+
+  private static void close(AtmosphereResource resource) {
+    try {
+      resource.close();
+    } catch (IOException e) {
+      log.warn("Cannot close resource {}", resource.uuid(), e);
+    }
+  }
+
+  /**
+   * Subscribes client to topic, starting a consumer for the topic if it has no other clients.
+   *
+   * @param topicName
+   *     topic name
+   * @param resource
+   *     client connection
+   * @param timeoutMillis
+   *     disconnect client after this many milliseconds without a message, or never if not
+   *     positive
+   */
+  public synchronized void subscribe(
+      String topicName, AtmosphereResource resource, long timeoutMillis) {
+
+    Topic topic = topicNameToTopicMap.get(topicName);
+    if (topic == null) {
+      topic = new Topic(topicName);
+      topic.consumer.start();
+      topicNameToTopicMap.put(topicName, topic);
+    }
+
+    topic.uuidToSubscriberMap.put(resource.uuid(), new Subscriber(resource, timeoutMillis));
+  }
+
+  /**
+   * Unsubscribes client from topic, stopping the consumer for the topic if it has no other
+   * clients.
+   *
+   * @param topicName
+   *     topic name
+   * @param resource
+   *     client connection
+   */
+  public synchronized void unsubscribe(String topicName, AtmosphereResource resource) {
+    Topic topic = topicNameToTopicMap.get(topicName);
+    if (topic == null) {
+      return;
+    }
+
+    topic.uuidToSubscriberMap.remove(resource.uuid());
+    if (topic.uuidToSubscriberMap.isEmpty()) {
+      topic.consumer.close();
+      topicNameToTopicMap.remove(topicName);
+    }
+  }
+
+  private synchronized void disconnectTimedOutSubscribers() {
+    long nowMillis = System.currentTimeMillis();
+    for (Topic topic : new ArrayList<>(topicNameToTopicMap.values())) {
+      for (Subscriber subscriber : topic.uuidToSubscriberMap.values()) {
+        if (subscriber.isTimedOut(nowMillis)) {
+          log.info("Resource {} timed out waiting for message", subscriber.resource.uuid());
+          subscriber.resource.getResponse().setStatus(SC_REQUEST_TIMEOUT);
+          unsubscribe(topic.name, subscriber.resource);
+          close(subscriber.resource);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,151 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.api.resources.socket;
+
+import com.datafascia.common.kafka.KafkaMessage;
+import com.datafascia.common.kafka.SingleTopicConsumer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import kafka.message.Message;
+import kafka.message.MessageAndMetadata;
+import kafka.serializer.DefaultDecoder;
+import org.atmosphere.cpr.AtmosphereResource;
+import org.atmosphere.cpr.AtmosphereResponse;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static javax.servlet.http.HttpServletResponse.SC_REQUEST_TIMEOUT;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * {@link KafkaTopicBroadcaster} test
+ */
+public class KafkaTopicBroadcasterTest {
+
+  private static final String TOPIC = "topic";
+  private static final long VERIFY_TIMEOUT_MILLIS = 5000;
+
+  private Map<String, Consumer<KafkaMessage>> topicNameToHandlerMap;
+  private Map<String, SingleTopicConsumer> topicNameToConsumerMap;
+  private KafkaTopicBroadcaster broadcaster;
+
+  @BeforeMethod
+  public void beforeMethod() {
+    topicNameToHandlerMap = new HashMap<>();
+    topicNameToConsumerMap = new HashMap<>();
+    broadcaster = new KafkaTopicBroadcaster((topicName, handler) -> {
+      SingleTopicConsumer consumer = mock(SingleTopicConsumer.class);
+      topicNameToHandlerMap.put(topicName, handler);
+      topicNameToConsumerMap.put(topicName, consumer);
+      return consumer;
+    });
+  }
+
+  private static AtmosphereResource createResource(String uuid) {
+    AtmosphereResource resource = mock(AtmosphereResource.class);
+    AtmosphereResponse response = mock(AtmosphereResponse.class);
+    when(resource.uuid()).thenReturn(uuid);
+    when(resource.getResponse()).thenReturn(response);
+    return resource;
+  }
+
+  private void publish(String message) {
+    byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+    topicNameToHandlerMap.get(TOPIC).accept(new KafkaMessage(new MessageAndMetadata<>(
+        TOPIC, 0, new Message(bytes), 0, new DefaultDecoder(null), new DefaultDecoder(null))));
+  }
+
+  @Test
+  public void should_send_message_to_every_subscriber() {
+    AtmosphereResource resource1 = createResource("1");
+    AtmosphereResource resource2 = createResource("2");
+    broadcaster.subscribe(TOPIC, resource1, 0);
+    broadcaster.subscribe(TOPIC, resource2, 0);
+
+    publish("hello");
+
+    verify(resource1.getResponse(), timeout(VERIFY_TIMEOUT_MILLIS)).write("hello");
+    verify(resource2.getResponse(), timeout(VERIFY_TIMEOUT_MILLIS)).write("hello");
+    verify(topicNameToConsumerMap.get(TOPIC)).start();
+  }
+
+  @Test
+  public void should_disconnect_subscriber_which_falls_behind() throws Exception {
+    AtmosphereResource slowResource = createResource("slow");
+    AtmosphereResource fastResource = createResource("fast");
+
+    // The slow subscriber stays blocked in its first write, so its buffer fills.
+    CountDownLatch writeReleased = new CountDownLatch(1);
+    doAnswer(invocation -> {
+      writeReleased.await();
+      return null;
+    }).when(slowResource.getResponse()).write("first");
+
+    Thread[] closeThread = new Thread[1];
+    CountDownLatch closed = new CountDownLatch(1);
+    doAnswer(invocation -> {
+      closeThread[0] = Thread.currentThread();
+      closed.countDown();
+      return null;
+    }).when(slowResource).close();
+
+    broadcaster.subscribe(TOPIC, slowResource, 0);
+    broadcaster.subscribe(TOPIC, fastResource, 0);
+
+    publish("first");
+    verify(slowResource.getResponse(), timeout(VERIFY_TIMEOUT_MILLIS)).write("first");
+
+    // Let the fast subscriber catch up before the message which overflows the slow subscriber.
+    for (int i = 0; i < KafkaTopicBroadcaster.BUFFER_CAPACITY; i++) {
+      publish("message");
+    }
+    verify(fastResource.getResponse(), timeout(VERIFY_TIMEOUT_MILLIS)
+        .times(KafkaTopicBroadcaster.BUFFER_CAPACITY))
+        .write("message");
+    publish("overflow");
+
+    try {
+      assertTrue(closed.await(VERIFY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+      assertNotEquals(closeThread[0], Thread.currentThread());
+    } finally {
+      writeReleased.countDown();
+    }
+
+    publish("last");
+    verify(fastResource.getResponse(), timeout(VERIFY_TIMEOUT_MILLIS)).write("last");
+    verify(fastResource, never()).close();
+    verify(topicNameToConsumerMap.get(TOPIC), never()).close();
+  }
+
+  @Test
+  public void should_disconnect_subscriber_which_times_out() throws Exception {
+    AtmosphereResource resource = createResource("1");
+    broadcaster.subscribe(TOPIC, resource, 1);
+
+    verify(resource.getResponse(), timeout(VERIFY_TIMEOUT_MILLIS)).setStatus(SC_REQUEST_TIMEOUT);
+    verify(resource, timeout(VERIFY_TIMEOUT_MILLIS)).close();
+    verify(topicNameToConsumerMap.get(TOPIC), timeout(VERIFY_TIMEOUT_MILLIS)).close();
+  }
+}
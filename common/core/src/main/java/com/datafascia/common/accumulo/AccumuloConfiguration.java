@@ -34,4 +34,22 @@ public class AccumuloConfiguration {
 
   /** Accumulo user password */
   private String password;
+
+  /** batch writer buffer size in bytes, or zero for the Accumulo default */
+  private long batchWriterMaxMemory;
+
+  /** maximum time in milliseconds to buffer a mutation, or zero for the Accumulo default */
+  private long batchWriterMaxLatencyMillis;
+
+  /** batch writer thread count, or zero for the Accumulo default */
+  private int batchWriterMaxWriteThreads;
+
+  /** if true, do not flush after each save, but wait for an explicit flush */
+  private boolean groupCommit;
+
+  /** batch scanner thread count, or zero for the default */
+  private int batchScannerQueryThreads;
+
+  /** number of bin rows an entity index is sharded into, or zero for one */
+  private int indexShardCount;
 }
@@ -15,14 +15,19 @@ package com.datafascia.common.accumulo;
 
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.SortedMap;
 import java.util.Spliterator;
 import java.util.Spliterators;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -32,17 +37,30 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
 import org.apache.accumulo.core.client.BatchDeleter;
+import org.apache.accumulo.core.client.BatchScanner;
 import org.apache.accumulo.core.client.BatchWriter;
 import org.apache.accumulo.core.client.BatchWriterConfig;
 import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.IteratorSetting;
 import org.apache.accumulo.core.client.MutationsRejectedException;
 import org.apache.accumulo.core.client.Scanner;
 import org.apache.accumulo.core.client.TableExistsException;
 import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
 import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.user.WholeRowIterator;
 
 /**
  * Accumulo data access template methods
+ * <p>
+ * By default, each save is flushed to the tablet servers before the method
+ * returns. When group commit is enabled, saved mutations are buffered by a
+ * batch writer per table and sent when the buffer fills, when the configured
+ * maximum latency elapses, or when {@link #flush()} is called. Callers must
+ * call {@link #flush()} at a commit point before relying on the writes being
+ * durable or visible to other readers.
  */
 @Singleton @Slf4j
 public class AccumuloTemplate {
@@ -51,14 +69,18 @@ public class AccumuloTemplate {
   private final ColumnVisibilityPolicy columnVisibilityPolicy;
   private final AuthorizationsSupplier authorizationsSupplier;
   private final MetricRegistry metrics;
+  private final BatchWriterConfig batchWriterConfig;
+  private final boolean groupCommit;
+  private final int batchScannerQueryThreads;
   private final ConcurrentHashMap<String, BatchWriter> tableToWriterMap = new ConcurrentHashMap<>();
-  private final Map<String, Timer> nameToTimerMap = new HashMap<>();
+  private final Map<String, Timer> nameToTimerMap = new ConcurrentHashMap<>();
+  private final ConcurrentLinkedQueue<Runnable> afterFlushActions = new ConcurrentLinkedQueue<>();
 
   /**
    * Construct the query template.
    *
-   * @param connector
-   *     the Accumulo connector
+   * @param connectorFactory
+   *     supplies the Accumulo connector and batch writer settings
    * @param columnVisibilityPolicy
    *     supplies visibility expression to write when writing an entry
    * @param authorizationsSupplier
@@ -68,12 +90,15 @@ public class AccumuloTemplate {
    */
   @Inject
   public AccumuloTemplate(
-      Connector connector,
+      ConnectorFactory connectorFactory,
       ColumnVisibilityPolicy columnVisibilityPolicy,
       AuthorizationsSupplier authorizationsSupplier,
       MetricRegistry metrics) {
 
-    this.connector = connector;
+    this.connector = connectorFactory.getConnector();
+    this.batchWriterConfig = connectorFactory.createBatchWriterConfig();
+    this.groupCommit = connectorFactory.isGroupCommit();
+    this.batchScannerQueryThreads = connectorFactory.getBatchScannerQueryThreads();
     this.columnVisibilityPolicy = columnVisibilityPolicy;
     this.authorizationsSupplier = authorizationsSupplier;
     this.metrics = metrics;
@@ -99,7 +124,7 @@ public class AccumuloTemplate {
 
   private BatchWriter createBatchWriter(String tableName) {
     try {
-      return connector.createBatchWriter(tableName, new BatchWriterConfig());
+      return connector.createBatchWriter(tableName, batchWriterConfig);
     } catch (TableNotFoundException e) {
       throw new IllegalStateException("Table " + tableName + " not found", e);
     }
@@ -122,18 +147,94 @@ public class AccumuloTemplate {
    *     puts write operations in a mutation
    */
   public void save(String tableName, String rowId, MutationSetter mutationSetter) {
-    BatchWriter writer = getBatchWriter(tableName);
-
     MutationBuilder mutationBuilder = new MutationBuilder(tableName, rowId, columnVisibilityPolicy);
     mutationSetter.putWriteOperations(mutationBuilder);
+    write(tableName, mutationBuilder.build());
+  }
+
+  /**
+   * Writes mutation. Unless group commit is enabled, the mutation is flushed
+   * before this method returns.
+   *
+   * @param tableName
+   *     table name
+   * @param mutation
+   *     mutation to write
+   */
+  public void write(String tableName, Mutation mutation) {
+    if (mutation.size() == 0) {
+      return;
+    }
+
+    BatchWriter writer = getBatchWriter(tableName);
     try {
-      writer.addMutation(mutationBuilder.build());
-      writer.flush();
+      writer.addMutation(mutation);
+      if (!groupCommit) {
+        writer.flush();
+      }
     } catch (MutationsRejectedException e) {
-      throw new IllegalStateException("Cannot save row ID " + rowId, e);
+      throw new IllegalStateException(
+          "Cannot save row ID " + new String(mutation.getRow(), StandardCharsets.UTF_8), e);
     }
   }
 
+  /**
+   * Sends buffered mutations for all tables to the tablet servers, and waits
+   * until they are written. Call this at a commit point, for example, before
+   * transferring a NiFi FlowFile whose content was saved.
+   */
+  public void flush() {
+    // Take the actions registered so far before flushing, so an action
+    // registered during the flush waits for the next flush, which is sure to
+    // send its mutations.
+    List<Runnable> actions = new ArrayList<>();
+    Runnable action;
+    while ((action = afterFlushActions.poll()) != null) {
+      actions.add(action);
+    }
+
+    Timer.Context timerContext = getTimerContext(getClass(), "flush");
+    try {
+      for (Map.Entry<String, BatchWriter> entry : tableToWriterMap.entrySet()) {
+        try {
+          entry.getValue().flush();
+        } catch (MutationsRejectedException e) {
+          throw new IllegalStateException("Cannot flush table " + entry.getKey(), e);
+        }
+      }
+    } finally {
+      timerContext.stop();
+    }
+
+    actions.forEach(Runnable::run);
+  }
+
+  /**
+   * Runs an action after the mutations written so far are sent to the tablet
+   * servers. Unless group commit is enabled, they were already sent, so the
+   * action runs immediately. Otherwise, the action runs after the next
+   * successful {@link #flush()}, and is discarded if that flush fails.
+   *
+   * @param action
+   *     action to run, for example, telling other processes about the writes
+   */
+  public void afterFlush(Runnable action) {
+    if (groupCommit) {
+      afterFlushActions.add(action);
+    } else {
+      action.run();
+    }
+  }
+
+  /**
+   * Checks if writes are buffered until an explicit flush.
+   *
+   * @return true if group commit is enabled
+   */
+  public boolean isGroupCommit() {
+    return groupCommit;
+  }
+
   /**
    * Creates a scanner of the table.
    *
@@ -151,6 +252,74 @@ public class AccumuloTemplate {
     }
   }
 
+  /**
+   * Creates a batch scanner of the table. The batch scanner queries the
+   * tablet servers in parallel, and returns entries in no particular order.
+   *
+   * @param tableName
+   *     table to scan
+   * @return batch scanner
+   * @throws RuntimeException
+   *     if table not found
+   */
+  public BatchScanner createBatchScanner(String tableName) {
+    try {
+      return connector.createBatchScanner(
+          tableName, authorizationsSupplier.get(), batchScannerQueryThreads);
+    } catch (TableNotFoundException e) {
+      throw new IllegalStateException("Table " + tableName + " not found", e);
+    }
+  }
+
+  /**
+   * Reads entries from rows into a map of objects keyed by row ID. Adds an
+   * iterator to the batch scanner which returns each row as a single entry,
+   * so entries from different rows cannot interleave. Also closes the batch
+   * scanner.
+   *
+   * @param batchScanner
+   *     batch scanner to read from, with ranges set
+   * @param rowMapper
+   *     callback to receive entries
+   * @param <E>
+   *     entity type
+   * @return map of row ID to entity
+   */
+  public <E> Map<String, E> queryForMap(BatchScanner batchScanner, RowMapper<E> rowMapper) {
+    Timer.Context timerContext = getTimerContext("queryForMap", rowMapper);
+    try {
+      batchScanner.addScanIterator(new IteratorSetting(
+          Integer.MAX_VALUE, WholeRowIterator.class.getSimpleName(), WholeRowIterator.class));
+
+      Map<String, E> rowIdToEntityMap = new HashMap<>();
+      for (Map.Entry<Key, Value> rowEntry : batchScanner) {
+        SortedMap<Key, Value> row = decodeRow(rowEntry);
+        if (row.isEmpty()) {
+          continue;
+        }
+
+        rowMapper.onBeginRow(row.firstKey());
+        row.entrySet().forEach(entry -> rowMapper.onReadEntry(entry));
+        E entity = rowMapper.onEndRow();
+        if (entity != null) {
+          rowIdToEntityMap.put(rowEntry.getKey().getRow().toString(), entity);
+        }
+      }
+      return rowIdToEntityMap;
+    } finally {
+      timerContext.stop();
+      batchScanner.close();
+    }
+  }
+
+  private static SortedMap<Key, Value> decodeRow(Map.Entry<Key, Value> rowEntry) {
+    try {
+      return WholeRowIterator.decodeRow(rowEntry.getKey(), rowEntry.getValue());
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot decode row " + rowEntry.getKey().getRow(), e);
+    }
+  }
+
   /**
    * Reads entries from row into an object. Also closes scanner.
    *
@@ -264,7 +433,7 @@ public class AccumuloTemplate {
     BatchDeleter deleter = null;
     try {
       deleter = connector.createBatchDeleter(
-          tableName, authorizationsSupplier.get(), 1, new BatchWriterConfig());
+          tableName, authorizationsSupplier.get(), 1, batchWriterConfig);
       deleter.setRanges(Arrays.asList(range));
       deleter.delete();
     } catch (MutationsRejectedException e) {
@@ -0,0 +1,147 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.common.accumulo;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Function;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.user.RowFilter;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * Accepts rows having entries whose values satisfy conditions. A condition
+ * is given by an option whose key is a condition prefix followed by the
+ * column qualifier of the entry to test, and whose value is compared to the
+ * entry value byte by byte. A row not having the entry tested by a condition
+ * is accepted, so the client can decide.
+ * <p>
+ * The filter walks the entries and the conditions together in column
+ * qualifier order, and stops reading a row after the greatest tested column
+ * qualifier, so a scan using this filter should fetch one column family.
+ * <p>
+ * This iterator runs in the tablet servers, so the jar containing it must be
+ * deployed to the Accumulo lib/ext directory.
+ */
+public class AttributeRowFilter extends RowFilter {
+
+  /** option key prefix of condition passing if entry value equals option value */
+  public static final String EQUAL = "equal.";
+
+  /** option key prefix of condition passing if entry value is not less than option value */
+  public static final String MINIMUM = "minimum.";
+
+  /** option key prefix of condition passing if entry value is less than option value */
+  public static final String MAXIMUM = "maximum.";
+
+  /**
+   * Conditions on the value of an entry. Bounds are compared byte by byte
+   * with the entry value, which the filter reads without copying.
+   */
+  private static class Condition {
+    private final Text qualifier;
+    private byte[] equal;
+    private byte[] minimum;
+    private byte[] maximum;
+
+    Condition(Text qualifier) {
+      this.qualifier = qualifier;
+    }
+
+    boolean accept(byte[] value) {
+      if (equal != null && !Arrays.equals(equal, value)) {
+        return false;
+      }
+
+      if (minimum != null && compare(value, minimum) < 0) {
+        return false;
+      }
+
+      return maximum == null || compare(value, maximum) < 0;
+    }
+
+    private static int compare(byte[] left, byte[] right) {
+      return WritableComparator.compareBytes(left, 0, left.length, right, 0, right.length);
+    }
+  }
+
+  // sorted by column qualifier
+  private Condition[] conditions = new Condition[0];
+
+  @Override
+  public void init(
+      SortedKeyValueIterator<Key, Value> source,
+      Map<String, String> options,
+      IteratorEnvironment env) throws IOException {
+
+    super.init(source, options, env);
+
+    SortedMap<Text, Condition> qualifierToConditionMap = new TreeMap<>();
+    Function<String, Condition> getCondition = qualifier -> qualifierToConditionMap
+        .computeIfAbsent(new Text(qualifier), key -> new Condition(key));
+    for (Map.Entry<String, String> entry : options.entrySet()) {
+      String key = entry.getKey();
+      byte[] value = entry.getValue().getBytes(StandardCharsets.UTF_8);
+      if (key.startsWith(EQUAL)) {
+        getCondition.apply(key.substring(EQUAL.length())).equal = value;
+      } else if (key.startsWith(MINIMUM)) {
+        getCondition.apply(key.substring(MINIMUM.length())).minimum = value;
+      } else if (key.startsWith(MAXIMUM)) {
+        getCondition.apply(key.substring(MAXIMUM.length())).maximum = value;
+      }
+    }
+
+    conditions = qualifierToConditionMap.values().toArray(new Condition[0]);
+  }
+
+  @Override
+  public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env) {
+    AttributeRowFilter copy = (AttributeRowFilter) super.deepCopy(env);
+    copy.conditions = conditions;
+    return copy;
+  }
+
+  @Override
+  public boolean acceptRow(SortedKeyValueIterator<Key, Value> rowIterator) throws IOException {
+    // Walk the entries and the conditions together in column qualifier order.
+    int conditionIndex = 0;
+    while (rowIterator.hasTop() && conditionIndex < conditions.length) {
+      Condition condition = conditions[conditionIndex];
+      int comparison = rowIterator.getTopKey().compareColumnQualifier(condition.qualifier);
+      if (comparison < 0) {
+        rowIterator.next();
+      } else if (comparison > 0) {
+        // The row does not have the tested entry.
+        conditionIndex++;
+      } else {
+        if (!condition.accept(rowIterator.getTopValue().get())) {
+          return false;
+        }
+        conditionIndex++;
+        rowIterator.next();
+      }
+    }
+
+    // The remaining entries, such as the entity content, are not read.
+    return true;
+  }
+}
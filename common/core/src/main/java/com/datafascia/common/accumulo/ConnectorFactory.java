@@ -15,10 +15,12 @@ package com.datafascia.common.accumulo;
 
 import com.datafascia.common.configuration.ConfigurationNode;
 import com.datafascia.common.configuration.Configure;
+import java.util.concurrent.TimeUnit;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
+import org.apache.accumulo.core.client.BatchWriterConfig;
 import org.apache.accumulo.core.client.Connector;
 import org.apache.accumulo.core.client.Instance;
 import org.apache.accumulo.core.client.ZooKeeperInstance;
@@ -36,6 +38,7 @@ public class ConnectorFactory {
   public static final String MOCK_INSTANCE = "mock";
 
   private static final Authorizations AUTHORIZATIONS = new Authorizations("System");
+  private static final int DEFAULT_BATCH_SCANNER_QUERY_THREADS = 8;
 
   @Configure
   private String instance;
@@ -49,6 +52,24 @@ public class ConnectorFactory {
   @Configure
   private String password;
 
+  @Configure
+  private long batchWriterMaxMemory;
+
+  @Configure
+  private long batchWriterMaxLatencyMillis;
+
+  @Configure
+  private int batchWriterMaxWriteThreads;
+
+  @Configure
+  private boolean groupCommit;
+
+  @Configure
+  private int batchScannerQueryThreads;
+
+  @Configure
+  private int indexShardCount;
+
   private Instance cluster;
   private Connector connector;
 
@@ -63,6 +84,61 @@ public class ConnectorFactory {
     this.zooKeepers = accumuloConfiguration.getZooKeepers();
     this.user = accumuloConfiguration.getUser();
     this.password = accumuloConfiguration.getPassword();
+    this.batchWriterMaxMemory = accumuloConfiguration.getBatchWriterMaxMemory();
+    this.batchWriterMaxLatencyMillis = accumuloConfiguration.getBatchWriterMaxLatencyMillis();
+    this.batchWriterMaxWriteThreads = accumuloConfiguration.getBatchWriterMaxWriteThreads();
+    this.groupCommit = accumuloConfiguration.isGroupCommit();
+    this.batchScannerQueryThreads = accumuloConfiguration.getBatchScannerQueryThreads();
+    this.indexShardCount = accumuloConfiguration.getIndexShardCount();
+  }
+
+  /**
+   * Creates batch writer configuration. A setting which is not positive takes
+   * the Accumulo default.
+   *
+   * @return batch writer configuration
+   */
+  public BatchWriterConfig createBatchWriterConfig() {
+    BatchWriterConfig config = new BatchWriterConfig();
+    if (batchWriterMaxMemory > 0) {
+      config.setMaxMemory(batchWriterMaxMemory);
+    }
+    if (batchWriterMaxLatencyMillis > 0) {
+      config.setMaxLatency(batchWriterMaxLatencyMillis, TimeUnit.MILLISECONDS);
+    }
+    if (batchWriterMaxWriteThreads > 0) {
+      config.setMaxWriteThreads(batchWriterMaxWriteThreads);
+    }
+    return config;
+  }
+
+  /**
+   * Checks if writes should be buffered until an explicit flush instead of
+   * flushed after each save.
+   *
+   * @return true if group commit is enabled
+   */
+  public boolean isGroupCommit() {
+    return groupCommit;
+  }
+
+  /**
+   * Gets number of threads a batch scanner uses to query tablet servers.
+   *
+   * @return query thread count
+   */
+  public int getBatchScannerQueryThreads() {
+    return (batchScannerQueryThreads > 0)
+        ? batchScannerQueryThreads : DEFAULT_BATCH_SCANNER_QUERY_THREADS;
+  }
+
+  /**
+   * Gets number of bin rows an entity index is sharded into.
+   *
+   * @return shard count
+   */
+  public int getIndexShardCount() {
+    return Math.max(indexShardCount, 1);
   }
 
   /**
@@ -69,6 +69,38 @@ public class MutationBuilder {
     return this;
   }
 
+  /**
+   * Puts entry write operation with an explicit timestamp into mutation.
+   *
+   * @param columnQualifier
+   *     column qualifier
+   * @param timestamp
+   *     entry timestamp
+   * @param value
+   *     value to write
+   * @return builder
+   */
+  public MutationBuilder put(String columnQualifier, long timestamp, Value value) {
+    ColumnVisibility columnVisibility = columnVisibilityPolicy.getColumnVisibility(
+        tableName, columnQualifier);
+    mutation.put(columnFamily, columnQualifier, columnVisibility, timestamp, value);
+    return this;
+  }
+
+  /**
+   * Puts entry delete operation into mutation.
+   *
+   * @param columnQualifier
+   *     column qualifier
+   * @return builder
+   */
+  public MutationBuilder putDelete(String columnQualifier) {
+    ColumnVisibility columnVisibility = columnVisibilityPolicy.getColumnVisibility(
+        tableName, columnQualifier);
+    mutation.putDelete(columnFamily, columnQualifier, columnVisibility);
+    return this;
+  }
+
   private static byte[] encode(Object value) {
     try {
       return OBJECT_MAPPER.writeValueAsBytes(value);
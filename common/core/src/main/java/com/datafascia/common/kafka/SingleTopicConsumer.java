@@ -0,0 +1,104 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.common.kafka;
+
+import java.util.Collections;
+import java.util.Properties;
+import java.util.function.Consumer;
+import kafka.consumer.ConsumerConfig;
+import kafka.consumer.ConsumerIterator;
+import kafka.consumer.ConsumerTimeoutException;
+import kafka.consumer.KafkaStream;
+import kafka.javaapi.consumer.ConsumerConnector;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Receives messages from one topic on a background thread, and passes each
+ * message to a handler.
+ */
+@Slf4j
+public class SingleTopicConsumer {
+
+  private final Properties consumerConfig;
+  private final String topic;
+  private final Consumer<KafkaMessage> handler;
+  private ConsumerConnector connector;
+  private Thread thread;
+
+  /**
+   * Constructor
+   *
+   * @param consumerConfig
+   *     Kafka consumer configuration
+   * @param topic
+   *     topic name
+   * @param handler
+   *     receives messages
+   */
+  public SingleTopicConsumer(
+      Properties consumerConfig, String topic, Consumer<KafkaMessage> handler) {
+
+    this.consumerConfig = consumerConfig;
+    this.topic = topic;
+    this.handler = handler;
+  }
+
+  /**
+   * Connects to the topic and starts receiving messages.
+   */
+  public synchronized void start() {
+    if (connector != null) {
+      return;
+    }
+
+    connector = kafka.consumer.Consumer.createJavaConsumerConnector(
+        new ConsumerConfig(consumerConfig));
+    KafkaStream<byte[], byte[]> stream = connector.createMessageStreams(
+        Collections.singletonMap(topic, 1))
+        .get(topic)
+        .get(0);
+
+    thread = new Thread(() -> receive(stream), getClass().getSimpleName() + ' ' + topic);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void receive(KafkaStream<byte[], byte[]> stream) {
+    ConsumerIterator<byte[], byte[]> iterator = stream.iterator();
+    try {
+      while (iterator.hasNext()) {
+        KafkaMessage message = new KafkaMessage(iterator.next());
+        try {
+          handler.accept(message);
+        } catch (RuntimeException e) {
+          log.error("Cannot handle message from topic {} offset {}", topic, message.offset, e);
+        }
+      }
+    } catch (ConsumerTimeoutException e) {
+      log.info("Timed out waiting for message from topic {}", topic);
+    }
+  }
+
+  /**
+   * Stops receiving messages and disconnects from the topic.
+   */
+  public synchronized void close() {
+    if (connector != null) {
+      // Shutting down the connector ends the stream, so the thread exits.
+      connector.shutdown();
+      connector = null;
+      thread = null;
+    }
+  }
+}
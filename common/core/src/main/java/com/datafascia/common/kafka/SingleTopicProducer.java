@@ -35,9 +35,27 @@ public class SingleTopicProducer {
    *     topic name
    */
   public SingleTopicProducer(String kafkaBrokers, String topic) {
+    this(kafkaBrokers, topic, false);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param kafkaBrokers
+   *     comma separated list of Kafka brokers
+   * @param topic
+   *     topic name
+   * @param async
+   *     if true, send messages in batches from a background thread, so
+   *     {@link #send} does not wait for the broker
+   */
+  public SingleTopicProducer(String kafkaBrokers, String topic, boolean async) {
     Properties properties = new Properties();
     properties.put("metadata.broker.list", kafkaBrokers);
     properties.put("request.required.acks", "1");
+    if (async) {
+      properties.put("producer.type", "async");
+    }
     producer = new Producer<>(new ProducerConfig(properties));
 
     this.topic = topic;
@@ -52,4 +70,24 @@ public class SingleTopicProducer {
   public void send(byte[] message) {
     producer.send(new KeyedMessage<>(topic, message));
   }
+
+  /**
+   * Sends message with key. Messages having the same key go to the same
+   * partition, so they are consumed in the order they were sent.
+   *
+   * @param key
+   *     partition key
+   * @param message
+   *     to send
+   */
+  public void send(byte[] key, byte[] message) {
+    producer.send(new KeyedMessage<>(topic, key, message));
+  }
+
+  /**
+   * Closes connections to the brokers.
+   */
+  public void close() {
+    producer.close();
+  }
 }
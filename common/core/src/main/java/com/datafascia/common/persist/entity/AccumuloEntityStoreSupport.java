@@ -0,0 +1,201 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.common.persist.entity;
+
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import com.datafascia.common.accumulo.AccumuloTemplate;
+import com.datafascia.common.accumulo.RowMapper;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.apache.accumulo.core.client.BatchScanner;
+import org.apache.accumulo.core.data.Range;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Maps entity IDs to rows of the Accumulo table storing entity data, and
+ * reads rows for the entity store implementations.
+ */
+abstract class AccumuloEntityStoreSupport {
+
+  private static final String DATA = "Data";
+  protected static final char COMPONENT_SEPARATOR = '=';
+  private static final char KEY_SEPARATOR = '&';
+
+  protected AccumuloTemplate accumuloTemplate;
+  private String dataTableName;
+
+  /**
+   * Constructor
+   *
+   * @param tableNamePrefix
+   *     prefix for generating table names
+   * @param accumuloTemplate
+   *     data access operations template
+   */
+  protected AccumuloEntityStoreSupport(String tableNamePrefix, AccumuloTemplate accumuloTemplate) {
+    this.accumuloTemplate = accumuloTemplate;
+
+    dataTableName = tableNamePrefix + DATA;
+    accumuloTemplate.createTableIfNotExist(dataTableName);
+  }
+
+  /**
+   * Gets name of Accumulo table storing entity data.
+   *
+   * @return Accumulo table name
+   */
+  public String getDataTableName() {
+    return dataTableName;
+  }
+
+  private static String escape(String input) {
+    try {
+      return URLEncoder.encode(input, StandardCharsets.UTF_8.name());
+    } catch (UnsupportedEncodingException e) {
+      throw new AssertionError("Java must implement UTF-8");
+    }
+  }
+
+  private static String toRowId(TypeAndId entityIdElement) {
+    if (entityIdElement.getType() == null || entityIdElement.getId() == null) {
+      throw new InternalErrorException("Could not generate row ID for "
+          + entityIdElement.toString());
+    }
+
+    return entityIdElement.getType().getSimpleName() + COMPONENT_SEPARATOR +
+        escape(entityIdElement.getId().toString()) + KEY_SEPARATOR;
+  }
+
+  /**
+   * Converts entity ID to Accumulo row ID.
+   *
+   * @param entityId
+   *     entity ID
+   * @return row ID
+   */
+  public static String toRowId(EntityId entityId) {
+    StringBuilder rowId = new StringBuilder();
+    for (TypeAndId entityIdElement : entityId.getElements()) {
+      rowId.append(toRowId(entityIdElement));
+    }
+
+    return rowId.toString();
+  }
+
+  /**
+   * Converts parent entity ID and entity type to the prefix of the row IDs of
+   * the entities of that type contained in the parent.
+   *
+   * @param parentId
+   *     containing parent entity ID, null for top level entities
+   * @param entityType
+   *     entity type
+   * @return row ID prefix
+   */
+  protected static String toRowIdPrefix(EntityId parentId, Class<?> entityType) {
+    String prefix = Optional.ofNullable(parentId)
+        .map(entityId -> toRowId(entityId))
+        .orElse("");
+    return prefix + entityType.getSimpleName() + COMPONENT_SEPARATOR;
+  }
+
+  /**
+   * Reads rows in one parallel fetch.
+   *
+   * @param rowIds
+   *     row IDs
+   * @param entityType
+   *     entity type
+   * @param rowMapper
+   *     converts row to entity
+   * @param <E>
+   *     entity type
+   * @return map of row ID to found entity
+   */
+  protected <E> Map<String, E> readRows(
+      Collection<String> rowIds, Class<E> entityType, RowMapper<E> rowMapper) {
+
+    if (rowIds.isEmpty()) {
+      return Collections.emptyMap();
+    }
+
+    BatchScanner batchScanner = accumuloTemplate.createBatchScanner(getDataTableName());
+    batchScanner.setRanges(rowIds.stream()
+        .map(rowId -> Range.exact(rowId))
+        .collect(Collectors.toList()));
+    batchScanner.fetchColumnFamily(new Text(entityType.getSimpleName()));
+
+    return accumuloTemplate.queryForMap(batchScanner, rowMapper);
+  }
+
+  /**
+   * Reads entities in one parallel fetch. All IDs must convert to entity IDs
+   * having the same entity type.
+   *
+   * @param ids
+   *     IDs
+   * @param toEntityId
+   *     converts ID to entity ID
+   * @param rowMapperFactory
+   *     creates row mapper for entity type
+   * @param <K>
+   *     ID type
+   * @param <E>
+   *     entity type
+   * @return map of ID to found entity, in the order of the IDs
+   */
+  protected <K, E> Map<K, E> readRows(
+      Collection<K> ids,
+      Function<K, EntityId> toEntityId,
+      Function<Class<E>, RowMapper<E>> rowMapperFactory) {
+
+    if (ids.isEmpty()) {
+      return Collections.emptyMap();
+    }
+
+    Map<K, String> idToRowIdMap = new LinkedHashMap<>();
+    Set<Class<?>> entityTypes = new HashSet<>();
+    for (K id : ids) {
+      EntityId entityId = toEntityId.apply(id);
+      idToRowIdMap.put(id, toRowId(entityId));
+      entityTypes.add(entityId.getType());
+    }
+    if (entityTypes.size() != 1) {
+      throw new IllegalArgumentException("Expected one entity type but found " + entityTypes);
+    }
+
+    Class<E> entityType = (Class<E>) entityTypes.iterator().next();
+    Map<String, E> rowIdToEntityMap = readRows(
+        idToRowIdMap.values(), entityType, rowMapperFactory.apply(entityType));
+
+    Map<K, E> idToEntityMap = new LinkedHashMap<>();
+    idToRowIdMap.forEach((id, rowId) -> {
+      E entity = rowIdToEntityMap.get(rowId);
+      if (entity != null) {
+        idToEntityMap.put(id, entity);
+      }
+    });
+    return idToEntityMap;
+  }
+}
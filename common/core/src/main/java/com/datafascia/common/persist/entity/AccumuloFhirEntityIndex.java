@@ -14,68 +14,139 @@
 package com.datafascia.common.persist.entity;
 
 import com.datafascia.common.accumulo.AccumuloTemplate;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
-import org.apache.accumulo.core.client.BatchWriter;
-import org.apache.accumulo.core.client.BatchWriterConfig;
-import org.apache.accumulo.core.client.Connector;
-import org.apache.accumulo.core.client.MutationsRejectedException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.accumulo.core.client.BatchScanner;
 import org.apache.accumulo.core.client.Scanner;
-import org.apache.accumulo.core.client.TableNotFoundException;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Mutation;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
 
 /**
- * Maps search term to entity IDs.
+ * Maps search term to entity IDs. Entries are spread over a number of bin
+ * rows chosen by hashing the entity row ID, so writes and searches are not
+ * confined to a single tablet. A search scans all bin rows in parallel.
  *
  * @param <E>
  *     entity type
  */
+@Slf4j
 public class AccumuloFhirEntityIndex<E> implements FhirEntityIndex<E> {
 
-  private static final String BIN_ROW_ID = "0000";
+  private static final String METADATA_ROW_ID = "metadata";
+  private static final String SHARD_COUNT = "shardCount";
   private static final Value EMPTY_VALUE = new Value();
+  private static final Range BINS_RANGE = new Range(null, true, METADATA_ROW_ID, false);
 
   private String indexTableName;
   private Function<E, String> termSupplier;
   private AccumuloTemplate accumuloTemplate;
-  private BatchWriter writer;
+  private int shardCount;
   private boolean checkedEmpty;
 
   /**
-   * Constructor
+   * Constructor. Fails if the index was written with a different shard count.
+   * Run {@link #rebuild(String, AccumuloTemplate, int)} offline to move the
+   * existing entries before starting with a new shard count.
    *
    * @param indexName
    *     index name
    * @param termSupplier
    *     function to extract search term from entity
-   * @param connector
-   *     Accumulo connector
    * @param accumuloTemplate
    *     data access operations template
+   * @param shardCount
+   *     number of bin rows
    */
   public AccumuloFhirEntityIndex(
       String indexName,
       Function<E, String> termSupplier,
-      Connector connector,
-      AccumuloTemplate accumuloTemplate) {
+      AccumuloTemplate accumuloTemplate,
+      int shardCount) {
 
     this.indexTableName = indexName;
     this.termSupplier = termSupplier;
     this.accumuloTemplate = accumuloTemplate;
+    this.shardCount = shardCount;
 
     accumuloTemplate.createTableIfNotExist(indexTableName);
 
-    try {
-      writer = connector.createBatchWriter(indexTableName, new BatchWriterConfig());
-    } catch (TableNotFoundException e) {
-      throw new IllegalStateException("Table " + indexTableName + " not found", e);
+    if (!hasShardCount(indexTableName, accumuloTemplate)
+        && !hasEntries(indexTableName, accumuloTemplate)) {
+      writeShardCount(indexTableName, accumuloTemplate, shardCount);
+      accumuloTemplate.flush();
     }
+
+    int storedShardCount = readShardCount(indexTableName, accumuloTemplate);
+    if (storedShardCount != shardCount) {
+      throw new IllegalStateException(String.format(
+          "Index %s was written with %d bin rows but is configured with %d. "
+              + "Run the rebuild-entity-index command before changing the shard count.",
+          indexTableName,
+          storedShardCount,
+          shardCount));
+    }
+  }
+
+  private static String toBinRowId(int bin) {
+    return String.format("%04d", bin);
+  }
+
+  private static String toBinRowId(String entityRowId, int shardCount) {
+    return toBinRowId(Math.floorMod(entityRowId.hashCode(), shardCount));
+  }
+
+  private String toBinRowId(String entityRowId) {
+    return toBinRowId(entityRowId, shardCount);
+  }
+
+  private static boolean hasShardCount(String indexTableName, AccumuloTemplate accumuloTemplate) {
+    Scanner scanner = accumuloTemplate.createScanner(indexTableName);
+    scanner.setRange(Range.exact(METADATA_ROW_ID, SHARD_COUNT));
+    boolean found = scanner.iterator().hasNext();
+    scanner.close();
+    return found;
+  }
+
+  private static boolean hasEntries(String indexTableName, AccumuloTemplate accumuloTemplate) {
+    Scanner scanner = accumuloTemplate.createScanner(indexTableName);
+    scanner.setRange(BINS_RANGE);
+    boolean found = scanner.iterator().hasNext();
+    scanner.close();
+    return found;
+  }
+
+  // An index written before sharding was introduced has no metadata, and
+  // keeps all entries in bin row 0000.
+  private static int readShardCount(String indexTableName, AccumuloTemplate accumuloTemplate) {
+    Scanner scanner = accumuloTemplate.createScanner(indexTableName);
+    scanner.setRange(Range.exact(METADATA_ROW_ID, SHARD_COUNT));
+    Iterator<Map.Entry<Key, Value>> iterator = scanner.iterator();
+    int storedShardCount = iterator.hasNext()
+        ? Integer.parseInt(iterator.next().getValue().toString())
+        : 1;
+    scanner.close();
+    return storedShardCount;
+  }
+
+  private static void writeShardCount(
+      String indexTableName, AccumuloTemplate accumuloTemplate, int shardCount) {
+
+    Mutation mutation = new Mutation(METADATA_ROW_ID);
+    mutation.put(
+        SHARD_COUNT,
+        "",
+        new Value(String.valueOf(shardCount).getBytes(StandardCharsets.UTF_8)));
+    accumuloTemplate.write(indexTableName, mutation);
   }
 
   @Override
@@ -86,30 +157,18 @@ public class AccumuloFhirEntityIndex<E> implements FhirEntityIndex<E> {
     }
     checkedEmpty = true;
 
-    Scanner scanner = accumuloTemplate.createScanner(indexTableName);
-    scanner.setRange(new Range());
-    Iterator<Map.Entry<Key, Value>> iterator = scanner.iterator();
-    boolean empty = !iterator.hasNext();
-    scanner.close();
-    return empty;
+    return !hasEntries(indexTableName, accumuloTemplate);
   }
 
   private void write(Mutation mutation) {
-    if (mutation.size() > 0) {
-      try {
-        writer.addMutation(mutation);
-        writer.flush();
-      } catch (MutationsRejectedException e) {
-        throw new IllegalStateException("Write failed", e);
-      }
-    }
+    accumuloTemplate.write(indexTableName, mutation);
   }
 
   @Override
   public void save(EntityId entityId, E oldObject, E newObject) {
-    Mutation mutation = new Mutation(BIN_ROW_ID);
-
     String entityRowId = AccumuloFhirEntityStore.toRowId(entityId);
+    Mutation mutation = new Mutation(toBinRowId(entityRowId));
+
     String newTerm = termSupplier.apply(newObject);
 
     if (oldObject != null) {
@@ -128,23 +187,29 @@ public class AccumuloFhirEntityIndex<E> implements FhirEntityIndex<E> {
 
   @Override
   public List<String> search(String term) {
+    List<Range> ranges = IntStream.range(0, shardCount)
+        .mapToObj(bin -> Range.exact(toBinRowId(bin), term))
+        .collect(Collectors.toList());
+
     List<String> entityIds = new ArrayList<>();
 
-    Scanner scanner = accumuloTemplate.createScanner(indexTableName);
-    scanner.setRange(Range.exact(BIN_ROW_ID, term));
-    for (Map.Entry<Key, Value> entry : scanner) {
+    BatchScanner batchScanner = accumuloTemplate.createBatchScanner(indexTableName);
+    batchScanner.setRanges(ranges);
+    for (Map.Entry<Key, Value> entry : batchScanner) {
       entityIds.add(entry.getKey().getColumnQualifier().toString());
     }
-    scanner.close();
+    batchScanner.close();
 
+    // Return entity IDs in the same order regardless of shard count.
+    Collections.sort(entityIds);
     return entityIds;
   }
 
   @Override
   public void delete(EntityId entityId, E object) {
-    Mutation mutation = new Mutation(BIN_ROW_ID);
-
     String entityRowId = AccumuloFhirEntityStore.toRowId(entityId);
+    Mutation mutation = new Mutation(toBinRowId(entityRowId));
+
     String term = termSupplier.apply(object);
     if (term != null) {
       mutation.putDelete(term, entityRowId);
@@ -152,4 +217,48 @@ public class AccumuloFhirEntityIndex<E> implements FhirEntityIndex<E> {
 
     write(mutation);
   }
+
+  /**
+   * Moves existing entries to the bin rows expected for a new shard count, and
+   * records the new shard count. This is an offline step: no application may
+   * write to the index while it runs.
+   *
+   * @param indexName
+   *     index name
+   * @param accumuloTemplate
+   *     data access operations template
+   * @param shardCount
+   *     number of bin rows
+   */
+  public static void rebuild(String indexName, AccumuloTemplate accumuloTemplate, int shardCount) {
+    log.info("Moving entries of index {} to {} bin rows", indexName, shardCount);
+
+    int movedCount = 0;
+    Scanner scanner = accumuloTemplate.createScanner(indexName);
+    scanner.setRange(BINS_RANGE);
+    for (Map.Entry<Key, Value> entry : scanner) {
+      String binRowId = entry.getKey().getRow().toString();
+      String term = entry.getKey().getColumnFamily().toString();
+      String entityRowId = entry.getKey().getColumnQualifier().toString();
+
+      String newBinRowId = toBinRowId(entityRowId, shardCount);
+      if (!newBinRowId.equals(binRowId)) {
+        Mutation putMutation = new Mutation(newBinRowId);
+        putMutation.put(term, entityRowId, EMPTY_VALUE);
+        accumuloTemplate.write(indexName, putMutation);
+
+        Mutation deleteMutation = new Mutation(binRowId);
+        deleteMutation.putDelete(term, entityRowId);
+        accumuloTemplate.write(indexName, deleteMutation);
+
+        movedCount++;
+      }
+    }
+    scanner.close();
+
+    writeShardCount(indexName, accumuloTemplate, shardCount);
+    accumuloTemplate.flush();
+
+    log.info("Moved {} entries of index {}", movedCount, indexName);
+  }
 }
@@ -14,20 +14,30 @@
 package com.datafascia.common.persist.entity;
 
 import ca.uhn.fhir.context.FhirContext;
-import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import com.datafascia.common.accumulo.AccumuloTemplate;
+import com.datafascia.common.accumulo.AttributeRowFilter;
+import com.datafascia.common.accumulo.ConnectorFactory;
 import com.datafascia.common.avro.schemaregistry.AvroSchemaRegistry;
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
+import com.google.common.collect.Iterators;
 import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.inject.Inject;
 import javax.inject.Named;
-import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.IteratorSetting;
 import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.PartialKey;
 import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.SortedKeyIterator;
 import org.apache.avro.Schema;
 import org.apache.hadoop.io.Text;
 import org.hl7.fhir.instance.model.api.IBaseResource;
@@ -35,18 +45,16 @@ import org.hl7.fhir.instance.model.api.IBaseResource;
 /**
  * Copies values between Java object fields and Accumulo entries.
  */
-public class AccumuloFhirEntityStore implements FhirEntityStore {
+public class AccumuloFhirEntityStore extends AccumuloEntityStoreSupport
+    implements FhirEntityStore {
 
   private static final Schema DUMMY_SCHEMA = Schema.create(Schema.Type.NULL);
-  private static final String DATA = "Data";
-  private static final char COMPONENT_SEPARATOR = '=';
-  private static final char KEY_SEPARATOR = '&';
+  private static final int ATTRIBUTE_FILTER_PRIORITY = 30;
+  private static final int KEYS_ONLY_ITERATOR_PRIORITY = 32;
 
   private FhirContext fhirContext;
   private AvroSchemaRegistry schemaRegistry;
-  private String dataTableName;
-  private Connector connector;
-  private AccumuloTemplate accumuloTemplate;
+  private int indexShardCount;
 
   /**
    * Constructor
@@ -57,75 +65,51 @@ public class AccumuloFhirEntityStore implements FhirEntityStore {
    *     Avro schema registry
    * @param tableNamePrefix
    *     prefix for generating table names
-   * @param connector
-   *     Accumulo connector
    * @param accumuloTemplate
    *     data access operations template
+   * @param connectorFactory
+   *     supplies index shard count
    */
   @Inject
   public AccumuloFhirEntityStore(
       FhirContext fhirContext,
       AvroSchemaRegistry schemaRegistry,
       @Named("entityTableNamePrefix") String tableNamePrefix,
-      Connector connector,
-      AccumuloTemplate accumuloTemplate) {
+      AccumuloTemplate accumuloTemplate,
+      ConnectorFactory connectorFactory) {
+
+    super(tableNamePrefix, accumuloTemplate);
 
     this.fhirContext = fhirContext;
     this.schemaRegistry = schemaRegistry;
-    this.connector = connector;
-    this.accumuloTemplate = accumuloTemplate;
-
-    dataTableName = tableNamePrefix + DATA;
-    accumuloTemplate.createTableIfNotExist(dataTableName);
-  }
-
-  private String getDataTableName() {
-    return dataTableName;
-  }
-
-  private static String escape(String input) {
-    try {
-      return URLEncoder.encode(input, StandardCharsets.UTF_8.name());
-    } catch (UnsupportedEncodingException e) {
-      throw new AssertionError("Java must implement UTF-8");
-    }
+    this.indexShardCount = connectorFactory.getIndexShardCount();
   }
 
-  private static String toRowId(TypeAndId entityIdElement) {
-    if (entityIdElement.getType() == null || entityIdElement.getId() == null) {
-      throw new InternalErrorException("Could not generate row ID for "
-          + entityIdElement.toString());
-    }
-
-    return entityIdElement.getType().getSimpleName() + COMPONENT_SEPARATOR +
-        escape(entityIdElement.getId().toString()) + KEY_SEPARATOR;
+  @Override
+  public void save(EntityId entityId, IBaseResource object) {
+    save(entityId, object, Collections.emptyMap());
   }
 
-  /**
-   * Converts entity ID to Accumulo row ID.
-   *
-   * @param entityId
-   *     entity ID
-   * @return row ID
-   */
-  public static String toRowId(EntityId entityId) {
-    StringBuilder rowId = new StringBuilder();
-    for (TypeAndId entityIdElement : entityId.getElements()) {
-      rowId.append(toRowId(entityIdElement));
-    }
-
-    return rowId.toString();
+  @Override
+  public void save(EntityId entityId, IBaseResource object, Map<String, String> attributes) {
+    save(entityId, object, attributes, attributes.keySet());
   }
 
   @Override
-  public void save(EntityId entityId, IBaseResource object) {
+  public void save(
+      EntityId entityId,
+      IBaseResource object,
+      Map<String, String> attributes,
+      Collection<String> attributeNames) {
+
+    String typeName = object.getClass().getSimpleName();
     Schema schema = DUMMY_SCHEMA;
-    long schemaId = schemaRegistry.putSchema(object.getClass().getSimpleName(), schema);
+    long schemaId = schemaRegistry.putSchema(typeName, schema);
 
     accumuloTemplate.save(
         getDataTableName(),
         toRowId(entityId),
-        new FhirMutationSetter(fhirContext, schemaId, object));
+        new FhirMutationSetter(fhirContext, schemaId, object, attributes, attributeNames));
   }
 
   @Override
@@ -142,11 +126,26 @@ public class AccumuloFhirEntityStore implements FhirEntityStore {
     return read(toRowId(entityId), (Class<E>) entityId.getType());
   }
 
-  private static <E> String toRowIdPrefix(EntityId parentId, Class<E> entityType) {
-    String prefix = Optional.ofNullable(parentId)
-        .map(entityId -> toRowId(entityId))
-        .orElse("");
-    return prefix + entityType.getSimpleName() + COMPONENT_SEPARATOR;
+  @Override
+  public <E extends IBaseResource> Map<EntityId, E> readAll(Collection<EntityId> entityIds) {
+    return readAll(entityIds, Function.identity());
+  }
+
+  @Override
+  public <K, E extends IBaseResource> Map<K, E> readAll(
+      Collection<K> ids, Function<K, EntityId> toEntityId) {
+
+    return readRows(ids, toEntityId, entityType -> new FhirRowMapper<>(fhirContext, entityType));
+  }
+
+  @Override
+  public <E extends IBaseResource> List<E> readAll(Collection<String> rowIds, Class<E> entityType) {
+    Map<String, E> rowIdToEntityMap =
+        readRows(rowIds, entityType, new FhirRowMapper<>(fhirContext, entityType));
+    return rowIds.stream()
+        .map(rowId -> rowIdToEntityMap.get(rowId))
+        .filter(Objects::nonNull)
+        .collect(Collectors.toList());
   }
 
   @Override
@@ -158,6 +157,114 @@ public class AccumuloFhirEntityStore implements FhirEntityStore {
     return accumuloTemplate.stream(scanner, new FhirRowMapper<>(fhirContext, entityType));
   }
 
+  @Override
+  public <E extends IBaseResource> int saveMissingAttribute(
+      EntityId parentId, Class<E> entityType, String name, String value) {
+
+    String typeName = entityType.getSimpleName();
+    Text attributeQualifier = new Text(FhirMutationSetter.toAttributeQualifier(name));
+    Value attributeValue = new Value(value.getBytes(StandardCharsets.UTF_8));
+
+    Scanner scanner = accumuloTemplate.createScanner(getDataTableName());
+    scanner.setRange(Range.prefix(toRowIdPrefix(parentId, entityType)));
+    scanner.fetchColumn(new Text(typeName), attributeQualifier);
+    scanner.fetchColumn(new Text(typeName), new Text(FhirMutationSetter.SCHEMA_ID));
+    scanner.addScanIterator(
+        new IteratorSetting(KEYS_ONLY_ITERATOR_PRIORITY, "keysOnly", SortedKeyIterator.class));
+
+    // Attribute entries sort before the schema ID entry, which every entity
+    // row has, so a schema ID entry not preceded by the attribute entry in
+    // the same row identifies an entity without the attribute.
+    int savedCount = 0;
+    Text attributeRowId = null;
+    try {
+      for (Map.Entry<Key, Value> entry : scanner) {
+        Key key = entry.getKey();
+        if (key.getColumnQualifier().equals(attributeQualifier)) {
+          attributeRowId = key.getRow();
+        } else if (!key.getRow().equals(attributeRowId)) {
+          accumuloTemplate.save(
+              getDataTableName(),
+              key.getRow().toString(),
+              mutationBuilder ->
+                  mutationBuilder
+                      .columnFamily(typeName)
+                      .put(attributeQualifier.toString(), 0L, attributeValue));
+          savedCount++;
+        }
+      }
+    } finally {
+      scanner.close();
+    }
+
+    if (savedCount > 0) {
+      accumuloTemplate.flush();
+    }
+    return savedCount;
+  }
+
+  private static void addOptions(
+      IteratorSetting setting, String keyPrefix, Map<String, String> nameToValueMap) {
+
+    nameToValueMap.forEach((name, value) ->
+        setting.addOption(keyPrefix + FhirMutationSetter.toAttributeQualifier(name), value));
+  }
+
+  @Override
+  public void afterCommit(Runnable action) {
+    accumuloTemplate.afterFlush(action);
+  }
+
+  @Override
+  public <E extends IBaseResource> Stream<E> stream(
+      EntityId parentId, Class<E> entityType, AttributeQuery query) {
+
+    Scanner scanner = accumuloTemplate.createScanner(getDataTableName());
+    scanner.setRange(Range.prefix(toRowIdPrefix(parentId, entityType)));
+    scanner.fetchColumnFamily(new Text(entityType.getSimpleName()));
+
+    IteratorSetting filterSetting = new IteratorSetting(
+        ATTRIBUTE_FILTER_PRIORITY, AttributeRowFilter.class.getSimpleName(),
+        AttributeRowFilter.class);
+    addOptions(filterSetting, AttributeRowFilter.EQUAL, query.getNameToEqualMap());
+    addOptions(filterSetting, AttributeRowFilter.MINIMUM, query.getNameToMinimumMap());
+    addOptions(filterSetting, AttributeRowFilter.MAXIMUM, query.getNameToMaximumMap());
+    scanner.addScanIterator(filterSetting);
+
+    return accumuloTemplate.stream(scanner, new FhirRowMapper<>(fhirContext, entityType));
+  }
+
+  @Override
+  public <E extends IBaseResource> Stream<E> streamAfter(
+      EntityId parentId, Class<E> entityType, EntityId afterEntityId) {
+
+    Range prefixRange = Range.prefix(toRowIdPrefix(parentId, entityType));
+    Key startKey = new Key(toRowId(afterEntityId)).followingKey(PartialKey.ROW);
+
+    Scanner scanner = accumuloTemplate.createScanner(getDataTableName());
+    scanner.setRange(new Range(
+        startKey, true, prefixRange.getEndKey(), prefixRange.isEndKeyInclusive()));
+    scanner.fetchColumnFamily(new Text(entityType.getSimpleName()));
+
+    return accumuloTemplate.stream(scanner, new FhirRowMapper<>(fhirContext, entityType));
+  }
+
+  @Override
+  public <E extends IBaseResource> int count(EntityId parentId, Class<E> entityType) {
+    Scanner scanner = accumuloTemplate.createScanner(getDataTableName());
+    scanner.setRange(Range.prefix(toRowIdPrefix(parentId, entityType)));
+
+    // Every entity row has exactly one small schema ID entry, so counting
+    // those entries counts the entities without transferring their content.
+    scanner.fetchColumn(
+        new Text(entityType.getSimpleName()), new Text(FhirMutationSetter.SCHEMA_ID));
+    try {
+      return Iterators.size(scanner.iterator());
+    } finally {
+      scanner.close();
+    }
+  }
+
   @Override
   public <E extends IBaseResource> Stream<E> stream(Class<E> entityType) {
     return stream(null, entityType);
@@ -188,6 +295,7 @@ public class AccumuloFhirEntityStore implements FhirEntityStore {
   public <E extends IBaseResource> FhirEntityIndex<E> getIndex(
       String indexName, Function<E, String> termSupplier) {
 
-    return new AccumuloFhirEntityIndex<>(indexName, termSupplier, connector, accumuloTemplate);
+    return new AccumuloFhirEntityIndex<>(
+        indexName, termSupplier, accumuloTemplate, indexShardCount);
   }
 }
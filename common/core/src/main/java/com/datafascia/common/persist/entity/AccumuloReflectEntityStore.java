@@ -15,10 +15,10 @@ package com.datafascia.common.persist.entity;
 
 import com.datafascia.common.accumulo.AccumuloTemplate;
 import com.datafascia.common.avro.schemaregistry.AvroSchemaRegistry;
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
 import java.util.stream.Stream;
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -31,15 +31,10 @@ import org.apache.hadoop.io.Text;
 /**
  * Copies values between Java object fields and Accumulo entries by reflection.
  */
-public class AccumuloReflectEntityStore implements ReflectEntityStore {
-
-  private static final String DATA = "Data";
-  private static final char COMPONENT_SEPARATOR = '=';
-  private static final char KEY_SEPARATOR = '&';
+public class AccumuloReflectEntityStore extends AccumuloEntityStoreSupport
+    implements ReflectEntityStore {
 
   private AvroSchemaRegistry schemaRegistry;
-  private String dataTableName;
-  private AccumuloTemplate accumuloTemplate;
 
   /**
    * Constructor
@@ -57,42 +52,9 @@ public class AccumuloReflectEntityStore implements ReflectEntityStore {
       @Named("entityTableNamePrefix") String tableNamePrefix,
       AccumuloTemplate accumuloTemplate) {
 
-    this.schemaRegistry = schemaRegistry;
-    this.accumuloTemplate = accumuloTemplate;
-
-    dataTableName = tableNamePrefix + DATA;
-    accumuloTemplate.createTableIfNotExist(dataTableName);
-  }
-
-  /**
-   * Gets name of Accumulo table storing entity data.
-   *
-   * @return Accumulo table name
-   */
-  public String getDataTableName() {
-    return dataTableName;
-  }
-
-  private static String escape(String input) {
-    try {
-      return URLEncoder.encode(input, StandardCharsets.UTF_8.name());
-    } catch (UnsupportedEncodingException e) {
-      throw new AssertionError("Java must implement UTF-8");
-    }
-  }
-
-  private static String toRowId(TypeAndId entityIdElement) {
-    return entityIdElement.getType().getSimpleName() + COMPONENT_SEPARATOR +
-        escape(entityIdElement.getId().toString()) + KEY_SEPARATOR;
-  }
-
-  private static String toRowId(EntityId entityId) {
-    StringBuilder rowId = new StringBuilder();
-    for (TypeAndId entityIdElement : entityId.getElements()) {
-      rowId.append(toRowId(entityIdElement));
-    }
+    super(tableNamePrefix, accumuloTemplate);
 
-    return rowId.toString();
+    this.schemaRegistry = schemaRegistry;
   }
 
   @Override
@@ -117,11 +79,14 @@ public class AccumuloReflectEntityStore implements ReflectEntityStore {
     return accumuloTemplate.queryForObject(scanner, new ReflectRowMapper<>(entityType));
   }
 
-  private static <E> String toRowIdPrefix(EntityId parentId, Class<E> entityType) {
-    String prefix = Optional.ofNullable(parentId)
-        .map(entityId -> toRowId(entityId))
-        .orElse("");
-    return prefix + entityType.getSimpleName() + COMPONENT_SEPARATOR;
+  @Override
+  public <E> Map<EntityId, E> readAll(Collection<EntityId> entityIds) {
+    return readAll(entityIds, Function.identity());
+  }
+
+  @Override
+  public <K, E> Map<K, E> readAll(Collection<K> ids, Function<K, EntityId> toEntityId) {
+    return readRows(ids, toEntityId, entityType -> new ReflectRowMapper<>(entityType));
   }
 
   @Override
@@ -138,6 +103,15 @@ public class AccumuloReflectEntityStore implements ReflectEntityStore {
     return stream(null, entityType);
   }
 
+  @Override
+  public <E> Stream<E> streamChildren(Class<?> parentType, Class<E> entityType) {
+    Scanner scanner = accumuloTemplate.createScanner(getDataTableName());
+    scanner.setRange(Range.prefix(parentType.getSimpleName() + COMPONENT_SEPARATOR));
+    scanner.fetchColumnFamily(new Text(entityType.getSimpleName()));
+
+    return accumuloTemplate.stream(scanner, new ReflectRowMapper<>(entityType));
+  }
+
   @Override
   public <E> Stream<E> stream(EntityId startEntityId) {
     Class<E> entityType = (Class<E>) startEntityId.getType();
@@ -0,0 +1,74 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.common.persist.entity;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import lombok.Getter;
+
+/**
+ * Conditions on attributes saved with entities. The conditions are evaluated
+ * in the tablet servers, so only matching entities are sent to the client.
+ * Entities saved without the tested attribute are also returned, so the
+ * caller must apply the conditions again.
+ */
+@Getter
+public class AttributeQuery {
+
+  private final Map<String, String> nameToEqualMap = new LinkedHashMap<>();
+  private final Map<String, String> nameToMinimumMap = new LinkedHashMap<>();
+  private final Map<String, String> nameToMaximumMap = new LinkedHashMap<>();
+
+  /**
+   * Adds condition that attribute equals a value.
+   *
+   * @param name
+   *     attribute name
+   * @param value
+   *     value to match
+   * @return this query
+   */
+  public AttributeQuery equal(String name, String value) {
+    nameToEqualMap.put(name, value);
+    return this;
+  }
+
+  /**
+   * Adds condition that attribute is not less than a value.
+   *
+   * @param name
+   *     attribute name
+   * @param value
+   *     inclusive lower bound
+   * @return this query
+   */
+  public AttributeQuery minimum(String name, String value) {
+    nameToMinimumMap.put(name, value);
+    return this;
+  }
+
+  /**
+   * Adds condition that attribute is less than a value.
+   *
+   * @param name
+   *     attribute name
+   * @param value
+   *     exclusive upper bound
+   * @return this query
+   */
+  public AttributeQuery maximum(String name, String value) {
+    nameToMaximumMap.put(name, value);
+    return this;
+  }
+}
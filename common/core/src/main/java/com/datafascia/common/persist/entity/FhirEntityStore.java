@@ -13,6 +13,9 @@
 // limitations under the License.
 package com.datafascia.common.persist.entity;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.function.Function;
 import java.util.stream.Stream;
@@ -33,6 +36,37 @@ public interface FhirEntityStore {
    */
   void save(EntityId entityId, IBaseResource object);
 
+  /**
+   * Saves entity with attributes which can be tested by {@link AttributeQuery}.
+   *
+   * @param entityId
+   *     entity ID
+   * @param object
+   *     to save
+   * @param attributes
+   *     attribute name to value
+   */
+  void save(EntityId entityId, IBaseResource object, Map<String, String> attributes);
+
+  /**
+   * Saves entity with attributes which can be tested by {@link AttributeQuery},
+   * deleting attributes previously saved for the entity which are not given.
+   *
+   * @param entityId
+   *     entity ID
+   * @param object
+   *     to save
+   * @param attributes
+   *     attribute name to value
+   * @param attributeNames
+   *     names of every attribute the entity type can have
+   */
+  void save(
+      EntityId entityId,
+      IBaseResource object,
+      Map<String, String> attributes,
+      Collection<String> attributeNames);
+
   /**
    * Reads entity.
    *
@@ -57,6 +91,48 @@ public interface FhirEntityStore {
    */
   <E extends IBaseResource> Optional<E> read(EntityId entityId);
 
+  /**
+   * Reads entities in one parallel fetch.
+   *
+   * @param rowIds
+   *     row IDs
+   * @param entityType
+   *     entity type
+   * @param <E>
+   *     entity type
+   * @return found entities, in the order of the row IDs
+   */
+  <E extends IBaseResource> List<E> readAll(Collection<String> rowIds, Class<E> entityType);
+
+  /**
+   * Reads entities in one parallel fetch. All entity IDs must have the same
+   * entity type.
+   *
+   * @param entityIds
+   *     entity IDs
+   * @param <E>
+   *     entity type
+   * @return map of entity ID to found entity, in the order of the entity IDs
+   */
+  <E extends IBaseResource> Map<EntityId, E> readAll(Collection<EntityId> entityIds);
+
+  /**
+   * Reads entities in one parallel fetch, keyed by IDs which convert to
+   * entity IDs. All entity IDs must have the same entity type.
+   *
+   * @param ids
+   *     IDs
+   * @param toEntityId
+   *     converts ID to entity ID
+   * @param <K>
+   *     ID type
+   * @param <E>
+   *     entity type
+   * @return map of ID to found entity, in the order of the IDs
+   */
+  <K, E extends IBaseResource> Map<K, E> readAll(
+      Collection<K> ids, Function<K, EntityId> toEntityId);
+
   /**
    * Reads entities into stream.
    *
@@ -70,6 +146,82 @@ public interface FhirEntityStore {
    */
   <E extends IBaseResource> Stream<E> stream(EntityId parentId, Class<E> entityType);
 
+  /**
+   * Saves an attribute for entities which do not have it, without changing
+   * the entities. The attribute is written with the oldest possible
+   * timestamp, so a concurrent save of an entity takes precedence.
+   *
+   * @param parentId
+   *     containing parent entity ID
+   * @param entityType
+   *     entity type
+   * @param name
+   *     attribute name
+   * @param value
+   *     attribute value
+   * @param <E>
+   *     entity type
+   * @return number of entities the attribute was saved for
+   */
+  <E extends IBaseResource> int saveMissingAttribute(
+      EntityId parentId, Class<E> entityType, String name, String value);
+
+  /**
+   * Runs an action once the entities saved so far are visible to other
+   * readers. If saves are buffered, the action waits until they are flushed.
+   *
+   * @param action
+   *     action to run
+   */
+  void afterCommit(Runnable action);
+
+  /**
+   * Reads entities satisfying attribute conditions into stream.
+   *
+   * @param parentId
+   *     containing parent entity ID
+   * @param entityType
+   *     entity type
+   * @param query
+   *     attribute conditions
+   * @param <E>
+   *     entity type
+   * @return entity stream
+   */
+  <E extends IBaseResource> Stream<E> stream(
+      EntityId parentId, Class<E> entityType, AttributeQuery query);
+
+  /**
+   * Reads entities into stream, starting after an entity. Entities are read
+   * in entity ID order, so a caller reading in pages continues a scan by
+   * passing the ID of the last entity of the previous page.
+   *
+   * @param parentId
+   *     containing parent entity ID, null to read root entities
+   * @param entityType
+   *     entity type
+   * @param afterEntityId
+   *     ID of entity to read after
+   * @param <E>
+   *     entity type
+   * @return entity stream
+   */
+  <E extends IBaseResource> Stream<E> streamAfter(
+      EntityId parentId, Class<E> entityType, EntityId afterEntityId);
+
+  /**
+   * Counts entities without reading their content.
+   *
+   * @param parentId
+   *     containing parent entity ID, null to count root entities
+   * @param entityType
+   *     entity type
+   * @param <E>
+   *     entity type
+   * @return number of entities
+   */
+  <E extends IBaseResource> int count(EntityId parentId, Class<E> entityType);
+
   /**
    * Reads root entities into stream.
    *
@@ -0,0 +1,113 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.common.persist.entity;
+
+import ca.uhn.fhir.context.BaseRuntimeChildDefinition;
+import ca.uhn.fhir.context.BaseRuntimeElementCompositeDefinition;
+import ca.uhn.fhir.context.BaseRuntimeElementDefinition;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+/**
+ * Computes the column qualifiers an entity type could have in the older
+ * entry-per-field layout, where each JSON field which is not an object was
+ * written to an entry whose column qualifier is the dotted path to the field.
+ * The qualifiers are derived from the FHIR type definition, so they are known
+ * without reading the row.
+ */
+final class FhirLegacyLayout {
+
+  // Deep enough for the nested datatypes the older layout wrote, such as
+  // Identifier.assigner.reference, while cutting off recursive structures.
+  private static final int MAXIMUM_DEPTH = 5;
+
+  // JSON fields the parser writes which are not children in the definition
+  private static final List<String> RESOURCE_FIELDS = Arrays.asList(
+      "resourceType",
+      "id",
+      "meta.versionId",
+      "meta.lastUpdated",
+      "meta.profile",
+      "meta.security",
+      "meta.tag");
+  private static final List<String> ELEMENT_FIELDS = Arrays.asList(
+      "extension",
+      "modifierExtension");
+
+  private static final Map<Class<?>, Set<String>> TYPE_TO_QUALIFIERS_MAP =
+      new ConcurrentHashMap<>();
+
+  private FhirLegacyLayout() {
+  }
+
+  /**
+   * Gets column qualifiers of the older layout.
+   *
+   * @param fhirContext
+   *     FHIR context
+   * @param entityType
+   *     entity type
+   * @return column qualifiers
+   */
+  static Set<String> getQualifiers(
+      FhirContext fhirContext, Class<? extends IBaseResource> entityType) {
+
+    return TYPE_TO_QUALIFIERS_MAP.computeIfAbsent(entityType, type -> {
+      RuntimeResourceDefinition definition = fhirContext.getResourceDefinition(entityType);
+
+      Set<String> qualifiers = new TreeSet<>(RESOURCE_FIELDS);
+      addQualifiers(definition, "", 1, qualifiers);
+      return Collections.unmodifiableSet(qualifiers);
+    });
+  }
+
+  private static void addQualifiers(
+      BaseRuntimeElementCompositeDefinition<?> definition,
+      String parentPath,
+      int depth,
+      Set<String> qualifiers) {
+
+    ELEMENT_FIELDS.forEach(fieldName -> qualifiers.add(parentPath + fieldName));
+
+    for (BaseRuntimeChildDefinition child : definition.getChildren()) {
+      for (String childName : child.getValidChildNames()) {
+        String path = parentPath + childName;
+
+        // Repeating children were written as one JSON array entry. A single
+        // composite child was written as an entry per field.
+        BaseRuntimeElementDefinition<?> childDefinition = child.getChildByName(childName);
+        if (child.getMax() == 1 &&
+            depth < MAXIMUM_DEPTH &&
+            childDefinition instanceof BaseRuntimeElementCompositeDefinition &&
+            !(childDefinition instanceof RuntimeResourceDefinition)) {
+          addQualifiers(
+              (BaseRuntimeElementCompositeDefinition<?>) childDefinition,
+              path + '.',
+              depth + 1,
+              qualifiers);
+        } else {
+          qualifiers.add(path);
+        }
+      }
+    }
+  }
+}
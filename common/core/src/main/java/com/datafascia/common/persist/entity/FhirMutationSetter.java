@@ -16,27 +16,46 @@ package com.datafascia.common.persist.entity;
 import ca.uhn.fhir.context.FhirContext;
 import com.datafascia.common.accumulo.MutationBuilder;
 import com.datafascia.common.accumulo.MutationSetter;
-import com.datafascia.common.jackson.DFObjectMapper;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Iterator;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
 import org.apache.accumulo.core.data.Value;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 
 /**
- * Copies values from JSON object to Accumulo mutation.
+ * Copies FHIR resource to Accumulo mutation. The resource is encoded as JSON
+ * and compressed into a single entry. Attributes given by the caller are
+ * written as uncompressed entries, so tablet server iterators can test them.
+ * The row is not read before writing. Instead, the mutation deletes every
+ * entry the type could have in the older entry-per-field layout, and every
+ * known attribute not given, so stale values do not stay in the row.
  */
 public class FhirMutationSetter implements MutationSetter {
 
   static final String SCHEMA_ID = "$schemaId";
 
-  private static final ObjectMapper OBJECT_MAPPER = DFObjectMapper.objectMapper();
+  /**
+   * Column qualifier of entry holding compressed JSON. Sorts after
+   * {@link #SCHEMA_ID} and before JSON field names.
+   */
+  static final String RESOURCE = "$value";
+
+  /** Column qualifier prefix of attribute entries. Sorts before {@link #SCHEMA_ID}. */
+  static final String ATTRIBUTE_PREFIX = "$attribute.";
+
   private final String typeName;
   private final long schemaId;
-  private final JsonNode objectNode;
-  private MutationBuilder mutationBuilder;
+  private final byte[] compressedJson;
+  private final Map<String, String> attributes;
+  private final Collection<String> attributeNames;
+  private final Set<String> legacyQualifiers;
 
   /**
    * Constructor
@@ -49,48 +68,101 @@ public class FhirMutationSetter implements MutationSetter {
    *     to save
    */
   public FhirMutationSetter(FhirContext fhirContext, long schemaId, IBaseResource object) {
+    this(fhirContext, schemaId, object, Collections.emptyMap());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param fhirContext
+   *     FHIR context
+   * @param schemaId
+   *     schema ID
+   * @param object
+   *     to save
+   * @param attributes
+   *     attribute name to value, where a null value is written as empty
+   */
+  public FhirMutationSetter(
+      FhirContext fhirContext,
+      long schemaId,
+      IBaseResource object,
+      Map<String, String> attributes) {
+
+    this(fhirContext, schemaId, object, attributes, attributes.keySet());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param fhirContext
+   *     FHIR context
+   * @param schemaId
+   *     schema ID
+   * @param object
+   *     to save
+   * @param attributes
+   *     attribute name to value, where a null value is written as empty
+   * @param attributeNames
+   *     names of every attribute the entity type can have, where attributes
+   *     named but not given are deleted
+   */
+  public FhirMutationSetter(
+      FhirContext fhirContext,
+      long schemaId,
+      IBaseResource object,
+      Map<String, String> attributes,
+      Collection<String> attributeNames) {
+
     this.typeName = object.getClass().getSimpleName();
     this.schemaId = schemaId;
+    this.compressedJson = encode(fhirContext, object);
+    this.attributes = attributes;
+    this.attributeNames = attributeNames;
+    this.legacyQualifiers = FhirLegacyLayout.getQualifiers(fhirContext, object.getClass());
+  }
 
-    String json = fhirContext.newJsonParser().encodeResourceToString(object);
-    try {
-      this.objectNode = OBJECT_MAPPER.readTree(json);
-    } catch (IOException e) {
-      throw new IllegalStateException("Cannot parse json " + json, e);
-    }
+  /**
+   * Converts attribute name to column qualifier.
+   *
+   * @param name
+   *     attribute name
+   * @return column qualifier
+   */
+  static String toAttributeQualifier(String name) {
+    return ATTRIBUTE_PREFIX + name;
   }
 
-  private byte[] toJson(Object value) {
-    try {
-      return OBJECT_MAPPER.writeValueAsBytes(value);
+  private static byte[] encode(FhirContext fhirContext, IBaseResource object) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (Writer writer = new OutputStreamWriter(
+        new DeflaterOutputStream(bytes), StandardCharsets.UTF_8)) {
+      fhirContext.newJsonParser().encodeResourceToWriter(object, writer);
     } catch (IOException e) {
       throw new IllegalStateException("Cannot encode to JSON", e);
     }
-  }
-
-  private void writeObject(JsonNode objectNode, String parentFieldPath) {
-    Iterator<Map.Entry<String, JsonNode>> iEntry = objectNode.fields();
-    while (iEntry.hasNext()) {
-      Map.Entry<String, JsonNode> entry = iEntry.next();
-      String fieldName = entry.getKey();
-      JsonNode value = entry.getValue();
-      if (value.isObject()) {
-        writeObject(value, parentFieldPath + fieldName + '.');
-      } else {
-        String columnQualifier = parentFieldPath + fieldName;
-        mutationBuilder.put(columnQualifier, new Value(toJson(value)));
-      }
-    }
+    return bytes.toByteArray();
   }
 
   @Override
   public void putWriteOperations(MutationBuilder mutationBuilder) {
-    this.mutationBuilder = mutationBuilder;
-
     mutationBuilder.columnFamily(typeName);
 
     mutationBuilder.put(SCHEMA_ID, schemaId);
 
-    writeObject(objectNode, "");
+    mutationBuilder.put(RESOURCE, new Value(compressedJson));
+
+    attributes.forEach((name, value) -> {
+      byte[] bytes = (value != null) ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+      mutationBuilder.put(toAttributeQualifier(name), new Value(bytes));
+    });
+
+    for (String name : attributeNames) {
+      if (!attributes.containsKey(name)) {
+        mutationBuilder.putDelete(toAttributeQualifier(name));
+      }
+    }
+
+    legacyQualifiers.forEach(mutationBuilder::putDelete);
   }
 }
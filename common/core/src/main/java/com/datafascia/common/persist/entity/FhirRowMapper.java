@@ -21,16 +21,23 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Splitter;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.InflaterInputStream;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Value;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 
 /**
- * Copies values from Accumulo row to Java object.
+ * Copies values from Accumulo row to Java object. Reads a resource from the
+ * single compressed JSON entry written by {@link FhirMutationSetter}, or falls
+ * back to reading a row written in the older layout having an entry per JSON
+ * field.
  *
  * @param <T>
  *     entity type
@@ -44,6 +51,7 @@ public class FhirRowMapper<T extends IBaseResource> implements RowMapper<T> {
   private final Class<T> entityType;
   private ObjectNode rootObjectNode;
   private long lastTimestamp;
+  private T resource;
 
   /**
    * Constructor
@@ -61,6 +69,8 @@ public class FhirRowMapper<T extends IBaseResource> implements RowMapper<T> {
   @Override
   public void onBeginRow(Key key) {
     rootObjectNode = OBJECT_MAPPER.createObjectNode();
+    lastTimestamp = 0;
+    resource = null;
   }
 
   private ObjectNode followPath(List<String> fieldNames) {
@@ -81,19 +91,38 @@ public class FhirRowMapper<T extends IBaseResource> implements RowMapper<T> {
     }
   }
 
+  private T decode(byte[] compressedJson) {
+    try (Reader reader = new InputStreamReader(
+        new InflaterInputStream(new ByteArrayInputStream(compressedJson)),
+        StandardCharsets.UTF_8)) {
+      return fhirContext.newJsonParser().parseResource(entityType, reader);
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot decode " + entityType.getSimpleName(), e);
+    }
+  }
+
   @Override
   public void onReadEntry(Map.Entry<Key, Value> entry) {
     String fieldNamePath = entry.getKey().getColumnQualifier().toString();
-    if (ReflectMutationSetter.SCHEMA_ID.equals(fieldNamePath)) {
+    if (fieldNamePath.startsWith(FhirMutationSetter.ATTRIBUTE_PREFIX)) {
+      return;
+    }
+
+    if (FhirMutationSetter.SCHEMA_ID.equals(fieldNamePath)) {
       lastTimestamp = entry.getKey().getTimestamp();
       return;
     }
 
-    if (entry.getKey().getTimestamp() < lastTimestamp) {
+    if (resource != null || entry.getKey().getTimestamp() < lastTimestamp) {
       // Ignore old version entry.
       return;
     }
 
+    if (FhirMutationSetter.RESOURCE.equals(fieldNamePath)) {
+      resource = decode(entry.getValue().get());
+      return;
+    }
+
     List<String> fieldNames = DOT_SPLITTER.splitToList(fieldNamePath);
     String fieldName = fieldNames.get(fieldNames.size() - 1);
 
@@ -103,6 +132,10 @@ public class FhirRowMapper<T extends IBaseResource> implements RowMapper<T> {
 
   @Override
   public T onEndRow() {
+    if (resource != null) {
+      return resource;
+    }
+
     String json;
     try {
       json = OBJECT_MAPPER.writeValueAsString(rootObjectNode);
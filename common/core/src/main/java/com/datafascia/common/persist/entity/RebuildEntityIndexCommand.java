@@ -0,0 +1,58 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.common.persist.entity;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.codahale.metrics.MetricRegistry;
+import com.datafascia.common.accumulo.AccumuloTemplate;
+import com.datafascia.common.accumulo.ConnectorFactory;
+import com.datafascia.common.accumulo.FixedAuthorizationsSupplier;
+import com.datafascia.common.accumulo.FixedColumnVisibilityPolicy;
+import com.datafascia.common.command.Command;
+import com.datafascia.common.configuration.guice.ConfigureModule;
+import com.google.inject.Guice;
+import java.util.List;
+
+/**
+ * Moves entity index entries to the bin rows expected for the configured shard
+ * count. Stop all applications writing to the indexes before running this
+ * command.
+ */
+@Parameters(commandNames = "rebuild-entity-index",
+    commandDescription = "Move entity index entries after the shard count changed.")
+public class RebuildEntityIndexCommand implements Command {
+
+  @Parameter(names = "--index", description = "Index name", variableArity = true,
+      required = true)
+  List<String> indexNames;
+
+  @Override
+  public int execute() {
+    ConnectorFactory connectorFactory =
+        Guice.createInjector(new ConfigureModule()).getInstance(ConnectorFactory.class);
+    AccumuloTemplate accumuloTemplate = new AccumuloTemplate(
+        connectorFactory,
+        new FixedColumnVisibilityPolicy(),
+        new FixedAuthorizationsSupplier(),
+        new MetricRegistry());
+
+    for (String indexName : indexNames) {
+      AccumuloFhirEntityIndex.rebuild(
+          indexName, accumuloTemplate, connectorFactory.getIndexShardCount());
+    }
+
+    return EXIT_STATUS_SUCCESS;
+  }
+}
@@ -13,7 +13,10 @@
 // limitations under the License.
 package com.datafascia.common.persist.entity;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
 import java.util.stream.Stream;
 
 /**
@@ -42,6 +45,34 @@ public interface ReflectEntityStore {
    */
   <E> Optional<E> read(EntityId entityId);
 
+  /**
+   * Reads entities in one parallel fetch. All entity IDs must have the same
+   * entity type.
+   *
+   * @param entityIds
+   *     entity IDs
+   * @param <E>
+   *     entity type
+   * @return map of entity ID to found entity, in the order of the entity IDs
+   */
+  <E> Map<EntityId, E> readAll(Collection<EntityId> entityIds);
+
+  /**
+   * Reads entities in one parallel fetch, keyed by IDs which convert to
+   * entity IDs. All entity IDs must have the same entity type.
+   *
+   * @param ids
+   *     IDs
+   * @param toEntityId
+   *     converts ID to entity ID
+   * @param <K>
+   *     ID type
+   * @param <E>
+   *     entity type
+   * @return map of ID to found entity, in the order of the IDs
+   */
+  <K, E> Map<K, E> readAll(Collection<K> ids, Function<K, EntityId> toEntityId);
+
   /**
    * Reads entities into stream.
    *
@@ -66,6 +97,19 @@ public interface ReflectEntityStore {
    */
   <E> Stream<E> stream(Class<E> entityType);
 
+  /**
+   * Reads entities contained in any root entity of a parent type into stream.
+   *
+   * @param parentType
+   *     containing root entity type
+   * @param entityType
+   *     entity type
+   * @param <E>
+   *     entity type
+   * @return entity stream, ordered by parent ID
+   */
+  <E> Stream<E> streamChildren(Class<?> parentType, Class<E> entityType);
+
   /**
    * Reads root entities into stream.
    *
@@ -0,0 +1,325 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.common.persist.entity;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.dstu2.resource.Location;
+import com.datafascia.common.accumulo.AccumuloConfiguration;
+import com.datafascia.common.accumulo.AccumuloTemplate;
+import com.datafascia.common.accumulo.AuthorizationsSupplier;
+import com.datafascia.common.accumulo.ColumnVisibilityPolicy;
+import com.datafascia.common.accumulo.ConnectorFactory;
+import com.datafascia.common.accumulo.FixedAuthorizationsSupplier;
+import com.datafascia.common.accumulo.FixedColumnVisibilityPolicy;
+import com.datafascia.common.avro.schemaregistry.AvroSchemaRegistry;
+import com.datafascia.common.avro.schemaregistry.MemorySchemaRegistry;
+import com.datafascia.common.persist.Id;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Provides;
+import com.google.inject.name.Names;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * {@link AccumuloFhirEntityStore} test
+ */
+public class AccumuloFhirEntityStoreTest {
+
+  private static final String TABLE_NAME_PREFIX = "FhirEntity";
+
+  /**
+   * Provides test dependencies
+   */
+  private static class TestModule extends AbstractModule {
+    @Override
+    protected void configure() {
+      bind(AuthorizationsSupplier.class).to(FixedAuthorizationsSupplier.class);
+      bind(AvroSchemaRegistry.class).to(MemorySchemaRegistry.class);
+      bind(ColumnVisibilityPolicy.class).to(FixedColumnVisibilityPolicy.class);
+      bind(FhirContext.class).toInstance(FhirContext.forDstu2());
+      bind(FhirEntityStore.class).to(AccumuloFhirEntityStore.class).in(Singleton.class);
+
+      bindConstant().annotatedWith(Names.named("entityTableNamePrefix")).to(TABLE_NAME_PREFIX);
+    }
+
+    @Provides @Singleton
+    public Connector connector(ConnectorFactory factory) {
+      return factory.getConnector();
+    }
+
+    @Provides @Singleton
+    public ConnectorFactory connectorFactory() {
+      return new ConnectorFactory(AccumuloConfiguration.builder()
+          .instance(ConnectorFactory.MOCK_INSTANCE)
+          .zooKeepers("")
+          .user("root")
+          .password("secret")
+          .build());
+    }
+  }
+
+  @Inject
+  private AccumuloTemplate accumuloTemplate;
+
+  @Inject
+  private FhirEntityStore entityStore;
+
+  @BeforeClass
+  public void beforeClass() throws Exception {
+    Injector injector = Guice.createInjector(new TestModule());
+    injector.injectMembers(this);
+  }
+
+  private static Location createLocation(String name) {
+    Location location = new Location();
+    location.setId("Location/location1");
+    location.setName(name);
+    return location;
+  }
+
+  @Test
+  public void should_read_entity() {
+    EntityId entityId = new EntityId(Location.class, Id.of("location1"));
+    Location location = createLocation("name1");
+    entityStore.save(entityId, location);
+
+    Optional<Location> result = entityStore.read(entityId);
+    assertEquals(result.get().getName(), "name1");
+  }
+
+  @Test
+  public void should_read_entity_saved_in_field_per_entry_layout() {
+    EntityId entityId = new EntityId(Location.class, Id.of("location2"));
+    accumuloTemplate.save(
+        TABLE_NAME_PREFIX + "Data",
+        AccumuloFhirEntityStore.toRowId(entityId),
+        mutationBuilder ->
+            mutationBuilder.columnFamily(Location.class.getSimpleName())
+                .put(FhirMutationSetter.SCHEMA_ID, 0L)
+                .put("resourceType", "Location")
+                .put("id", "location2")
+                .put("name", "name1"));
+
+    Optional<Location> result = entityStore.read(entityId);
+    assertEquals(result.get().getName(), "name1");
+
+    Location location = createLocation("name2");
+    location.setId("Location/location2");
+    entityStore.save(entityId, location);
+
+    result = entityStore.read(entityId);
+    assertEquals(result.get().getName(), "name2");
+  }
+
+  private Set<String> readQualifiers(EntityId entityId) {
+    Scanner scanner = accumuloTemplate.createScanner(TABLE_NAME_PREFIX + "Data");
+    scanner.setRange(Range.exact(AccumuloFhirEntityStore.toRowId(entityId)));
+    Set<String> qualifiers = new HashSet<>();
+    for (Map.Entry<Key, Value> entry : scanner) {
+      qualifiers.add(entry.getKey().getColumnQualifier().toString());
+    }
+    return qualifiers;
+  }
+
+  @Test
+  public void should_delete_entries_not_written_by_new_version() {
+    EntityId entityId = new EntityId(Location.class, Id.of("location6"));
+    accumuloTemplate.save(
+        TABLE_NAME_PREFIX + "Data",
+        AccumuloFhirEntityStore.toRowId(entityId),
+        mutationBuilder ->
+            mutationBuilder.columnFamily(Location.class.getSimpleName())
+                .put(FhirMutationSetter.SCHEMA_ID, 0L)
+                .put("resourceType", "Location")
+                .put("name", "name1")
+                .put("address.city", "city1"));
+
+    List<String> attributeNames = Arrays.asList("kept", "dropped");
+    Map<String, String> attributes = new HashMap<>();
+    attributes.put("kept", "1");
+    attributes.put("dropped", "2");
+    entityStore.save(entityId, createLocation("name2"), attributes, attributeNames);
+    attributes.remove("dropped");
+    entityStore.save(entityId, createLocation("name3"), attributes, attributeNames);
+
+    assertEquals(
+        readQualifiers(entityId),
+        new HashSet<>(Arrays.asList(
+            FhirMutationSetter.SCHEMA_ID,
+            FhirMutationSetter.RESOURCE,
+            FhirMutationSetter.toAttributeQualifier("kept"))));
+  }
+
+  private static EntityId toChildEntityId(EntityId parentId, String locationId) {
+    return EntityId.builder()
+        .path(parentId)
+        .path(Location.class, Id.of(locationId))
+        .build();
+  }
+
+  @Test
+  public void should_read_entities_in_pages() {
+    EntityId parentId = new EntityId(Location.class, Id.of("parent1"));
+    List<String> locationIds = Arrays.asList("child1", "child2", "child3");
+    for (String locationId : locationIds) {
+      Location location = createLocation(locationId);
+      location.setId("Location/" + locationId);
+      entityStore.save(toChildEntityId(parentId, locationId), location);
+    }
+
+    assertEquals(entityStore.count(parentId, Location.class), locationIds.size());
+
+    List<String> names = entityStore
+        .streamAfter(parentId, Location.class, toChildEntityId(parentId, "child1"))
+        .map(Location::getName)
+        .collect(Collectors.toList());
+    assertEquals(names, Arrays.asList("child2", "child3"));
+  }
+
+  @Test
+  public void should_read_all_in_order_of_ids() {
+    EntityId parentId = new EntityId(Location.class, Id.of("parent3"));
+    for (String locationId : Arrays.asList("child1", "child2", "child3")) {
+      Location location = createLocation(locationId);
+      location.setId("Location/" + locationId);
+      entityStore.save(toChildEntityId(parentId, locationId), location);
+    }
+
+    List<String> locationIds = Arrays.asList("child3", "missing", "child1");
+    Map<String, Location> locationIdToLocationMap =
+        entityStore.readAll(locationIds, locationId -> toChildEntityId(parentId, locationId));
+    assertEquals(
+        new ArrayList<>(locationIdToLocationMap.keySet()), Arrays.asList("child3", "child1"));
+    assertEquals(locationIdToLocationMap.get("child3").getName(), "child3");
+
+    List<EntityId> entityIds = locationIds.stream()
+        .map(locationId -> toChildEntityId(parentId, locationId))
+        .collect(Collectors.toList());
+    Map<EntityId, Location> entityIdToLocationMap = entityStore.readAll(entityIds);
+    assertEquals(
+        new ArrayList<>(entityIdToLocationMap.keySet()),
+        Arrays.asList(entityIds.get(0), entityIds.get(2)));
+
+    assertEquals(entityStore.readAll(Collections.<EntityId>emptyList()), Collections.emptyMap());
+  }
+
+  @Test
+  public void should_stream_entities_passing_attribute_conditions() {
+    EntityId parentId = new EntityId(Location.class, Id.of("parent4"));
+    for (String rank : Arrays.asList("1", "2", "3")) {
+      Location location = createLocation("rank" + rank);
+      location.setId("Location/rank" + rank);
+      entityStore.save(
+          toChildEntityId(parentId, "rank" + rank),
+          location,
+          Collections.singletonMap("rank", rank));
+    }
+
+    Location unranked = createLocation("unranked");
+    unranked.setId("Location/unranked");
+    entityStore.save(toChildEntityId(parentId, "unranked"), unranked);
+
+    // An entity without the tested attribute is passed, so the client can decide.
+    List<String> names = entityStore
+        .stream(
+            parentId,
+            Location.class,
+            new AttributeQuery().minimum("rank", "2").maximum("rank", "3"))
+        .map(Location::getName)
+        .collect(Collectors.toList());
+    assertEquals(names, Arrays.asList("rank2", "unranked"));
+
+    names = entityStore
+        .stream(parentId, Location.class, new AttributeQuery().equal("rank", "3"))
+        .map(Location::getName)
+        .collect(Collectors.toList());
+    assertEquals(names, Arrays.asList("rank3", "unranked"));
+  }
+
+  @Test
+  public void should_save_missing_attribute_without_overriding_later_save() {
+    EntityId parentId = new EntityId(Location.class, Id.of("parent2"));
+    EntityId stampedId = toChildEntityId(parentId, "child4");
+    EntityId savedId = toChildEntityId(parentId, "child5");
+    entityStore.save(stampedId, createLocation("name4"));
+    entityStore.save(savedId, createLocation("name5"), Collections.singletonMap("time", "2"));
+
+    assertEquals(entityStore.saveMissingAttribute(parentId, Location.class, "time", "0"), 1);
+    assertEquals(entityStore.saveMissingAttribute(parentId, Location.class, "time", "0"), 0);
+
+    AttributeQuery query = new AttributeQuery().minimum("time", "1");
+    List<String> names = entityStore.stream(parentId, Location.class, query)
+        .map(Location::getName)
+        .collect(Collectors.toList());
+    assertEquals(names, Collections.singletonList("name5"));
+
+    entityStore.save(stampedId, createLocation("name6"), Collections.singletonMap("time", "3"));
+    names = entityStore.stream(parentId, Location.class, query)
+        .map(Location::getName)
+        .collect(Collectors.toList());
+    assertEquals(names, Arrays.asList("name6", "name5"));
+  }
+
+  @Test
+  public void should_find_entities_after_shard_count_changed() {
+    String indexName = "LocationName";
+    List<String> locationIds = Arrays.asList("location3", "location4", "location5");
+
+    FhirEntityIndex<Location> index =
+        new AccumuloFhirEntityIndex<>(indexName, Location::getName, accumuloTemplate, 1);
+    for (String locationId : locationIds) {
+      index.save(new EntityId(Location.class, Id.of(locationId)), null, createLocation("name3"));
+    }
+
+    AccumuloFhirEntityIndex.rebuild(indexName, accumuloTemplate, 4);
+
+    index = new AccumuloFhirEntityIndex<>(indexName, Location::getName, accumuloTemplate, 4);
+    assertEquals(index.search("name3").size(), locationIds.size());
+
+    index.delete(new EntityId(Location.class, Id.of("location4")), createLocation("name3"));
+    assertEquals(index.search("name3").size(), locationIds.size() - 1);
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void should_fail_when_shard_count_changed_without_rebuild() {
+    String indexName = "LocationStatus";
+
+    FhirEntityIndex<Location> index =
+        new AccumuloFhirEntityIndex<>(indexName, Location::getName, accumuloTemplate, 1);
+    index.save(new EntityId(Location.class, Id.of("location6")), null, createLocation("name6"));
+
+    new AccumuloFhirEntityIndex<>(indexName, Location::getName, accumuloTemplate, 2);
+  }
+}
@@ -32,6 +32,7 @@ import java.time.Instant;
 import java.time.LocalDate;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 import javax.inject.Inject;
@@ -102,6 +103,11 @@ public class AccumuloReflectEntityStoreTest {
     private Instant admitTime;
   }
 
+  @AllArgsConstructor @Builder @Data @NoArgsConstructor
+  private static class Ward {
+    private String name;
+  }
+
   @Inject
   private AccumuloTemplate accumuloTemplate;
 
@@ -180,4 +186,56 @@ public class AccumuloReflectEntityStoreTest {
     assertEquals(encounters.get(0), encounter1);
     assertEquals(encounters.get(1), encounter2);
   }
+
+  @Test
+  public void should_read_all_entities_in_order() {
+    Patient patient = createPatient();
+    entityStore.save(PATIENT_ID, patient);
+
+    Encounter encounter1 = createEncounter("encounterId1");
+    EntityId encounterId1 = EntityId.builder()
+        .path(PATIENT_ID)
+        .path(Encounter.class, Id.of("encounterId1"))
+        .build();
+    entityStore.save(encounterId1, encounter1);
+
+    Encounter encounter2 = createEncounter("encounterId2");
+    EntityId encounterId2 = EntityId.builder()
+        .path(PATIENT_ID)
+        .path(Encounter.class, Id.of("encounterId2"))
+        .build();
+    entityStore.save(encounterId2, encounter2);
+
+    EntityId missingEncounterId = EntityId.builder()
+        .path(PATIENT_ID)
+        .path(Encounter.class, Id.of("missing"))
+        .build();
+
+    Map<EntityId, Encounter> encounters = entityStore.readAll(
+        Arrays.asList(encounterId2, missingEncounterId, encounterId1));
+    assertEquals(encounters.keySet(), Arrays.asList(encounterId2, encounterId1));
+    assertEquals(encounters.get(encounterId1), encounter1);
+    assertEquals(encounters.get(encounterId2), encounter2);
+  }
+
+  @Test
+  public void should_list_child_entities_of_all_parents() {
+    Encounter encounter1 = createEncounter("encounterId1");
+    EntityId encounterId1 = EntityId.builder()
+        .path(Ward.class, Id.of("ward1"))
+        .path(Encounter.class, Id.of("encounterId1"))
+        .build();
+    entityStore.save(encounterId1, encounter1);
+
+    Encounter encounter2 = createEncounter("encounterId2");
+    EntityId encounterId2 = EntityId.builder()
+        .path(Ward.class, Id.of("ward2"))
+        .path(Encounter.class, Id.of("encounterId2"))
+        .build();
+    entityStore.save(encounterId2, encounter2);
+
+    List<Encounter> encounters = entityStore.streamChildren(Ward.class, Encounter.class)
+        .collect(Collectors.toList());
+    assertEquals(encounters, Arrays.asList(encounter1, encounter2));
+  }
 }
@@ -0,0 +1,84 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.domain.event;
+
+import com.datafascia.common.jackson.DFObjectMapper;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.UUID;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Tells that an entity was saved or deleted, so processes caching the entity
+ * can refresh their copy. Unknown properties are ignored, so a process can
+ * read changes published by a process running a different release.
+ */
+@AllArgsConstructor @Builder @Data @JsonIgnoreProperties(ignoreUnknown = true) @NoArgsConstructor
+public class EntityChange {
+
+  /** identifies this process as the publisher of a change */
+  public static final String LOCAL_PROCESS_ID = UUID.randomUUID().toString();
+
+  private static final ObjectMapper OBJECT_MAPPER = DFObjectMapper.objectMapper();
+
+  /** FHIR resource type name, for example {@code Observation} */
+  private String entityType;
+
+  /** encounter the entity belongs to, null if the entity does not belong to an encounter */
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private String encounterId;
+
+  /** entity ID */
+  private String entityId;
+
+  /** save time in milliseconds since the epoch, zero if published by an older release */
+  private long version;
+
+  /** ID of the publishing process, null if published by an older release */
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private String processId;
+
+  /**
+   * Converts to JSON.
+   *
+   * @return JSON bytes
+   */
+  public byte[] toJson() {
+    try {
+      return OBJECT_MAPPER.writeValueAsBytes(this);
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot serialize " + this, e);
+    }
+  }
+
+  /**
+   * Converts from JSON.
+   *
+   * @param json
+   *     JSON to read
+   * @return entity change
+   */
+  public static EntityChange fromJson(String json) {
+    try {
+      return OBJECT_MAPPER.readValue(json, EntityChange.class);
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot deserialize " + json, e);
+    }
+  }
+}
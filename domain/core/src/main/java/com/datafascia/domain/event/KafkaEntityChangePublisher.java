@@ -0,0 +1,51 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.domain.event;
+
+import com.datafascia.common.kafka.SingleTopicProducer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Publishes entity changes to a Kafka topic. Changes to entities of the same
+ * encounter have the same partition key, so consumers receive them in order.
+ */
+@Slf4j
+public class KafkaEntityChangePublisher implements EntityChangePublisher {
+
+  private final SingleTopicProducer producer;
+
+  /**
+   * Constructor
+   *
+   * @param producer
+   *     sends messages to the entity change topic
+   */
+  public KafkaEntityChangePublisher(SingleTopicProducer producer) {
+    this.producer = producer;
+  }
+
+  @Override
+  public void publish(EntityChange change) {
+    String key = Objects.toString(change.getEncounterId(), change.getEntityId());
+    try {
+      producer.send(key.getBytes(StandardCharsets.UTF_8), change.toJson());
+    } catch (RuntimeException e) {
+      // The entity is already saved. Subscribers still see the change when
+      // their cache entry expires.
+      log.error("Cannot publish {}", change, e);
+    }
+  }
+}
@@ -14,6 +14,7 @@
 package com.datafascia.domain.model;
 
 import java.nio.ByteBuffer;
+import java.time.Instant;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
@@ -25,5 +26,6 @@ import lombok.NoArgsConstructor;
 public class EncounterMessage {
 
   private String id;
+  private Instant timestamp;
   private ByteBuffer payload;
 }
@@ -29,10 +29,15 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import org.apache.accumulo.core.client.Scanner;
 import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
 import org.apache.hadoop.io.Text;
@@ -48,6 +53,17 @@ import org.apache.hadoop.io.Text;
  * <li>the {@code |} character
  * <li>the hash of the message
  * </ol>
+ * <p>
+ * The encounter row holds a tail entry pointing to the last message saved for
+ * the encounter. The entry is written with the message timestamp as its
+ * Accumulo timestamp, so the versioning iterator keeps the pointer to the
+ * latest message even when saves race, and finding the last message costs a
+ * single key read instead of a scan over every message of the encounter.
+ * <p>
+ * Message timestamps, tail entry timestamps and the timestamp of the delete
+ * removing the tail entry all come from this repository's clock, never from
+ * the tablet server. The clock never repeats a value, so two messages saved
+ * in the same millisecond do not tie.
  */
 @Singleton
 public class EncounterMessageRepository extends BaseRepository {
@@ -55,8 +71,11 @@ public class EncounterMessageRepository extends BaseRepository {
   private static final String COLUMN_FAMILY = IngestMessage.class.getSimpleName();
   private static final String PAYLOAD = "payload";
   private static final String LAST_PROCESSED_MESSAGE_ID = "lastProcessedMessageId";
+  private static final String LAST_MESSAGE_ID = "lastMessageId";
   private static final BaseEncoding ENCODING = BaseEncoding.base64Url().omitPadding();
 
+  private final AtomicLong lastTimestamp = new AtomicLong();
+
   /**
    * Constructor
    *
@@ -74,6 +93,13 @@ public class EncounterMessageRepository extends BaseRepository {
     return encounterId.toString() + '|';
   }
 
+  // Returns the current time in milliseconds, or one more than the previous
+  // value if the clock has not advanced past it.
+  private long nextTimestamp() {
+    long now = System.currentTimeMillis();
+    return lastTimestamp.updateAndGet(last -> Math.max(now, last + 1));
+  }
+
   /**
    * Saves message for an encounter.
    *
@@ -85,9 +111,10 @@ public class EncounterMessageRepository extends BaseRepository {
   public void save(Id<Encounter> encounterId, String payload) {
     byte[] value = payload.getBytes(StandardCharsets.UTF_8);
 
+    long timestamp = nextTimestamp();
     String rowId =
         toRowIdPrefix(encounterId) +
-        InstantFormatter.ISO_INSTANT_MILLI.format(Instant.now()) + '|' +
+        InstantFormatter.ISO_INSTANT_MILLI.format(Instant.ofEpochMilli(timestamp)) + '|' +
         ENCODING.encode(Hashing.sha1().hashBytes(value).asBytes());
 
     accumuloTemplate.save(
@@ -97,6 +124,24 @@ public class EncounterMessageRepository extends BaseRepository {
             mutationBuilder
                 .columnFamily(COLUMN_FAMILY)
                 .put(PAYLOAD, new Value(value)));
+
+    saveLastMessageId(encounterId, rowId, timestamp);
+  }
+
+  private void saveLastMessageId(Id<Encounter> encounterId, String messageId, long timestamp) {
+    Mutation mutation = new Mutation(encounterId.toString());
+    mutation.put(
+        new Text(COLUMN_FAMILY),
+        new Text(LAST_MESSAGE_ID),
+        timestamp,
+        new Value(messageId.getBytes(StandardCharsets.UTF_8)));
+    accumuloTemplate.write(Tables.ENCOUNTER, mutation);
+  }
+
+  private static long toTimestamp(Id<Encounter> encounterId, String messageId) {
+    String instant = messageId.substring(
+        toRowIdPrefix(encounterId).length(), messageId.lastIndexOf('|'));
+    return Instant.parse(instant).toEpochMilli();
   }
 
   private String readLastProcessedMessageId(Id<Encounter> encounterId) {
@@ -111,38 +156,49 @@ public class EncounterMessageRepository extends BaseRepository {
     }
   }
 
-  private String findLastMessageId(Id<Encounter> encounterId) {
+  private String readLastMessageId(Id<Encounter> encounterId) {
     Scanner scanner = accumuloTemplate.createScanner(Tables.ENCOUNTER);
-    scanner.setRange(Range.prefix(toRowIdPrefix(encounterId)));
-    scanner.fetchColumn(new Text(COLUMN_FAMILY), new Text(PAYLOAD));
+    scanner.setRange(Range.exact(encounterId.toString()));
+    scanner.fetchColumn(new Text(COLUMN_FAMILY), new Text(LAST_MESSAGE_ID));
+    Iterator<Map.Entry<Key, Value>> iterator = scanner.iterator();
     try {
-      String lastMessageId = null;
-      for (Map.Entry<Key, Value> entry : scanner) {
-        lastMessageId = entry.getKey().getRow().toString();
-      }
-
-      return lastMessageId;
+      return iterator.hasNext()
+          ? new String(iterator.next().getValue().get(), StandardCharsets.UTF_8)
+          : null;
     } finally {
       scanner.close();
     }
   }
 
   /**
-   * Sets last processsed message ID to last message if not already set.
+   * Sets last processsed message ID to the last message saved before the given
+   * time if not already set. Messages saved at or after that time stay pending.
+   * <p>
+   * If the tail entry points to a message saved before the given time, that
+   * message becomes the last processed message. Otherwise the pointer is set to
+   * a boundary row ID which sorts after every message saved before the given
+   * time and before every message saved at or after it, so no scan over the
+   * encounter's messages is needed.
    *
    * @param encounterId
    *     encounter ID
+   * @param before
+   *     messages saved before this time are considered processed
    */
-  public void initializeLastProcessedMessageId(Id<Encounter> encounterId) {
+  public void initializeLastProcessedMessageId(Id<Encounter> encounterId, Instant before) {
     String lastProcesssedMessageId = readLastProcessedMessageId(encounterId);
     if (!Strings.isNullOrEmpty(lastProcesssedMessageId)) {
       return;
     }
 
-    String lastMessageId = findLastMessageId(encounterId);
-    if (!Strings.isNullOrEmpty(lastMessageId)) {
-      saveLastProcessedMessageId(encounterId, lastMessageId);
+    String lastMessageId = readLastMessageId(encounterId);
+    if (Strings.isNullOrEmpty(lastMessageId) ||
+        toTimestamp(encounterId, lastMessageId) >= before.toEpochMilli()) {
+      lastMessageId =
+          toRowIdPrefix(encounterId) + InstantFormatter.ISO_INSTANT_MILLI.format(before);
     }
+
+    saveLastProcessedMessageId(encounterId, lastMessageId);
   }
 
   /**
@@ -174,6 +230,7 @@ public class EncounterMessageRepository extends BaseRepository {
 
         EncounterMessage message = new EncounterMessage();
         message.setId(id);
+        message.setTimestamp(Instant.ofEpochMilli(toTimestamp(encounterId, id)));
         message.setPayload(ByteBuffer.wrap(entry.getValue().get()));
 
         messages.add(message);
@@ -185,6 +242,54 @@ public class EncounterMessageRepository extends BaseRepository {
     }
   }
 
+  /**
+   * Reads messages for an encounter in time order into a stream. The stream reads the table as it
+   * is consumed. Close the stream to release the scanner.
+   *
+   * @param encounterId
+   *     encounter ID
+   * @param timeLower
+   *     time lower bound
+   * @param lowerInclusive
+   *     true to include messages saved at the lower bound
+   * @param timeUpper
+   *     if present, time upper bound (exclusive)
+   * @return messages
+   */
+  public Stream<EncounterMessage> stream(
+      Id<Encounter> encounterId,
+      Instant timeLower,
+      boolean lowerInclusive,
+      Optional<Instant> timeUpper) {
+
+    String rowIdPrefix = toRowIdPrefix(encounterId);
+    Text startRowId =
+        new Text(rowIdPrefix + InstantFormatter.ISO_INSTANT_MILLI.format(timeLower) + '|');
+    if (!lowerInclusive) {
+      startRowId = Range.followingPrefix(startRowId);
+    }
+
+    Text endRowId = timeUpper
+        .map(time -> new Text(rowIdPrefix + InstantFormatter.ISO_INSTANT_MILLI.format(time)))
+        .orElse(Range.followingPrefix(new Text(rowIdPrefix)));
+
+    Scanner scanner = accumuloTemplate.createScanner(Tables.ENCOUNTER);
+    scanner.setRange(new Range(startRowId, true, endRowId, false));
+    scanner.fetchColumn(new Text(COLUMN_FAMILY), new Text(PAYLOAD));
+
+    return StreamSupport.stream(scanner.spliterator(), false)
+        .map(entry -> {
+          String id = entry.getKey().getRow().toString();
+
+          EncounterMessage message = new EncounterMessage();
+          message.setId(id);
+          message.setTimestamp(Instant.ofEpochMilli(toTimestamp(encounterId, id)));
+          message.setPayload(ByteBuffer.wrap(entry.getValue().get()));
+          return message;
+        })
+        .onClose(scanner::close);
+  }
+
   /**
    * Deletes messages for an encounter.
    *
@@ -193,6 +298,12 @@ public class EncounterMessageRepository extends BaseRepository {
    */
   public void delete(Id<Encounter> encounterId) {
     accumuloTemplate.deleteRowIdPrefix(Tables.ENCOUNTER, toRowIdPrefix(encounterId));
+
+    // Stamp the delete from the same clock as the tail entries, so it hides
+    // the entries saved before it and not the entries saved after it.
+    Mutation mutation = new Mutation(encounterId.toString());
+    mutation.putDelete(new Text(COLUMN_FAMILY), new Text(LAST_MESSAGE_ID), nextTimestamp());
+    accumuloTemplate.write(Tables.ENCOUNTER, mutation);
   }
 
   /**
@@ -20,8 +20,9 @@ import com.datafascia.common.persist.Id;
 import com.datafascia.common.persist.entity.EntityId;
 import com.datafascia.common.persist.entity.FhirEntityIndex;
 import com.datafascia.common.persist.entity.FhirEntityStore;
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 import javax.inject.Inject;
@@ -98,6 +99,8 @@ public class EncounterRepository extends FhirEntityStoreRepository {
 
     populateStatusIndex();
     statusIndex.save(entityId, oldEncounter.orElse(null), encounter);
+
+    publishChange(Encounter.class, encounterId, encounterId);
   }
 
   /**
@@ -110,6 +113,16 @@ public class EncounterRepository extends FhirEntityStoreRepository {
     return entityStore.read(toEntityId(encounterId));
   }
 
+  /**
+   * Reads encounters in one parallel fetch.
+   *
+   * @param encounterIds encounter IDs
+   * @return map of encounter ID to found encounter, in the order of the encounter IDs
+   */
+  public Map<Id<Encounter>, Encounter> readAll(Collection<Id<Encounter>> encounterIds) {
+    return entityStore.readAll(encounterIds, EncounterRepository::toEntityId);
+  }
+
   /**
    * Finds all encounters, or a set filtered by status.
    *
@@ -118,20 +131,38 @@ public class EncounterRepository extends FhirEntityStoreRepository {
    */
   public List<Encounter> list(Optional<EncounterStateEnum> optStatus) {
     if (optStatus.isPresent()) {
-      List<Encounter> encounters = new ArrayList<>();
       populateStatusIndex();
-      statusIndex.search(optStatus.get().getCode())
-          .forEach(entityRowId ->
-              entityStore.read(entityRowId, Encounter.class)
-                  .ifPresent(encounter -> encounters.add(encounter))
-        );
-      return encounters;
+      List<String> entityRowIds = statusIndex.search(optStatus.get().getCode());
+      return entityStore.readAll(entityRowIds, Encounter.class);
     }
 
     return entityStore.stream(Encounter.class)
         .collect(Collectors.toList());
   }
 
+  /**
+   * Counts encounters.
+   *
+   * @return number of encounters
+   */
+  public int count() {
+    return entityStore.count(null, Encounter.class);
+  }
+
+  /**
+   * Finds a page of encounters in ID order.
+   *
+   * @param afterEncounterId
+   *     ID of last encounter of previous page, empty to read first page
+   * @param limit
+   *     maximum number of encounters to read
+   * @return encounters
+   */
+  public List<Encounter> list(Optional<Id<Encounter>> afterEncounterId, int limit) {
+    return listPage(
+        null, Encounter.class, afterEncounterId.map(EncounterRepository::toEntityId), limit);
+  }
+
   /**
    * Deletes encounter and all of its children.
    *
@@ -144,5 +175,8 @@ public class EncounterRepository extends FhirEntityStoreRepository {
 
     populateStatusIndex();
     statusIndex.delete(entityId, encounter);
+
+    Id<Encounter> encounterId = generateId(encounter);
+    publishChange(Encounter.class, encounterId, encounterId);
   }
 }
@@ -13,8 +13,23 @@
 // limitations under the License.
 package com.datafascia.domain.persist;
 
+import ca.uhn.fhir.model.api.IResource;
+import ca.uhn.fhir.model.dstu2.resource.Encounter;
+import com.datafascia.common.persist.Id;
+import com.datafascia.common.persist.entity.EntityId;
 import com.datafascia.common.persist.entity.FhirEntityStore;
+import com.datafascia.common.time.InstantFormatter;
+import com.datafascia.domain.event.EntityChange;
+import com.datafascia.domain.event.EntityChangePublisher;
+import com.google.inject.Inject;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.instance.model.api.IBaseResource;
 
 /**
  * Implements common data access methods.
@@ -22,8 +37,20 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public abstract class FhirEntityStoreRepository {
 
+  /**
+   * Name of attribute holding the time the entity was last saved. Entities
+   * saved before this attribute existed do not have it, so a query on it also
+   * returns those entities until {@link MigrateEntitiesCommand} stamps them.
+   */
+  protected static final String LAST_UPDATED = "lastUpdated";
+
   protected FhirEntityStore entityStore;
 
+  // Publishes nothing unless a publisher is bound.
+  private EntityChangePublisher entityChangePublisher = change -> { };
+
+  private Clock clock = Clock.systemUTC();
+
   /**
    * Constructor
    *
@@ -33,4 +60,119 @@ public abstract class FhirEntityStoreRepository {
   public FhirEntityStoreRepository(FhirEntityStore entityStore) {
     this.entityStore = entityStore;
   }
+
+  /**
+   * Sets publisher which tells other processes about saved and deleted
+   * entities. Injection is optional, so processes without a message broker
+   * do not need to bind a publisher.
+   *
+   * @param entityChangePublisher
+   *     entity change publisher
+   */
+  @Inject(optional = true)
+  public void setEntityChangePublisher(EntityChangePublisher entityChangePublisher) {
+    this.entityChangePublisher = entityChangePublisher;
+  }
+
+  /**
+   * Sets clock which supplies the save time. Injection is optional, so
+   * processes which do not bind a clock use the system clock.
+   *
+   * @param clock
+   *     clock
+   */
+  @Inject(optional = true)
+  public void setClock(Clock clock) {
+    this.clock = clock;
+  }
+
+  /**
+   * @return current time to save as {@link #LAST_UPDATED} attribute value
+   */
+  protected String formatLastUpdatedNow() {
+    return formatLastUpdated(Instant.now(clock));
+  }
+
+  /**
+   * Stamps entities saved before the {@link #LAST_UPDATED} attribute existed
+   * with the epoch, so they stop matching every query on save time.
+   *
+   * @param parentId
+   *     containing parent entity ID
+   * @param entityType
+   *     entity type
+   * @return number of entities stamped
+   */
+  protected int saveMissingLastUpdated(
+      EntityId parentId, Class<? extends IBaseResource> entityType) {
+
+    return entityStore.saveMissingAttribute(
+        parentId, entityType, LAST_UPDATED, formatLastUpdated(Instant.EPOCH));
+  }
+
+  /**
+   * Publishes entity change once the saved entity is visible to other
+   * processes, so a process refreshing its cached copy reads the new version.
+   * The change carries the save time as its version and the ID of this
+   * process, so listeners can skip changes they have already seen.
+   *
+   * @param entityType
+   *     entity type
+   * @param encounterId
+   *     encounter the entity belongs to, null if it does not belong to an encounter
+   * @param entityId
+   *     entity ID
+   */
+  protected void publishChange(
+      Class<? extends IResource> entityType, Id<Encounter> encounterId, Id<?> entityId) {
+
+    EntityChange change = EntityChange.builder()
+        .entityType(entityType.getSimpleName())
+        .encounterId((encounterId != null) ? encounterId.toString() : null)
+        .entityId(entityId.toString())
+        .version(Instant.now(clock).toEpochMilli())
+        .processId(EntityChange.LOCAL_PROCESS_ID)
+        .build();
+    entityStore.afterCommit(() -> entityChangePublisher.publish(change));
+  }
+
+  /**
+   * Reads a page of entities in entity ID order. Only the rows of the page
+   * are read, because the scan starts after the last entity of the previous
+   * page.
+   *
+   * @param parentId
+   *     containing parent entity ID, null to read root entities
+   * @param entityType
+   *     entity type
+   * @param afterEntityId
+   *     ID of last entity of previous page, empty to read first page
+   * @param limit
+   *     maximum number of entities to read
+   * @param <E>
+   *     entity type
+   * @return entities
+   */
+  protected <E extends IBaseResource> List<E> listPage(
+      EntityId parentId, Class<E> entityType, Optional<EntityId> afterEntityId, int limit) {
+
+    Stream<E> entities = afterEntityId
+        .map(entityId -> entityStore.streamAfter(parentId, entityType, entityId))
+        .orElseGet(() -> entityStore.stream(parentId, entityType));
+    return entities
+        .limit(limit)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Formats time as a value of the {@link #LAST_UPDATED} attribute. The format
+   * is fixed width, so the string order is the same as the time order.
+   *
+   * @param instant
+   *     time to format
+   * @return attribute value
+   */
+  protected static String formatLastUpdated(Instant instant) {
+    return InstantFormatter.ISO_INSTANT_MILLI.format(instant);
+  }
 }
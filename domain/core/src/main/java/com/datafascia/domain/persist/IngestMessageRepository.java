@@ -14,15 +14,15 @@
 package com.datafascia.domain.persist;
 
 import com.datafascia.common.accumulo.AccumuloTemplate;
-import com.datafascia.common.accumulo.Limit;
 import com.datafascia.common.accumulo.RowMapper;
 import com.datafascia.common.time.InstantFormatter;
 import com.datafascia.domain.model.IngestMessage;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.time.Instant;
-import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import org.apache.accumulo.core.client.Scanner;
@@ -52,7 +52,6 @@ public class IngestMessageRepository extends BaseRepository {
   private static final String SOURCE = "source";
   private static final String PAYLOAD_TYPE = "payloadType";
   private static final String PAYLOAD = "payload";
-  private static final MessageRowMapper MESSAGE_ROW_MAPPER = new MessageRowMapper();
 
   /**
    * Constructor
@@ -67,6 +66,7 @@ public class IngestMessageRepository extends BaseRepository {
     accumuloTemplate.createTableIfNotExist(Tables.INGEST_MESSAGE);
   }
 
+  // Holds the row being read, so each scan needs its own instance.
   private static class MessageRowMapper implements RowMapper<IngestMessage> {
     private IngestMessage message;
 
@@ -132,20 +132,36 @@ public class IngestMessageRepository extends BaseRepository {
   }
 
   /**
-   * Lists messages.
+   * Reads messages in time order into a stream. The stream reads the table as it is consumed, so
+   * only a scanner batch of messages is held in memory. Close the stream to release the scanner.
    *
    * @param timeLower
-   *     time lower bound (inclusive)
-   * @param limit
-   *     maximum number of messages to return
+   *     time lower bound
+   * @param lowerInclusive
+   *     true to include messages received at the lower bound
+   * @param timeUpper
+   *     if present, time upper bound (exclusive)
    * @return messages
    */
-  public List<IngestMessage> list(Instant timeLower, int limit) {
+  public Stream<IngestMessage> stream(
+      Instant timeLower, boolean lowerInclusive, Optional<Instant> timeUpper) {
+
+    // Row IDs of messages received at the same time share the timestamp and
+    // separator as a prefix, so the row following that prefix excludes them.
+    Text startRowId = new Text(InstantFormatter.ISO_INSTANT_MILLI.format(timeLower) + '|');
+    if (!lowerInclusive) {
+      startRowId = Range.followingPrefix(startRowId);
+    }
+
+    Text endRowId = timeUpper
+        .map(time -> new Text(InstantFormatter.ISO_INSTANT_MILLI.format(time)))
+        .orElse(null);
+
     Scanner scanner = accumuloTemplate.createScanner(Tables.INGEST_MESSAGE);
-    scanner.setRange(new Range(InstantFormatter.ISO_INSTANT_MILLI.format(timeLower), null));
+    scanner.setRange(new Range(startRowId, true, endRowId, false));
     scanner.fetchColumnFamily(new Text(COLUMN_FAMILY));
 
-    return accumuloTemplate.queryForList(
-        scanner, MESSAGE_ROW_MAPPER, entity -> true, new Limit<>(limit));
+    return accumuloTemplate.stream(scanner, new MessageRowMapper())
+        .onClose(scanner::close);
   }
 }
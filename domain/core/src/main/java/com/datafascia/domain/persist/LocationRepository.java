@@ -20,7 +20,9 @@ import com.datafascia.common.persist.entity.EntityId;
 import com.datafascia.common.persist.entity.FhirEntityStore;
 import com.google.common.io.BaseEncoding;
 import java.nio.charset.StandardCharsets;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -93,6 +95,17 @@ public class LocationRepository extends FhirEntityStoreRepository {
     return entityStore.read(toEntityId(locationId));
   }
 
+  /**
+   * Reads locations in one parallel fetch.
+   *
+   * @param locationIds
+   *     location IDs
+   * @return map of location ID to found location, in the order of the location IDs
+   */
+  public Map<Id<Location>, Location> readAll(Collection<Id<Location>> locationIds) {
+    return entityStore.readAll(locationIds, LocationRepository::toEntityId);
+  }
+
   /**
    * Finds all locations.
    *
@@ -17,9 +17,12 @@ import ca.uhn.fhir.model.dstu2.resource.Encounter;
 import ca.uhn.fhir.model.dstu2.resource.MedicationAdministration;
 import ca.uhn.fhir.model.primitive.IdDt;
 import com.datafascia.common.persist.Id;
+import com.datafascia.common.persist.entity.AttributeQuery;
 import com.datafascia.common.persist.entity.EntityId;
 import com.datafascia.common.persist.entity.FhirEntityStore;
 import com.datafascia.domain.fhir.Ids;
+import java.time.Instant;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -75,7 +78,13 @@ public class MedicationAdministrationRepository extends FhirEntityStoreRepositor
 
     Id<Encounter> encounterId = Ids.toPrimaryKey(administration.getEncounter().getReference());
 
-    entityStore.save(toEntityId(encounterId, medicationadministrationId), administration);
+    entityStore.save(
+        toEntityId(encounterId, medicationadministrationId),
+        administration,
+        Collections.singletonMap(LAST_UPDATED, formatLastUpdatedNow()),
+        Collections.singleton(LAST_UPDATED));
+
+    publishChange(MedicationAdministration.class, encounterId, medicationadministrationId);
   }
 
   /**
@@ -102,4 +111,76 @@ public class MedicationAdministrationRepository extends FhirEntityStoreRepositor
         .stream(EncounterRepository.toEntityId(encounterId), MedicationAdministration.class)
         .collect(Collectors.toList());
   }
+
+  /**
+   * Counts medication administrations for an encounter.
+   *
+   * @param encounterId
+   *     encounter ID
+   * @return number of medication administrations
+   */
+  public int count(Id<Encounter> encounterId) {
+    return entityStore.count(
+        EncounterRepository.toEntityId(encounterId), MedicationAdministration.class);
+  }
+
+  /**
+   * Finds a page of medication administrations for an encounter in ID order.
+   *
+   * @param encounterId
+   *     encounter ID
+   * @param afterAdministrationId
+   *     ID of last administration of previous page, empty to read first page
+   * @param limit
+   *     maximum number of administrations to read
+   * @return medication administrations
+   */
+  public List<MedicationAdministration> list(
+      Id<Encounter> encounterId,
+      Optional<Id<MedicationAdministration>> afterAdministrationId,
+      int limit) {
+
+    return listPage(
+        EncounterRepository.toEntityId(encounterId),
+        MedicationAdministration.class,
+        afterAdministrationId.map(administrationId -> toEntityId(encounterId, administrationId)),
+        limit);
+  }
+
+  /**
+   * Stamps medication administrations of an encounter saved before the save
+   * time was recorded with the epoch, so {@link #listUpdatedSince} stops
+   * returning them.
+   *
+   * @param encounterId
+   *     encounter ID
+   * @return number of medication administrations stamped
+   */
+  public int saveMissingLastUpdated(Id<Encounter> encounterId) {
+    return saveMissingLastUpdated(
+        EncounterRepository.toEntityId(encounterId), MedicationAdministration.class);
+  }
+
+  /**
+   * Finds medication administrations for an encounter which were saved at or
+   * after a time. The condition is evaluated in the tablet servers.
+   * Administrations saved before the save time was recorded are returned until
+   * {@link MigrateEntitiesCommand} stamps them.
+   *
+   * @param encounterId
+   *     encounter ID
+   * @param lastUpdatedLower
+   *     inclusive lower bound of save time
+   * @return medication administrations
+   */
+  public List<MedicationAdministration> listUpdatedSince(
+      Id<Encounter> encounterId, Instant lastUpdatedLower) {
+
+    EntityId parentId = EncounterRepository.toEntityId(encounterId);
+    AttributeQuery query = new AttributeQuery()
+        .minimum(LAST_UPDATED, formatLastUpdated(lastUpdatedLower));
+    return entityStore
+        .stream(parentId, MedicationAdministration.class, query)
+        .collect(Collectors.toList());
+  }
 }
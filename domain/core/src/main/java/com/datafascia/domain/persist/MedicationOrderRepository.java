@@ -76,6 +76,8 @@ public class MedicationOrderRepository extends FhirEntityStoreRepository {
     Id<Encounter> encounterId = Ids.toPrimaryKey(medicationOrder.getEncounter().getReference());
 
     entityStore.save(toEntityId(encounterId, orderId), medicationOrder);
+
+    publishChange(MedicationOrder.class, encounterId, orderId);
   }
 
   /**
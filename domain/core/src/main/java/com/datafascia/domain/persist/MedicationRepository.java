@@ -69,6 +69,8 @@ public class MedicationRepository extends FhirEntityStoreRepository {
     medication.setId(new IdDt(Medication.class.getSimpleName(), medicationId.toString()));
 
     entityStore.save(toEntityId(medicationId), medication);
+
+    publishChange(Medication.class, null, medicationId);
   }
 
   /**
@@ -0,0 +1,89 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.domain.persist;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.dstu2.resource.Encounter;
+import com.beust.jcommander.Parameters;
+import com.datafascia.common.accumulo.AccumuloTemplate;
+import com.datafascia.common.accumulo.AuthorizationsSupplier;
+import com.datafascia.common.accumulo.ColumnVisibilityPolicy;
+import com.datafascia.common.accumulo.FixedAuthorizationsSupplier;
+import com.datafascia.common.accumulo.FixedColumnVisibilityPolicy;
+import com.datafascia.common.avro.schemaregistry.AvroSchemaRegistry;
+import com.datafascia.common.avro.schemaregistry.MemorySchemaRegistry;
+import com.datafascia.common.command.Command;
+import com.datafascia.common.configuration.guice.ConfigureModule;
+import com.datafascia.common.persist.Id;
+import com.datafascia.common.persist.entity.AccumuloFhirEntityStore;
+import com.datafascia.common.persist.entity.FhirEntityStore;
+import com.datafascia.domain.fhir.Ids;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.name.Names;
+import java.util.Optional;
+import javax.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Brings entities saved by earlier versions up to date with the indexes and
+ * attributes the repositories now read. Run this command once after
+ * upgrading, so the repositories do not have to check for old entities on
+ * read.
+ */
+@Parameters(commandNames = "migrate-entities",
+    commandDescription = "Index and stamp entities saved by earlier versions.")
+@Slf4j
+public class MigrateEntitiesCommand implements Command {
+
+  private static Injector createInjector() {
+    return Guice.createInjector(new ConfigureModule() {
+      @Override
+      protected void onConfigure() {
+        bind(AuthorizationsSupplier.class).to(FixedAuthorizationsSupplier.class);
+        bind(AvroSchemaRegistry.class).to(MemorySchemaRegistry.class).in(Singleton.class);
+        bind(ColumnVisibilityPolicy.class).to(FixedColumnVisibilityPolicy.class);
+        bind(FhirContext.class).toInstance(FhirContext.forDstu2());
+        bind(FhirEntityStore.class).to(AccumuloFhirEntityStore.class).in(Singleton.class);
+
+        bindConstant().annotatedWith(Names.named("entityTableNamePrefix"))
+            .to(Tables.ENTITY_PREFIX);
+      }
+    });
+  }
+
+  @Override
+  public int execute() {
+    Injector injector = createInjector();
+    AccumuloTemplate accumuloTemplate = injector.getInstance(AccumuloTemplate.class);
+    EncounterRepository encounterRepository = injector.getInstance(EncounterRepository.class);
+    ObservationRepository observationRepository =
+        injector.getInstance(ObservationRepository.class);
+    MedicationAdministrationRepository administrationRepository =
+        injector.getInstance(MedicationAdministrationRepository.class);
+
+    for (Encounter encounter : encounterRepository.list(Optional.empty())) {
+      Id<Encounter> encounterId = Ids.toPrimaryKey(encounter.getId());
+      int indexedCount = observationRepository.index(encounterId);
+      int observationCount = observationRepository.saveMissingLastUpdated(encounterId);
+      int administrationCount = administrationRepository.saveMissingLastUpdated(encounterId);
+      accumuloTemplate.flush();
+      log.info(
+          "Encounter {}: indexed {} observations, stamped {} observations and {} administrations",
+          encounterId, indexedCount, observationCount, administrationCount);
+    }
+
+    return EXIT_STATUS_SUCCESS;
+  }
+}
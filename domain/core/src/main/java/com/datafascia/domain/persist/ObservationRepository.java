@@ -15,30 +15,92 @@ package com.datafascia.domain.persist;
 
 import ca.uhn.fhir.model.dstu2.resource.Encounter;
 import ca.uhn.fhir.model.dstu2.resource.Observation;
+import com.datafascia.common.accumulo.AccumuloTemplate;
 import com.datafascia.common.persist.Id;
+import com.datafascia.common.persist.entity.AttributeQuery;
 import com.datafascia.common.persist.entity.EntityId;
 import com.datafascia.common.persist.entity.FhirEntityStore;
+import com.datafascia.domain.fhir.Dates;
 import com.datafascia.domain.fhir.Ids;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.inject.Inject;
+import javax.inject.Singleton;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.hadoop.io.Text;
 
 /**
  * Observation data access.
+ * <p>
+ * Besides the entity, a row is written to the {@link Tables#OBSERVATION_BY_CODE}
+ * table for each observation, so the observations of an encounter having a
+ * code can be read in reverse effective time order by a short range scan. The
+ * row ID for an observation is composed of:
+ * <ol>
+ * <li>the encounter identifier
+ * <li>the {@code |} character
+ * <li>the observation code
+ * <li>the {@code |} character
+ * <li>{@link Long#MAX_VALUE} minus the effective time in milliseconds, zero padded to 19 digits
+ * <li>the {@code |} character
+ * <li>the observation identifier
+ * </ol>
+ * Rows are not deleted when an observation changes, so rows pointing to an
+ * observation having a different code or effective time are skipped on read.
+ * Observations saved before the index existed are added to it by
+ * {@link MigrateEntitiesCommand}, so reads never write.
  */
-@Slf4j
+@Singleton @Slf4j
 public class ObservationRepository extends FhirEntityStoreRepository {
 
+  private static final String CODE = "code";
+  private static final String EFFECTIVE = "effective";
+  private static final List<String> ATTRIBUTE_NAMES = Arrays.asList(CODE, EFFECTIVE, LAST_UPDATED);
+
+  // Fixed width format, so the string order is the same as the time order.
+  private static final DateTimeFormatter EFFECTIVE_FORMATTER =
+      DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+
+  private static final String COLUMN_FAMILY = Observation.class.getSimpleName();
+  private static final String OBSERVATION_ID = "observationId";
+  private static final String NO_EFFECTIVE = "9999999999999999999";
+
+  private final AccumuloTemplate accumuloTemplate;
+
   /**
    * Constructor
    *
    * @param entityStore
    *     entity store
+   * @param accumuloTemplate
+   *     data access operations template
    */
   @Inject
-  public ObservationRepository(FhirEntityStore entityStore) {
+  public ObservationRepository(FhirEntityStore entityStore, AccumuloTemplate accumuloTemplate) {
     super(entityStore);
+
+    this.accumuloTemplate = accumuloTemplate;
+    accumuloTemplate.createTableIfNotExist(Tables.OBSERVATION_BY_CODE);
   }
 
   private static EntityId toEntityId(Id<Encounter> encounterId, Id<Observation> observationId) {
@@ -64,6 +126,92 @@ public class ObservationRepository extends FhirEntityStoreRepository {
     return Id.of(observation.getId().getIdPart());
   }
 
+  private static String getCode(Observation observation) {
+    return observation.getCode().getCodingFirstRep().getCode();
+  }
+
+  private static Instant getEffective(Observation observation) {
+    return Dates.toInstant(observation.getEffective());
+  }
+
+  private static String format(Instant instant) {
+    return (instant != null) ? EFFECTIVE_FORMATTER.format(instant) : null;
+  }
+
+  private Map<String, String> toAttributes(Observation observation) {
+    Map<String, String> attributes = new HashMap<>();
+    attributes.put(CODE, getCode(observation));
+    attributes.put(EFFECTIVE, format(getEffective(observation)));
+    attributes.put(LAST_UPDATED, formatLastUpdatedNow());
+    return attributes;
+  }
+
+  private static String escape(String input) {
+    try {
+      return URLEncoder.encode(input, StandardCharsets.UTF_8.name());
+    } catch (UnsupportedEncodingException e) {
+      throw new AssertionError("Java must implement UTF-8");
+    }
+  }
+
+  private static String toRowIdPrefix(Id<Encounter> encounterId) {
+    return escape(encounterId.toString()) + '|';
+  }
+
+  private static String toRowIdPrefix(Id<Encounter> encounterId, String code) {
+    return toRowIdPrefix(encounterId) + escape(Objects.toString(code, "")) + '|';
+  }
+
+  private static String toReverseTime(Instant effective) {
+    return (effective != null)
+        ? String.format("%019d", Long.MAX_VALUE - effective.toEpochMilli())
+        : NO_EFFECTIVE;
+  }
+
+  private static String toRowId(Id<Encounter> encounterId, Observation observation) {
+    return toRowIdPrefix(encounterId, getCode(observation)) +
+        toReverseTime(getEffective(observation)) + '|' +
+        escape(generateId(observation).toString());
+  }
+
+  private void saveIndexEntry(Id<Encounter> encounterId, Observation observation) {
+    accumuloTemplate.save(
+        Tables.OBSERVATION_BY_CODE,
+        toRowId(encounterId, observation),
+        mutationBuilder ->
+            mutationBuilder
+                .columnFamily(COLUMN_FAMILY)
+                .put(OBSERVATION_ID, new Value(
+                    generateId(observation).toString().getBytes(StandardCharsets.UTF_8))));
+  }
+
+  /**
+   * Adds every observation of an encounter to the code index. Used to index
+   * observations saved before the index existed.
+   *
+   * @param encounterId
+   *     encounter ID
+   * @return number of observations indexed
+   */
+  public int index(Id<Encounter> encounterId) {
+    List<Observation> observations = list(encounterId);
+    observations.forEach(observation -> saveIndexEntry(encounterId, observation));
+    return observations.size();
+  }
+
+  private void save(Id<Encounter> encounterId, Observation observation) {
+    Id<Observation> observationId = generateId(observation);
+    entityStore.save(
+        toEntityId(encounterId, observationId),
+        observation,
+        toAttributes(observation),
+        ATTRIBUTE_NAMES);
+
+    saveIndexEntry(encounterId, observation);
+
+    publishChange(Observation.class, encounterId, observationId);
+  }
+
   /**
    * Saves entity.
    *
@@ -73,9 +221,7 @@ public class ObservationRepository extends FhirEntityStoreRepository {
    *     to save
    */
   public void save(Encounter encounter, Observation observation) {
-    Id<Observation> observationId = generateId(observation);
-    Id<Encounter> encounterId = Ids.toPrimaryKey(encounter.getId());
-    entityStore.save(toEntityId(encounterId, observationId), observation);
+    save(Ids.toPrimaryKey(encounter.getId()), observation);
   }
 
   /**
@@ -84,9 +230,7 @@ public class ObservationRepository extends FhirEntityStoreRepository {
    * @param observation to save
    */
   public void save(Observation observation) {
-    Id<Observation> observationId = generateId(observation);
-    Id<Encounter> encounterId = Ids.toPrimaryKey(observation.getEncounter().getReference());
-    entityStore.save(toEntityId(encounterId, observationId), observation);
+    save(Ids.<Encounter>toPrimaryKey(observation.getEncounter().getReference()), observation);
   }
 
   /**
@@ -102,6 +246,227 @@ public class ObservationRepository extends FhirEntityStoreRepository {
         .collect(Collectors.toList());
   }
 
+  /**
+   * Counts observations for an encounter.
+   *
+   * @param encounterId
+   *     encounter ID
+   * @return number of observations
+   */
+  public int count(Id<Encounter> encounterId) {
+    return entityStore.count(EncounterRepository.toEntityId(encounterId), Observation.class);
+  }
+
+  /**
+   * Finds a page of observations for an encounter in ID order.
+   *
+   * @param encounterId
+   *     encounter ID
+   * @param afterObservationId
+   *     ID of last observation of previous page, empty to read first page
+   * @param limit
+   *     maximum number of observations to read
+   * @return observations
+   */
+  public List<Observation> list(
+      Id<Encounter> encounterId, Optional<Id<Observation>> afterObservationId, int limit) {
+
+    return listPage(
+        EncounterRepository.toEntityId(encounterId),
+        Observation.class,
+        afterObservationId.map(observationId -> toEntityId(encounterId, observationId)),
+        limit);
+  }
+
+  /**
+   * Stamps observations of an encounter saved before the save time was
+   * recorded with the epoch, so {@link #listUpdatedSince} stops returning them.
+   *
+   * @param encounterId
+   *     encounter ID
+   * @return number of observations stamped
+   */
+  public int saveMissingLastUpdated(Id<Encounter> encounterId) {
+    return saveMissingLastUpdated(
+        EncounterRepository.toEntityId(encounterId), Observation.class);
+  }
+
+  /**
+   * Finds observations for an encounter which were saved at or after a time.
+   * The condition is evaluated in the tablet servers. Observations saved
+   * before the save time was recorded are returned until
+   * {@link MigrateEntitiesCommand} stamps them.
+   *
+   * @param encounterId
+   *     encounter ID
+   * @param lastUpdatedLower
+   *     inclusive lower bound of save time
+   * @return observations
+   */
+  public List<Observation> listUpdatedSince(Id<Encounter> encounterId, Instant lastUpdatedLower) {
+    AttributeQuery query = new AttributeQuery()
+        .minimum(LAST_UPDATED, formatLastUpdated(lastUpdatedLower));
+    return stream(encounterId, query)
+        .collect(Collectors.toList());
+  }
+
+  private static boolean matches(Observation observation, String code, String reverseTime) {
+    return Objects.equals(code, getCode(observation)) &&
+        reverseTime.equals(toReverseTime(getEffective(observation)));
+  }
+
+  private List<Observation> listByCode(
+      Id<Encounter> encounterId,
+      String code,
+      Optional<Instant> effectiveLower,
+      Optional<Instant> effectiveUpper) {
+
+    String rowIdPrefix = toRowIdPrefix(encounterId, code);
+    String startRowId = effectiveUpper
+        .map(upper -> rowIdPrefix + toReverseTime(upper.minusMillis(1)))
+        .orElse(rowIdPrefix);
+    Text endRowId = Range.followingPrefix(new Text(effectiveLower
+        .map(lower -> rowIdPrefix + toReverseTime(lower) + '|')
+        .orElse(rowIdPrefix)));
+
+    Scanner scanner = accumuloTemplate.createScanner(Tables.OBSERVATION_BY_CODE);
+    scanner.setRange(new Range(new Text(startRowId), true, endRowId, false));
+    scanner.fetchColumn(new Text(COLUMN_FAMILY), new Text(OBSERVATION_ID));
+
+    Set<EntityId> entityIds = new LinkedHashSet<>();
+    try {
+      for (Map.Entry<Key, Value> entry : scanner) {
+        String rowId = entry.getKey().getRow().toString();
+        String reverseTime = rowId.substring(rowIdPrefix.length(), rowId.lastIndexOf('|'));
+        if (reverseTime.equals(NO_EFFECTIVE) &&
+            (effectiveLower.isPresent() || effectiveUpper.isPresent())) {
+          continue;
+        }
+
+        Id<Observation> observationId = Id.of(entry.getValue().toString());
+        entityIds.add(toEntityId(encounterId, observationId));
+      }
+    } finally {
+      scanner.close();
+    }
+
+    // Skip observations which changed since the index row was written.
+    Map<EntityId, Observation> entityIdToObservationMap = entityStore.readAll(entityIds);
+    return filter(
+        entityIdToObservationMap.values().stream(),
+        Optional.of(code),
+        effectiveLower,
+        effectiveUpper)
+        .sorted(Comparator.comparing(
+            ObservationRepository::getEffective,
+            Comparator.nullsLast(Comparator.<Instant>reverseOrder())))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Finds observations for an encounter having a code and an effective time
+   * within a time interval. If the code is given, the observations are read
+   * from the code index in reverse effective time order. Otherwise, the
+   * conditions are evaluated in the tablet servers.
+   *
+   * @param encounterId
+   *     encounter ID
+   * @param code
+   *     optional observation code to match
+   * @param effectiveLower
+   *     optional inclusive lower bound of effective time
+   * @param effectiveUpper
+   *     optional exclusive upper bound of effective time
+   * @return observations
+   */
+  public List<Observation> list(
+      Id<Encounter> encounterId,
+      Optional<String> code,
+      Optional<Instant> effectiveLower,
+      Optional<Instant> effectiveUpper) {
+
+    if (code.isPresent()) {
+      return listByCode(encounterId, code.get(), effectiveLower, effectiveUpper);
+    }
+
+    AttributeQuery query = new AttributeQuery();
+    effectiveLower.ifPresent(value -> query.minimum(EFFECTIVE, format(value)));
+    effectiveUpper.ifPresent(value -> query.maximum(EFFECTIVE, format(value)));
+
+    return filter(stream(encounterId, query), code, effectiveLower, effectiveUpper)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Finds the observation for an encounter having a code and the latest
+   * effective time. Reads from the code index, so usually only one index row
+   * and one observation are read.
+   *
+   * @param encounterId
+   *     encounter ID
+   * @param code
+   *     observation code to match
+   * @return optional observation, empty if not found
+   */
+  public Optional<Observation> findFreshest(Id<Encounter> encounterId, String code) {
+    String rowIdPrefix = toRowIdPrefix(encounterId, code);
+    Scanner scanner = accumuloTemplate.createScanner(Tables.OBSERVATION_BY_CODE);
+    scanner.setRange(Range.prefix(rowIdPrefix));
+    scanner.fetchColumn(new Text(COLUMN_FAMILY), new Text(OBSERVATION_ID));
+    try {
+      Iterator<Map.Entry<Key, Value>> iterator = scanner.iterator();
+      while (iterator.hasNext()) {
+        Map.Entry<Key, Value> entry = iterator.next();
+        String rowId = entry.getKey().getRow().toString();
+        String reverseTime = rowId.substring(rowIdPrefix.length(), rowId.lastIndexOf('|'));
+        if (reverseTime.equals(NO_EFFECTIVE)) {
+          break;
+        }
+
+        Id<Observation> observationId = Id.of(entry.getValue().toString());
+        Optional<Observation> observation =
+            entityStore.read(toEntityId(encounterId, observationId));
+        if (observation.isPresent() && matches(observation.get(), code, reverseTime)) {
+          return observation;
+        }
+      }
+
+      return Optional.empty();
+    } finally {
+      scanner.close();
+    }
+  }
+
+  private Stream<Observation> stream(Id<Encounter> encounterId, AttributeQuery query) {
+    return entityStore.stream(
+        EncounterRepository.toEntityId(encounterId), Observation.class, query);
+  }
+
+  // Observations saved without attributes pass the tablet server conditions,
+  // so test them again.
+  private static Stream<Observation> filter(
+      Stream<Observation> observations,
+      Optional<String> code,
+      Optional<Instant> effectiveLower,
+      Optional<Instant> effectiveUpper) {
+
+    if (code.isPresent()) {
+      observations = observations
+          .filter(observation -> Objects.equals(code.get(), getCode(observation)));
+    }
+    if (effectiveLower.isPresent()) {
+      observations = observations
+          .filter(observation -> getEffective(observation) != null &&
+              !getEffective(observation).isBefore(effectiveLower.get()));
+    }
+    if (effectiveUpper.isPresent()) {
+      observations = observations
+          .filter(observation -> getEffective(observation) != null &&
+              getEffective(observation).isBefore(effectiveUpper.get()));
+    }
+    return observations;
+  }
+
   /**
    * Deletes encounter and all of its children.
    *
@@ -112,5 +477,7 @@ public class ObservationRepository extends FhirEntityStoreRepository {
    */
   public void delete(Id<Encounter> encounterId, Id<Observation> observationId) {
     entityStore.delete(toEntityId(encounterId, observationId));
+
+    publishChange(Observation.class, encounterId, observationId);
   }
 }
@@ -76,6 +76,8 @@ public class PractitionerRepository extends FhirEntityStoreRepository {
     practitioner.setId(new IdDt(Practitioner.class.getSimpleName(), practitionerId.toString()));
 
     entityStore.save(toEntityId(practitionerId), practitioner);
+
+    publishChange(Practitioner.class, null, practitionerId);
   }
 
   /**
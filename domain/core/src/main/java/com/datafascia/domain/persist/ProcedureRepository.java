@@ -75,6 +75,8 @@ public class ProcedureRepository extends FhirEntityStoreRepository {
 
     Id<Encounter> encounterId = Ids.toPrimaryKey(procedure.getEncounter().getReference());
     entityStore.save(toEntityId(encounterId, procedureId), procedure);
+
+    publishChange(Procedure.class, encounterId, procedureId);
   }
 
   /**
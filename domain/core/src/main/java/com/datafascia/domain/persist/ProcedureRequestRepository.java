@@ -77,6 +77,8 @@ public class ProcedureRequestRepository extends FhirEntityStoreRepository {
     Id<Encounter> encounterId = Ids.toPrimaryKey(request.getEncounter().getReference());
 
     entityStore.save(toEntityId(encounterId, requestId), request);
+
+    publishChange(ProcedureRequest.class, encounterId, requestId);
   }
 
   /**
@@ -23,6 +23,7 @@ public class Tables {
 
   public static final String ENCOUNTER = "Encounter";
   public static final String INGEST_MESSAGE = "IngestMessage";
+  public static final String OBSERVATION_BY_CODE = "ObservationByCode";
 
   // Private constructor disallows creating instances of this class
   private Tables() {
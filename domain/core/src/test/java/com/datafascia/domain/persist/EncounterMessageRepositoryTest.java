@@ -0,0 +1,143 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.domain.persist;
+
+import ca.uhn.fhir.model.dstu2.resource.Encounter;
+import com.datafascia.common.persist.Id;
+import com.datafascia.domain.model.EncounterMessage;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.inject.Inject;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * {@link EncounterMessageRepository} test
+ */
+public class EncounterMessageRepositoryTest extends RepositoryTestSupport {
+
+  @Inject
+  private EncounterMessageRepository encounterMessageRepository;
+
+  private void save(Id<Encounter> encounterId, String payload) throws InterruptedException {
+    encounterMessageRepository.save(encounterId, payload);
+
+    // Keep message timestamps distinct.
+    Thread.sleep(2);
+  }
+
+  private static String toString(EncounterMessage message) {
+    return StandardCharsets.UTF_8.decode(message.getPayload()).toString();
+  }
+
+  @Test
+  public void should_initialize_last_processed_message_to_last_message() throws Exception {
+    Id<Encounter> encounterId = Id.of("should_initialize_last_processed_message");
+    save(encounterId, "1");
+    save(encounterId, "2");
+    save(encounterId, "3");
+
+    encounterMessageRepository.initializeLastProcessedMessageId(encounterId, Instant.now());
+    assertTrue(encounterMessageRepository.findByEncounterId(encounterId).isEmpty());
+
+    save(encounterId, "4");
+    List<EncounterMessage> messages = encounterMessageRepository.findByEncounterId(encounterId);
+    assertEquals(messages.size(), 1);
+    assertEquals(toString(messages.get(0)), "4");
+  }
+
+  @Test
+  public void should_forget_last_message_on_delete() throws Exception {
+    Id<Encounter> encounterId = Id.of("should_forget_last_message");
+    save(encounterId, "1");
+
+    encounterMessageRepository.delete(encounterId);
+    Thread.sleep(2);
+    encounterMessageRepository.initializeLastProcessedMessageId(encounterId, Instant.now());
+
+    save(encounterId, "2");
+    List<EncounterMessage> messages = encounterMessageRepository.findByEncounterId(encounterId);
+    assertEquals(messages.size(), 1);
+    assertEquals(toString(messages.get(0)), "2");
+  }
+
+  @Test
+  public void should_keep_save_order_within_millisecond() throws Exception {
+    Id<Encounter> encounterId = Id.of("should_keep_save_order_within_millisecond");
+    encounterMessageRepository.save(encounterId, "1");
+    encounterMessageRepository.save(encounterId, "2");
+    encounterMessageRepository.save(encounterId, "3");
+
+    List<EncounterMessage> messages = encounterMessageRepository.findByEncounterId(encounterId);
+    assertEquals(
+        messages.stream()
+            .map(EncounterMessageRepositoryTest::toString)
+            .collect(Collectors.toList()),
+        Arrays.asList("1", "2", "3"));
+  }
+
+  @Test
+  public void should_leave_messages_saved_after_initialize_time_pending() throws Exception {
+    Id<Encounter> encounterId = Id.of("should_leave_messages_pending");
+    save(encounterId, "1");
+    save(encounterId, "2");
+    Instant initializeTime = Instant.now();
+    Thread.sleep(2);
+    save(encounterId, "3");
+
+    encounterMessageRepository.initializeLastProcessedMessageId(encounterId, initializeTime);
+
+    List<EncounterMessage> messages = encounterMessageRepository.findByEncounterId(encounterId);
+    assertEquals(messages.size(), 1);
+    assertEquals(toString(messages.get(0)), "3");
+  }
+
+  private List<String> stream(
+      Id<Encounter> encounterId,
+      Instant timeLower,
+      boolean lowerInclusive,
+      Optional<Instant> timeUpper) {
+
+    try (Stream<EncounterMessage> messages =
+        encounterMessageRepository.stream(encounterId, timeLower, lowerInclusive, timeUpper)) {
+      return messages
+          .map(EncounterMessageRepositoryTest::toString)
+          .collect(Collectors.toList());
+    }
+  }
+
+  @Test
+  public void should_stream_messages_in_time_range() throws Exception {
+    Id<Encounter> encounterId = Id.of("should_stream_messages_in_time_range");
+    save(encounterId, "1");
+    save(encounterId, "2");
+    save(encounterId, "3");
+
+    List<EncounterMessage> messages = encounterMessageRepository.findByEncounterId(encounterId);
+    Instant time1 = messages.get(0).getTimestamp();
+    Instant time2 = messages.get(1).getTimestamp();
+    Instant time3 = messages.get(2).getTimestamp();
+
+    assertEquals(stream(encounterId, time2, true, Optional.empty()), Arrays.asList("2", "3"));
+    assertEquals(stream(encounterId, time1, false, Optional.empty()), Arrays.asList("2", "3"));
+    assertEquals(stream(encounterId, time1, true, Optional.of(time3)), Arrays.asList("1", "2"));
+  }
+}
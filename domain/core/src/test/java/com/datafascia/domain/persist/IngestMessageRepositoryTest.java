@@ -0,0 +1,103 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.domain.persist;
+
+import com.datafascia.domain.model.IngestMessage;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.inject.Inject;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * {@link IngestMessageRepository} test
+ */
+public class IngestMessageRepositoryTest extends RepositoryTestSupport {
+
+  private static final Instant CURSOR = Instant.parse("2015-03-01T00:00:00.000Z");
+  private static final Instant UPPER = CURSOR.plusMillis(2);
+
+  @Inject
+  private IngestMessageRepository ingestMessageRepository;
+
+  private void save(Instant timestamp, String payload) {
+    ingestMessageRepository.save(IngestMessage.builder()
+        .timestamp(timestamp)
+        .institution(URI.create("urn:df-institution:test"))
+        .facility(URI.create("urn:df-facility:test"))
+        .payloadType(URI.create("urn:df-payload-type:test"))
+        .payload(ByteBuffer.wrap(payload.getBytes(StandardCharsets.UTF_8)))
+        .build());
+  }
+
+  @BeforeClass
+  public void saveMessages() {
+    save(CURSOR.minusMillis(1), "before");
+    save(CURSOR, "at1");
+    save(CURSOR, "at2");
+    save(CURSOR.plusMillis(1), "after");
+    save(UPPER, "upper");
+  }
+
+  private List<String> stream(
+      Instant timeLower, boolean lowerInclusive, Optional<Instant> timeUpper) {
+
+    try (Stream<IngestMessage> messages =
+        ingestMessageRepository.stream(timeLower, lowerInclusive, timeUpper)) {
+      return messages
+          .map(message -> StandardCharsets.UTF_8.decode(message.getPayload()).toString())
+          .collect(Collectors.toList());
+    }
+  }
+
+  @Test
+  public void should_include_messages_at_inclusive_cursor() {
+    List<String> payloads = stream(CURSOR, true, Optional.of(UPPER));
+
+    // Messages received in the same millisecond are ordered by hash.
+    Set<String> atCursor = new HashSet<>(payloads.subList(0, 2));
+    assertEquals(atCursor, new HashSet<>(Arrays.asList("at1", "at2")));
+    assertEquals(payloads.subList(2, payloads.size()), Arrays.asList("after"));
+  }
+
+  @Test
+  public void should_exclude_messages_at_exclusive_cursor() {
+    assertEquals(stream(CURSOR, false, Optional.of(UPPER)), Arrays.asList("after"));
+  }
+
+  @Test
+  public void should_exclude_messages_at_upper_bound() {
+    assertEquals(
+        stream(CURSOR.plusMillis(1), true, Optional.of(UPPER)), Arrays.asList("after"));
+    assertEquals(
+        stream(CURSOR.plusMillis(1), true, Optional.of(UPPER.plusMillis(1))),
+        Arrays.asList("after", "upper"));
+  }
+
+  @Test
+  public void should_read_to_end_without_upper_bound() {
+    assertEquals(stream(CURSOR, false, Optional.empty()), Arrays.asList("after", "upper"));
+  }
+}
@@ -22,17 +22,26 @@ import ca.uhn.fhir.model.dstu2.resource.Observation;
 import ca.uhn.fhir.model.dstu2.valueset.AdministrativeGenderEnum;
 import ca.uhn.fhir.model.dstu2.valueset.MaritalStatusCodesEnum;
 import ca.uhn.fhir.model.primitive.DateDt;
+import ca.uhn.fhir.model.primitive.DateTimeDt;
 import ca.uhn.fhir.model.primitive.IdDt;
 import ca.uhn.fhir.model.primitive.StringDt;
 import com.datafascia.common.persist.Id;
+import com.datafascia.common.persist.entity.EntityId;
+import com.datafascia.common.persist.entity.FhirEntityStore;
+import com.datafascia.domain.event.EntityChange;
 import com.datafascia.domain.fhir.IdentifierSystems;
 import com.datafascia.domain.fhir.Ids;
 import com.datafascia.domain.fhir.Languages;
 import com.datafascia.domain.fhir.RaceEnum;
 import com.datafascia.domain.fhir.UnitedStatesPatient;
 import com.neovisionaries.i18n.LanguageCode;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
 import javax.inject.Inject;
 import org.testng.annotations.Test;
 
@@ -56,6 +65,9 @@ public class ObservationRepositoryTest extends RepositoryTestSupport {
   @Inject
   private ObservationRepository observationRepository;
 
+  @Inject
+  private FhirEntityStore entityStore;
+
   private UnitedStatesPatient createPatient() {
     UnitedStatesPatient patient = new UnitedStatesPatient();
     patient.addIdentifier()
@@ -130,4 +142,249 @@ public class ObservationRepositoryTest extends RepositoryTestSupport {
       }
     }
   }
+
+  private Observation createObservation(String id, String code, Instant effective) {
+    Observation observation = new Observation()
+        .setCode(new CodeableConceptDt("system", code))
+        .setValue(new StringDt(id))
+        .setEffective(new DateTimeDt(Date.from(effective), TemporalPrecisionEnum.SECOND));
+    observation.setId(new IdDt(Observation.class.getSimpleName(), id));
+    return observation;
+  }
+
+  @Test
+  public void should_filter_observations_by_code_and_effective_time() {
+    UnitedStatesPatient patient = createPatient();
+    patientRepository.save(patient);
+
+    Encounter encounter = createEncounter(patient);
+    encounterRepository.save(encounter);
+
+    Instant now = Instant.parse("2015-06-01T12:00:00Z");
+    observationRepository.save(
+        encounter, createObservation("heartRate1", "heartRate", now.minusSeconds(7200)));
+    observationRepository.save(
+        encounter, createObservation("heartRate2", "heartRate", now.minusSeconds(3600)));
+    observationRepository.save(
+        encounter, createObservation("heartRate3", "heartRate", now));
+    observationRepository.save(
+        encounter, createObservation("respiratoryRate1", "respiratoryRate", now));
+
+    Id<Encounter> encounterId = Ids.toPrimaryKey(encounter.getId());
+    List<Observation> observations = observationRepository.list(
+        encounterId,
+        Optional.of("heartRate"),
+        Optional.of(now.minusSeconds(3600)),
+        Optional.of(now));
+    assertEquals(observations.size(), 1);
+    assertEquals(observations.get(0).getId().getIdPart(), "heartRate2");
+
+    observations = observationRepository.list(
+        encounterId, Optional.of("heartRate"), Optional.empty(), Optional.empty());
+    assertEquals(observations.size(), 3);
+    assertEquals(observations.get(0).getId().getIdPart(), "heartRate3");
+    assertEquals(observations.get(2).getId().getIdPart(), "heartRate1");
+
+    Optional<Observation> freshest = observationRepository.findFreshest(encounterId, "heartRate");
+    assertEquals(freshest.get().getId().getIdPart(), "heartRate3");
+  }
+
+  @Test
+  public void should_filter_observations_by_effective_time() {
+    UnitedStatesPatient patient = createPatient();
+    patientRepository.save(patient);
+
+    Encounter encounter = createEncounter(patient);
+    encounter.getIdentifierFirstRep().setValue("effective");
+    encounterRepository.save(encounter);
+
+    Instant now = Instant.parse("2015-06-01T12:00:00Z");
+    observationRepository.save(
+        encounter, createObservation("effective1", "heartRate", now.minusSeconds(7200)));
+    observationRepository.save(
+        encounter, createObservation("effective2", "respiratoryRate", now.minusSeconds(3600)));
+    observationRepository.save(
+        encounter, createObservation("effective3", "heartRate", now));
+
+    Id<Encounter> encounterId = Ids.toPrimaryKey(encounter.getId());
+    List<Observation> observations = observationRepository.list(
+        encounterId, Optional.empty(), Optional.of(now.minusSeconds(3600)), Optional.of(now));
+    assertEquals(observations.size(), 1);
+    assertEquals(observations.get(0).getId().getIdPart(), "effective2");
+
+    observations = observationRepository.list(
+        encounterId, Optional.empty(), Optional.of(now.minusSeconds(3600)), Optional.empty());
+    assertEquals(
+        observations.stream()
+            .map(observation -> observation.getId().getIdPart())
+            .sorted()
+            .collect(Collectors.toList()),
+        Arrays.asList("effective2", "effective3"));
+
+    observations = observationRepository.list(
+        encounterId, Optional.empty(), Optional.empty(), Optional.of(now.minusSeconds(3600)));
+    assertEquals(observations.size(), 1);
+    assertEquals(observations.get(0).getId().getIdPart(), "effective1");
+  }
+
+  @Test
+  public void should_skip_index_rows_of_changed_observation() {
+    UnitedStatesPatient patient = createPatient();
+    patientRepository.save(patient);
+
+    Encounter encounter = createEncounter(patient);
+    encounter.getIdentifierFirstRep().setValue("changed");
+    encounterRepository.save(encounter);
+
+    Instant now = Instant.parse("2015-06-01T12:00:00Z");
+    observationRepository.save(
+        encounter, createObservation("changed1", "heartRate", now.minusSeconds(60)));
+    observationRepository.save(
+        encounter, createObservation("changed2", "heartRate", now.minusSeconds(120)));
+
+    // Move the freshest observation to a later effective time, then to another code.
+    observationRepository.save(encounter, createObservation("changed1", "heartRate", now));
+    observationRepository.save(
+        encounter, createObservation("changed1", "respiratoryRate", now.minusSeconds(30)));
+
+    Id<Encounter> encounterId = Ids.toPrimaryKey(encounter.getId());
+    Optional<Observation> freshest = observationRepository.findFreshest(encounterId, "heartRate");
+    assertEquals(freshest.get().getId().getIdPart(), "changed2");
+
+    List<Observation> observations = observationRepository.list(
+        encounterId, Optional.of("heartRate"), Optional.empty(), Optional.empty());
+    assertEquals(observations.size(), 1);
+    assertEquals(observations.get(0).getId().getIdPart(), "changed2");
+
+    observations = observationRepository.list(
+        encounterId, Optional.of("respiratoryRate"), Optional.empty(), Optional.empty());
+    assertEquals(observations.size(), 1);
+    assertEquals(observations.get(0).getId().getIdPart(), "changed1");
+  }
+
+  @Test
+  public void should_index_observations_saved_before_index_existed() {
+    UnitedStatesPatient patient = createPatient();
+    patientRepository.save(patient);
+
+    Encounter encounter = createEncounter(patient);
+    encounter.getIdentifierFirstRep().setValue("legacy");
+    encounterRepository.save(encounter);
+
+    // Save the observation the way earlier versions did, without an index row.
+    Id<Encounter> encounterId = Ids.toPrimaryKey(encounter.getId());
+    Observation observation =
+        createObservation("legacy1", "heartRate", Instant.parse("2015-06-01T12:00:00Z"));
+    entityStore.save(
+        EntityId.builder()
+            .path(EncounterRepository.toEntityId(encounterId))
+            .path(Observation.class, Id.of("legacy1"))
+            .build(),
+        observation);
+    assertEquals(observationRepository.findFreshest(encounterId, "heartRate"), Optional.empty());
+
+    assertEquals(observationRepository.index(encounterId), 1);
+    Optional<Observation> freshest = observationRepository.findFreshest(encounterId, "heartRate");
+    assertEquals(freshest.get().getId().getIdPart(), "legacy1");
+  }
+
+  @Test
+  public void should_list_observations_updated_since() throws Exception {
+    UnitedStatesPatient patient = createPatient();
+    patientRepository.save(patient);
+
+    Encounter encounter = createEncounter(patient);
+    encounterRepository.save(encounter);
+
+    Instant effective = Instant.parse("2015-06-01T12:00:00Z");
+    observationRepository.save(
+        encounter, createObservation("bloodPressure1", "bloodPressure", effective));
+    Thread.sleep(2);
+
+    Instant updatedSince = Instant.now();
+    observationRepository.save(
+        encounter, createObservation("bloodPressure2", "bloodPressure", effective));
+
+    Id<Encounter> encounterId = Ids.toPrimaryKey(encounter.getId());
+    List<Observation> observations =
+        observationRepository.listUpdatedSince(encounterId, updatedSince);
+    assertEquals(observations.size(), 1);
+    assertEquals(observations.get(0).getId().getIdPart(), "bloodPressure2");
+  }
+
+  @Test
+  public void should_stamp_observations_saved_before_save_time_was_recorded() {
+    UnitedStatesPatient patient = createPatient();
+    patientRepository.save(patient);
+
+    Encounter encounter = createEncounter(patient);
+    encounter.getIdentifierFirstRep().setValue("unstamped");
+    encounterRepository.save(encounter);
+
+    // Save the observation the way earlier versions did, without attributes.
+    Id<Encounter> encounterId = Ids.toPrimaryKey(encounter.getId());
+    entityStore.save(
+        EntityId.builder()
+            .path(EncounterRepository.toEntityId(encounterId))
+            .path(Observation.class, Id.of("unstamped1"))
+            .build(),
+        createObservation("unstamped1", "heartRate", Instant.parse("2015-06-01T12:00:00Z")));
+
+    Instant updatedSince = Instant.now();
+    assertEquals(observationRepository.listUpdatedSince(encounterId, updatedSince).size(), 1);
+
+    assertEquals(observationRepository.saveMissingLastUpdated(encounterId), 1);
+    assertEquals(observationRepository.listUpdatedSince(encounterId, updatedSince).size(), 0);
+    assertEquals(observationRepository.saveMissingLastUpdated(encounterId), 0);
+  }
+
+  @Test
+  public void should_list_observations_in_pages() {
+    UnitedStatesPatient patient = createPatient();
+    patientRepository.save(patient);
+
+    Encounter encounter = createEncounter(patient);
+    encounter.getIdentifierFirstRep().setValue("paged");
+    encounterRepository.save(encounter);
+
+    Instant effective = Instant.parse("2015-06-01T12:00:00Z");
+    for (String id : new String[] { "page1", "page2", "page3" }) {
+      observationRepository.save(encounter, createObservation(id, "bloodPressure", effective));
+    }
+
+    Id<Encounter> encounterId = Ids.toPrimaryKey(encounter.getId());
+    assertEquals(observationRepository.count(encounterId), 3);
+
+    List<Observation> firstPage = observationRepository.list(encounterId, Optional.empty(), 2);
+    assertEquals(firstPage.size(), 2);
+    assertEquals(firstPage.get(1).getId().getIdPart(), "page2");
+
+    List<Observation> secondPage = observationRepository.list(
+        encounterId, Optional.of(Id.of(firstPage.get(1).getId().getIdPart())), 2);
+    assertEquals(secondPage.size(), 1);
+    assertEquals(secondPage.get(0).getId().getIdPart(), "page3");
+  }
+
+  @Test
+  public void should_publish_change_on_save() {
+    UnitedStatesPatient patient = createPatient();
+    patientRepository.save(patient);
+
+    Encounter encounter = createEncounter(patient);
+    encounterRepository.save(encounter);
+
+    List<EntityChange> changes = new ArrayList<>();
+    observationRepository.setEntityChangePublisher(changes::add);
+    try {
+      observationRepository.save(encounter, createObservation(
+          "heartRate1", "heartRate", Instant.parse("2015-06-01T12:00:00Z")));
+    } finally {
+      observationRepository.setEntityChangePublisher(change -> { });
+    }
+
+    assertEquals(changes.size(), 1);
+    assertEquals(changes.get(0).getEntityType(), "Observation");
+    assertEquals(changes.get(0).getEncounterId(), Ids.toPrimaryKey(encounter.getId()).toString());
+    assertEquals(changes.get(0).getEntityId(), "heartRate1");
+  }
 }
@@ -0,0 +1,98 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.emerge.ucsf.harm;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.Striped;
+import java.util.concurrent.locks.Lock;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Serializes work on the same encounter. Encounter identifiers hash to a fixed
+ * set of lock stripes, so a lock is never discarded while a thread holds it.
+ * Different encounters which hash to the same stripe also exclude each other,
+ * which is rare when the stripe count is much larger than the census.
+ */
+@Singleton @Slf4j
+public class EncounterLockManager {
+
+  private static final int DEFAULT_STRIPE_COUNT = 4096;
+
+  private final Striped<Lock> stripes;
+  private final Timer lockWaitTimer;
+  private final Meter contendedMeter;
+
+  /**
+   * Constructor
+   *
+   * @param metrics
+   *     metric registry
+   */
+  @Inject
+  public EncounterLockManager(MetricRegistry metrics) {
+    this(DEFAULT_STRIPE_COUNT, metrics);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param stripeCount
+   *     number of locks
+   * @param metrics
+   *     metric registry
+   */
+  public EncounterLockManager(int stripeCount, MetricRegistry metrics) {
+    stripes = Striped.lock(stripeCount);
+    lockWaitTimer = metrics.timer(MetricRegistry.name(EncounterLockManager.class, "lockWaitTime"));
+    contendedMeter = metrics.meter(MetricRegistry.name(EncounterLockManager.class, "contended"));
+  }
+
+  private Lock lock(String encounterIdentifier) {
+    Lock lock = stripes.get(encounterIdentifier);
+    if (lock.tryLock()) {
+      return lock;
+    }
+
+    contendedMeter.mark();
+    log.debug("Waiting for lock for encounter {}", encounterIdentifier);
+    Timer.Context timerContext = lockWaitTimer.time();
+    try {
+      lock.lock();
+    } finally {
+      timerContext.stop();
+    }
+    return lock;
+  }
+
+  /**
+   * Runs action while holding the lock for the encounter.
+   *
+   * @param encounterIdentifier
+   *     encounter identifier
+   * @param action
+   *     to run
+   */
+  public void execute(String encounterIdentifier, Runnable action) {
+    Lock lock = lock(encounterIdentifier);
+    try {
+      action.run();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
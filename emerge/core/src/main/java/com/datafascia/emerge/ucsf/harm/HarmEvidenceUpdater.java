@@ -20,19 +20,21 @@ import ca.uhn.fhir.model.dstu2.resource.Observation;
 import ca.uhn.fhir.model.dstu2.resource.Practitioner;
 import ca.uhn.fhir.model.dstu2.resource.Procedure;
 import ca.uhn.fhir.model.dstu2.resource.ProcedureRequest;
+import ca.uhn.fhir.model.dstu2.valueset.EncounterStateEnum;
+import com.datafascia.common.accumulo.AccumuloTemplate;
 import com.datafascia.common.persist.Id;
 import com.datafascia.domain.fhir.UnitedStatesPatient;
+import com.datafascia.domain.persist.LocationRepository;
 import com.datafascia.emerge.ucsf.HarmEvidence;
 import com.datafascia.emerge.ucsf.MedicalData;
+import com.datafascia.emerge.ucsf.persist.HarmEvidenceFeedRepository;
 import com.datafascia.emerge.ucsf.persist.HarmEvidenceRepository;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.inject.Inject;
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -87,9 +89,21 @@ public class HarmEvidenceUpdater {
     }
   }
 
+  @Inject
+  private AccumuloTemplate accumuloTemplate;
+
+  @Inject
+  private EncounterLockManager lockManager;
+
   @Inject
   private HarmEvidenceRepository harmEvidenceRepository;
 
+  @Inject
+  private HarmEvidenceFeedRepository harmEvidenceFeedRepository;
+
+  @Inject
+  private LocationRepository locationRepository;
+
   @Inject
   private DemographicDataUpdater demographicDataUpdater;
 
@@ -115,16 +129,7 @@ public class HarmEvidenceUpdater {
   private PainAndDeliriumUpdater painAndDeliriumUpdater;
 
   private KieBase base;
-  private LoadingCache<String, Object> encounterIdToLockMap = CacheBuilder.newBuilder()
-      .maximumSize(256)
-      .build(
-          new CacheLoader<String, Object>() {
-            @Override
-            public Object load(String encounterId) throws Exception {
-              return new Object();
-            }
-          }
-      );
+  private StatelessKieSessionPool sessionPool = new StatelessKieSessionPool(this::newSession);
 
   /**
    * Constructor
@@ -140,6 +145,19 @@ public class HarmEvidenceUpdater {
     base = container.newKieBase("harmEvidenceBase", baseConfiguration);
   }
 
+  private StatelessKieSession newSession() {
+    StatelessKieSession session = base.newStatelessKieSession();
+    session.setGlobal("demographicDataUpdater", demographicDataUpdater);
+    session.setGlobal("centralLineAssociatedBloodStreamInfectionUpdater", clabsiUpdater);
+    session.setGlobal("alignmentOfGoalsUpdater", alignmentOfGoalsUpdater);
+    session.setGlobal("venousThromboembolismUpdater", venousThromboembolismUpdater);
+    session.setGlobal("ventilatorAssociatedEventUpdater", ventilatorAssociatedEventUpdater);
+    session.setGlobal("respectDignityUpdater", respectDignityUpdater);
+    session.setGlobal("intensiveCareUnitAcquiredWeaknessUpdater", icuAcquiredWeaknessUpdater);
+    session.setGlobal("painAndDeliriumUpdater", painAndDeliriumUpdater);
+    return session;
+  }
+
   private HarmEvidence getHarmEvidence(Encounter encounter) {
     String encounterIdentifier = encounter.getIdentifierFirstRep().getValue();
 
@@ -172,18 +190,11 @@ public class HarmEvidenceUpdater {
       List<Observation> observations,
       Object... additionalFacts) {
 
-    StatelessKieSession session = base.newStatelessKieSession();
-    session.setGlobal("demographicDataUpdater", demographicDataUpdater);
-    session.setGlobal("centralLineAssociatedBloodStreamInfectionUpdater", clabsiUpdater);
-    session.setGlobal("alignmentOfGoalsUpdater", alignmentOfGoalsUpdater);
-    session.setGlobal("venousThromboembolismUpdater", venousThromboembolismUpdater);
-    session.setGlobal("ventilatorAssociatedEventUpdater", ventilatorAssociatedEventUpdater);
-    session.setGlobal("respectDignityUpdater", respectDignityUpdater);
-    session.setGlobal("intensiveCareUnitAcquiredWeaknessUpdater", icuAcquiredWeaknessUpdater);
-    session.setGlobal("painAndDeliriumUpdater", painAndDeliriumUpdater);
+    // Scans, whether in this process or in the API server, do not see mutations
+    // buffered by group commit, so send them before the rules execute.
+    accumuloTemplate.flush();
 
     HarmEvidence harmEvidence = getHarmEvidence(encounter);
-    session.setGlobal("harmEvidence", harmEvidence);
 
     List<Object> facts = new ArrayList<>();
     facts.add(new Event(eventType));
@@ -191,9 +202,72 @@ public class HarmEvidenceUpdater {
     facts.addAll(observations);
     facts.addAll(Arrays.asList(additionalFacts));
 
-    session.execute(facts);
+    StatelessKieSession session = sessionPool.borrow();
+    try {
+      session.setGlobal("harmEvidence", harmEvidence);
+      session.execute(facts);
+    } finally {
+      sessionPool.release(session);
+    }
 
     harmEvidenceRepository.save(harmEvidence);
+
+    // The feed lists only patients currently in care.
+    if (isInProgress(encounter)) {
+      saveToFeed(harmEvidence, encounter, additionalFacts);
+    } else {
+      harmEvidenceFeedRepository.delete(Id.of(harmEvidence.getEncounterID()));
+    }
+  }
+
+  private static boolean isInProgress(Encounter encounter) {
+    return encounter.getStatusElement().getValueAsEnum() == EncounterStateEnum.IN_PROGRESS;
+  }
+
+  private static String getPointOfCare(Location location) {
+    String identifier = location.getIdentifierFirstRep().getValue();
+    if (identifier == null) {
+      return HarmEvidenceFeedRepository.UNKNOWN_POINT_OF_CARE;
+    }
+
+    return identifier.split("\\^")[0];
+  }
+
+  private Optional<Location> readLocation(Encounter encounter) {
+    String locationId = encounter.getLocationFirstRep().getLocation().getReference().getIdPart();
+    if (locationId == null) {
+      return Optional.empty();
+    }
+
+    return locationRepository.read(Id.of(locationId));
+  }
+
+  // Events which move the patient carry the new location as a fact. Otherwise
+  // the patient stays at the point of care recorded in the feed, which is
+  // looked up from the encounter location only the first time.
+  private void saveToFeed(
+      HarmEvidence harmEvidence, Encounter encounter, Object[] additionalFacts) {
+
+    Optional<Location> location = Arrays.stream(additionalFacts)
+        .filter(fact -> fact instanceof Location)
+        .map(fact -> (Location) fact)
+        .findFirst();
+
+    Id<Encounter> encounterId = Id.of(harmEvidence.getEncounterID());
+    Optional<String> previousPointOfCare = harmEvidenceFeedRepository.getPointOfCare(encounterId);
+
+    String pointOfCare;
+    if (location.isPresent()) {
+      pointOfCare = getPointOfCare(location.get());
+    } else if (previousPointOfCare.isPresent()) {
+      pointOfCare = previousPointOfCare.get();
+    } else {
+      pointOfCare = readLocation(encounter)
+          .map(HarmEvidenceUpdater::getPointOfCare)
+          .orElse(HarmEvidenceFeedRepository.UNKNOWN_POINT_OF_CARE);
+    }
+
+    harmEvidenceFeedRepository.save(pointOfCare, previousPointOfCare, harmEvidence);
   }
 
   private void executeWithObservations(
@@ -203,12 +277,9 @@ public class HarmEvidenceUpdater {
       Object... additionalFacts) {
 
     String encounterIdentifier = encounter.getIdentifierFirstRep().getValue();
-    Object lock = encounterIdToLockMap.getUnchecked(encounterIdentifier);
-    log.debug("Acquiring lock for encounter {}", encounterIdentifier);
-    synchronized (lock) {
-      doExecuteWithObservations(eventType, encounter, observations, additionalFacts);
-      log.debug("Releasing lock for encounter {}", encounterIdentifier);
-    }
+    lockManager.execute(
+        encounterIdentifier,
+        () -> doExecuteWithObservations(eventType, encounter, observations, additionalFacts));
   }
 
   private void execute(EventType eventType, Encounter encounter, Object... additionalFacts) {
@@ -238,11 +309,53 @@ public class HarmEvidenceUpdater {
    *     encounter
    */
   public void dischargePatient(Encounter encounter) {
-    execute(EventType.DISCHARGE_PATIENT, encounter);
+    // Delete while holding the lock, so an update of the encounter already
+    // waiting for the lock does not save the records again.
+    String encounterIdentifier = encounter.getIdentifierFirstRep().getValue();
+    lockManager.execute(
+        encounterIdentifier,
+        () -> {
+          doExecuteWithObservations(
+              EventType.DISCHARGE_PATIENT, encounter, Collections.emptyList());
+
+          Id<Encounter> encounterId = Id.of(encounterIdentifier);
+          harmEvidenceRepository.delete(encounterId);
+          harmEvidenceFeedRepository.delete(encounterId);
+        });
+  }
+
+  /**
+   * Copies the harm evidence record of an in progress encounter to the feed
+   * if the feed does not have it. Encounters last updated before the feed
+   * existed have a record only in the harm evidence repository until this is
+   * called or the encounter is updated.
+   *
+   * @param encounter
+   *     encounter
+   * @return true if the record was copied to the feed
+   */
+  public boolean saveToFeedIfMissing(Encounter encounter) {
+    if (!isInProgress(encounter)) {
+      return false;
+    }
 
     String encounterIdentifier = encounter.getIdentifierFirstRep().getValue();
-    Id<Encounter> encounterId = Id.of(encounterIdentifier);
-    harmEvidenceRepository.delete(encounterId);
+    AtomicBoolean saved = new AtomicBoolean();
+    lockManager.execute(
+        encounterIdentifier,
+        () -> {
+          Id<Encounter> encounterId = Id.of(encounterIdentifier);
+          if (harmEvidenceFeedRepository.getPointOfCare(encounterId).isPresent()) {
+            return;
+          }
+
+          Optional<HarmEvidence> harmEvidence = harmEvidenceRepository.read(encounterId);
+          if (harmEvidence.isPresent()) {
+            saveToFeed(harmEvidence.get(), encounter, new Object[0]);
+            saved.set(true);
+          }
+        });
+    return saved.get();
   }
 
   /**
@@ -0,0 +1,62 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.emerge.ucsf.harm;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+import org.kie.api.runtime.StatelessKieSession;
+
+/**
+ * Pool of stateless KIE sessions. The supplier creates a session and binds its
+ * fixed globals once, so executions do not pay for session allocation and
+ * global wiring. A borrowed session is used by one thread at a time, so the
+ * borrower may set globals which vary per execution. The pool grows to the
+ * number of concurrent borrowers.
+ */
+public class StatelessKieSessionPool {
+
+  private final Supplier<StatelessKieSession> sessionSupplier;
+  private final Queue<StatelessKieSession> idleSessions = new ConcurrentLinkedQueue<>();
+
+  /**
+   * Constructor
+   *
+   * @param sessionSupplier
+   *     creates session with fixed globals bound
+   */
+  public StatelessKieSessionPool(Supplier<StatelessKieSession> sessionSupplier) {
+    this.sessionSupplier = sessionSupplier;
+  }
+
+  /**
+   * Gets an idle session, or creates one if none is idle.
+   *
+   * @return session
+   */
+  public StatelessKieSession borrow() {
+    StatelessKieSession session = idleSessions.poll();
+    return (session != null) ? session : sessionSupplier.get();
+  }
+
+  /**
+   * Returns a borrowed session to the pool.
+   *
+   * @param session
+   *     session to return
+   */
+  public void release(StatelessKieSession session) {
+    idleSessions.offer(session);
+  }
+}
@@ -0,0 +1,30 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.emerge.ucsf.persist;
+
+import com.datafascia.emerge.ucsf.HarmEvidence;
+import java.time.Instant;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Copy of a harm evidence record stored under the point of care where the patient is located.
+ */
+@AllArgsConstructor @Builder @Data @NoArgsConstructor
+public class HarmEvidenceFeedEntry {
+  private HarmEvidence harmEvidence;
+  private Instant lastUpdated;
+}
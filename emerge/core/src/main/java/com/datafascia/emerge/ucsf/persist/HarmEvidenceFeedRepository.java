@@ -0,0 +1,157 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.emerge.ucsf.persist;
+
+import ca.uhn.fhir.model.dstu2.resource.Encounter;
+import com.datafascia.common.persist.Id;
+import com.datafascia.common.persist.entity.EntityId;
+import com.datafascia.common.persist.entity.ReflectEntityStore;
+import com.datafascia.common.persist.entity.ReflectEntityStoreRepository;
+import com.datafascia.domain.persist.EncounterRepository;
+import com.datafascia.emerge.ucsf.HarmEvidence;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Maintains copies of harm evidence records grouped by the point of care where the patient is
+ * located, so the records for a point of care are read in one scan. The copies are kept in step
+ * with {@link HarmEvidenceRepository} by the harm evidence updater.
+ */
+@Slf4j
+public class HarmEvidenceFeedRepository extends ReflectEntityStoreRepository {
+
+  /** Groups records of encounters whose location is not known. */
+  public static final String UNKNOWN_POINT_OF_CARE = "";
+
+  /**
+   * Records saved this long before the requested update time are also listed.
+   * The save time comes from the ETL process clock and is taken before the
+   * write is flushed, while a poller takes its next update time from the API
+   * server, so without the overlap a record saved just before a poll could be
+   * missed by both that poll and the next.
+   */
+  public static final Duration UPDATED_SINCE_OVERLAP = Duration.ofMinutes(1);
+
+  /**
+   * Constructor
+   *
+   * @param entityStore
+   *     entity store
+   */
+  @Inject
+  public HarmEvidenceFeedRepository(ReflectEntityStore entityStore) {
+    super(entityStore);
+  }
+
+  private static EntityId toPointOfCareId(Id<Encounter> encounterId) {
+    Id<PointOfCare> pointOfCareId = Id.of(encounterId.toString());
+    return EntityId.builder()
+        .path(EncounterRepository.toEntityId(encounterId))
+        .path(PointOfCare.class, pointOfCareId)
+        .build();
+  }
+
+  private static EntityId toEntryId(String pointOfCare, Id<Encounter> encounterId) {
+    Id<HarmEvidenceFeedEntry> entryId = Id.of(encounterId.toString());
+    return EntityId.builder()
+        .path(PointOfCare.class, Id.of(pointOfCare))
+        .path(HarmEvidenceFeedEntry.class, entryId)
+        .build();
+  }
+
+  /**
+   * Reads point of care where the record for the encounter was last saved.
+   *
+   * @param encounterId
+   *     encounter ID
+   * @return optional point of care, empty if the encounter has no record in the feed
+   */
+  public Optional<String> getPointOfCare(Id<Encounter> encounterId) {
+    Optional<PointOfCare> pointOfCare = entityStore.read(toPointOfCareId(encounterId));
+    return pointOfCare.map(PointOfCare::getName);
+  }
+
+  /**
+   * Saves record under point of care. If the record was previously saved under a different point
+   * of care, removes it from there.
+   *
+   * @param pointOfCare
+   *     point of care where the patient is located
+   * @param previousPointOfCare
+   *     point of care as returned by {@link #getPointOfCare(Id)} before this save
+   * @param record
+   *     to save
+   */
+  public void save(String pointOfCare, Optional<String> previousPointOfCare, HarmEvidence record) {
+    Id<Encounter> encounterId = Id.of(record.getEncounterID());
+    if (!previousPointOfCare.equals(Optional.of(pointOfCare))) {
+      previousPointOfCare.ifPresent(
+          previous -> entityStore.delete(toEntryId(previous, encounterId)));
+      entityStore.save(toPointOfCareId(encounterId), new PointOfCare(pointOfCare));
+    }
+
+    entityStore.save(
+        toEntryId(pointOfCare, encounterId), new HarmEvidenceFeedEntry(record, Instant.now()));
+  }
+
+  /**
+   * Lists records.
+   *
+   * @param pointOfCare
+   *     if present, list only records saved under this point of care
+   * @param updatedSince
+   *     if present, list only records saved at or after this time less
+   *     {@link #UPDATED_SINCE_OVERLAP}
+   * @return records, ordered by point of care and encounter ID
+   */
+  public List<HarmEvidence> list(Optional<String> pointOfCare, Optional<Instant> updatedSince) {
+    Optional<Instant> lastUpdatedLower =
+        updatedSince.map(instant -> instant.minus(UPDATED_SINCE_OVERLAP));
+
+    Stream<HarmEvidenceFeedEntry> entries;
+    if (pointOfCare.isPresent()) {
+      entries = entityStore.stream(
+          new EntityId(PointOfCare.class, Id.of(pointOfCare.get())),
+          HarmEvidenceFeedEntry.class);
+    } else {
+      entries = entityStore.streamChildren(PointOfCare.class, HarmEvidenceFeedEntry.class);
+    }
+
+    return entries
+        .filter(entry -> !lastUpdatedLower.isPresent() ||
+            !entry.getLastUpdated().isBefore(lastUpdatedLower.get()))
+        .map(HarmEvidenceFeedEntry::getHarmEvidence)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Deletes record of encounter from feed.
+   *
+   * @param encounterId
+   *     encounter ID
+   */
+  public void delete(Id<Encounter> encounterId) {
+    Optional<String> pointOfCare = getPointOfCare(encounterId);
+    if (pointOfCare.isPresent()) {
+      entityStore.delete(toEntryId(pointOfCare.get(), encounterId));
+      entityStore.delete(toPointOfCareId(encounterId));
+    }
+  }
+}
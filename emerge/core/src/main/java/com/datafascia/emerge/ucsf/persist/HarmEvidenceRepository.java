@@ -20,6 +20,8 @@ import com.datafascia.common.persist.entity.ReflectEntityStore;
 import com.datafascia.common.persist.entity.ReflectEntityStoreRepository;
 import com.datafascia.domain.persist.EncounterRepository;
 import com.datafascia.emerge.ucsf.HarmEvidence;
+import java.util.Collection;
+import java.util.Map;
 import java.util.Optional;
 import javax.inject.Inject;
 import lombok.extern.slf4j.Slf4j;
@@ -71,6 +73,17 @@ public class HarmEvidenceRepository extends ReflectEntityStoreRepository {
     return entityStore.read(toEntityId(encounterId));
   }
 
+  /**
+   * Reads entities in one parallel fetch.
+   *
+   * @param encounterIds
+   *     encounter IDs
+   * @return map of encounter ID to found entity, in the order of the encounter IDs
+   */
+  public Map<Id<Encounter>, HarmEvidence> readAll(Collection<Id<Encounter>> encounterIds) {
+    return entityStore.readAll(encounterIds, HarmEvidenceRepository::toEntityId);
+  }
+
   /**
    * Deletes entity.
    *
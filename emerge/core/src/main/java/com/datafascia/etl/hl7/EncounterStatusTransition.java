@@ -38,14 +38,18 @@ public class EncounterStatusTransition {
     private String triggerEvent;
   }
 
-  private KieContainer container;
+  private StatelessKieSession session;
 
   /**
    * Constructor
    */
   public EncounterStatusTransition() {
     KieServices services = KieServices.Factory.get();
-    container = services.newKieClasspathContainer();
+    KieContainer container = services.newKieClasspathContainer();
+
+    // The session has no globals, and each execution runs in its own working
+    // memory, so one session is shared by all threads.
+    session = container.newStatelessKieSession("encounterStatus");
   }
 
   /**
@@ -66,7 +70,6 @@ public class EncounterStatusTransition {
         .orElse(null);
     newEncounter.setStatus(currentStatus);
 
-    StatelessKieSession session = container.newStatelessKieSession("encounterStatus");
     session.execute(Arrays.asList(new MessageType(triggerEvent), newEncounter));
 
     newEncounter.setStatus(MoreObjects.firstNonNull(
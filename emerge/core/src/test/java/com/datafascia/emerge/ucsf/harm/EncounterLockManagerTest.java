@@ -0,0 +1,84 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.emerge.ucsf.harm;
+
+import com.codahale.metrics.MetricRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * {@link EncounterLockManager} test
+ */
+public class EncounterLockManagerTest {
+
+  // Ten times the number of encounters the evicting lock cache could hold.
+  private static final int ENCOUNTER_COUNT = 2560;
+  private static final int THREAD_COUNT = 16;
+  private static final int ITERATIONS_PER_THREAD = 20_000;
+
+  @Test
+  public void should_exclude_concurrent_work_on_same_encounter() throws Exception {
+    EncounterLockManager lockManager = new EncounterLockManager(new MetricRegistry());
+    AtomicIntegerArray holders = new AtomicIntegerArray(ENCOUNTER_COUNT);
+    int[] counts = new int[ENCOUNTER_COUNT];
+    AtomicInteger violations = new AtomicInteger();
+
+    ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < THREAD_COUNT; t++) {
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < ITERATIONS_PER_THREAD; i++) {
+            int encounter = ThreadLocalRandom.current().nextInt(ENCOUNTER_COUNT);
+            lockManager.execute("encounter-" + encounter, () -> {
+              if (holders.incrementAndGet(encounter) != 1) {
+                violations.incrementAndGet();
+              }
+
+              // Unsynchronized read-modify-write loses updates without mutual exclusion.
+              int count = counts[encounter];
+              Thread.yield();
+              counts[encounter] = count + 1;
+
+              holders.decrementAndGet(encounter);
+            });
+          }
+        }));
+      }
+
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    int total = 0;
+    for (int count : counts) {
+      total += count;
+    }
+
+    assertEquals(violations.get(), 0);
+    assertEquals(total, THREAD_COUNT * ITERATIONS_PER_THREAD);
+  }
+}
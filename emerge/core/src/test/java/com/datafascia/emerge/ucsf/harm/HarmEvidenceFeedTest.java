@@ -0,0 +1,252 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.emerge.ucsf.harm;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.dstu2.composite.ResourceReferenceDt;
+import ca.uhn.fhir.model.dstu2.resource.Encounter;
+import ca.uhn.fhir.model.dstu2.resource.Location;
+import ca.uhn.fhir.model.dstu2.valueset.EncounterStateEnum;
+import com.datafascia.common.accumulo.AccumuloConfiguration;
+import com.datafascia.common.accumulo.AuthorizationsSupplier;
+import com.datafascia.common.accumulo.ColumnVisibilityPolicy;
+import com.datafascia.common.accumulo.ConnectorFactory;
+import com.datafascia.common.accumulo.FixedAuthorizationsSupplier;
+import com.datafascia.common.accumulo.FixedColumnVisibilityPolicy;
+import com.datafascia.common.avro.schemaregistry.AvroSchemaRegistry;
+import com.datafascia.common.avro.schemaregistry.MemorySchemaRegistry;
+import com.datafascia.common.persist.Id;
+import com.datafascia.common.persist.entity.AccumuloFhirEntityStore;
+import com.datafascia.common.persist.entity.AccumuloReflectEntityStore;
+import com.datafascia.common.persist.entity.FhirEntityStore;
+import com.datafascia.common.persist.entity.ReflectEntityStore;
+import com.datafascia.domain.fhir.UnitedStatesPatient;
+import com.datafascia.domain.persist.LocationRepository;
+import com.datafascia.domain.persist.Tables;
+import com.datafascia.emerge.ucsf.HarmEvidence;
+import com.datafascia.emerge.ucsf.MedicalData;
+import com.datafascia.emerge.ucsf.persist.HarmEvidenceFeedRepository;
+import com.datafascia.emerge.ucsf.persist.HarmEvidenceRepository;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Provides;
+import com.google.inject.name.Names;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests the harm evidence feed kept by {@link HarmEvidenceUpdater}.
+ */
+public class HarmEvidenceFeedTest {
+
+  /**
+   * Provides test dependencies
+   */
+  private static class TestModule extends AbstractModule {
+    @Override
+    protected void configure() {
+      bind(AuthorizationsSupplier.class).to(FixedAuthorizationsSupplier.class);
+      bind(AvroSchemaRegistry.class).to(MemorySchemaRegistry.class).in(Singleton.class);
+      bind(ColumnVisibilityPolicy.class).to(FixedColumnVisibilityPolicy.class);
+      bind(FhirContext.class).in(Singleton.class);
+      bind(FhirEntityStore.class).to(AccumuloFhirEntityStore.class).in(Singleton.class);
+      bind(ReflectEntityStore.class).to(AccumuloReflectEntityStore.class).in(Singleton.class);
+
+      bind(DemographicDataUpdater.class)
+          .toInstance(mock(DemographicDataUpdater.class));
+      bind(CentralLineAssociatedBloodStreamInfectionUpdater.class)
+          .toInstance(mock(CentralLineAssociatedBloodStreamInfectionUpdater.class));
+      bind(IntensiveCareUnitAcquiredWeaknessUpdater.class)
+          .toInstance(mock(IntensiveCareUnitAcquiredWeaknessUpdater.class));
+      bind(AlignmentOfGoalsUpdater.class)
+          .toInstance(mock(AlignmentOfGoalsUpdater.class));
+      bind(VenousThromboembolismUpdater.class)
+          .toInstance(mock(VenousThromboembolismUpdater.class));
+      bind(VentilatorAssociatedEventUpdater.class)
+          .toInstance(mock(VentilatorAssociatedEventUpdater.class));
+      bind(RespectDignityUpdater.class)
+          .toInstance(mock(RespectDignityUpdater.class));
+      bind(PainAndDeliriumUpdater.class)
+          .toInstance(mock(PainAndDeliriumUpdater.class));
+
+      bindConstant().annotatedWith(Names.named("entityTableNamePrefix")).to(Tables.ENTITY_PREFIX);
+    }
+
+    @Provides @Singleton
+    public ConnectorFactory connectorFactory() {
+      return new ConnectorFactory(AccumuloConfiguration.builder()
+          .instance(ConnectorFactory.MOCK_INSTANCE)
+          .zooKeepers("")
+          .user("root")
+          .password("secret")
+          .build());
+    }
+  }
+
+  @Inject
+  private HarmEvidenceUpdater harmEvidenceUpdater;
+
+  @Inject
+  private HarmEvidenceRepository harmEvidenceRepository;
+
+  @Inject
+  private HarmEvidenceFeedRepository harmEvidenceFeedRepository;
+
+  @Inject
+  private LocationRepository locationRepository;
+
+  @BeforeClass
+  public void beforeClass() {
+    Guice.createInjector(new TestModule()).injectMembers(this);
+  }
+
+  private Location createLocation(String identifier) {
+    Location location = new Location();
+    location.addIdentifier().setValue(identifier);
+    locationRepository.save(location);
+    return location;
+  }
+
+  private static Encounter createEncounter(String identifier, Location location) {
+    Encounter encounter = new Encounter()
+        .setStatus(EncounterStateEnum.IN_PROGRESS)
+        .setPatient(new ResourceReferenceDt("Patient/" + identifier));
+    encounter.addIdentifier().setValue(identifier);
+    encounter.addLocation().setLocation(new ResourceReferenceDt(location.getId()));
+    return encounter;
+  }
+
+  private List<String> listEncounterIds(Optional<String> pointOfCare) {
+    return harmEvidenceFeedRepository.list(pointOfCare, Optional.empty()).stream()
+        .map(HarmEvidence::getEncounterID)
+        .collect(Collectors.toList());
+  }
+
+  private boolean isListed(String pointOfCare, String encounterIdentifier) {
+    return listEncounterIds(Optional.of(pointOfCare)).contains(encounterIdentifier);
+  }
+
+  @Test
+  public void should_move_record_between_points_of_care() {
+    Location icu = createLocation("moveICU^1^A");
+    Location ward = createLocation("moveWard^2^B");
+    Encounter encounter = createEncounter("move", icu);
+
+    harmEvidenceUpdater.admitPatient(new UnitedStatesPatient(), icu, encounter);
+    assertTrue(isListed("moveICU", "move"));
+
+    harmEvidenceUpdater.updatePatient(new UnitedStatesPatient(), ward, encounter);
+    assertFalse(isListed("moveICU", "move"));
+    assertTrue(isListed("moveWard", "move"));
+    assertEquals(
+        harmEvidenceFeedRepository.getPointOfCare(Id.of("move")), Optional.of("moveWard"));
+
+    // An event which does not move the patient keeps the record where it is.
+    harmEvidenceUpdater.processTimer(encounter);
+    assertTrue(isListed("moveWard", "move"));
+  }
+
+  @Test
+  public void should_remove_record_when_encounter_not_in_progress() {
+    Location icu = createLocation("finishedICU^1^A");
+    Encounter encounter = createEncounter("finished", icu);
+
+    harmEvidenceUpdater.admitPatient(new UnitedStatesPatient(), icu, encounter);
+    assertTrue(isListed("finishedICU", "finished"));
+
+    encounter.setStatus(EncounterStateEnum.FINISHED);
+    harmEvidenceUpdater.processTimer(encounter);
+    assertFalse(listEncounterIds(Optional.empty()).contains("finished"));
+    assertEquals(harmEvidenceFeedRepository.getPointOfCare(Id.of("finished")), Optional.empty());
+  }
+
+  @Test
+  public void should_remove_record_on_discharge() {
+    Location icu = createLocation("dischargeICU^1^A");
+    Encounter encounter = createEncounter("discharge", icu);
+
+    harmEvidenceUpdater.admitPatient(new UnitedStatesPatient(), icu, encounter);
+    assertTrue(isListed("dischargeICU", "discharge"));
+
+    harmEvidenceUpdater.dischargePatient(encounter);
+    assertFalse(listEncounterIds(Optional.empty()).contains("discharge"));
+    assertEquals(harmEvidenceRepository.read(Id.of("discharge")), Optional.empty());
+  }
+
+  @Test
+  public void should_copy_missing_record_to_feed() {
+    Location icu = createLocation("backfillICU^1^A");
+    Encounter encounter = createEncounter("backfill", icu);
+
+    // Save the record the way earlier versions did, without a feed entry.
+    harmEvidenceRepository.save(new HarmEvidence()
+        .withEncounterID("backfill")
+        .withDemographicData(DemographicDataUpdater.createDemographicData(encounter))
+        .withMedicalData(new MedicalData()));
+    assertFalse(isListed("backfillICU", "backfill"));
+
+    assertTrue(harmEvidenceUpdater.saveToFeedIfMissing(encounter));
+    assertTrue(isListed("backfillICU", "backfill"));
+
+    assertFalse(harmEvidenceUpdater.saveToFeedIfMissing(encounter));
+  }
+
+  @Test
+  public void should_not_copy_record_of_finished_encounter_to_feed() {
+    Location icu = createLocation("notCopiedICU^1^A");
+    Encounter encounter = createEncounter("notCopied", icu)
+        .setStatus(EncounterStateEnum.FINISHED);
+    harmEvidenceRepository.save(new HarmEvidence()
+        .withEncounterID("notCopied")
+        .withDemographicData(DemographicDataUpdater.createDemographicData(encounter))
+        .withMedicalData(new MedicalData()));
+
+    assertFalse(harmEvidenceUpdater.saveToFeedIfMissing(encounter));
+    assertFalse(isListed("notCopiedICU", "notCopied"));
+  }
+
+  @Test
+  public void should_list_records_saved_within_overlap_of_updated_since() {
+    Location icu = createLocation("overlapICU^1^A");
+    Encounter encounter = createEncounter("overlap", icu);
+    harmEvidenceUpdater.admitPatient(new UnitedStatesPatient(), icu, encounter);
+
+    Instant withinOverlap = Instant.now()
+        .plus(HarmEvidenceFeedRepository.UPDATED_SINCE_OVERLAP)
+        .minusSeconds(10);
+    assertEquals(
+        harmEvidenceFeedRepository.list(Optional.of("overlapICU"), Optional.of(withinOverlap))
+            .size(),
+        1);
+
+    Instant afterOverlap = Instant.now()
+        .plus(HarmEvidenceFeedRepository.UPDATED_SINCE_OVERLAP)
+        .plusSeconds(10);
+    assertEquals(
+        harmEvidenceFeedRepository.list(Optional.of("overlapICU"), Optional.of(afterOverlap))
+            .size(),
+        0);
+  }
+}
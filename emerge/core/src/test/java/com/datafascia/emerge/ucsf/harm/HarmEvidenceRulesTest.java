@@ -0,0 +1,78 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.emerge.ucsf.harm;
+
+import ca.uhn.fhir.model.dstu2.composite.CodeableConceptDt;
+import ca.uhn.fhir.model.dstu2.resource.Encounter;
+import ca.uhn.fhir.model.dstu2.resource.Observation;
+import com.datafascia.emerge.ucsf.HarmEvidence;
+import com.datafascia.emerge.ucsf.codes.ObservationCodeEnum;
+import com.datafascia.emerge.ucsf.harm.HarmEvidenceUpdater.Event;
+import com.datafascia.emerge.ucsf.harm.HarmEvidenceUpdater.EventType;
+import java.util.Arrays;
+import org.kie.api.KieServices;
+import org.kie.api.runtime.StatelessKieSession;
+import org.testng.annotations.Test;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Harm evidence rules test
+ */
+public class HarmEvidenceRulesTest {
+
+  private static Observation createObservation(String code) {
+    return new Observation()
+        .setCode(new CodeableConceptDt("system", code));
+  }
+
+  @Test
+  public void should_update_field_once_per_observation_batch() {
+    VentilatorAssociatedEventUpdater ventilatorAssociatedEventUpdater =
+        mock(VentilatorAssociatedEventUpdater.class);
+
+    KieServices services = KieServices.Factory.get();
+    StatelessKieSession session = services.newKieClasspathContainer()
+        .newKieBase("harmEvidenceBase", services.newKieBaseConfiguration())
+        .newStatelessKieSession();
+    session.setGlobal("demographicDataUpdater", mock(DemographicDataUpdater.class));
+    session.setGlobal(
+        "centralLineAssociatedBloodStreamInfectionUpdater",
+        mock(CentralLineAssociatedBloodStreamInfectionUpdater.class));
+    session.setGlobal("alignmentOfGoalsUpdater", mock(AlignmentOfGoalsUpdater.class));
+    session.setGlobal("venousThromboembolismUpdater", mock(VenousThromboembolismUpdater.class));
+    session.setGlobal("ventilatorAssociatedEventUpdater", ventilatorAssociatedEventUpdater);
+    session.setGlobal("respectDignityUpdater", mock(RespectDignityUpdater.class));
+    session.setGlobal(
+        "intensiveCareUnitAcquiredWeaknessUpdater",
+        mock(IntensiveCareUnitAcquiredWeaknessUpdater.class));
+    session.setGlobal("painAndDeliriumUpdater", mock(PainAndDeliriumUpdater.class));
+
+    HarmEvidence harmEvidence = new HarmEvidence();
+    session.setGlobal("harmEvidence", harmEvidence);
+
+    Encounter encounter = new Encounter();
+    String code = ObservationCodeEnum.ETT_INVASIVE_VENT_STATUS.getCode();
+    session.execute(Arrays.asList(
+        new Event(EventType.UPDATE_OBSERVATIONS),
+        encounter,
+        createObservation(code),
+        createObservation(code),
+        createObservation(code)));
+
+    verify(ventilatorAssociatedEventUpdater, times(1)).updateVentilated(harmEvidence, encounter);
+  }
+}
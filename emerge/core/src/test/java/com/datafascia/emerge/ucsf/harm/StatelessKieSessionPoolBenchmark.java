@@ -0,0 +1,134 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.emerge.ucsf.harm;
+
+import com.datafascia.emerge.ucsf.HarmEvidence;
+import com.datafascia.emerge.ucsf.harm.HarmEvidenceUpdater.Event;
+import com.datafascia.emerge.ucsf.harm.HarmEvidenceUpdater.EventType;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+import org.kie.api.KieBase;
+import org.kie.api.KieServices;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.StatelessKieSession;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Microbenchmark of the per-event overhead of creating a session and setting
+ * its globals, compared to borrowing a session from
+ * {@link StatelessKieSessionPool}. It is in the {@value #GROUP} group, which
+ * the unit test run excludes. Run it with
+ * <pre>
+ * mvn -pl emerge/core test -Dtest=StatelessKieSessionPoolBenchmark -Dsurefire.excludedGroups=
+ * </pre>
+ */
+@Slf4j
+public class StatelessKieSessionPoolBenchmark {
+
+  static final String GROUP = "benchmark";
+
+  private static final int WARMUP_ITERATIONS = 2_000;
+  private static final int MEASURED_ITERATIONS = 20_000;
+
+  // No rule matches an event without an encounter, so an execution measures
+  // only the fixed cost of running a session.
+  private static final List<Object> FACTS =
+      Collections.singletonList(new Event(EventType.TIMER));
+
+  private KieBase base;
+
+  // The updater created the globals once and set them on every new session,
+  // so the globals are created once here too.
+  private final DemographicDataUpdater demographicDataUpdater = new DemographicDataUpdater();
+  private final CentralLineAssociatedBloodStreamInfectionUpdater clabsiUpdater =
+      new CentralLineAssociatedBloodStreamInfectionUpdater();
+  private final AlignmentOfGoalsUpdater alignmentOfGoalsUpdater = new AlignmentOfGoalsUpdater();
+  private final VenousThromboembolismUpdater venousThromboembolismUpdater =
+      new VenousThromboembolismUpdater();
+  private final VentilatorAssociatedEventUpdater ventilatorAssociatedEventUpdater =
+      new VentilatorAssociatedEventUpdater();
+  private final RespectDignityUpdater respectDignityUpdater = new RespectDignityUpdater();
+  private final IntensiveCareUnitAcquiredWeaknessUpdater icuAcquiredWeaknessUpdater =
+      new IntensiveCareUnitAcquiredWeaknessUpdater();
+  private final PainAndDeliriumUpdater painAndDeliriumUpdater = new PainAndDeliriumUpdater();
+
+  @BeforeClass(groups = GROUP)
+  public void beforeClass() {
+    KieServices services = KieServices.Factory.get();
+    KieContainer container = services.newKieClasspathContainer();
+    base = container.newKieBase("harmEvidenceBase", services.newKieBaseConfiguration());
+  }
+
+  private StatelessKieSession newSession() {
+    StatelessKieSession session = base.newStatelessKieSession();
+    session.setGlobal("demographicDataUpdater", demographicDataUpdater);
+    session.setGlobal("centralLineAssociatedBloodStreamInfectionUpdater", clabsiUpdater);
+    session.setGlobal("alignmentOfGoalsUpdater", alignmentOfGoalsUpdater);
+    session.setGlobal("venousThromboembolismUpdater", venousThromboembolismUpdater);
+    session.setGlobal("ventilatorAssociatedEventUpdater", ventilatorAssociatedEventUpdater);
+    session.setGlobal("respectDignityUpdater", respectDignityUpdater);
+    session.setGlobal("intensiveCareUnitAcquiredWeaknessUpdater", icuAcquiredWeaknessUpdater);
+    session.setGlobal("painAndDeliriumUpdater", painAndDeliriumUpdater);
+    return session;
+  }
+
+  private void executeNewSession(HarmEvidence harmEvidence) {
+    StatelessKieSession session = newSession();
+    session.setGlobal("harmEvidence", harmEvidence);
+    session.execute(FACTS);
+  }
+
+  private static void executePooledSession(
+      StatelessKieSessionPool pool, HarmEvidence harmEvidence) {
+
+    StatelessKieSession session = pool.borrow();
+    try {
+      session.setGlobal("harmEvidence", harmEvidence);
+      session.execute(FACTS);
+    } finally {
+      pool.release(session);
+    }
+  }
+
+  private static long measureNanosPerEvent(Consumer<HarmEvidence> execution) {
+    HarmEvidence harmEvidence = new HarmEvidence();
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      execution.accept(harmEvidence);
+    }
+
+    long start = System.nanoTime();
+    for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+      execution.accept(harmEvidence);
+    }
+    return (System.nanoTime() - start) / MEASURED_ITERATIONS;
+  }
+
+  @Test(groups = GROUP)
+  public void measure_per_event_overhead() {
+    long newSessionNanos = measureNanosPerEvent(this::executeNewSession);
+
+    StatelessKieSessionPool pool = new StatelessKieSessionPool(this::newSession);
+    long pooledSessionNanos = measureNanosPerEvent(
+        harmEvidence -> executePooledSession(pool, harmEvidence));
+
+    log.info(
+        "Per-event overhead over {} events: new session with globals {} ns, pooled session {} ns",
+        MEASURED_ITERATIONS,
+        newSessionNanos,
+        pooledSessionNanos);
+  }
+}
@@ -0,0 +1,116 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.emerge.ucsf.harm;
+
+import com.datafascia.emerge.ucsf.HarmEvidence;
+import com.datafascia.emerge.ucsf.harm.HarmEvidenceUpdater.Event;
+import com.datafascia.emerge.ucsf.harm.HarmEvidenceUpdater.EventType;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.kie.api.KieBase;
+import org.kie.api.KieServices;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.StatelessKieSession;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+/**
+ * {@link StatelessKieSessionPool} test
+ */
+public class StatelessKieSessionPoolTest {
+
+  private static final int EXECUTION_COUNT = 100;
+
+  // No rule matches an event without an encounter, so an execution only runs
+  // the session.
+  private static final List<Object> FACTS =
+      Collections.singletonList(new Event(EventType.TIMER));
+
+  private KieBase base;
+
+  @BeforeClass
+  public void beforeClass() {
+    KieServices services = KieServices.Factory.get();
+    KieContainer container = services.newKieClasspathContainer();
+    base = container.newKieBase("harmEvidenceBase", services.newKieBaseConfiguration());
+  }
+
+  private StatelessKieSession newSession() {
+    StatelessKieSession session = base.newStatelessKieSession();
+    session.setGlobal("demographicDataUpdater", new DemographicDataUpdater());
+    session.setGlobal(
+        "centralLineAssociatedBloodStreamInfectionUpdater",
+        new CentralLineAssociatedBloodStreamInfectionUpdater());
+    session.setGlobal("alignmentOfGoalsUpdater", new AlignmentOfGoalsUpdater());
+    session.setGlobal("venousThromboembolismUpdater", new VenousThromboembolismUpdater());
+    session.setGlobal("ventilatorAssociatedEventUpdater", new VentilatorAssociatedEventUpdater());
+    session.setGlobal("respectDignityUpdater", new RespectDignityUpdater());
+    session.setGlobal(
+        "intensiveCareUnitAcquiredWeaknessUpdater",
+        new IntensiveCareUnitAcquiredWeaknessUpdater());
+    session.setGlobal("painAndDeliriumUpdater", new PainAndDeliriumUpdater());
+    return session;
+  }
+
+  private static void executePooledSession(
+      StatelessKieSessionPool pool, HarmEvidence harmEvidence) {
+
+    StatelessKieSession session = pool.borrow();
+    try {
+      session.setGlobal("harmEvidence", harmEvidence);
+      session.execute(FACTS);
+    } finally {
+      pool.release(session);
+    }
+  }
+
+  @Test
+  public void should_reuse_released_session() {
+    StatelessKieSessionPool pool = new StatelessKieSessionPool(this::newSession);
+
+    StatelessKieSession session = pool.borrow();
+    pool.release(session);
+
+    assertSame(pool.borrow(), session);
+  }
+
+  @Test
+  public void should_create_new_session_for_concurrent_borrower() {
+    StatelessKieSessionPool pool = new StatelessKieSessionPool(this::newSession);
+
+    StatelessKieSession session1 = pool.borrow();
+    StatelessKieSession session2 = pool.borrow();
+    assertNotSame(session2, session1);
+  }
+
+  @Test
+  public void should_create_one_session_for_sequential_executions() {
+    AtomicInteger createdSessionCount = new AtomicInteger();
+    StatelessKieSessionPool pool = new StatelessKieSessionPool(() -> {
+      createdSessionCount.incrementAndGet();
+      return newSession();
+    });
+
+    for (int i = 0; i < EXECUTION_COUNT; i++) {
+      executePooledSession(pool, new HarmEvidence());
+    }
+
+    assertEquals(createdSessionCount.get(), 1);
+  }
+}
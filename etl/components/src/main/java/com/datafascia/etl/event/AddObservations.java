@@ -18,6 +18,7 @@ import ca.uhn.fhir.model.dstu2.resource.Encounter;
 import ca.uhn.fhir.model.dstu2.resource.Observation;
 import ca.uhn.fhir.model.primitive.IdDt;
 import com.datafascia.api.client.ClientBuilder;
+import com.datafascia.common.accumulo.AccumuloTemplate;
 import com.datafascia.common.persist.Id;
 import com.datafascia.domain.fhir.IdentifierSystems;
 import com.datafascia.domain.fhir.UnitedStatesPatient;
@@ -42,6 +43,9 @@ public class AddObservations {
   @Inject
   private Clock clock;
 
+  @Inject
+  private AccumuloTemplate accumuloTemplate;
+
   @Inject
   private EncounterRepository encounterRepository;
 
@@ -103,7 +107,9 @@ public class AddObservations {
       procedureBuilder.add(observation);
     }
 
-    apiClient.invalidateObservations(encounterIdentifier);
+    // The API server must see the saved observations before the cache is reloaded.
+    accumuloTemplate.flush();
+    apiClient.addObservations(encounterIdentifier, observations);
 
     flagBuilder.build()
         .forEach(flag -> {
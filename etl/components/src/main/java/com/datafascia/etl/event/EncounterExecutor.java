@@ -15,20 +15,34 @@ package com.datafascia.etl.event;
 
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.datafascia.common.configuration.ConfigurationNode;
+import com.datafascia.common.configuration.Configure;
 import com.datafascia.etl.ucsf.hl7.ProcessHL7;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import javax.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
 
 /**
  * Plays pending HL7 messages for an encounter.
+ * <p>
+ * Encounters are hashed onto a fixed number of lanes. Each lane runs its tasks
+ * serially on one thread, so messages for an encounter are played in order,
+ * while the thread count stays bounded no matter how many encounters are
+ * active. Each lane has a bounded queue. When the queue is full, the caller
+ * blocks until the lane catches up, which pushes back on the NiFi processor
+ * feeding this executor. {@link #shutdown} stops the lanes after their queued
+ * tasks finish. The next task starts new lanes.
  */
+@ConfigurationNode("EncounterExecutor")
+@Slf4j
 public class EncounterExecutor implements Consumer<String> {
 
   private static class NamedThreadFactory implements ThreadFactory {
@@ -53,72 +67,198 @@ public class EncounterExecutor implements Consumer<String> {
     }
   }
 
-  private static class Worker {
+  private static class Lane {
     public ThreadPoolExecutor executor;
     public AtomicInteger pendingMessageCount = new AtomicInteger();
 
-    public Worker(String id) {
-      executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(
-          1, new NamedThreadFactory(String.format(NAME_PREFIX, id)));
+    public Lane(int index, int queueCapacity) {
+      executor = new ThreadPoolExecutor(
+          1,
+          1,
+          0L,
+          TimeUnit.MILLISECONDS,
+          new ArrayBlockingQueue<>(queueCapacity),
+          new NamedThreadFactory(String.format(NAME_PREFIX, index)),
+          BLOCK_WHEN_FULL);
     }
   }
 
   private static final String NAME_PREFIX =
-      EncounterExecutor.class.getSimpleName() + " encounter %s thread ";
+      EncounterExecutor.class.getSimpleName() + " lane %d thread ";
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+  /**
+   * Waits for space in the lane queue instead of rejecting the task.
+   */
+  private static final RejectedExecutionHandler BLOCK_WHEN_FULL = (runnable, executor) -> {
+    if (executor.isShutdown()) {
+      throw new RejectedExecutionException("Executor is shut down");
+    }
+
+    try {
+      executor.getQueue().put(runnable);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RejectedExecutionException("Interrupted while waiting for lane queue space", e);
+    }
+  };
+
+  @Configure
+  private int laneCount;
+
+  @Configure
+  private int laneQueueCapacity;
 
   @Inject
   private PlayMessages playMessages;
 
-  private ConcurrentHashMap<String, Worker> encounterToWorkerMap = new ConcurrentHashMap<>();
+  private MetricRegistry metrics;
+
+  private Timer laneWaitTimer;
+
+  private volatile Lane[] lanes;
+
+  /**
+   * Constructor used by Guice, which injects the configuration and dependencies.
+   */
+  public EncounterExecutor() {
+  }
+
+  /**
+   * Constructor
+   *
+   * @param laneCount
+   *     number of lanes
+   * @param laneQueueCapacity
+   *     maximum number of tasks waiting in each lane
+   * @param playMessages
+   *     plays pending messages for an encounter
+   * @param metrics
+   *     metric registry
+   */
+  EncounterExecutor(
+      int laneCount, int laneQueueCapacity, PlayMessages playMessages, MetricRegistry metrics) {
+
+    this.laneCount = laneCount;
+    this.laneQueueCapacity = laneQueueCapacity;
+    this.playMessages = playMessages;
+    initialize(metrics);
+  }
 
   @Inject
   private void initialize(MetricRegistry metrics) {
+    this.metrics = metrics;
+
+    laneWaitTimer = metrics.timer(MetricRegistry.name(ProcessHL7.class, "laneWaitTime"));
     metrics.register(
-        MetricRegistry.name(ProcessHL7.class, "pendingEncounterCount"),
-        (Gauge<Integer>) () -> encounterToWorkerMap.size());
+        MetricRegistry.name(ProcessHL7.class, "pendingTaskCount"),
+        (Gauge<Integer>) () -> getPendingTaskCount());
     metrics.register(
         MetricRegistry.name(ProcessHL7.class, "pendingMessageCount"),
         (Gauge<Integer>) () -> getPendingMessageCount());
   }
 
-  private Worker getWorker(String encounterIdentifier) {
-    return encounterToWorkerMap.computeIfAbsent(
-        encounterIdentifier,
-        id -> new Worker(id));
-  }
+  private Lane[] getLanes() {
+    Lane[] result = lanes;
+    if (result == null) {
+      synchronized (this) {
+        result = lanes;
+        if (result == null) {
+          // Configuration values are injected after Guice injection, so the
+          // lanes are created on first use.
+          result = new Lane[Math.max(laneCount, 1)];
+          for (int i = 0; i < result.length; i++) {
+            Lane lane = new Lane(i, Math.max(laneQueueCapacity, 1));
+            result[i] = lane;
+
+            String depthName =
+                MetricRegistry.name(ProcessHL7.class, "lane", String.valueOf(i), "depth");
+            metrics.remove(depthName);
+            metrics.register(depthName, (Gauge<Integer>) () -> lane.executor.getQueue().size());
+          }
 
-  private void removeIdleWorkers() {
-    Iterator<Map.Entry<String, Worker>> iterator =
-        encounterToWorkerMap.entrySet().iterator();
-    while (iterator.hasNext()) {
-      Map.Entry<String, Worker> entry = iterator.next();
-      Worker worker = entry.getValue();
-      if (worker.executor.getActiveCount() == 0 && worker.executor.getQueue().isEmpty()) {
-        worker.executor.shutdown();
-        iterator.remove();
+          lanes = result;
+        }
       }
     }
+
+    return result;
+  }
+
+  private Lane getLane(String encounterIdentifier) {
+    Lane[] currentLanes = getLanes();
+    return currentLanes[Math.floorMod(encounterIdentifier.hashCode(), currentLanes.length)];
+  }
+
+  // Counts tasks waiting in the lane queues and tasks running.
+  private int getPendingTaskCount() {
+    Lane[] currentLanes = lanes;
+    if (currentLanes == null) {
+      return 0;
+    }
+
+    int count = 0;
+    for (Lane lane : currentLanes) {
+      count += lane.executor.getQueue().size() + lane.executor.getActiveCount();
+    }
+    return count;
   }
 
   private int getPendingMessageCount() {
+    Lane[] currentLanes = lanes;
+    if (currentLanes == null) {
+      return 0;
+    }
+
     int count = 0;
-    for (Worker worker : encounterToWorkerMap.values()) {
-      count += worker.pendingMessageCount.get();
+    for (Lane lane : currentLanes) {
+      count += lane.pendingMessageCount.get();
     }
     return count;
   }
 
   /**
-   * Plays pending HL7 messages for an encounter.
+   * Plays pending HL7 messages for an encounter. Blocks while the encounter's
+   * lane queue is full.
    *
    * @param encounterIdentifier
    *     encounter identifier
    */
-  public synchronized void accept(String encounterIdentifier) {
-    Worker worker = getWorker(encounterIdentifier);
-    worker.executor.submit(
-        () -> playMessages.accept(encounterIdentifier, worker.pendingMessageCount));
+  public void accept(String encounterIdentifier) {
+    Lane lane = getLane(encounterIdentifier);
+    long submitNanos = System.nanoTime();
+    lane.executor.execute(() -> {
+      laneWaitTimer.update(System.nanoTime() - submitNanos, TimeUnit.NANOSECONDS);
+      try {
+        playMessages.accept(encounterIdentifier, lane.pendingMessageCount);
+      } catch (RuntimeException e) {
+        log.error("Cannot play messages for encounter {}", encounterIdentifier, e);
+      }
+    });
+  }
 
-    removeIdleWorkers();
+  /**
+   * Stops the lanes after their queued tasks finish. Waits for the tasks, so
+   * messages accepted before the processor stopped are played before it
+   * returns.
+   *
+   * @throws InterruptedException
+   *     if interrupted while waiting
+   */
+  public synchronized void shutdown() throws InterruptedException {
+    Lane[] currentLanes = lanes;
+    if (currentLanes == null) {
+      return;
+    }
+
+    lanes = null;
+    for (Lane lane : currentLanes) {
+      lane.executor.shutdown();
+    }
+    for (Lane lane : currentLanes) {
+      if (!lane.executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        log.warn("Lane tasks did not finish within {} seconds", SHUTDOWN_TIMEOUT_SECONDS);
+      }
+    }
   }
 }
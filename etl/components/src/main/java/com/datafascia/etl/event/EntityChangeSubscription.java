@@ -0,0 +1,68 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.etl.event;
+
+import com.datafascia.common.kafka.SingleTopicConsumer;
+import java.util.Optional;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Receives entity changes published by other processes, so cached resources
+ * are refreshed before they expire. NiFi processors which read cached
+ * resources start the subscription when they are scheduled and stop it when
+ * they are stopped. The consumer stays connected while at least one of those
+ * processors is running.
+ */
+@Slf4j
+public class EntityChangeSubscription {
+
+  private final Optional<SingleTopicConsumer> consumer;
+  private int startCount;
+
+  /**
+   * Constructor
+   *
+   * @param consumer
+   *     receives entity changes, empty if entity changes are not published
+   */
+  public EntityChangeSubscription(Optional<SingleTopicConsumer> consumer) {
+    this.consumer = consumer;
+  }
+
+  /**
+   * Connects the consumer if this is the first start.
+   */
+  public synchronized void start() {
+    startCount++;
+    if (startCount == 1 && consumer.isPresent()) {
+      log.info("Starting entity change consumer");
+      consumer.get().start();
+    }
+  }
+
+  /**
+   * Disconnects the consumer if every start has been matched by a stop.
+   */
+  public synchronized void stop() {
+    if (startCount == 0) {
+      return;
+    }
+
+    startCount--;
+    if (startCount == 0 && consumer.isPresent()) {
+      log.info("Stopping entity change consumer");
+      consumer.get().close();
+    }
+  }
+}
@@ -16,15 +16,20 @@ package com.datafascia.etl.event;
 import ca.uhn.fhir.model.dstu2.resource.Encounter;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.datafascia.common.accumulo.AccumuloTemplate;
+import com.datafascia.common.configuration.ConfigurationNode;
+import com.datafascia.common.configuration.Configure;
 import com.datafascia.common.persist.Id;
 import com.datafascia.domain.model.EncounterMessage;
 import com.datafascia.domain.persist.EncounterMessageRepository;
-import com.datafascia.domain.persist.EncounterRepository;
 import com.datafascia.etl.hl7.HL7MessageProcessor;
 import com.datafascia.etl.ucsf.hl7.ProcessHL7;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
 import java.util.List;
-import java.util.Optional;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import javax.inject.Inject;
@@ -32,12 +37,30 @@ import lombok.extern.slf4j.Slf4j;
 
 /**
  * Plays pending HL7 messages for an encounter.
+ * <p>
+ * The last processed message ID of the encounter is checkpointed after every
+ * {@code checkpointMessageCount} messages, after {@code checkpointIntervalMillis}
+ * milliseconds since the last checkpoint, and at the end of each play. Message
+ * processing is idempotent, so after a crash only the messages processed since
+ * the last checkpoint are played again.
  */
+@ConfigurationNode("PlayMessages")
 @Slf4j
 public class PlayMessages implements BiConsumer<String, AtomicInteger> {
 
+  private static final int MAXIMUM_INITIALIZED_ENCOUNTERS = 10000;
+
+  @Configure
+  private int checkpointMessageCount;
+
+  @Configure
+  private long checkpointIntervalMillis;
+
+  @Inject
+  private AccumuloTemplate accumuloTemplate;
+
   @Inject
-  private EncounterRepository encounterRepository;
+  private Clock clock;
 
   @Inject
   private EncounterMessageRepository messageRepository;
@@ -47,6 +70,14 @@ public class PlayMessages implements BiConsumer<String, AtomicInteger> {
 
   private Meter processedMessageMeter;
 
+  private volatile Instant initializeTime;
+
+  // An encounter evicted from this cache is initialized again, which only
+  // reads its last processed message ID.
+  private final Cache<String, Boolean> initializedEncounterIdentifiers = CacheBuilder.newBuilder()
+      .maximumSize(MAXIMUM_INITIALIZED_ENCOUNTERS)
+      .build();
+
   @Inject
   private void initialize(MetricRegistry metrics) {
     processedMessageMeter = metrics.meter(
@@ -54,14 +85,22 @@ public class PlayMessages implements BiConsumer<String, AtomicInteger> {
   }
 
   /**
-   * Sets last processsed message ID for all encounters.
+   * Treats messages saved before now as processed for encounters that do not
+   * have a last processed message ID yet. Each encounter is initialized
+   * lazily, the first time its messages are played.
    */
   public void initializeLastProcessedMessageIds() {
-    encounterRepository.list(Optional.empty())
-        .stream()
-        .forEach(encounter ->
-            messageRepository.initializeLastProcessedMessageId(
-                Id.of(encounter.getId().getIdPart())));
+    initializedEncounterIdentifiers.invalidateAll();
+    initializeTime = Instant.now(clock);
+  }
+
+  private void initializeLastProcessedMessageId(String encounterIdentifier) {
+    if (initializeTime != null &&
+        initializedEncounterIdentifiers.getIfPresent(encounterIdentifier) == null) {
+      messageRepository.initializeLastProcessedMessageId(
+          Id.of(encounterIdentifier), initializeTime);
+      initializedEncounterIdentifiers.put(encounterIdentifier, true);
+    }
   }
 
   private void processMessage(byte[] bytes) {
@@ -73,6 +112,13 @@ public class PlayMessages implements BiConsumer<String, AtomicInteger> {
     hl7MessageProcessor.accept(hl7);
   }
 
+  private void checkpoint(Id<Encounter> encounterId, String lastProcessedMessageId) {
+    // Write the effects of the processed messages before the pointer past them.
+    accumuloTemplate.flush();
+    messageRepository.saveLastProcessedMessageId(encounterId, lastProcessedMessageId);
+    accumuloTemplate.flush();
+  }
+
   /**
    * Plays pending HL7 messages for an encounter.
    *
@@ -82,17 +128,47 @@ public class PlayMessages implements BiConsumer<String, AtomicInteger> {
    *     to output pending message count
    */
   public void accept(String encounterIdentifier, AtomicInteger pendingMessageCount) {
+    initializeLastProcessedMessageId(encounterIdentifier);
+
     Id<Encounter> encounterId = Id.of(encounterIdentifier);
     List<EncounterMessage> messages = messageRepository.findByEncounterId(encounterId);
     log.info("Processing {} messages for encounter {}", messages.size(), encounterIdentifier);
     pendingMessageCount.set(messages.size());
 
-    for (EncounterMessage message : messages) {
-      processMessage(message.getPayload().array());
-      messageRepository.saveLastProcessedMessageId(encounterId, message.getId());
+    String lastProcessedMessageId = null;
+    int uncheckpointedMessageCount = 0;
+    long checkpointTime = clock.millis();
+    try {
+      for (EncounterMessage message : messages) {
+        processMessage(message.getPayload().array());
+        lastProcessedMessageId = message.getId();
+        uncheckpointedMessageCount++;
+
+        pendingMessageCount.decrementAndGet();
+        processedMessageMeter.mark();
+
+        long now = clock.millis();
+        if (uncheckpointedMessageCount >= checkpointMessageCount ||
+            now - checkpointTime >= checkpointIntervalMillis) {
+          checkpoint(encounterId, lastProcessedMessageId);
+          uncheckpointedMessageCount = 0;
+          checkpointTime = now;
+        }
+      }
+    } catch (RuntimeException e) {
+      // Keep the progress made before the failure, but report the failure.
+      if (uncheckpointedMessageCount > 0) {
+        try {
+          checkpoint(encounterId, lastProcessedMessageId);
+        } catch (RuntimeException checkpointException) {
+          e.addSuppressed(checkpointException);
+        }
+      }
+      throw e;
+    }
 
-      pendingMessageCount.decrementAndGet();
-      processedMessageMeter.mark();
+    if (uncheckpointedMessageCount > 0) {
+      checkpoint(encounterId, lastProcessedMessageId);
     }
   }
 }
@@ -15,7 +15,6 @@ package com.datafascia.etl.hl7;
 
 import ca.uhn.hl7v2.HL7Exception;
 import ca.uhn.hl7v2.model.Message;
-import ca.uhn.hl7v2.parser.Parser;
 import ca.uhn.hl7v2.util.Terser;
 import com.datafascia.common.nifi.DependencyInjectingProcessor;
 import com.google.common.base.Throwables;
@@ -34,6 +33,7 @@ import org.apache.nifi.annotation.behavior.SupportsBatching;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationResult;
 import org.apache.nifi.components.Validator;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.processor.ProcessContext;
@@ -86,8 +86,27 @@ public class EvaluateTerser extends DependencyInjectingProcessor {
   private static final Set<Relationship> RELATIONSHIPS =
       ImmutableSet.of(FAILURE, MATCHED, UNMATCHED);
 
+  private static final Validator TERSER_PATH_VALIDATOR = (subject, input, context) -> {
+    String explanation = null;
+    try {
+      TerserPath.compile(input);
+    } catch (IllegalArgumentException e) {
+      explanation = e.getMessage();
+    }
+
+    return new ValidationResult.Builder()
+        .subject(subject)
+        .input(input)
+        .valid(explanation == null)
+        .explanation(explanation)
+        .build();
+  };
+
   @Inject
-  private volatile Parser parser;
+  private volatile ParsedMessageCache parsedMessageCache;
+
+  private volatile Map<String, TerserPath> attributeNameToPathMap;
+  private volatile boolean cacheEvaluatedMessage;
 
   @Override
   public Set<Relationship> getRelationships() {
@@ -106,7 +125,7 @@ public class EvaluateTerser extends DependencyInjectingProcessor {
     return new PropertyDescriptor.Builder()
         .name(propertyDescriptorName)
         .expressionLanguageSupported(false)
-        .addValidator(Validator.VALID)
+        .addValidator(TERSER_PATH_VALIDATOR)
         .required(false)
         .dynamic(true)
         .build();
@@ -118,13 +137,23 @@ public class EvaluateTerser extends DependencyInjectingProcessor {
     return new String(bytes, StandardCharsets.UTF_8);
   }
 
-  private static Map<String, String> getAttributeNameToExpressionMap(ProcessContext context) {
-    Map<String, String> attributeNameToExpressionMap = new HashMap<>();
+  private static Map<String, TerserPath> getAttributeNameToPathMap(ProcessContext context) {
+    Map<String, TerserPath> attributeNameToPathMap = new HashMap<>();
     context.getProperties().entrySet().stream()
         .filter(entry -> entry.getKey().isDynamic())
-        .forEach(entry ->
-            attributeNameToExpressionMap.put(entry.getKey().getName(), entry.getValue()));
-    return attributeNameToExpressionMap;
+        .forEach(entry -> attributeNameToPathMap.put(
+            entry.getKey().getName(), TerserPath.compile(entry.getValue())));
+    return attributeNameToPathMap;
+  }
+
+  @Override
+  protected void onInjected(ProcessContext processContext) {
+    attributeNameToPathMap = getAttributeNameToPathMap(processContext);
+
+    // A path resolved by the terser may add empty structures to the message,
+    // so the message would differ from one parsed from the HL7.
+    cacheEvaluatedMessage = attributeNameToPathMap.values().stream()
+        .noneMatch(TerserPath::isResolvedByTerser);
   }
 
   @Override
@@ -136,17 +165,22 @@ public class EvaluateTerser extends DependencyInjectingProcessor {
 
     try {
       String hl7 = readString(session, flowFile);
-      Message message = parser.parse(hl7);
+      Message message = parsedMessageCache.take(hl7);
       Terser terser = new Terser(message);
 
       Map<String, String> attributeNameToValueMap = new HashMap<>();
-      for (Map.Entry<String, String> entry : getAttributeNameToExpressionMap(context).entrySet()) {
-        String value = terser.get(entry.getValue());
+      for (Map.Entry<String, TerserPath> entry : attributeNameToPathMap.entrySet()) {
+        String value = entry.getValue().get(terser);
         if (value != null) {
           attributeNameToValueMap.put(entry.getKey(), value);
         }
       }
 
+      if (cacheEvaluatedMessage) {
+        // Later stages receive the same HL7, so they can skip parsing it again.
+        parsedMessageCache.put(hl7, message);
+      }
+
       Relationship destination;
       if (attributeNameToValueMap.isEmpty()) {
         destination = UNMATCHED;
@@ -15,7 +15,6 @@ package com.datafascia.etl.hl7;
 
 import ca.uhn.hl7v2.HL7Exception;
 import ca.uhn.hl7v2.model.Message;
-import ca.uhn.hl7v2.parser.Parser;
 import java.util.function.Consumer;
 import javax.inject.Inject;
 
@@ -25,7 +24,7 @@ import javax.inject.Inject;
 public class HL7MessageProcessor implements Consumer<String> {
 
   @Inject
-  private Parser parser;
+  private ParsedMessageCache parsedMessageCache;
 
   @Inject
   private MessageRouter messageRouter;
@@ -33,7 +32,7 @@ public class HL7MessageProcessor implements Consumer<String> {
   @Override
   public void accept(String hl7) {
     try {
-      Message message = parser.parse(hl7);
+      Message message = parsedMessageCache.take(hl7);
       messageRouter.accept(message);
     } catch (HL7Exception e) {
       throw new IllegalStateException("Cannot parse HL7 " + hl7, e);
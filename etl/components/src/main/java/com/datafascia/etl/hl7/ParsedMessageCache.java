@@ -0,0 +1,99 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.etl.hl7;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.parser.Parser;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Holds parsed HL7 messages between stages of the flow, so a stage which
+ * receives a message already parsed by an earlier stage does not parse it
+ * again. Messages are keyed by their encoded text. A HAPI message is not
+ * thread safe, so a stage takes a message out of the cache while it uses the
+ * message, and puts it back if a later stage may need it.
+ * <p>
+ * A cache hit is equivalent to parsing the HL7 only if no stage changed the
+ * message. Reading some paths with a terser adds empty structures to the
+ * message, so a stage must not put back a message it navigated that way.
+ */
+@Singleton
+public class ParsedMessageCache {
+
+  private static final int MAXIMUM_SIZE = 1000;
+  private static final long EXPIRE_AFTER_WRITE_MINUTES = 5;
+
+  private final Parser parser;
+  private final Meter parseMeter;
+  private final Meter hitMeter;
+  private final Cache<String, Message> hl7ToMessageMap = CacheBuilder.newBuilder()
+      .maximumSize(MAXIMUM_SIZE)
+      .expireAfterWrite(EXPIRE_AFTER_WRITE_MINUTES, TimeUnit.MINUTES)
+      .build();
+
+  /**
+   * Constructor
+   *
+   * @param parser
+   *     HL7 parser
+   * @param metrics
+   *     metric registry
+   */
+  @Inject
+  public ParsedMessageCache(Parser parser, MetricRegistry metrics) {
+    this.parser = parser;
+    parseMeter = metrics.meter(MetricRegistry.name(ParsedMessageCache.class, "parses"));
+    hitMeter = metrics.meter(MetricRegistry.name(ParsedMessageCache.class, "hits"));
+  }
+
+  /**
+   * Removes the parsed message from the cache, or parses the HL7 if the cache
+   * does not have it.
+   *
+   * @param hl7
+   *     encoded HL7 message
+   * @return parsed message
+   * @throws HL7Exception
+   *     if HL7 cannot be parsed
+   */
+  public Message take(String hl7) throws HL7Exception {
+    Message message = hl7ToMessageMap.asMap().remove(hl7);
+    if (message != null) {
+      hitMeter.mark();
+      return message;
+    }
+
+    parseMeter.mark();
+    return parser.parse(hl7);
+  }
+
+  /**
+   * Puts parsed message into the cache for a later stage to take.
+   *
+   * @param hl7
+   *     encoded HL7 message
+   * @param message
+   *     parsed message
+   */
+  public void put(String hl7, Message message) {
+    hl7ToMessageMap.put(hl7, message);
+  }
+}
@@ -0,0 +1,190 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.etl.hl7;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.model.Group;
+import ca.uhn.hl7v2.model.Segment;
+import ca.uhn.hl7v2.model.Structure;
+import ca.uhn.hl7v2.util.Terser;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import lombok.AllArgsConstructor;
+
+/**
+ * Terser expression parsed once, so evaluating it does not parse the
+ * expression string again. An absolute path whose steps name structures
+ * exactly is resolved by walking the message structure, without creating
+ * missing structures. A repetition in such a path may be a placeholder in the
+ * form {@code %n$d}, which is replaced by the n-th argument when the path is
+ * evaluated. Other paths, such as those which search with {@code .} or match
+ * with wildcards, are resolved by the terser, which adds empty structures to
+ * the message for missing structures it navigates.
+ */
+public class TerserPath {
+
+  private static final Pattern STEP_PATTERN =
+      Pattern.compile("([A-Za-z0-9_]+)(?:\\((?:(\\d+)|%(\\d+)\\$d)\\))?");
+  private static final Pattern FIELD_PATTERN = Pattern.compile("(\\d+)(?:\\((\\d+)\\))?");
+
+  /**
+   * Step to child structure
+   */
+  @AllArgsConstructor
+  private static class Step {
+    private String name;
+    private int repetition;
+    private int argumentIndex;
+
+    int getRepetition(int[] arguments) {
+      return (argumentIndex < 0) ? repetition : arguments[argumentIndex];
+    }
+  }
+
+  private final String segmentPath;
+  private final List<Step> steps;
+  private final int field;
+  private final int fieldRepetition;
+  private final int component;
+  private final int subcomponent;
+
+  private TerserPath(String expression) {
+    String[] tokens = expression.split("-");
+    segmentPath = tokens[0];
+    steps = parseSteps(segmentPath);
+
+    if (tokens.length > 1) {
+      Matcher matcher = FIELD_PATTERN.matcher(tokens[1]);
+      if (!matcher.matches()) {
+        throw new IllegalArgumentException("Invalid field in terser expression " + expression);
+      }
+
+      field = Integer.parseInt(matcher.group(1));
+      fieldRepetition = (matcher.group(2) == null) ? 0 : Integer.parseInt(matcher.group(2));
+    } else {
+      field = 0;
+      fieldRepetition = 0;
+    }
+
+    component = (tokens.length > 2) ? Integer.parseInt(tokens[2]) : 1;
+    subcomponent = (tokens.length > 3) ? Integer.parseInt(tokens[3]) : 1;
+  }
+
+  private static List<Step> parseSteps(String segmentPath) {
+    if (!segmentPath.startsWith("/")) {
+      return null;
+    }
+
+    List<Step> steps = new ArrayList<>();
+    for (String token : segmentPath.substring(1).split("/")) {
+      Matcher matcher = STEP_PATTERN.matcher(token);
+      if (!matcher.matches()) {
+        if (token.contains("%")) {
+          throw new IllegalArgumentException(
+              "Placeholder not supported in path step " + token + " of " + segmentPath);
+        }
+        return null;
+      }
+
+      int repetition = (matcher.group(2) == null) ? 0 : Integer.parseInt(matcher.group(2));
+      int argumentIndex = (matcher.group(3) == null) ? -1 : Integer.parseInt(matcher.group(3)) - 1;
+      steps.add(new Step(matcher.group(1), repetition, argumentIndex));
+    }
+    return steps;
+  }
+
+  /**
+   * Checks if evaluating this path may add empty structures to the message.
+   *
+   * @return true if the path is resolved by the terser
+   */
+  public boolean isResolvedByTerser() {
+    return steps == null;
+  }
+
+  /**
+   * Parses terser expression.
+   *
+   * @param expression
+   *     terser expression, for example {@code /PATIENT_RESULT/ORDER_OBSERVATION(%1$d)/OBX-3-1}
+   * @return compiled path
+   */
+  public static TerserPath compile(String expression) {
+    return new TerserPath(expression);
+  }
+
+  /**
+   * Gets segment.
+   *
+   * @param terser
+   *     terser wrapping HL7 message
+   * @param arguments
+   *     repetitions to replace placeholders
+   * @return segment, or null if the message does not contain the segment
+   * @throws HL7Exception if a path step does not name a structure in the message
+   */
+  public Segment getSegment(Terser terser, int... arguments) throws HL7Exception {
+    if (steps == null) {
+      return terser.getSegment(segmentPath);
+    }
+
+    Structure current = terser.getFinder().getRoot().getMessage();
+    for (Step step : steps) {
+      if (!(current instanceof Group)) {
+        return null;
+      }
+
+      Structure[] repetitions = ((Group) current).getAll(step.name);
+      int repetition = step.getRepetition(arguments);
+      if (repetition >= repetitions.length) {
+        return null;
+      }
+
+      current = repetitions[repetition];
+    }
+
+    return (current instanceof Segment) ? (Segment) current : null;
+  }
+
+  /**
+   * Gets value of field or component.
+   *
+   * @param terser
+   *     terser wrapping HL7 message
+   * @param arguments
+   *     repetitions to replace placeholders
+   * @return value, or null if the message does not contain the value
+   * @throws HL7Exception if a path step does not name a structure in the message
+   */
+  public String get(Terser terser, int... arguments) throws HL7Exception {
+    if (field == 0) {
+      throw new IllegalStateException("Terser expression does not specify field " + segmentPath);
+    }
+
+    Segment segment = getSegment(terser, arguments);
+    if (segment == null) {
+      return null;
+    }
+
+    // Check the repetition exists, because getting a missing field repetition
+    // adds it to the segment.
+    if (steps != null && fieldRepetition >= segment.getField(field).length) {
+      return null;
+    }
+
+    return Terser.get(segment, field, fieldRepetition, component, subcomponent);
+  }
+}
@@ -32,6 +32,7 @@ import ca.uhn.hl7v2.model.v24.segment.NTE;
 import ca.uhn.hl7v2.model.v24.segment.OBX;
 import ca.uhn.hl7v2.util.Terser;
 import com.datafascia.domain.fhir.IdentifierSystems;
+import com.datafascia.etl.hl7.TerserPath;
 import com.google.common.base.Strings;
 import com.google.common.hash.Hashing;
 import com.google.common.io.BaseEncoding;
@@ -52,7 +53,8 @@ public class ObservationsBuilder {
   private final static String ORDER_OBSERVATION = "ORDER_OBSERVATION";
   private final Message message;
   private final String obxPathPattern;
-  private final String ntePathPattern;
+  private final TerserPath obxPath;
+  private final TerserPath ntePath;
   private final Terser terser;
   private String messageHash;
 
@@ -62,18 +64,19 @@ public class ObservationsBuilder {
    * @param message
    *     HL7 message
    * @param obxPathPattern
-   *     {@link String#format pattern} to generate path to each OBX segment. The pattern must
-   *     contain exactly two {@code %d} format specifiers which will be replaced with an OBR
-   *     repetition index and OBX repetition index respectively.
+   *     {@link TerserPath} to each OBX segment. The pattern may contain {@code %1$d} and
+   *     {@code %2$d} placeholders which will be replaced with an OBR repetition index and OBX
+   *     repetition index respectively.
    * @param ntePathPattern
-   *     {@link String#format pattern} to generate path to each NTE segment. The pattern must
-   *     contain exactly three {@code %d} format specifiers which will be replaced with an OBR
+   *     {@link TerserPath} to each NTE segment. The pattern may contain {@code %1$d},
+   *     {@code %2$d} and {@code %3$d} placeholders which will be replaced with an OBR
    *     repetition index, OBX repetition index and NTE repetition index respectively.
    */
   public ObservationsBuilder(Message message, String obxPathPattern, String ntePathPattern) {
     this.message = message;
     this.obxPathPattern = obxPathPattern;
-    this.ntePathPattern = ntePathPattern;
+    obxPath = TerserPath.compile(obxPathPattern);
+    ntePath = Strings.isNullOrEmpty(ntePathPattern) ? null : TerserPath.compile(ntePathPattern);
     terser = new Terser(message);
   }
 
@@ -81,12 +84,23 @@ public class ObservationsBuilder {
     return ENCODING.encode(Hashing.sha1().hashString(input, StandardCharsets.UTF_8).asBytes());
   }
 
-  private String formatObxPath(int obrIndex, int obxIndex) {
-    return String.format(obxPathPattern, obrIndex, obxIndex);
-  }
+  /**
+   * Gets segment if it exists and its first field is not empty.
+   *
+   * @param path
+   *     path to segment
+   * @param indexes
+   *     repetition indexes
+   * @return segment, or null if not found
+   * @throws HL7Exception if HL7 message is malformed
+   */
+  private Segment getSegment(TerserPath path, int... indexes) throws HL7Exception {
+    Segment segment = path.getSegment(terser, indexes);
+    if (segment == null || Strings.isNullOrEmpty(Terser.get(segment, 1, 0, 1, 1))) {
+      return null;
+    }
 
-  private String formatNtePath(int obrIndex, int obxIndex, int nteIndex) {
-    return String.format(ntePathPattern, obrIndex, obxIndex, nteIndex);
+    return segment;
   }
 
   /**
@@ -94,20 +108,19 @@ public class ObservationsBuilder {
    * @throws HL7Exception if HL7 message is malformed
    */
   public boolean hasObservations() throws HL7Exception {
-    String obxPath = formatObxPath(0, 0);
-    return !Strings.isNullOrEmpty(terser.get(obxPath + "-1"));
+    return getSegment(obxPath, 0, 0) != null;
   }
 
   private List<Segment> getNteSegments(int obrIndex, int obxIndex) throws HL7Exception {
     List<Segment> notes = new ArrayList<>();
-    if (!Strings.isNullOrEmpty(ntePathPattern)) {
+    if (ntePath != null) {
       for (int nteIndex = 0; true; ++nteIndex) {
-        String ntePath = formatNtePath(obrIndex, obxIndex, nteIndex);
-        if (Strings.isNullOrEmpty(terser.get(ntePath + "-1"))) {
+        Segment nte = getSegment(ntePath, obrIndex, obxIndex, nteIndex);
+        if (nte == null) {
           break;
         }
 
-        notes.add(terser.getSegment(ntePath));
+        notes.add(nte);
       }
     }
 
@@ -255,13 +268,12 @@ public class ObservationsBuilder {
       boolean foundObr = true;
       for (int obrIndex = 0; foundObr; ++obrIndex) {
         for (int obxIndex = 0; true; ++obxIndex) {
-          String obxPath = formatObxPath(obrIndex, obxIndex);
-          if (Strings.isNullOrEmpty(terser.get(obxPath + "-1"))) {
+          Segment obx = getSegment(obxPath, obrIndex, obxIndex);
+          if (obx == null) {
             foundObr = obxIndex > 0;
             break;
           }
 
-          Segment obx = terser.getSegment(obxPath);
           List<Segment> notes = getNteSegments(obrIndex, obxIndex);
           observations.add(toObservation(obx, notes));
         }
@@ -269,12 +281,11 @@ public class ObservationsBuilder {
     } else {
       int obrIndex = 0;
       for (int obxIndex = 0; true; ++obxIndex) {
-        String obxPath = formatObxPath(obrIndex, obxIndex);
-        if (Strings.isNullOrEmpty(terser.get(obxPath + "-1"))) {
+        Segment obx = getSegment(obxPath, obrIndex, obxIndex);
+        if (obx == null) {
           break;
         }
 
-        Segment obx = terser.getSegment(obxPath);
         List<Segment> notes = getNteSegments(obrIndex, obxIndex);
         observations.add(toObservation(obx, notes));
       }
@@ -13,6 +13,7 @@
 // limitations under the License.
 package com.datafascia.etl.ingest;
 
+import com.datafascia.common.accumulo.AccumuloTemplate;
 import com.datafascia.common.nifi.DependencyInjectingProcessor;
 import com.datafascia.domain.model.IngestMessage;
 import com.datafascia.domain.persist.IngestMessageRepository;
@@ -87,6 +88,16 @@ public class ArchiveIngestMessage extends DependencyInjectingProcessor {
       .required(true)
       .build();
 
+  public static final PropertyDescriptor BATCH_SIZE = new PropertyDescriptor.Builder()
+      .name("Batch Size")
+      .description(
+          "Maximum number of FlowFiles to archive before flushing writes to Accumulo " +
+          "and transferring the FlowFiles")
+      .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+      .defaultValue("100")
+      .required(true)
+      .build();
+
   private Set<Relationship> relationships;
   private List<PropertyDescriptor> supportedPropertyDescriptors;
 
@@ -95,6 +106,10 @@ public class ArchiveIngestMessage extends DependencyInjectingProcessor {
   private volatile URI departmentId;
   private volatile URI sourceId;
   private volatile URI payloadType;
+  private volatile int batchSize;
+
+  @Inject
+  private volatile AccumuloTemplate accumuloTemplate;
 
   @Inject
   private volatile IngestMessageRepository ingestMessageRepository;
@@ -103,7 +118,7 @@ public class ArchiveIngestMessage extends DependencyInjectingProcessor {
   protected void init(ProcessorInitializationContext context) {
     relationships = ImmutableSet.of(SUCCESS);
     supportedPropertyDescriptors = Arrays.asList(
-        INSTITUTION_ID, FACILITY_ID, DEPARTMENT_ID, SOURCE_ID, PAYLOAD_TYPE);
+        INSTITUTION_ID, FACILITY_ID, DEPARTMENT_ID, SOURCE_ID, PAYLOAD_TYPE, BATCH_SIZE);
   }
 
   @Override
@@ -127,6 +142,7 @@ public class ArchiveIngestMessage extends DependencyInjectingProcessor {
     departmentId = toURI(processContext.getProperty(DEPARTMENT_ID).getValue());
     sourceId = toURI(processContext.getProperty(SOURCE_ID).getValue());
     payloadType = toURI(processContext.getProperty(PAYLOAD_TYPE).getValue());
+    batchSize = processContext.getProperty(BATCH_SIZE).asInteger();
   }
 
   private void saveIngestMessage(ByteBuffer payload) {
@@ -144,16 +160,21 @@ public class ArchiveIngestMessage extends DependencyInjectingProcessor {
 
   @Override
   public void onTrigger(ProcessContext context, ProcessSession session) throws ProcessException {
-    FlowFile flowFile = session.get();
-    if (flowFile == null) {
+    List<FlowFile> flowFiles = session.get(batchSize);
+    if (flowFiles.isEmpty()) {
       return;
     }
 
-    session.read(flowFile, input -> {
-      byte[] payload = ByteStreams.toByteArray(input);
-      saveIngestMessage(ByteBuffer.wrap(payload));
-    });
+    for (FlowFile flowFile : flowFiles) {
+      session.read(flowFile, input -> {
+        byte[] payload = ByteStreams.toByteArray(input);
+        saveIngestMessage(ByteBuffer.wrap(payload));
+      });
+    }
+
+    // Make the archived messages durable before the FlowFiles leave this processor.
+    accumuloTemplate.flush();
 
-    session.transfer(flowFile, SUCCESS);
+    session.transfer(flowFiles, SUCCESS);
   }
 }
@@ -22,27 +22,32 @@ import ca.uhn.hl7v2.protocol.ReceivingApplication;
 import ca.uhn.hl7v2.protocol.ReceivingApplicationException;
 import ca.uhn.hl7v2.protocol.ReceivingApplicationExceptionHandler;
 import ca.uhn.hl7v2.validation.impl.NoValidation;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.datafascia.common.nifi.DependencyInjectingProcessor;
 import com.datafascia.common.time.InstantFormatter;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.Hashing;
 import com.google.common.io.BaseEncoding;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import javax.inject.Inject;
+import lombok.AllArgsConstructor;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
-import org.apache.nifi.annotation.lifecycle.OnScheduled;
 import org.apache.nifi.annotation.lifecycle.OnUnscheduled;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.flowfile.attributes.CoreAttributes;
-import org.apache.nifi.processor.AbstractProcessor;
 import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.Processor;
@@ -53,11 +58,17 @@ import org.kohsuke.MetaInfServices;
 
 /**
  * NiFi processor that starts an HL7 MLLP server to receive HL7 messages.
+ * <p>
+ * Received messages are held in a bounded buffer. When the buffer is full, the
+ * server waits for space before it acknowledges a message, so the sender slows
+ * down instead of messages being dropped. Each trigger drains up to a batch of
+ * messages from the buffer. If the batch fails to commit, its messages go back
+ * to the head of the buffer, so a failure does not lose acknowledged messages.
  */
 @CapabilityDescription("Starts an HL7 MLLP server to receive HL7 messages.")
 @MetaInfServices(Processor.class)
 @Tags({"HL7", "health level 7", "healthcare", "ingest", "listen", "MLLP"})
-public class ListenHL7 extends AbstractProcessor {
+public class ListenHL7 extends DependencyInjectingProcessor {
 
   private static final BaseEncoding ENCODING = BaseEncoding.base64Url().omitPadding();
 
@@ -80,11 +91,47 @@ public class ListenHL7 extends AbstractProcessor {
       .addValidator(StandardValidators.BOOLEAN_VALIDATOR)
       .build();
 
+  public static final PropertyDescriptor BUFFER_CAPACITY = new PropertyDescriptor.Builder()
+      .name("Buffer Capacity")
+      .description("Maximum number of received messages waiting to be emitted")
+      .required(true)
+      .defaultValue("10000")
+      .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+      .build();
+
+  public static final PropertyDescriptor BATCH_SIZE = new PropertyDescriptor.Builder()
+      .name("Batch Size")
+      .description("Maximum number of messages to emit per trigger")
+      .required(true)
+      .defaultValue("100")
+      .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+      .build();
+
   private Set<Relationship> relationships = ImmutableSet.of(SUCCESS);
-  private List<PropertyDescriptor> supportedPropertyDescriptors = Arrays.asList(PORT, TLS);
+  private List<PropertyDescriptor> supportedPropertyDescriptors =
+      Arrays.asList(PORT, TLS, BUFFER_CAPACITY, BATCH_SIZE);
+
+  /**
+   * Message and the time it was received
+   */
+  @AllArgsConstructor
+  private static class ReceivedMessage {
+    private String message;
+    private Instant receivedTime;
+  }
+
+  @Inject
+  private volatile MetricRegistry metrics;
 
   private volatile HL7Service server;
-  private final BlockingQueue<String> receivedMessages = new LinkedBlockingQueue<>();
+
+  // The buffer is a single queue whose bound is enforced by waiting on the
+  // buffer lock, so the bound can change while producers are blocked without
+  // moving messages to another queue.
+  private final BlockingDeque<ReceivedMessage> receivedMessages = new LinkedBlockingDeque<>();
+  private final Object bufferLock = new Object();
+  private int bufferCapacity = Integer.MAX_VALUE;
+  private boolean stopped;
 
   @Override
   public Set<Relationship> getRelationships() {
@@ -101,7 +148,15 @@ public class ListenHL7 extends AbstractProcessor {
     public Message processMessage(Message message, Map<String, Object> metadata)
         throws ReceivingApplicationException, HL7Exception {
 
-      receivedMessages.add(message.encode());
+      ReceivedMessage receivedMessage = new ReceivedMessage(message.encode(), Instant.now());
+      try {
+        // Blocks while the buffer is full, delaying the ACK.
+        putReceivedMessage(receivedMessage);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new HL7Exception("Interrupted while waiting for buffer space", e);
+      }
+
       try {
         return message.generateACK();
       } catch (IOException e) {
@@ -130,14 +185,66 @@ public class ListenHL7 extends AbstractProcessor {
     }
   }
 
+  private void putReceivedMessage(ReceivedMessage receivedMessage)
+      throws HL7Exception, InterruptedException {
+
+    synchronized (bufferLock) {
+      while (!stopped && receivedMessages.size() >= bufferCapacity) {
+        bufferLock.wait();
+      }
+      if (stopped) {
+        // Reject the message, so the sender sends it again after restart.
+        throw new HL7Exception("Server stopped while waiting for buffer space");
+      }
+      receivedMessages.add(receivedMessage);
+    }
+  }
+
+  private void startBuffer(int capacity) {
+    // Messages which were received before the processor was last stopped stay
+    // in the buffer, even if they exceed the new capacity.
+    synchronized (bufferLock) {
+      bufferCapacity = capacity;
+      stopped = false;
+      bufferLock.notifyAll();
+    }
+  }
+
+  private void stopBuffer() {
+    synchronized (bufferLock) {
+      stopped = true;
+      bufferLock.notifyAll();
+    }
+  }
+
+  private long getOldestMessageAgeMillis() {
+    ReceivedMessage oldestMessage = receivedMessages.peek();
+    return (oldestMessage == null)
+        ? 0
+        : Duration.between(oldestMessage.receivedTime, Instant.now()).toMillis();
+  }
+
+  private void registerGauges() {
+    String queueDepthName = MetricRegistry.name(ListenHL7.class, "queueDepth");
+    metrics.remove(queueDepthName);
+    metrics.register(queueDepthName, (Gauge<Integer>) () -> receivedMessages.size());
+
+    String oldestMessageAgeName = MetricRegistry.name(ListenHL7.class, "oldestMessageAgeMillis");
+    metrics.remove(oldestMessageAgeName);
+    metrics.register(oldestMessageAgeName, (Gauge<Long>) () -> getOldestMessageAgeMillis());
+  }
+
   /**
    * When the processor is scheduled to run, starts the HL7 MLLP server.
    *
    * @param processContext
    *     process context
    */
-  @OnScheduled
-  public void startServer(ProcessContext processContext) {
+  @Override
+  protected void onInjected(ProcessContext processContext) {
+    startBuffer(processContext.getProperty(BUFFER_CAPACITY).asInteger());
+    registerGauges();
+
     int port = processContext.getProperty(PORT).asInteger();
     boolean tls = processContext.getProperty(TLS).asBoolean();
     getLogger().info("Starting MLLP server, port {}, useTLS {}", new Object[] { port, tls });
@@ -151,34 +258,55 @@ public class ListenHL7 extends AbstractProcessor {
   }
 
   /**
-   * When the processor is no longer scheduled to run, stops the HL7 MLLP server.
+   * When the processor is no longer scheduled to run, stops the HL7 MLLP server
+   * and wakes connections waiting for buffer space.
    */
   @OnUnscheduled
   public void stopServer() {
+    stopBuffer();
     server.stop();
   }
 
-  private String generateFilename(byte[] content) {
+  private String generateFilename(byte[] content, Instant receivedTime) {
     return
-        InstantFormatter.ISO_INSTANT_MILLI.format(Instant.now()) + '|' +
+        InstantFormatter.ISO_INSTANT_MILLI.format(receivedTime) + '|' +
         ENCODING.encode(Hashing.sha1().hashBytes(content).asBytes());
   }
 
   @Override
   public void onTrigger(ProcessContext context, ProcessSession session) throws ProcessException {
-    String message = receivedMessages.poll();
-    if (message == null) {
+    List<ReceivedMessage> batch = new ArrayList<>();
+    receivedMessages.drainTo(batch, context.getProperty(BATCH_SIZE).asInteger());
+    if (batch.isEmpty()) {
       context.yield();
       return;
     }
 
-    byte[] content = message.getBytes(StandardCharsets.UTF_8);
+    try {
+      for (ReceivedMessage receivedMessage : batch) {
+        byte[] content = receivedMessage.message.getBytes(StandardCharsets.UTF_8);
+
+        FlowFile flowFile = session.create();
+        flowFile = session.write(flowFile, output -> output.write(content));
+        flowFile = session.putAttribute(
+            flowFile,
+            CoreAttributes.FILENAME.key(),
+            generateFilename(content, receivedMessage.receivedTime));
+        session.getProvenanceReporter().receive(flowFile, "Unknown");
+        session.transfer(flowFile, SUCCESS);
+      }
 
-    FlowFile flowFile = session.create();
-    flowFile = session.write(flowFile, output -> output.write(content));
-    flowFile = session.putAttribute(
-        flowFile, CoreAttributes.FILENAME.key(), generateFilename(content));
-    session.getProvenanceReporter().receive(flowFile, "Unknown");
-    session.transfer(flowFile, SUCCESS);
+      session.commit();
+    } catch (RuntimeException e) {
+      // Put the batch back in its original order, so the next trigger emits it again.
+      for (int i = batch.size() - 1; i >= 0; i--) {
+        receivedMessages.addFirst(batch.get(i));
+      }
+      throw e;
+    }
+
+    synchronized (bufferLock) {
+      bufferLock.notifyAll();
+    }
   }
 }
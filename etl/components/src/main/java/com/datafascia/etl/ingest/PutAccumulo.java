@@ -17,6 +17,7 @@ import com.datafascia.common.accumulo.AccumuloTemplate;
 import com.datafascia.common.nifi.DependencyInjectingProcessor;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
@@ -84,10 +85,19 @@ public class PutAccumulo extends DependencyInjectingProcessor {
       .expressionLanguageSupported(true)
       .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
       .build();
+  public static final PropertyDescriptor BATCH_SIZE = new PropertyDescriptor.Builder()
+      .name("Batch Size")
+      .description(
+          "Maximum number of FlowFiles to put before flushing writes to Accumulo " +
+          "and transferring the FlowFiles")
+      .required(true)
+      .defaultValue("100")
+      .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+      .build();
 
   private static final Set<Relationship> RELATIONSHIPS = ImmutableSet.of(FAILURE, SUCCESS);
   private static final List<PropertyDescriptor> SUPPORTED_PROPERTY_DESCRIPTORS = Arrays.asList(
-      TABLE, ROW_ID, COLUMN_FAMILY, COLUMN_QUALIFIER);
+      TABLE, ROW_ID, COLUMN_FAMILY, COLUMN_QUALIFIER, BATCH_SIZE);
 
   @Inject
   private volatile AccumuloTemplate accumuloTemplate;
@@ -130,13 +140,39 @@ public class PutAccumulo extends DependencyInjectingProcessor {
     return bytes;
   }
 
+  private void transferFailure(ProcessSession session, FlowFile flowFile, RuntimeException e) {
+    log.error("Cannot process {}", new Object[] { flowFile }, e);
+    flowFile = session.putAttribute(flowFile, "stackTrace", Throwables.getStackTraceAsString(e));
+    flowFile = session.penalize(flowFile);
+    session.transfer(flowFile, FAILURE);
+  }
+
   @Override
   public void onTrigger(ProcessContext context, ProcessSession session) throws ProcessException {
-    FlowFile flowFile = session.get();
-    if (flowFile == null) {
+    List<FlowFile> flowFiles = session.get(context.getProperty(BATCH_SIZE).asInteger());
+    if (flowFiles.isEmpty()) {
       return;
     }
 
+    List<FlowFile> putFlowFiles = new ArrayList<>();
+    for (FlowFile flowFile : flowFiles) {
+      if (put(context, session, flowFile)) {
+        putFlowFiles.add(flowFile);
+      }
+    }
+
+    try {
+      // Make the entries durable before the FlowFiles leave this processor.
+      accumuloTemplate.flush();
+    } catch (RuntimeException e) {
+      putFlowFiles.forEach(flowFile -> transferFailure(session, flowFile, e));
+      return;
+    }
+
+    session.transfer(putFlowFiles, SUCCESS);
+  }
+
+  private boolean put(ProcessContext context, ProcessSession session, FlowFile flowFile) {
     try {
       String table = context.getProperty(TABLE)
           .evaluateAttributeExpressions(flowFile)
@@ -158,12 +194,10 @@ public class PutAccumulo extends DependencyInjectingProcessor {
           .send(
               flowFile,
               "accumulo://" + table + "/" + rowId + "/" + columnFamily + ":" + columnQualifier);
-      session.transfer(flowFile, SUCCESS);
+      return true;
     } catch (RuntimeException e) {
-      log.error("Cannot process {}", new Object[] { flowFile }, e);
-      flowFile = session.putAttribute(flowFile, "stackTrace", Throwables.getStackTraceAsString(e));
-      flowFile = session.penalize(flowFile);
-      session.transfer(flowFile, FAILURE);
+      transferFailure(session, flowFile, e);
+      return false;
     }
   }
 }
@@ -23,6 +23,8 @@ import ca.uhn.hl7v2.validation.impl.NoValidation;
 import com.codahale.metrics.JmxReporter;
 import com.codahale.metrics.MetricRegistry;
 import com.datafascia.api.client.ClientBuilder;
+import com.datafascia.api.client.EntityChangeListener;
+import com.datafascia.api.client.RepositoryClientBuilder;
 import com.datafascia.common.accumulo.AuthorizationsSupplier;
 import com.datafascia.common.accumulo.ColumnVisibilityPolicy;
 import com.datafascia.common.accumulo.ConnectorFactory;
@@ -30,24 +32,38 @@ import com.datafascia.common.accumulo.FixedAuthorizationsSupplier;
 import com.datafascia.common.accumulo.FixedColumnVisibilityPolicy;
 import com.datafascia.common.avro.schemaregistry.AvroSchemaRegistry;
 import com.datafascia.common.avro.schemaregistry.MemorySchemaRegistry;
+import com.datafascia.common.configuration.ConfigurationNode;
+import com.datafascia.common.configuration.Configure;
+import com.datafascia.common.kafka.KafkaConfig;
+import com.datafascia.common.kafka.SingleTopicConsumer;
+import com.datafascia.common.kafka.SingleTopicProducer;
 import com.datafascia.common.persist.entity.AccumuloFhirEntityStore;
 import com.datafascia.common.persist.entity.AccumuloReflectEntityStore;
 import com.datafascia.common.persist.entity.FhirEntityStore;
 import com.datafascia.common.persist.entity.ReflectEntityStore;
+import com.datafascia.domain.event.EntityChangePublisher;
+import com.datafascia.domain.event.KafkaEntityChangePublisher;
 import com.datafascia.domain.persist.Tables;
 import com.datafascia.emerge.ucsf.harm.HarmEvidenceUpdater;
 import com.datafascia.etl.event.EncounterExecutor;
+import com.datafascia.etl.event.EntityChangeSubscription;
 import com.datafascia.etl.event.PlayMessages;
 import com.datafascia.etl.hl7.EncounterStatusTransition;
 import com.datafascia.etl.hl7.HL7MessageProcessor;
+import com.datafascia.etl.hl7.ParsedMessageCache;
+import com.google.common.base.Strings;
 import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
 import com.google.inject.matcher.Matchers;
 import com.google.inject.name.Names;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.time.Clock;
 import java.time.ZoneId;
+import java.util.Optional;
 import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
+import javax.inject.Provider;
 import javax.inject.Singleton;
 import org.apache.accumulo.core.client.Connector;
 import org.apache.http.client.config.RequestConfig;
@@ -78,8 +94,6 @@ public class ComponentsModule extends AbstractModule {
     bind(AvroSchemaRegistry.class)
         .to(MemorySchemaRegistry.class)
         .in(Singleton.class);
-    bind(ClientBuilder.class)
-        .in(Singleton.class);
     bind(Clock.class)
         .toInstance(Clock.system(ZONE_ID));
     bind(ColumnVisibilityPolicy.class)
@@ -96,6 +110,8 @@ public class ComponentsModule extends AbstractModule {
         .in(Singleton.class);
     bind(HarmEvidenceUpdater.class)
         .in(Singleton.class);
+    bind(ParsedMessageCache.class)
+        .in(Singleton.class);
     bind(PlayMessages.class)
         .in(Singleton.class);
     bind(ReflectEntityStore.class)
@@ -107,11 +123,66 @@ public class ComponentsModule extends AbstractModule {
         .to(Tables.ENTITY_PREFIX);
   }
 
+  @Provides @Singleton
+  public ClientBuilder clientBuilder(
+      HarmDataConfiguration harmDataConfig,
+      Provider<RepositoryClientBuilder> repositoryClientBuilder,
+      FhirContext fhirContext,
+      ClientBuilder.ClientConfiguration clientConfig,
+      MetricRegistry metrics) {
+
+    if (harmDataConfig.readFromRepositories) {
+      return repositoryClientBuilder.get();
+    }
+
+    return new ClientBuilder(fhirContext, clientConfig, metrics);
+  }
+
+  // Processors start and stop the subscription, so the consumer is not
+  // connected merely by creating the injector.
+  @Provides @Singleton
+  public EntityChangeSubscription entityChangeSubscription(
+      ClientBuilder clientBuilder, EntityChangeConfiguration config) {
+
+    if (Strings.isNullOrEmpty(config.topic)) {
+      return new EntityChangeSubscription(Optional.empty());
+    }
+
+    // Every process must receive every change, so each process has its own
+    // consumer group.
+    KafkaConfig kafkaConfig = new KafkaConfig();
+    kafkaConfig.setZookeeperConnect(config.zookeeperConnect);
+    kafkaConfig.setGroupId(config.topic + '-' + getHostName());
+    kafkaConfig.setAutoOffsetReset("largest");
+
+    EntityChangeListener listener = new EntityChangeListener(clientBuilder);
+    return new EntityChangeSubscription(Optional.of(new SingleTopicConsumer(
+        kafkaConfig.buildConsumerConfig(), config.topic, listener::onMessage)));
+  }
+
+  private static String getHostName() {
+    try {
+      return InetAddress.getLocalHost().getHostName();
+    } catch (UnknownHostException e) {
+      throw new IllegalStateException("Cannot get host name", e);
+    }
+  }
+
   @Provides @Singleton
   public Connector connector(ConnectorFactory connectorFactory) {
     return connectorFactory.getConnector();
   }
 
+  @Provides @Singleton
+  public EntityChangePublisher entityChangePublisher(EntityChangeConfiguration config) {
+    if (Strings.isNullOrEmpty(config.topic)) {
+      return change -> { };
+    }
+
+    return new KafkaEntityChangePublisher(
+        new SingleTopicProducer(config.brokers, config.topic, true));
+  }
+
   @Provides @Singleton
   public FhirContext fhirContext() {
     FhirContext fhirContext = FhirContext.forDstu2();
@@ -171,4 +242,30 @@ public class ComponentsModule extends AbstractModule {
   public Parser parser(HapiContext context) {
     return context.getPipeParser();
   }
+
+  /**
+   * Configuration for how harm rules read resources. If readFromRepositories is
+   * true, resources are read from the repositories in this process, otherwise
+   * they are read through the API server.
+   */
+  @ConfigurationNode("HarmData")
+  public static class HarmDataConfiguration {
+    @Configure
+    private boolean readFromRepositories;
+  }
+
+  /**
+   * Configuration for publishing and receiving entity changes. If the topic is
+   * empty, entity changes are not published, and cached resources are
+   * refreshed only when they expire.
+   */
+  @ConfigurationNode("EntityChange")
+  public static class EntityChangeConfiguration {
+    @Configure
+    private String brokers;
+    @Configure
+    private String zookeeperConnect;
+    @Configure
+    private String topic;
+  }
 }
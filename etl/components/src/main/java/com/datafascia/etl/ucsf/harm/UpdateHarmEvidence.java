@@ -16,6 +16,8 @@ package com.datafascia.etl.ucsf.harm;
 import ca.uhn.fhir.model.dstu2.resource.Encounter;
 import ca.uhn.fhir.model.dstu2.resource.Location;
 import ca.uhn.fhir.model.dstu2.valueset.EncounterStateEnum;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.datafascia.common.configuration.ConfigurationNode;
 import com.datafascia.common.configuration.Configure;
 import com.datafascia.common.nifi.DependencyInjectingProcessor;
@@ -25,20 +27,31 @@ import com.datafascia.domain.persist.LocationRepository;
 import com.datafascia.emerge.ucsf.HarmEvidence;
 import com.datafascia.emerge.ucsf.harm.HarmEvidenceUpdater;
 import com.datafascia.emerge.ucsf.persist.HarmEvidenceRepository;
+import com.datafascia.etl.event.EntityChangeSubscription;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Splitter;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 import javax.inject.Inject;
+import lombok.AllArgsConstructor;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.processor.ProcessContext;
@@ -46,12 +59,19 @@ import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.Processor;
 import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
 import org.kohsuke.MetaInfServices;
 
 /**
  * Updates harm evidence values which are dependent on the current time.
  * This NiFi processor should be scheduled to run frequently enough so the
  * values served to clients are not too stale.
+ * <p>
+ * A sweep updates the encounters on a bounded pool of worker threads.
+ * {@link HarmEvidenceUpdater} serializes updates for the same encounter, so a
+ * worker does not race message ingest for that encounter. A sweep is skipped
+ * if the previous sweep is still running. The first sweep also copies records
+ * missing from the harm evidence feed.
  */
 @CapabilityDescription("Updates harm evidence values which are dependent on the current time.")
 @ConfigurationNode("UpdateHarmEvidence")
@@ -71,6 +91,25 @@ public class UpdateHarmEvidence extends DependencyInjectingProcessor {
 
   private Set<Relationship> relationships = ImmutableSet.of(SUCCESS, FAILURE);
 
+  public static final PropertyDescriptor WORKER_THREADS = new PropertyDescriptor.Builder()
+      .name("Worker Threads")
+      .description("Number of threads which update encounters in a sweep")
+      .required(true)
+      .defaultValue("4")
+      .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+      .build();
+
+  /**
+   * Outcome of updating an encounter, reported to the NiFi session by the
+   * thread which runs the sweep.
+   */
+  @AllArgsConstructor
+  private static class Result {
+    private String encounterId;
+    private HarmEvidence record;
+    private RuntimeException exception;
+  }
+
   private static final Splitter COMMA_SPLITTER = Splitter.on(',').trimResults();
 
   @Configure
@@ -94,6 +133,20 @@ public class UpdateHarmEvidence extends DependencyInjectingProcessor {
   @Inject
   private volatile ObjectMapper objectMapper;
 
+  @Inject
+  private volatile MetricRegistry metrics;
+
+  @Inject
+  private volatile EntityChangeSubscription entityChangeSubscription;
+
+  private final AtomicBoolean subscribed = new AtomicBoolean();
+
+  private volatile ExecutorService sweepExecutor;
+
+  private final AtomicBoolean sweeping = new AtomicBoolean();
+
+  private volatile boolean feedBackfilled;
+
   @Override
   public Set<Relationship> getRelationships() {
     return relationships;
@@ -101,7 +154,7 @@ public class UpdateHarmEvidence extends DependencyInjectingProcessor {
 
   @Override
   protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
-    return Collections.emptyList();
+    return Collections.singletonList(WORKER_THREADS);
   }
 
   @Override
@@ -110,17 +163,47 @@ public class UpdateHarmEvidence extends DependencyInjectingProcessor {
     desiredPointsOfCare = new HashSet<>();
     COMMA_SPLITTER.split(pointOfCare)
         .forEach(p -> desiredPointsOfCare.add(p));
+
+    shutdownSweepExecutor();
+    sweepExecutor = Executors.newFixedThreadPool(
+        processContext.getProperty(WORKER_THREADS).asInteger(),
+        new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat(UpdateHarmEvidence.class.getSimpleName() + " worker %d")
+            .build());
+
+    if (subscribed.compareAndSet(false, true)) {
+      entityChangeSubscription.start();
+    }
   }
 
-  private Optional<String> getPointOfCare(Encounter encounter) {
-    Id<Location> locationId =
-        Id.of(encounter.getLocationFirstRep().getLocation().getReference().getIdPart());
-    Optional<Location> location = locationRepository.read(locationId);
-    if (!location.isPresent()) {
-      return Optional.empty();
+  /**
+   * Stops the worker threads.
+   */
+  @OnStopped
+  public void shutdownSweepExecutor() {
+    if (sweepExecutor != null) {
+      sweepExecutor.shutdown();
+      sweepExecutor = null;
     }
+  }
+
+  /**
+   * Stops receiving entity changes for this processor.
+   */
+  @OnStopped
+  public void stopEntityChangeSubscription() {
+    if (subscribed.compareAndSet(true, false)) {
+      entityChangeSubscription.stop();
+    }
+  }
 
-    String[] locationParts = location.get().getIdentifierFirstRep().getValue().split("\\^");
+  private static Id<Location> getLocationId(Encounter encounter) {
+    return Id.of(encounter.getLocationFirstRep().getLocation().getReference().getIdPart());
+  }
+
+  private static Optional<String> getPointOfCare(Location location) {
+    String[] locationParts = location.getIdentifierFirstRep().getValue().split("\\^");
     if (locationParts.length > 0) {
       String pointOfCare = locationParts[0];
       return Optional.of(pointOfCare);
@@ -129,10 +212,21 @@ public class UpdateHarmEvidence extends DependencyInjectingProcessor {
     }
   }
 
-  private boolean isLocatedAt(Encounter encounter, Set<String> desiredPointsOfCare) {
-    return getPointOfCare(encounter)
-        .map(poc -> desiredPointsOfCare.contains(poc))
-        .orElse(false);
+  private List<Encounter> filterLocatedAt(
+      List<Encounter> encounters, Set<String> desiredPointsOfCare) {
+
+    Set<Id<Location>> locationIds = encounters.stream()
+        .map(UpdateHarmEvidence::getLocationId)
+        .collect(Collectors.toSet());
+    Map<Id<Location>, Location> locations = locationRepository.readAll(locationIds);
+
+    return encounters.stream()
+        .filter(encounter ->
+            Optional.ofNullable(locations.get(getLocationId(encounter)))
+                .flatMap(UpdateHarmEvidence::getPointOfCare)
+                .map(poc -> desiredPointsOfCare.contains(poc))
+                .orElse(false))
+        .collect(Collectors.toList());
   }
 
   private void writeSuccess(ProcessSession session, String content) throws ProcessException {
@@ -169,41 +263,104 @@ public class UpdateHarmEvidence extends DependencyInjectingProcessor {
     harmEvidenceUpdater.processTimer(encounter);
   }
 
-  private void process(ProcessSession session, Encounter encounter) {
+  private Result process(Encounter encounter, HarmEvidence record) {
     String encounterId = encounter.getId().getIdPart();
-
-    Optional<HarmEvidence> optionalRecord = harmEvidenceRepository.read(Id.of(encounterId));
-    if (!optionalRecord.isPresent()) {
-      log.warn(
-          "HarmEvidence record not found for encounter ID {}", new Object[] { encounterId });
-      return;
-    }
-
-    HarmEvidence record = optionalRecord.get();
     try {
       update(record, encounter);
-      writeSuccess(session, encounterId);
+      return new Result(encounterId, record, null);
     } catch (RuntimeException e) {
       log.error("Cannot update for encounter ID {}", new Object[] { encounterId }, e);
-      writeFailure(session, record, e);
+      return new Result(encounterId, record, e);
     }
   }
 
-  @Override
-  public void onTrigger(ProcessContext context, ProcessSession session) throws ProcessException {
-    List<Encounter> encounters =
-        encounterRepository.list(Optional.of(EncounterStateEnum.IN_PROGRESS))
-        .stream()
-        .filter(encounter -> isLocatedAt(encounter, desiredPointsOfCare))
-        .collect(Collectors.toList());
+  // Encounters last updated before the harm evidence feed existed are missing
+  // from it, whatever their point of care.
+  private void backfillFeed(List<Encounter> encounters) {
+    int savedCount = 0;
+    for (Encounter encounter : encounters) {
+      if (harmEvidenceUpdater.saveToFeedIfMissing(encounter)) {
+        savedCount++;
+      }
+    }
+
+    log.info("Copied {} harm evidence records to feed", new Object[] { savedCount });
+  }
+
+  private void sweep(ProcessSession session) {
+    List<Encounter> inProgressEncounters =
+        encounterRepository.list(Optional.of(EncounterStateEnum.IN_PROGRESS));
+    if (!feedBackfilled) {
+      backfillFeed(inProgressEncounters);
+      feedBackfilled = true;
+    }
+
+    List<Encounter> encounters = filterLocatedAt(inProgressEncounters, desiredPointsOfCare);
 
     log.info("Processing {} encounters", new Object[] { encounters.size() });
     if (encounters.isEmpty()) {
       log.warn("No encounters found for points of care [{}]", new Object[] { pointOfCare });
     }
 
+    Map<Id<Encounter>, HarmEvidence> records = harmEvidenceRepository.readAll(
+        encounters.stream()
+            .map(encounter -> Id.<Encounter>of(encounter.getId().getIdPart()))
+            .collect(Collectors.toList()));
+
+    List<Future<Result>> futures = new ArrayList<>();
     for (Encounter encounter : encounters) {
-      process(session, encounter);
+      String encounterId = encounter.getId().getIdPart();
+      HarmEvidence record = records.get(Id.of(encounterId));
+      if (record == null) {
+        log.warn(
+            "HarmEvidence record not found for encounter ID {}", new Object[] { encounterId });
+        continue;
+      }
+
+      futures.add(sweepExecutor.submit(() -> process(encounter, record)));
+    }
+
+    // The NiFi session is not thread safe, so only this thread writes FlowFiles.
+    try {
+      for (Future<Result> future : futures) {
+        Result result;
+        try {
+          result = future.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new ProcessException("Interrupted while waiting for sweep", e);
+        } catch (ExecutionException e) {
+          throw new ProcessException("Cannot update harm evidence", e.getCause());
+        }
+
+        if (result.exception == null) {
+          writeSuccess(session, result.encounterId);
+        } else {
+          writeFailure(session, result.record, result.exception);
+        }
+      }
+    } finally {
+      // A sweep which failed part way does not leave updates running behind
+      // the next sweep. Cancelling a completed update does nothing.
+      futures.forEach(future -> future.cancel(true));
+    }
+  }
+
+  @Override
+  public void onTrigger(ProcessContext context, ProcessSession session) throws ProcessException {
+    if (!sweeping.compareAndSet(false, true)) {
+      log.warn("Skipping sweep because the previous sweep is still running");
+      metrics.meter(MetricRegistry.name(UpdateHarmEvidence.class, "skippedSweeps")).mark();
+      return;
+    }
+
+    Timer.Context timerContext =
+        metrics.timer(MetricRegistry.name(UpdateHarmEvidence.class, "sweepDuration")).time();
+    try {
+      sweep(session);
+    } finally {
+      timerContext.stop();
+      sweeping.set(false);
     }
   }
 }
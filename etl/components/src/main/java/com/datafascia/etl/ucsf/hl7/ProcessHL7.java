@@ -15,6 +15,7 @@ package com.datafascia.etl.ucsf.hl7;
 
 import com.datafascia.common.nifi.DependencyInjectingProcessor;
 import com.datafascia.etl.event.EncounterExecutor;
+import com.datafascia.etl.event.EntityChangeSubscription;
 import com.datafascia.etl.event.PlayMessages;
 import com.google.common.base.Strings;
 import com.google.common.base.Throwables;
@@ -23,11 +24,13 @@ import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.inject.Inject;
 import org.apache.nifi.annotation.behavior.EventDriven;
 import org.apache.nifi.annotation.behavior.SupportsBatching;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.processor.ProcessContext;
@@ -67,6 +70,11 @@ public class ProcessHL7 extends DependencyInjectingProcessor {
   @Inject
   private volatile EncounterExecutor encounterExecutor;
 
+  @Inject
+  private volatile EntityChangeSubscription entityChangeSubscription;
+
+  private final AtomicBoolean subscribed = new AtomicBoolean();
+
   @Override
   public Set<Relationship> getRelationships() {
     return RELATIONSHIPS;
@@ -80,6 +88,31 @@ public class ProcessHL7 extends DependencyInjectingProcessor {
   @Override
   protected void onInjected(ProcessContext processContext) {
     playMessages.initializeLastProcessedMessageIds();
+
+    if (subscribed.compareAndSet(false, true)) {
+      entityChangeSubscription.start();
+    }
+  }
+
+  /**
+   * Stops receiving entity changes for this processor.
+   */
+  @OnStopped
+  public void stopEntityChangeSubscription() {
+    if (subscribed.compareAndSet(true, false)) {
+      entityChangeSubscription.stop();
+    }
+  }
+
+  /**
+   * Plays the messages already handed to the encounter executor, then stops its lanes.
+   *
+   * @throws InterruptedException
+   *     if interrupted while waiting
+   */
+  @OnStopped
+  public void stopEncounterExecutor() throws InterruptedException {
+    encounterExecutor.shutdown();
   }
 
   private static String readString(ProcessSession session, FlowFile flowFile) {
@@ -0,0 +1,151 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.etl.event;
+
+import com.codahale.metrics.MetricRegistry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.annotations.Test;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * {@link EncounterExecutor} test
+ */
+public class EncounterExecutorTest {
+
+  private static final int TIMEOUT_SECONDS = 10;
+
+  @Test
+  public void should_play_each_encounter_serially_on_one_lane() throws Exception {
+    int encounterCount = 8;
+    int tasksPerEncounter = 50;
+    CountDownLatch finished = new CountDownLatch(encounterCount * tasksPerEncounter);
+
+    Map<String, Set<String>> encounterToThreadNames = new ConcurrentHashMap<>();
+    Set<String> runningEncounters = ConcurrentHashMap.newKeySet();
+    List<String> overlappingEncounters = Collections.synchronizedList(new ArrayList<>());
+
+    PlayMessages playMessages = mock(PlayMessages.class);
+    doAnswer(invocation -> {
+      String encounterIdentifier = (String) invocation.getArguments()[0];
+      if (!runningEncounters.add(encounterIdentifier)) {
+        overlappingEncounters.add(encounterIdentifier);
+      }
+
+      encounterToThreadNames
+          .computeIfAbsent(encounterIdentifier, key -> ConcurrentHashMap.newKeySet())
+          .add(Thread.currentThread().getName());
+      Thread.sleep(1);
+
+      runningEncounters.remove(encounterIdentifier);
+      finished.countDown();
+      return null;
+    }).when(playMessages).accept(anyString(), any(AtomicInteger.class));
+
+    EncounterExecutor encounterExecutor =
+        new EncounterExecutor(4, 1000, playMessages, new MetricRegistry());
+    for (int i = 0; i < tasksPerEncounter; i++) {
+      for (int encounter = 0; encounter < encounterCount; encounter++) {
+        encounterExecutor.accept("encounter" + encounter);
+      }
+    }
+
+    assertTrue(finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    encounterExecutor.shutdown();
+
+    // One thread per encounter runs its tasks in submission order.
+    assertEquals(overlappingEncounters, Collections.emptyList());
+    assertEquals(encounterToThreadNames.size(), encounterCount);
+    encounterToThreadNames.values()
+        .forEach(threadNames -> assertEquals(threadNames.size(), 1));
+  }
+
+  @Test
+  public void should_block_caller_while_lane_queue_is_full() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    PlayMessages playMessages = mock(PlayMessages.class);
+    doAnswer(invocation -> {
+      started.countDown();
+      release.await();
+      return null;
+    }).when(playMessages).accept(anyString(), any(AtomicInteger.class));
+
+    EncounterExecutor encounterExecutor =
+        new EncounterExecutor(1, 1, playMessages, new MetricRegistry());
+
+    // The first task runs and waits, the second fills the queue.
+    encounterExecutor.accept("encounter1");
+    assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    encounterExecutor.accept("encounter2");
+
+    CountDownLatch accepted = new CountDownLatch(1);
+    Thread caller = new Thread(() -> {
+      encounterExecutor.accept("encounter3");
+      accepted.countDown();
+    });
+    caller.start();
+
+    assertFalse(accepted.await(200, TimeUnit.MILLISECONDS));
+
+    release.countDown();
+    assertTrue(accepted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    caller.join();
+
+    encounterExecutor.shutdown();
+    verify(playMessages, times(3)).accept(anyString(), any(AtomicInteger.class));
+  }
+
+  @Test
+  public void should_finish_queued_tasks_on_shutdown_and_restart_lanes() throws Exception {
+    AtomicInteger playCount = new AtomicInteger();
+
+    PlayMessages playMessages = mock(PlayMessages.class);
+    doAnswer(invocation -> {
+      Thread.sleep(5);
+      playCount.incrementAndGet();
+      return null;
+    }).when(playMessages).accept(anyString(), any(AtomicInteger.class));
+
+    EncounterExecutor encounterExecutor =
+        new EncounterExecutor(2, 100, playMessages, new MetricRegistry());
+    for (int i = 0; i < 10; i++) {
+      encounterExecutor.accept("encounter" + i);
+    }
+
+    encounterExecutor.shutdown();
+    assertEquals(playCount.get(), 10);
+
+    encounterExecutor.accept("encounter0");
+    encounterExecutor.shutdown();
+    assertEquals(playCount.get(), 11);
+  }
+}
@@ -0,0 +1,152 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.etl.event;
+
+import com.codahale.metrics.MetricRegistry;
+import com.datafascia.common.accumulo.AccumuloTemplate;
+import com.datafascia.common.configuration.guice.ConfigureModule;
+import com.datafascia.common.persist.Id;
+import com.datafascia.domain.model.EncounterMessage;
+import com.datafascia.domain.persist.EncounterMessageRepository;
+import com.datafascia.etl.hl7.HL7MessageProcessor;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Provides;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+/**
+ * {@link PlayMessages} test
+ */
+public class PlayMessagesTest {
+
+  // Checkpoint settings configured for PlayMessages in default.yml
+  private static final int CHECKPOINT_MESSAGE_COUNT = 100;
+  private static final long CHECKPOINT_INTERVAL_MILLIS = 1000;
+
+  private static final String ENCOUNTER_IDENTIFIER = "encounter1";
+
+  private AtomicLong currentTimeMillis;
+  private EncounterMessageRepository messageRepository;
+  private HL7MessageProcessor hl7MessageProcessor;
+  private PlayMessages playMessages;
+
+  /**
+   * Provides test dependencies
+   */
+  private class TestModule extends AbstractModule {
+    @Override
+    protected void configure() {
+      Clock clock = mock(Clock.class);
+      when(clock.millis()).thenAnswer(invocation -> currentTimeMillis.get());
+
+      bind(AccumuloTemplate.class).toInstance(mock(AccumuloTemplate.class));
+      bind(Clock.class).toInstance(clock);
+      bind(EncounterMessageRepository.class).toInstance(messageRepository);
+      bind(MetricRegistry.class).toInstance(new MetricRegistry());
+    }
+
+    // Guice does not inject the fields of a provided instance, so the mock
+    // does not need the dependencies of the real processor.
+    @Provides
+    public HL7MessageProcessor hl7MessageProcessor() {
+      return hl7MessageProcessor;
+    }
+  }
+
+  @BeforeMethod
+  public void beforeMethod() {
+    currentTimeMillis = new AtomicLong();
+    messageRepository = mock(EncounterMessageRepository.class);
+    hl7MessageProcessor = mock(HL7MessageProcessor.class);
+
+    playMessages = Guice.createInjector(new ConfigureModule(), new TestModule())
+        .getInstance(PlayMessages.class);
+  }
+
+  private void givenMessages(int messageCount) {
+    List<EncounterMessage> messages = new ArrayList<>();
+    for (int i = 0; i < messageCount; i++) {
+      EncounterMessage message = new EncounterMessage();
+      message.setId(toMessageId(i));
+      message.setPayload(ByteBuffer.wrap(
+          ("MSH|^~\\&|" + i).getBytes(StandardCharsets.UTF_8)));
+      messages.add(message);
+    }
+
+    when(messageRepository.findByEncounterId(Id.of(ENCOUNTER_IDENTIFIER)))
+        .thenReturn(messages);
+  }
+
+  private static String toMessageId(int index) {
+    return String.format("message%04d", index);
+  }
+
+  private List<String> getCheckpointedMessageIds() {
+    ArgumentCaptor<String> messageIdCaptor = ArgumentCaptor.forClass(String.class);
+    verify(messageRepository, atLeastOnce())
+        .saveLastProcessedMessageId(eq(Id.of(ENCOUNTER_IDENTIFIER)), messageIdCaptor.capture());
+    return messageIdCaptor.getAllValues();
+  }
+
+  @Test
+  public void should_checkpoint_by_message_count() {
+    int messageCount = CHECKPOINT_MESSAGE_COUNT * 2 + CHECKPOINT_MESSAGE_COUNT / 2;
+    givenMessages(messageCount);
+
+    AtomicInteger pendingMessageCount = new AtomicInteger();
+    playMessages.accept(ENCOUNTER_IDENTIFIER, pendingMessageCount);
+
+    assertEquals(
+        getCheckpointedMessageIds(),
+        Arrays.asList(
+            toMessageId(CHECKPOINT_MESSAGE_COUNT - 1),
+            toMessageId(CHECKPOINT_MESSAGE_COUNT * 2 - 1),
+            toMessageId(messageCount - 1)));
+    assertEquals(pendingMessageCount.get(), 0);
+  }
+
+  @Test
+  public void should_checkpoint_by_interval() {
+    givenMessages(5);
+
+    // Each message takes more than half the checkpoint interval.
+    doAnswer(invocation -> currentTimeMillis.addAndGet(CHECKPOINT_INTERVAL_MILLIS * 3 / 5))
+        .when(hl7MessageProcessor).accept(anyString());
+
+    playMessages.accept(ENCOUNTER_IDENTIFIER, new AtomicInteger());
+
+    assertEquals(
+        getCheckpointedMessageIds(),
+        Arrays.asList(toMessageId(1), toMessageId(3), toMessageId(4)));
+  }
+}
@@ -21,12 +21,14 @@ import com.datafascia.common.accumulo.AccumuloConfiguration;
 import com.datafascia.common.accumulo.ConnectorFactory;
 import com.datafascia.common.configuration.guice.ConfigureModule;
 import com.datafascia.common.persist.Id;
+import com.datafascia.domain.event.EntityChangePublisher;
 import com.datafascia.domain.persist.EncounterMessageRepository;
 import com.datafascia.domain.persist.EncounterRepository;
 import com.datafascia.domain.persist.LocationRepository;
 import com.datafascia.domain.persist.PatientRepository;
 import com.datafascia.domain.persist.PractitionerRepository;
 import com.datafascia.emerge.ucsf.harm.HarmEvidenceUpdater;
+import com.datafascia.etl.event.EntityChangeSubscription;
 import com.datafascia.etl.inject.ComponentsModule;
 import com.google.common.io.Resources;
 import com.google.inject.AbstractModule;
@@ -40,6 +42,7 @@ import java.nio.charset.StandardCharsets;
 import java.time.Clock;
 import java.time.Instant;
 import java.time.ZoneId;
+import java.util.Optional;
 import java.util.TimeZone;
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -63,6 +66,19 @@ public class HL7MessageProcessorTestSupport {
           .toInstance(mock(HarmEvidenceUpdater.class));
     }
 
+    // Tests do not connect to a message broker, whatever the configuration says.
+    @Provides
+    @Singleton
+    public EntityChangePublisher entityChangePublisher() {
+      return change -> { };
+    }
+
+    @Provides
+    @Singleton
+    public EntityChangeSubscription entityChangeSubscription() {
+      return new EntityChangeSubscription(Optional.empty());
+    }
+
     @Provides
     @Singleton
     public ConnectorFactory connectorFactory() {
@@ -0,0 +1,70 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.etl.hl7;
+
+import ca.uhn.hl7v2.DefaultHapiContext;
+import ca.uhn.hl7v2.model.Message;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.io.Resources;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+/**
+ * {@link ParsedMessageCache} test
+ */
+public class ParsedMessageCacheTest {
+
+  private MetricRegistry metrics;
+  private ParsedMessageCache parsedMessageCache;
+  private String hl7;
+
+  @BeforeMethod
+  public void beforeMethod() throws Exception {
+    metrics = new MetricRegistry();
+    parsedMessageCache =
+        new ParsedMessageCache(new DefaultHapiContext().getPipeParser(), metrics);
+
+    URL url = Resources.getResource(getClass(), "ADT_A01.hl7");
+    hl7 = Resources.toString(url, StandardCharsets.UTF_8).replace('\n', '\r');
+  }
+
+  private long getParseCount() {
+    return metrics.meter(MetricRegistry.name(ParsedMessageCache.class, "parses")).getCount();
+  }
+
+  @Test
+  public void should_take_message_put_by_earlier_stage() throws Exception {
+    Message message = parsedMessageCache.take(hl7);
+    parsedMessageCache.put(hl7, message);
+
+    assertSame(parsedMessageCache.take(hl7), message);
+    assertEquals(getParseCount(), 1);
+  }
+
+  @Test
+  public void should_parse_when_message_already_taken() throws Exception {
+    Message message = parsedMessageCache.take(hl7);
+    parsedMessageCache.put(hl7, message);
+    parsedMessageCache.take(hl7);
+
+    assertNotSame(parsedMessageCache.take(hl7), message);
+    assertEquals(getParseCount(), 2);
+  }
+}
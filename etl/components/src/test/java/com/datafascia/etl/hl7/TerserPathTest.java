@@ -0,0 +1,95 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.etl.hl7;
+
+import ca.uhn.hl7v2.DefaultHapiContext;
+import ca.uhn.hl7v2.HapiContext;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.parser.CanonicalModelClassFactory;
+import ca.uhn.hl7v2.util.Terser;
+import ca.uhn.hl7v2.validation.impl.NoValidation;
+import com.google.common.io.Resources;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * {@link TerserPath} test
+ */
+public class TerserPathTest {
+
+  private static final String OBX_PATH_PATTERN =
+      "/PATIENT_RESULT/ORDER_OBSERVATION(%1$d)/OBSERVATION(%2$d)/OBX";
+
+  private Message message;
+  private Terser terser;
+
+  @BeforeMethod
+  public void beforeMethod() throws Exception {
+    HapiContext context = new DefaultHapiContext(new NoValidation());
+    context.setModelClassFactory(new CanonicalModelClassFactory("2.4"));
+
+    URL url = Resources.getResource(getClass(), "v24/ORU_R01.hl7");
+    String hl7 = Resources.toString(url, StandardCharsets.UTF_8).replace('\n', '\r');
+    message = context.getPipeParser().parse(hl7);
+    terser = new Terser(message);
+  }
+
+  @Test
+  public void should_replace_placeholders_with_arguments() throws Exception {
+    TerserPath path = TerserPath.compile(OBX_PATH_PATTERN + "-5");
+
+    assertEquals(path.get(terser, 1, 1), "-2");
+    assertEquals(
+        path.get(terser, 1, 1),
+        terser.get("/PATIENT_RESULT/ORDER_OBSERVATION(1)/OBSERVATION(1)/OBX-5"));
+  }
+
+  @Test
+  public void should_not_create_missing_segment() throws Exception {
+    String encoded = message.encode();
+
+    assertNull(TerserPath.compile(OBX_PATH_PATTERN).getSegment(terser, 5, 0));
+    assertEquals(message.encode(), encoded);
+  }
+
+  @Test
+  public void should_not_create_missing_field_repetition() throws Exception {
+    TerserPath segmentPath = TerserPath.compile(OBX_PATH_PATTERN);
+    int repetitionCount = segmentPath.getSegment(terser, 1, 1).getField(5).length;
+
+    assertNull(TerserPath.compile(OBX_PATH_PATTERN + "-5(3)").get(terser, 1, 1));
+    assertEquals(segmentPath.getSegment(terser, 1, 1).getField(5).length, repetitionCount);
+  }
+
+  @Test
+  public void should_delegate_search_to_terser() throws Exception {
+    TerserPath path = TerserPath.compile("/.PID-3");
+
+    assertTrue(path.isResolvedByTerser());
+    assertFalse(TerserPath.compile(OBX_PATH_PATTERN + "-5").isResolvedByTerser());
+    assertEquals(path.get(terser), terser.get("/.PID-3"));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void should_reject_invalid_field() {
+    TerserPath.compile("/.PID-X");
+  }
+}
@@ -0,0 +1,208 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.etl.ucsf.harm;
+
+import ca.uhn.fhir.model.dstu2.composite.ResourceReferenceDt;
+import ca.uhn.fhir.model.dstu2.resource.Encounter;
+import ca.uhn.fhir.model.dstu2.resource.Location;
+import ca.uhn.fhir.model.dstu2.valueset.EncounterStateEnum;
+import com.codahale.metrics.MetricRegistry;
+import com.datafascia.common.configuration.guice.ConfigureModule;
+import com.datafascia.common.inject.Injectors;
+import com.datafascia.common.jackson.DFObjectMapper;
+import com.datafascia.common.persist.Id;
+import com.datafascia.domain.persist.EncounterRepository;
+import com.datafascia.domain.persist.LocationRepository;
+import com.datafascia.emerge.ucsf.HarmEvidence;
+import com.datafascia.emerge.ucsf.MedicalData;
+import com.datafascia.emerge.ucsf.harm.DemographicDataUpdater;
+import com.datafascia.emerge.ucsf.harm.HarmEvidenceUpdater;
+import com.datafascia.emerge.ucsf.persist.HarmEvidenceRepository;
+import com.datafascia.etl.event.EntityChangeSubscription;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Provides;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * {@link UpdateHarmEvidence} test
+ */
+public class UpdateHarmEvidenceTest {
+
+  // Point of care configured for UpdateHarmEvidence in default.yml
+  private static final String POINT_OF_CARE = "M9I";
+  private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+  private EncounterRepository encounterRepository;
+  private LocationRepository locationRepository;
+  private HarmEvidenceRepository harmEvidenceRepository;
+  private HarmEvidenceUpdater harmEvidenceUpdater;
+  private MetricRegistry metrics;
+
+  /**
+   * Provides test dependencies
+   */
+  private class TestModule extends AbstractModule {
+    @Override
+    protected void configure() {
+      bind(EncounterRepository.class).toInstance(encounterRepository);
+      bind(EntityChangeSubscription.class)
+          .toInstance(new EntityChangeSubscription(Optional.empty()));
+      bind(HarmEvidenceRepository.class).toInstance(harmEvidenceRepository);
+      bind(LocationRepository.class).toInstance(locationRepository);
+      bind(MetricRegistry.class).toInstance(metrics);
+      bind(ObjectMapper.class).toInstance(DFObjectMapper.objectMapper());
+    }
+
+    // Guice does not inject the fields of a provided instance, so the mock
+    // does not need the dependencies of the real updater.
+    @Provides
+    public HarmEvidenceUpdater harmEvidenceUpdater() {
+      return harmEvidenceUpdater;
+    }
+  }
+
+  @BeforeMethod
+  public void beforeMethod() {
+    encounterRepository = mock(EncounterRepository.class);
+    locationRepository = mock(LocationRepository.class);
+    harmEvidenceRepository = mock(HarmEvidenceRepository.class);
+    harmEvidenceUpdater = mock(HarmEvidenceUpdater.class);
+    metrics = new MetricRegistry();
+
+    Injectors.setInjector(Guice.createInjector(new ConfigureModule(), new TestModule()));
+  }
+
+  @AfterMethod
+  public void afterMethod() {
+    Injectors.setInjector(null);
+  }
+
+  private static Encounter createEncounter(String encounterId) {
+    Encounter encounter = new Encounter()
+        .setStatus(EncounterStateEnum.IN_PROGRESS)
+        .setPatient(new ResourceReferenceDt("Patient/" + encounterId));
+    encounter.setId("Encounter/" + encounterId);
+    encounter.addLocation().setLocation(new ResourceReferenceDt("Location/location1"));
+    return encounter;
+  }
+
+  private void givenEncounters(Encounter... encounters) {
+    List<Encounter> inProgressEncounters = Arrays.asList(encounters);
+    when(encounterRepository.list(Optional.of(EncounterStateEnum.IN_PROGRESS)))
+        .thenReturn(inProgressEncounters);
+
+    Location location = new Location();
+    location.setId("Location/location1");
+    location.addIdentifier().setValue(POINT_OF_CARE + "^1^A");
+    when(locationRepository.readAll(any()))
+        .thenReturn(Collections.singletonMap(Id.of("location1"), location));
+
+    Map<Id<Encounter>, HarmEvidence> records = new LinkedHashMap<>();
+    for (Encounter encounter : inProgressEncounters) {
+      String encounterId = encounter.getId().getIdPart();
+      records.put(Id.of(encounterId), new HarmEvidence()
+          .withEncounterID(encounterId)
+          .withDemographicData(DemographicDataUpdater.createDemographicData(encounter))
+          .withMedicalData(new MedicalData()));
+    }
+    when(harmEvidenceRepository.readAll(any())).thenReturn(records);
+  }
+
+  private long getSkippedSweepCount() {
+    return metrics.meter(MetricRegistry.name(UpdateHarmEvidence.class, "skippedSweeps"))
+        .getCount();
+  }
+
+  @Test
+  public void should_write_each_outcome_to_its_relationship() {
+    givenEncounters(createEncounter("updated"), createEncounter("failed"));
+    doAnswer(invocation -> {
+      Encounter encounter = (Encounter) invocation.getArguments()[0];
+      if (encounter.getId().getIdPart().equals("failed")) {
+        throw new IllegalStateException("Cannot update failed");
+      }
+      return null;
+    }).when(harmEvidenceUpdater).processTimer(any(Encounter.class));
+
+    TestRunner runner = TestRunners.newTestRunner(UpdateHarmEvidence.class);
+    runner.run();
+
+    runner.assertTransferCount(UpdateHarmEvidence.SUCCESS, 1);
+    runner.getFlowFilesForRelationship(UpdateHarmEvidence.SUCCESS).get(0)
+        .assertContentEquals("updated");
+
+    runner.assertTransferCount(UpdateHarmEvidence.FAILURE, 1);
+    MockFlowFile failure = runner.getFlowFilesForRelationship(UpdateHarmEvidence.FAILURE).get(0);
+    assertTrue(new String(failure.toByteArray()).contains("\"failed\""));
+    assertTrue(failure.getAttribute("stackTrace").contains("Cannot update failed"));
+  }
+
+  @Test
+  public void should_time_each_sweep() {
+    givenEncounters(createEncounter("timed"));
+
+    TestRunner runner = TestRunners.newTestRunner(UpdateHarmEvidence.class);
+    runner.run(2);
+
+    assertEquals(
+        metrics.timer(MetricRegistry.name(UpdateHarmEvidence.class, "sweepDuration")).getCount(),
+        2);
+    verify(harmEvidenceUpdater, times(2)).processTimer(any(Encounter.class));
+  }
+
+  @Test
+  public void should_skip_sweep_while_previous_sweep_running() {
+    givenEncounters(createEncounter("slow"));
+
+    // Hold the first sweep open until the second trigger has been skipped.
+    doAnswer(invocation -> {
+      long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+      while (getSkippedSweepCount() == 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      return null;
+    }).when(harmEvidenceUpdater).processTimer(any(Encounter.class));
+
+    TestRunner runner = TestRunners.newTestRunner(UpdateHarmEvidence.class);
+    runner.setThreadCount(2);
+    runner.run(2);
+
+    assertEquals(getSkippedSweepCount(), 1);
+    verify(harmEvidenceUpdater, times(1)).processTimer(any(Encounter.class));
+    runner.assertTransferCount(UpdateHarmEvidence.SUCCESS, 1);
+  }
+}
@@ -0,0 +1,114 @@
+// Copyright 2020 dataFascia Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.datafascia.domain.event;
+
+import com.datafascia.api.services.TestAccumuloInstance;
+import com.datafascia.common.kafka.KafkaConfig;
+import com.datafascia.common.kafka.SingleTopicConsumer;
+import com.datafascia.common.kafka.SingleTopicProducer;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import kafka.server.KafkaServerStartable;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Publishes entity changes through an embedded Kafka broker which uses the
+ * ZooKeeper of the integration test Accumulo instance.
+ */
+public class EntityChangeIT {
+
+  private static final String TOPIC = "entity-change-test";
+
+  private Path logDirectory;
+  private KafkaServerStartable broker;
+  private String brokers;
+
+  private static int getFreePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  @BeforeClass
+  public void beforeClass() throws IOException {
+    logDirectory = Files.createTempDirectory("kafka");
+    int port = getFreePort();
+    brokers = "localhost:" + port;
+
+    Properties properties = new Properties();
+    properties.setProperty("broker.id", "0");
+    properties.setProperty("host.name", "localhost");
+    properties.setProperty("port", String.valueOf(port));
+    properties.setProperty("log.dir", logDirectory.toString());
+    properties.setProperty("zookeeper.connect", TestAccumuloInstance.getZooKeepers());
+    properties.setProperty("num.partitions", "1");
+    broker = new KafkaServerStartable(new kafka.server.KafkaConfig(properties));
+    broker.startup();
+  }
+
+  @AfterClass
+  public void afterClass() throws IOException {
+    broker.shutdown();
+    broker.awaitShutdown();
+
+    Files.walk(logDirectory)
+        .sorted(Comparator.reverseOrder())
+        .map(Path::toFile)
+        .forEach(File::delete);
+  }
+
+  @Test
+  public void should_receive_published_change() throws Exception {
+    KafkaConfig kafkaConfig = new KafkaConfig();
+    kafkaConfig.setZookeeperConnect(TestAccumuloInstance.getZooKeepers());
+    kafkaConfig.setGroupId(TOPIC);
+    kafkaConfig.setAutoOffsetReset("smallest");
+
+    BlockingQueue<EntityChange> receivedChanges = new LinkedBlockingQueue<>();
+    SingleTopicConsumer consumer = new SingleTopicConsumer(
+        kafkaConfig.buildConsumerConfig(),
+        TOPIC,
+        message -> receivedChanges.add(EntityChange.fromJson(message.message)));
+    consumer.start();
+
+    SingleTopicProducer producer = new SingleTopicProducer(brokers, TOPIC);
+    try {
+      EntityChange change = EntityChange.builder()
+          .entityType("Observation")
+          .encounterId("encounter1")
+          .entityId("observation1")
+          .version(1)
+          .processId(EntityChange.LOCAL_PROCESS_ID)
+          .build();
+      new KafkaEntityChangePublisher(producer).publish(change);
+
+      assertEquals(receivedChanges.poll(30, TimeUnit.SECONDS), change);
+    } finally {
+      producer.close();
+      consumer.close();
+    }
+  }
+}